@@ -0,0 +1,97 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Benchmark of sending transactions to a fake DMI that can only work on {@code CAPACITY} transactions at a time, from
+ * more threads than there are sockets in the pool. Beyond its capacity, the latency of the fake DMI grows with the
+ * number of transactions in flight, either linearly (transactions queue) or quadratically (the DMI thrashes).
+ * <p>
+ * With {@code limiter=POOL} transactions are only limited by the socket pool, as without a concurrency limiter. With
+ * {@code limiter=ADAPTIVE} they are also limited by an {@code AdaptiveConcurrencyLimiter}, whose final limit is printed
+ * at the end of each trial.
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec}. Options for JMH can be passed with {@code -Djmh.args=...},
+ * for example {@code -Djmh.args="AdaptiveConcurrencyLimiterBenchmark -f 1 -wi 2 -i 3"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdaptiveConcurrencyLimiterBenchmark {
+
+    private static final int POOL_SIZE = 32;
+    private static final int CAPACITY = 8;
+    private static final long BASE_LATENCY_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    public enum Curve { LINEAR, QUADRATIC }
+
+    @Param({"POOL", "ADAPTIVE"})
+    public String limiter;
+
+    @Param({"LINEAR", "QUADRATIC"})
+    public Curve curve;
+
+    private final AtomicInteger dmiInFlight = new AtomicInteger();
+    private Semaphore pool;
+    private AdaptiveConcurrencyLimiter adaptive;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new Semaphore(POOL_SIZE);
+        adaptive = "ADAPTIVE".equals(limiter) ? new AdaptiveConcurrencyLimiter(POOL_SIZE) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (adaptive != null) System.out.println("Adaptive concurrency limit: " + adaptive.getLimit());
+    }
+
+    @Benchmark
+    @Threads(48)
+    public void send() throws InterruptedException {
+        AdaptiveConcurrencyLimiter l = adaptive;
+        if (l != null) l.acquire();
+
+        // as in DmiService, the round trip time includes waiting for a pooled socket
+        long start = System.nanoTime();
+        pool.acquire();
+        try {
+            fakeDmi();
+        } finally {
+            pool.release();
+            if (l != null) l.release(System.nanoTime() - start, true);
+        }
+    }
+
+    private void fakeDmi() {
+        int n = dmiInFlight.incrementAndGet();
+        try {
+            double load = Math.max(1.0, (double) n / CAPACITY);
+            double factor = (curve == Curve.LINEAR) ? load : load * load;
+            LockSupport.parkNanos((long) (BASE_LATENCY_NANOS * factor));
+        } finally {
+            dmiInFlight.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.ccctc.colleaguedmiclient.util;
+
+import org.ccctc.colleaguedmiclient.model.CddEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of converting typical values read from Colleague: MD2 (currency), MD25 (decimal with a scale of 5),
+ * MD0 (integer) and D4 (date) values.
+ * <p>
+ * Run with {@code mvn -P benchmark test-compile exec:exec}. Options for JMH can be passed with {@code -Djmh.args=...},
+ * for example {@code -Djmh.args="CddConverterBenchmark -f 1 -wi 2 -i 3"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CddConverterBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private final CddConverter md2 = CddEntry.builder().informConversionString("MD2").build().getConverter();
+    private final CddConverter md25 = CddEntry.builder().informConversionString("MD25").build().getConverter();
+    private final CddConverter md0 = CddEntry.builder().informConversionString("MD0").maximumStorageSize(9).build().getConverter();
+    private final CddConverter d4 = CddEntry.builder().informConversionString("D4/").build().getConverter();
+
+    private String[] md2Values;
+    private String[] md25Values;
+    private String[] md0Values;
+    private String[] d4Values;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        long today = Long.parseLong(StringUtils.dateToString(LocalDate.now()));
+
+        md2Values = new String[VALUES];
+        md25Values = new String[VALUES];
+        md0Values = new String[VALUES];
+        d4Values = new String[VALUES];
+
+        for (int x = 0; x < VALUES; x++) {
+            md2Values[x] = Integer.toString(random.nextInt(10000000));
+            md25Values[x] = Long.toString(random.nextInt(Integer.MAX_VALUE) - (long) random.nextInt(1000000));
+            md0Values[x] = Integer.toString(random.nextInt(100000));
+            d4Values[x] = Long.toString(today - random.nextInt(20 * 365));
+        }
+    }
+
+    @Benchmark
+    public void md2(Blackhole bh) {
+        for (String v : md2Values) bh.consume(md2.convertToValue(v));
+    }
+
+    @Benchmark
+    public void md25(Blackhole bh) {
+        for (String v : md25Values) bh.consume(md25.convertToValue(v));
+    }
+
+    @Benchmark
+    public void md0(Blackhole bh) {
+        for (String v : md0Values) bh.consume(md0.convertToValue(v));
+    }
+
+    @Benchmark
+    public void d4(Blackhole bh) {
+        for (String v : d4Values) bh.consume(d4.convertToValue(v));
+    }
+}
@@ -0,0 +1,27 @@
+package org.ccctc.colleaguedmiclient.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Cache records of an {@code @Entity} in {@code DmiEntityService}, for reference entities that change rarely (ie TERMS or
+ * COURSES). Reads and joins are served from the cache, and only records not found in the cache are read from the DMI.
+ * Cached records are copied when read, so changes to a returned record do not affect the cache.
+ */
+@Retention (RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cacheable {
+
+    /**
+     * Number of seconds before a cached record expires
+     */
+    long ttlSeconds() default 60 * 60;
+
+    /**
+     * Maximum number of records to cache. When exceeded, the least recently used record is removed.
+     */
+    int maxEntries() default 1000;
+
+}
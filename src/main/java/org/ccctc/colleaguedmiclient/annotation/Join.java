@@ -11,4 +11,10 @@ public @interface Join {
     String value() default "";
     String[] prefixKeys() default {};
     String[] suffixKeys() default {};
-}
\ No newline at end of file
+
+    /**
+     * Load the join on first access rather than with the parent. The property must be a {@code Lazy<>} (single-valued)
+     * or a {@code List<>} (multi-valued).
+     */
+    boolean lazy() default false;
+}
@@ -0,0 +1,10 @@
+package org.ccctc.colleaguedmiclient.exception;
+
+/**
+ * Thrown when a request is rejected without being sent because the circuit breaker of the DMI Service is open
+ */
+public class DmiCircuitBreakerOpenException extends DmiServiceException {
+    public DmiCircuitBreakerOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package org.ccctc.colleaguedmiclient.exception;
+
+/**
+ * Thrown when a request to the DMI cannot be completed before its deadline
+ *
+ * @see org.ccctc.colleaguedmiclient.service.Deadline
+ */
+public class DmiDeadlineExceededException extends DmiServiceException {
+    public DmiDeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
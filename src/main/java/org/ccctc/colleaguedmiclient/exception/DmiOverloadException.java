@@ -0,0 +1,12 @@
+package org.ccctc.colleaguedmiclient.exception;
+
+/**
+ * Thrown when a request is rejected without being sent because the socket pool of the DMI Service is overloaded, or it
+ * timed out waiting for the concurrency limit. The request is not retried, so that callers can degrade gracefully rather
+ * than wait.
+ */
+public class DmiOverloadException extends DmiServiceException {
+    public DmiOverloadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -10,6 +10,11 @@ public class DmiTransactionException extends RuntimeException {
         this.dmiTransaction = dmiTransaction;
     }
 
+    public DmiTransactionException(String message, DmiTransaction dmiTransaction, Throwable cause) {
+        super(message, cause);
+        this.dmiTransaction = dmiTransaction;
+    }
+
     public DmiTransaction getDmiTransaction() {
         return dmiTransaction;
     }
@@ -0,0 +1,133 @@
+package org.ccctc.colleaguedmiclient.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receiver of metrics from the DMI client: counters, gauges and histograms of latencies and sizes. Implement it to
+ * pass metrics on to a metrics library (ie Micrometer or Dropwizard), or use {@code InMemoryDmiMetrics}. Set on the DMI
+ * Service with {@code setMetrics()} - the data and CTX services report through the DMI Service they use. The default
+ * is {@code NOOP}, which discards everything.
+ * <p>
+ * Metrics are identified by one of the names below and a tag, ie the transaction type (LGRQ, DAFQ, CTRQ, etc) of the
+ * request. Latencies are recorded in nanoseconds. Methods are called on the threads sending requests, so
+ * implementations must be thread safe and should not block.
+ */
+public interface DmiMetrics {
+
+    /**
+     * Histogram of the time waiting for a socket from the pool, in nanoseconds, tagged by priority
+     */
+    String POOL_ACQUIRE = "dmi.pool.acquire";
+
+    /**
+     * Histogram of the time converting a request to bytes, in nanoseconds, tagged by transaction type
+     */
+    String SERIALIZE = "dmi.serialize";
+
+    /**
+     * Histogram of the time sending a request and receiving its response, excluding parsing, in nanoseconds, tagged by
+     * transaction type
+     */
+    String NETWORK = "dmi.network";
+
+    /**
+     * Histogram of the time parsing a response into a transaction, in nanoseconds, tagged by transaction type
+     */
+    String PARSE = "dmi.parse";
+
+    /**
+     * Histogram of the time mapping a response to data (ie {@code ColleagueData}), in nanoseconds, tagged by view or
+     * Colleague Transaction name
+     */
+    String MAP = "dmi.map";
+
+    /**
+     * Histogram of the size of responses in bytes, tagged by transaction type
+     */
+    String RESPONSE_BYTES = "dmi.response.bytes";
+
+    /**
+     * Counter of retried attempts, tagged by failure type (IO, ERROR, SECURITY or OTHER)
+     */
+    String RETRIES = "dmi.retries";
+
+    /**
+     * Counter of logins, tagged by outcome (success or failure)
+     */
+    String LOGINS = "dmi.logins";
+
+    /**
+     * Counter of requests rejected because the socket pool was overloaded, tagged by priority
+     */
+    String REJECTED = "dmi.pool.rejected";
+
+    /**
+     * Gauge of the number of sockets in use
+     */
+    String POOL_USED = "dmi.pool.used";
+
+    /**
+     * Gauge of the number of open sockets available in the pool
+     */
+    String POOL_AVAILABLE = "dmi.pool.available";
+
+    /**
+     * Gauge of the number of requests waiting for a socket
+     */
+    String POOL_WAITING = "dmi.pool.waiting";
+
+    /**
+     * Gauge of the current limit of the adaptive concurrency limiter, or 0 if there is none
+     */
+    String CONCURRENCY_LIMIT = "dmi.concurrency.limit";
+
+    /**
+     * Gauge of the number of transactions in flight under the adaptive concurrency limiter, or 0 if there is none
+     */
+    String IN_FLIGHT = "dmi.concurrency.in_flight";
+
+    /**
+     * Metrics that discards everything
+     */
+    DmiMetrics NOOP = new DmiMetrics() {
+        @Override
+        public void increment(String name, String tag) {
+        }
+
+        @Override
+        public void record(String name, String tag, long value) {
+        }
+
+        @Override
+        public void gauge(String name, LongSupplier value) {
+        }
+    };
+
+
+    /**
+     * Increment a counter
+     *
+     * @param name Name
+     * @param tag  Tag
+     */
+    void increment(String name, String tag);
+
+
+    /**
+     * Record a value in a histogram
+     *
+     * @param name  Name
+     * @param tag   Tag
+     * @param value Value
+     */
+    void record(String name, String tag, long value);
+
+
+    /**
+     * Register a gauge, whose value is read when needed
+     *
+     * @param name  Name
+     * @param value Supplier of the value
+     */
+    void gauge(String name, LongSupplier value);
+}
@@ -0,0 +1,144 @@
+package org.ccctc.colleaguedmiclient.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values (ie latencies in nanoseconds) with a fixed relative precision, in the style of
+ * an HDR histogram. Values are counted in buckets that are linear up to 32 and then split each power of two into 32
+ * buckets, so any value from 0 to {@code Long.MAX_VALUE} is kept to within about 3% in under 2,000 buckets.
+ * <p>
+ * Recording is lock free and thread safe. Reads while values are being recorded may be slightly inconsistent with
+ * each other (ie count and percentiles).
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     *
+     * @param value Value
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+
+        counts.incrementAndGet(index(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+
+    /**
+     * Number of values recorded
+     *
+     * @return Count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * Sum of the values recorded
+     *
+     * @return Total
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+
+    /**
+     * Smallest value recorded
+     *
+     * @return Minimum, or 0 if no values have been recorded
+     */
+    public long getMin() {
+        return (count.get() == 0) ? 0 : min.get();
+    }
+
+
+    /**
+     * Largest value recorded
+     *
+     * @return Maximum, or 0 if no values have been recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+
+    /**
+     * Mean of the values recorded
+     *
+     * @return Mean, or 0 if no values have been recorded
+     */
+    public double getMean() {
+        long c = count.get();
+        return (c == 0) ? 0 : (double) total.get() / c;
+    }
+
+
+    /**
+     * Value at a percentile, ie 99 for the 99th percentile. This is the highest value in the bucket of the percentile,
+     * so it is at most about 3% more than the actual value, and never more than the maximum.
+     *
+     * @param percentile Percentile, from 0 to 100
+     * @return Value, or 0 if no values have been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * c));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(highestValue(i), getMax());
+        }
+
+        return getMax();
+    }
+
+
+    @Override
+    public String toString() {
+        return "Histogram{count=" + getCount() + ", min=" + getMin() + ", p50=" + getValueAtPercentile(50)
+                + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax() + "}";
+    }
+
+
+    /**
+     * Bucket of a value
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+
+    /**
+     * Highest value counted in a bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
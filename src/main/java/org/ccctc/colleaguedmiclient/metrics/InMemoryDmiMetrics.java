@@ -0,0 +1,116 @@
+package org.ccctc.colleaguedmiclient.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics kept in memory, for tests, diagnostics or to be read periodically and published. Counters and histograms
+ * are kept per name and tag, and never reset.
+ *
+ * @see DmiMetrics
+ */
+public class InMemoryDmiMetrics implements DmiMetrics {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+
+    @Override
+    public void increment(String name, String tag) {
+        counters.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tagKey(tag), k -> new LongAdder())
+                .increment();
+    }
+
+
+    @Override
+    public void record(String name, String tag, long value) {
+        histograms.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(tagKey(tag), k -> new Histogram())
+                .record(value);
+    }
+
+
+    @Override
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+
+    /**
+     * Value of a counter
+     *
+     * @param name Name
+     * @param tag  Tag
+     * @return Value, or 0 if the counter has not been incremented
+     */
+    public long getCount(String name, String tag) {
+        Map<String, LongAdder> byTag = counters.get(name);
+        LongAdder adder = (byTag != null) ? byTag.get(tagKey(tag)) : null;
+        return (adder != null) ? adder.sum() : 0;
+    }
+
+
+    /**
+     * Values of the counters of a name by tag
+     *
+     * @param name Name
+     * @return Map of tag to value (a copy)
+     */
+    public Map<String, Long> getCounts(String name) {
+        Map<String, Long> result = new HashMap<>();
+        counters.getOrDefault(name, new ConcurrentHashMap<>()).forEach((tag, adder) -> result.put(tag, adder.sum()));
+        return result;
+    }
+
+
+    /**
+     * Histogram of a name and tag
+     *
+     * @param name Name
+     * @param tag  Tag
+     * @return Histogram, or null if no values have been recorded
+     */
+    public Histogram getHistogram(String name, String tag) {
+        Map<String, Histogram> byTag = histograms.get(name);
+        return (byTag != null) ? byTag.get(tagKey(tag)) : null;
+    }
+
+
+    /**
+     * Histograms of a name by tag
+     *
+     * @param name Name
+     * @return Map of tag to histogram (unmodifiable)
+     */
+    public Map<String, Histogram> getHistograms(String name) {
+        Map<String, Histogram> byTag = histograms.get(name);
+        return (byTag != null) ? Collections.unmodifiableMap(byTag) : Collections.emptyMap();
+    }
+
+
+    /**
+     * Current value of a gauge
+     *
+     * @param name Name
+     * @return Value, or null if the gauge is not registered
+     */
+    public Long getGauge(String name) {
+        LongSupplier value = gauges.get(name);
+        return (value != null) ? value.getAsLong() : null;
+    }
+
+
+    /**
+     * Tags are map keys, so a null tag is kept as an empty string
+     */
+    private static String tagKey(String tag) {
+        return (tag != null) ? tag : "";
+    }
+}
@@ -2,12 +2,12 @@ package org.ccctc.colleaguedmiclient.model;
 
 import lombok.Builder;
 import lombok.Getter;
+import org.ccctc.colleaguedmiclient.util.CddConverter;
 
 /**
  * CDD (common data dictionary) entry from Colleague. This represents information about a single data element in Colleague.
  */
 @Getter
-@Builder
 public class CddEntry {
 
     /**
@@ -84,4 +84,45 @@ public class CddEntry {
      * Type of element in the association (K = key, D = data)
      */
     private final String elementAssocType;
+
+    /**
+     * Converter for values of this entry, created on first use
+     */
+    private volatile CddConverter converter;
+
+
+    @Builder
+    public CddEntry(String name, String physName, String source, Integer maximumStorageSize, Integer fieldPlacement,
+                    String databaseUsageType, String defaultDisplaySize, String informFormatString,
+                    String informConversionString, String dataType, String elementAssocName, String elementAssocType) {
+        this.name = name;
+        this.physName = physName;
+        this.source = source;
+        this.maximumStorageSize = maximumStorageSize;
+        this.fieldPlacement = fieldPlacement;
+        this.databaseUsageType = databaseUsageType;
+        this.defaultDisplaySize = defaultDisplaySize;
+        this.informFormatString = informFormatString;
+        this.informConversionString = informConversionString;
+        this.dataType = dataType;
+        this.elementAssocName = elementAssocName;
+        this.elementAssocType = elementAssocType;
+    }
+
+
+    /**
+     * Get the converter between string values of this entry and Java types. The data type is derived from the entry
+     * once, on first use.
+     *
+     * @return Converter
+     */
+    public CddConverter getConverter() {
+        CddConverter c = converter;
+        if (c == null) {
+            c = CddConverter.forEntry(this);
+            converter = c;
+        }
+
+        return c;
+    }
 }
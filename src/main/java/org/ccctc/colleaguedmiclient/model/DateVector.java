@@ -0,0 +1,133 @@
+package org.ccctc.colleaguedmiclient.model;
+
+import org.ccctc.colleaguedmiclient.util.StringUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, immutable list of dates, stored as UniData day numbers (days since December 31, 1967) in an {@code int[]}.
+ * Missing dates are supported and returned as null.
+ * <p>
+ * This can be used in place of {@code LocalDate[]} or {@code List<LocalDate>} for entity properties mapped from
+ * multi-valued date fields. Dates are only created when they are accessed with {@code get()}.
+ */
+public final class DateVector {
+
+    /**
+     * Day number of a missing date
+     */
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    private final int[] dayNumbers;
+
+
+    /**
+     * Create a date vector from day numbers. The array is not copied.
+     */
+    DateVector(int[] dayNumbers) {
+        this.dayNumbers = dayNumbers;
+    }
+
+
+    /**
+     * Create a date vector from dates
+     *
+     * @param dates Dates (may contain null)
+     * @return Date vector
+     */
+    public static DateVector of(LocalDate... dates) {
+        int[] dayNumbers = new int[dates.length];
+        for (int x = 0; x < dates.length; x++) {
+            dayNumbers[x] = dayNumber(dates[x]);
+        }
+
+        return new DateVector(dayNumbers);
+    }
+
+
+    /**
+     * Number of dates
+     *
+     * @return Size
+     */
+    public int size() {
+        return dayNumbers.length;
+    }
+
+
+    /**
+     * Get a date
+     *
+     * @param index Index
+     * @return Date, or null if missing
+     */
+    public LocalDate get(int index) {
+        int d = dayNumbers[index];
+        return (d == MISSING) ? null : StringUtils.dateFromDayNumber(d);
+    }
+
+
+    /**
+     * Get the UniData day number of a date
+     *
+     * @param index Index
+     * @return Day number, or {@code MISSING}
+     */
+    public int getDayNumber(int index) {
+        return dayNumbers[index];
+    }
+
+
+    /**
+     * Create an array of the dates
+     *
+     * @return Array of dates
+     */
+    public LocalDate[] toArray() {
+        LocalDate[] result = new LocalDate[dayNumbers.length];
+        for (int x = 0; x < result.length; x++) {
+            result[x] = get(x);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Create a list of the dates
+     *
+     * @return List of dates
+     */
+    public List<LocalDate> toList() {
+        return new ArrayList<>(Arrays.asList(toArray()));
+    }
+
+
+    /**
+     * Day number of a date, or {@code MISSING} if null
+     */
+    static int dayNumber(LocalDate date) {
+        return (date == null) ? MISSING : (int) (date.toEpochDay() - StringUtils.BASE_DATE.toEpochDay());
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof DateVector && Arrays.equals(dayNumbers, ((DateVector) o).dayNumbers));
+    }
+
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(dayNumbers);
+    }
+
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,70 @@
+package org.ccctc.colleaguedmiclient.model;
+
+import java.util.function.Supplier;
+
+/**
+ * Lazily loaded value, used by {@code DmiEntityService} for single-valued joins marked with {@code @Join(lazy = true)}.
+ * <p>
+ * The value is loaded on the first call to {@code get()}. For joins, that first call loads the same join for every
+ * sibling record from the same read in a single request, so accessing the join on each record in a list does not
+ * result in a request per record.
+ *
+ * @param <T> Type of value
+ */
+public class Lazy<T> implements Supplier<T> {
+
+    private final Supplier<T> loader;
+    private volatile boolean loaded;
+    private T value;
+
+    /**
+     * Create a lazily loaded value
+     *
+     * @param loader Loader, called once on first access
+     */
+    public Lazy(Supplier<T> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Create an already loaded value
+     *
+     * @param value Value
+     * @param <T>   Type of value
+     * @return Lazy value
+     */
+    public static <T> Lazy<T> of(T value) {
+        Lazy<T> lazy = new Lazy<>(null);
+        lazy.value = value;
+        lazy.loaded = true;
+        return lazy;
+    }
+
+    /**
+     * Get the value, loading it if it has not been loaded yet
+     *
+     * @return Value
+     */
+    @Override
+    public T get() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    value = loader.get();
+                    loaded = true;
+                }
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Whether the value has been loaded
+     *
+     * @return true/false
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+}
@@ -0,0 +1,45 @@
+package org.ccctc.colleaguedmiclient.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Lazily loaded, read-only list, used by {@code DmiEntityService} for multi-valued joins marked with
+ * {@code @Join(lazy = true)}. The contents are loaded on first access.
+ *
+ * @param <T> Type of element
+ * @see Lazy
+ */
+public class LazyList<T> extends AbstractList<T> {
+
+    private final Lazy<List<T>> list;
+
+    /**
+     * Create a lazily loaded list
+     *
+     * @param loader Loader, called once on first access
+     */
+    public LazyList(Supplier<List<T>> loader) {
+        this.list = new Lazy<>(loader);
+    }
+
+    @Override
+    public T get(int index) {
+        return list.get().get(index);
+    }
+
+    @Override
+    public int size() {
+        return list.get().size();
+    }
+
+    /**
+     * Whether the list has been loaded
+     *
+     * @return true/false
+     */
+    public boolean isLoaded() {
+        return list.isLoaded();
+    }
+}
@@ -0,0 +1,284 @@
+package org.ccctc.colleaguedmiclient.model;
+
+import org.ccctc.colleaguedmiclient.util.StringUtils;
+
+import java.lang.reflect.Array;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Multi-valued field from Colleague, kept as the original delimited string with the offsets of its values. Values are
+ * only extracted and converted when they are accessed, and each value is converted at most once.
+ * <p>
+ * Reading only the first value ({@code first()}) does not split the string at all. Arrays and lists are only created
+ * when requested with {@code toArray()} or {@code toList()}. Numeric and date values can also be read into primitive
+ * arrays or a {@code DateVector} without boxing each value.
+ * <p>
+ * Splitting follows {@code StringUtils.split()}: an empty string has one (empty) value and a trailing delimiter does
+ * not add an empty value.
+ *
+ * @param <T> Type of values
+ */
+public final class MultiValue<T> {
+
+    private static final Object NOT_CONVERTED = new Object();
+
+    private final String source;
+    private final char delimiter;
+    private final Class<T> type;
+    private final Function<String, ? extends T> converter;
+
+    // start offset of each value, plus one more entry for the end of the last value (as if followed by a delimiter)
+    private volatile int[] offsets;
+    private volatile Object[] values;
+
+
+    /**
+     * Create a multi-valued field
+     *
+     * @param source    Delimited string
+     * @param delimiter Delimiter (typically a value mark)
+     * @param type      Type of values
+     * @param converter Converter for a single value
+     */
+    public MultiValue(String source, char delimiter, Class<T> type, Function<String, ? extends T> converter) {
+        this.source = source;
+        this.delimiter = delimiter;
+        this.type = type;
+        this.converter = converter;
+    }
+
+
+    /**
+     * Original delimited string
+     *
+     * @return Source string
+     */
+    public String getSource() {
+        return source;
+    }
+
+
+    /**
+     * Type of values
+     *
+     * @return Type
+     */
+    public Class<T> getType() {
+        return type;
+    }
+
+
+    /**
+     * Number of values
+     *
+     * @return Size
+     */
+    public int size() {
+        return offsets().length - 1;
+    }
+
+
+    /**
+     * Get the first value, without splitting the rest of the string
+     *
+     * @return First value
+     */
+    public T first() {
+        // once values are being converted by index, keep the first one with them
+        if (values != null) return get(0);
+
+        int end = source.indexOf(delimiter);
+        return converter.apply(end == -1 ? source : source.substring(0, end));
+    }
+
+
+    /**
+     * Get a value, converting it on first access
+     *
+     * @param index Index
+     * @return Value
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public T get(int index) {
+        int[] o = offsets();
+        if (index < 0 || index >= o.length - 1)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (o.length - 1));
+
+        Object[] v = values;
+        if (v == null) {
+            v = new Object[o.length - 1];
+            Arrays.fill(v, NOT_CONVERTED);
+            values = v;
+        }
+
+        // converted values are immutable, so a racy conversion at worst converts a value twice
+        Object result = v[index];
+        if (result == NOT_CONVERTED) {
+            result = converter.apply(getString(index));
+            v[index] = result;
+        }
+
+        return type.cast(result);
+    }
+
+
+    /**
+     * Get the unconverted string of a value
+     *
+     * @param index Index
+     * @return String value
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    public String getString(int index) {
+        int[] o = offsets();
+        if (index < 0 || index >= o.length - 1)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (o.length - 1));
+
+        return source.substring(o[index], o[index + 1] - 1);
+    }
+
+
+    /**
+     * Create an array of all values, ie {@code String[]}, {@code Integer[]}
+     *
+     * @return Array of values
+     */
+    @SuppressWarnings("unchecked")
+    public T[] toArray() {
+        int size = size();
+        T[] result = (T[]) Array.newInstance(type, size);
+        for (int x = 0; x < size; x++) {
+            result[x] = get(x);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Create a list of all values. Like {@code Arrays.asList()}, the list cannot change size.
+     *
+     * @return List of values
+     */
+    public List<T> toList() {
+        return Arrays.asList(toArray());
+    }
+
+
+    /**
+     * Create an {@code int[]} of all values. Values are parsed directly from the source string, without creating a
+     * string or an {@code Integer} for each value. Empty values and values that cannot be converted are 0.
+     *
+     * @return Array of values
+     * @throws IllegalStateException if the values are not Integer
+     */
+    public int[] toIntArray() {
+        checkType(Integer.class);
+
+        int[] o = offsets();
+        int[] result = new int[o.length - 1];
+        for (int x = 0; x < result.length; x++) {
+            result[x] = (int) parseLong(o, x);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Create a {@code long[]} of all values. Values are parsed directly from the source string, without creating a
+     * string or a {@code Long} for each value. Empty values and values that cannot be converted are 0.
+     *
+     * @return Array of values
+     * @throws IllegalStateException if the values are not Integer or Long
+     */
+    public long[] toLongArray() {
+        if (type != Integer.class) checkType(Long.class);
+
+        int[] o = offsets();
+        long[] result = new long[o.length - 1];
+        for (int x = 0; x < result.length; x++) {
+            result[x] = parseLong(o, x);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Create a {@code DateVector} of all values. Day numbers are parsed directly from the source string, without
+     * creating a string or a {@code LocalDate} for each value. Empty values and values that cannot be converted are
+     * missing.
+     *
+     * @return Date vector
+     * @throws IllegalStateException if the values are not LocalDate
+     */
+    public DateVector toDateVector() {
+        checkType(LocalDate.class);
+
+        int[] o = offsets();
+        int[] result = new int[o.length - 1];
+        for (int x = 0; x < result.length; x++) {
+            int start = o[x];
+            int end = o[x + 1] - 1;
+            long v = (start == end) ? DateVector.MISSING : StringUtils.parseDigits(source, start, end);
+
+            if (v == StringUtils.NOT_PARSED || v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+                v = DateVector.dayNumber((LocalDate) get(x));
+
+            result[x] = (int) v;
+        }
+
+        return new DateVector(result);
+    }
+
+
+    /**
+     * Parse a numeric value from the source string, falling back to the converter for values the fast path does not
+     * handle (so out of range or invalid values are treated the same as when converted individually)
+     */
+    private long parseLong(int[] o, int index) {
+        int start = o[index];
+        int end = o[index + 1] - 1;
+        if (start == end) return 0;
+
+        long v = StringUtils.parseDigits(source, start, end);
+        if (v != StringUtils.NOT_PARSED && (type != Integer.class || (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)))
+            return v;
+
+        Object converted = get(index);
+        return (converted != null) ? ((Number) converted).longValue() : 0;
+    }
+
+
+    private void checkType(Class<?> expected) {
+        if (type != expected)
+            throw new IllegalStateException("Values of type " + type.getName() + " cannot be read as " + expected.getName());
+    }
+
+
+    private int[] offsets() {
+        int[] o = offsets;
+        if (o == null) {
+            o = StringUtils.splitOffsets(source, delimiter);
+            offsets = o;
+        }
+
+        return o;
+    }
+
+
+    @Override
+    public String toString() {
+        List<String> strings = new ArrayList<>();
+        for (int x = 0; x < size(); x++) {
+            strings.add(getString(x));
+        }
+
+        return strings.toString();
+    }
+}
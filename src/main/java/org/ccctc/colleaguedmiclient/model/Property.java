@@ -49,6 +49,18 @@ public class Property {
         }
     }
 
+    public Object getProperty(Object o) {
+        try {
+            return reader.invoke(o);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            throw new DmiServiceException("Unable to get value of property " + pd.getName() + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isWritable() {
+        return writer != null;
+    }
+
     public String getName() {
         return pd.getName();
     }
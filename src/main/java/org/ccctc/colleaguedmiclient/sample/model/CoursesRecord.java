@@ -2,6 +2,7 @@ package org.ccctc.colleaguedmiclient.sample.model;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.ccctc.colleaguedmiclient.annotation.Cacheable;
 import org.ccctc.colleaguedmiclient.annotation.Entity;
 import org.ccctc.colleaguedmiclient.model.ColleagueRecord;
 
@@ -9,6 +10,7 @@ import java.time.LocalDate;
 
 @Getter
 @Setter
+@Cacheable(ttlSeconds = 60 * 60, maxEntries = 10000)
 @Entity(appl = "ST", name = "COURSES")
 public class CoursesRecord extends ColleagueRecord {
 
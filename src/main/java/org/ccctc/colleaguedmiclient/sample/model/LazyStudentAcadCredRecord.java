@@ -0,0 +1,33 @@
+package org.ccctc.colleaguedmiclient.sample.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.ccctc.colleaguedmiclient.annotation.Entity;
+import org.ccctc.colleaguedmiclient.annotation.Join;
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord;
+import org.ccctc.colleaguedmiclient.model.Lazy;
+
+/**
+ * This is a sample Entity to read from STUDENT.ACAD.CRED with lazy joins. Unlike {@code StudentAcadCredRecord}, its
+ * child records are not read with it - each join is read the first time it is accessed with {@code get()}, for every
+ * record from the same read at once.
+ *
+ * Lazy joins are useful when a join is only needed for some of the records, ie only for the first page of results.
+ */
+@Getter
+@Setter
+@Entity(appl = "ST", name = "STUDENT.ACAD.CRED")
+public class LazyStudentAcadCredRecord extends ColleagueRecord {
+
+    String stcCourseName;
+    String stcSectionNo;
+
+    // Lazy join - loaded on first access, for all records from the same read at once
+    @Join(lazy = true)
+    Lazy<StudentCourseSecRecord> stcStudentCourseSec;
+
+    // Lazy join with custom field name
+    @Join(value = "STC.TERM", lazy = true)
+    Lazy<TermsRecord> term;
+
+}
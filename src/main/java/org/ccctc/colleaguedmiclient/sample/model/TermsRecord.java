@@ -2,6 +2,7 @@ package org.ccctc.colleaguedmiclient.sample.model;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.ccctc.colleaguedmiclient.annotation.Cacheable;
 import org.ccctc.colleaguedmiclient.annotation.Entity;
 import org.ccctc.colleaguedmiclient.annotation.Join;
 import org.ccctc.colleaguedmiclient.model.ColleagueRecord;
@@ -11,6 +12,7 @@ import java.util.List;
 
 @Getter
 @Setter
+@Cacheable(ttlSeconds = 60 * 60, maxEntries = 500)
 @Entity(appl = "ST", name = "TERMS")
 public class TermsRecord extends ColleagueRecord {
 
@@ -0,0 +1,294 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import org.ccctc.colleaguedmiclient.exception.DmiOverloadException;
+import org.ccctc.colleaguedmiclient.exception.DmiServiceException;
+import org.ccctc.colleaguedmiclient.socket.Priority;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of DMI transactions in flight to a limit that adapts to round trip latency, so that a DMI that is
+ * slowing down under load is not sent more concurrent work than it can handle. Used by {@code DmiService} in front of
+ * the socket pool, with a maximum limit of the pool size.
+ * <p>
+ * The limit is adjusted after each transaction using the gradient between the long term average latency and the
+ * latency of the transaction. While latency stays within {@code tolerance} of the long term average, the limit grows
+ * by about its square root (but only while at least half of it is in use). As latency rises above that, the limit
+ * shrinks in proportion, down to half per adjustment. A failed transaction multiplies the limit by
+ * {@code backoffRatio}. Each adjustment is smoothed by {@code smoothing}.
+ * <p>
+ * Callers over the limit wait for a transaction to complete. As with the socket pool, each {@code Priority} waits in its
+ * own lane, and a transaction that completes lets in the highest priority lane with a waiting caller, so that bulk
+ * requests waiting on the limiter do not hold up interactive ones. The limiter is thread safe.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    // number of transactions the long term latency is averaged over
+    private final static int LONG_WINDOW = 600;
+
+    /**
+     * Minimum limit
+     */
+    @Getter private final int minLimit;
+
+    /**
+     * Maximum limit
+     */
+    @Getter private final int maxLimit;
+
+    /**
+     * Ratio of latency to the long term average that is tolerated before the limit shrinks. Default is 1.5.
+     */
+    @Getter @Setter private double tolerance = 1.5;
+
+    /**
+     * Fraction of each adjustment applied to the limit, between 0 and 1. Default is 0.2.
+     */
+    @Getter @Setter private double smoothing = 0.2;
+
+    /**
+     * Ratio the limit is multiplied by after a failed transaction. Default is 0.9.
+     */
+    @Getter @Setter private double backoffRatio = 0.9;
+
+    /**
+     * Maximum time to wait to be under the limit. Default is 5 minutes.
+     */
+    @Getter @Setter private long timeoutMillis = 5 * 60 * 1000;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // one wait lane per priority, with the number of callers waiting in each
+    private final Condition[] lanes = new Condition[Priority.values().length];
+    private final int[] waiting = new int[lanes.length];
+
+    private double limit;
+    private int inFlight;
+    private double longRtt;
+
+
+    /**
+     * Create a limiter with a minimum limit of 1, starting at half the maximum limit
+     *
+     * @param maxLimit Maximum limit, ie the size of the socket pool
+     */
+    public AdaptiveConcurrencyLimiter(int maxLimit) {
+        this(Math.max(1, maxLimit / 2), 1, maxLimit);
+    }
+
+
+    /**
+     * Create a limiter
+     *
+     * @param initialLimit Initial limit
+     * @param minLimit     Minimum limit
+     * @param maxLimit     Maximum limit, ie the size of the socket pool
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1) throw new IllegalArgumentException("minLimit must be at least 1");
+        if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit must be at least minLimit");
+        if (initialLimit < minLimit || initialLimit > maxLimit)
+            throw new IllegalArgumentException("initialLimit must be between minLimit and maxLimit");
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+
+        for (int x = 0; x < lanes.length; x++) {
+            lanes[x] = lock.newCondition();
+        }
+    }
+
+
+    /**
+     * Current limit
+     *
+     * @return Limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Number of transactions in flight
+     *
+     * @return In flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Wait until under the limit and start a transaction with the default priority. Must be followed by
+     * {@code release()}.
+     *
+     * @throws DmiOverloadException if the timeout is exceeded
+     * @throws DmiServiceException if the thread is interrupted while waiting
+     */
+    public void acquire() throws DmiServiceException {
+        acquire(Long.MAX_VALUE, Priority.DEFAULT);
+    }
+
+
+    /**
+     * Wait until under the limit, for no longer than a time limit (ie the time remaining until the deadline of a
+     * request), and start a transaction with the default priority. Must be followed by {@code release()}.
+     *
+     * @param timeLimitMillis Time limit in milliseconds
+     * @throws DmiOverloadException if the timeout or time limit is exceeded
+     * @throws DmiServiceException if the thread is interrupted while waiting
+     */
+    public void acquire(long timeLimitMillis) throws DmiServiceException {
+        acquire(timeLimitMillis, Priority.DEFAULT);
+    }
+
+
+    /**
+     * Wait until under the limit, for no longer than a time limit, and start a transaction. Callers wait behind any
+     * caller of a higher priority. Must be followed by {@code release()}.
+     *
+     * @param timeLimitMillis Time limit in milliseconds
+     * @param priority        Priority
+     * @throws DmiOverloadException if the timeout or time limit is exceeded
+     * @throws DmiServiceException if the thread is interrupted while waiting
+     */
+    public void acquire(long timeLimitMillis, @NonNull Priority priority) throws DmiServiceException {
+        int lane = priority.ordinal();
+        boolean success = false;
+
+        lock.lock();
+        try {
+            if (!canAcquire(lane)) {
+                waiting[lane]++;
+                try {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(Math.min(timeoutMillis, timeLimitMillis));
+                    do {
+                        if (nanos <= 0)
+                            throw new DmiOverloadException("Timeout exceeded waiting for DMI concurrency limit of "
+                                    + (int) limit, null);
+
+                        nanos = lanes[lane].awaitNanos(nanos);
+                    } while (!canAcquire(lane));
+                } finally {
+                    waiting[lane]--;
+                }
+            }
+
+            inFlight++;
+            success = true;
+
+            // the limit may have room for more than this caller, ie after it grew
+            signalNext();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DmiServiceException("Interrupted while waiting for DMI concurrency limit", e);
+        } finally {
+            // pass on the wake up this caller may have taken, ie to a lower priority lane that was waiting on it
+            if (!success) signalNext();
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Number of callers waiting to be under the limit with a priority
+     *
+     * @param priority Priority
+     * @return Waiting
+     */
+    public int getWaiting(@NonNull Priority priority) {
+        lock.lock();
+        try {
+            return waiting[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Complete a transaction and adjust the limit
+     *
+     * @param rttNanos Round trip time in nanoseconds, or a negative number if the transaction should not adjust the
+     *                 limit (ie it was cancelled)
+     * @param success  Whether the transaction succeeded
+     */
+    public void release(long rttNanos, boolean success) {
+        lock.lock();
+        try {
+            if (rttNanos >= 0) adjust(rttNanos, success, inFlight);
+            inFlight--;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Whether a caller of a lane can start a transaction - there is room under the limit and no caller of a higher
+     * priority is waiting. Must hold the lock.
+     */
+    private boolean canAcquire(int lane) {
+        for (int x = 0; x < lane; x++) {
+            if (waiting[x] > 0) return false;
+        }
+
+        return inFlight < (int) limit;
+    }
+
+
+    /**
+     * Wake the next caller in the highest priority lane with a waiting caller, if there is room under the limit. Must
+     * hold the lock.
+     */
+    private void signalNext() {
+        for (int x = 0; x < lanes.length; x++) {
+            if (waiting[x] > 0) {
+                if (inFlight < (int) limit) lanes[x].signal();
+                return;
+            }
+        }
+    }
+
+
+    private void adjust(long rttNanos, boolean success, int inFlight) {
+        double newLimit;
+
+        if (!success) {
+            newLimit = limit * backoffRatio;
+        } else {
+            double rtt = Math.max(1, rttNanos);
+            longRtt = (longRtt == 0) ? rtt : longRtt + (rtt - longRtt) * 2 / (LONG_WINDOW + 1);
+
+            // recover faster once latency drops well below the long term average
+            if (longRtt / rtt > 2) longRtt *= 0.95;
+
+            // do not grow a limit that is not being used
+            if (inFlight * 2 < limit) return;
+
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / rtt));
+            newLimit = limit * gradient + Math.sqrt(limit);
+        }
+
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+}
@@ -0,0 +1,219 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import org.ccctc.colleaguedmiclient.model.CTXAssociation;
+import org.ccctc.colleaguedmiclient.model.CTXMetadata;
+import org.ccctc.colleaguedmiclient.model.CTXVariable;
+import org.ccctc.colleaguedmiclient.model.CddEntry;
+import org.ccctc.colleaguedmiclient.util.CddConverter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ccctc.colleaguedmiclient.util.StringUtils.parseIntOrNull;
+
+/**
+ * Binding of request parameters and response variables of a Colleague Transaction, compiled once from its
+ * {@code CTXMetadata} so that executing the transaction does not need to scan the metadata.
+ * <p>
+ * This contains a lookup of variable names by name or alias (for input parameters), the alias and data type of each
+ * output variable and the position of each member of an association in the list of output variables.
+ */
+class CTXBindingPlan {
+
+    private final CTXMetadata metadata;
+    private final Map<String, String> varNames;
+    private final Output[] outputs;
+    private final Assoc[] associations;
+
+
+    /**
+     * Compile a binding plan from CTX metadata
+     *
+     * @param metadata CTX Metadata
+     */
+    CTXBindingPlan(CTXMetadata metadata) {
+        this.metadata = metadata;
+
+        // input parameters may be referenced by name or alias, the first matching variable is used
+        varNames = new HashMap<>();
+        List<Output> outputList = new ArrayList<>();
+        for (CTXVariable v : metadata.getVariables()) {
+            if (v.getVarName() != null) varNames.putIfAbsent(v.getVarName(), v.getVarName());
+            if (v.getVarAliasName() != null) varNames.putIfAbsent(v.getVarAliasName(), v.getVarName());
+
+            if (v.getVarDirection() != null && (v.getVarDirection().equals("INOUT") || v.getVarDirection().equals("OUT")))
+                outputList.add(new Output(v));
+        }
+
+        outputs = outputList.toArray(new Output[0]);
+
+        // position of each output by variable name and by alias - if names repeat, the last one wins as it would
+        // when the values are put in the result
+        Map<String, String> aliases = new HashMap<>();
+        Map<String, Integer> aliasIndexes = new HashMap<>();
+        for (int x = 0; x < outputs.length; x++) {
+            aliases.put(outputs[x].varName, outputs[x].alias);
+            aliasIndexes.put(outputs[x].alias, x);
+        }
+
+        associations = new Assoc[metadata.getAssociations().size()];
+        for (int x = 0; x < associations.length; x++) {
+            CTXAssociation a = metadata.getAssociations().get(x);
+            String name = (a.getAssocAliasName() != null) ? a.getAssocAliasName() : a.getAssocName();
+
+            String[] members = a.getAssocMembers() != null ? a.getAssocMembers() : new String[0];
+            String[] memberAliases = new String[members.length];
+            int[] memberIndexes = new int[members.length];
+            for (int y = 0; y < members.length; y++) {
+                memberAliases[y] = aliases.get(members[y]);
+                Integer index = aliasIndexes.get(memberAliases[y]);
+                memberIndexes[y] = (index != null) ? index : -1;
+            }
+
+            associations[x] = new Assoc(name, memberAliases, memberIndexes);
+        }
+    }
+
+
+    /**
+     * Metadata this plan was compiled from
+     */
+    CTXMetadata getMetadata() {
+        return metadata;
+    }
+
+
+    /**
+     * Get the variable name of an input parameter by its name or alias, or null if there is no such variable
+     */
+    String varName(String nameOrAlias) {
+        return varNames.get(nameOrAlias);
+    }
+
+
+    /**
+     * Number of output (OUT and INOUT) variables
+     */
+    int outputCount() {
+        return outputs.length;
+    }
+
+
+    /**
+     * Variable name of an output variable, as it appears in the response
+     */
+    String outputVarName(int index) {
+        return outputs[index].varName;
+    }
+
+
+    /**
+     * Alias of an output variable, or its variable name if it has no alias
+     */
+    String outputAlias(int index) {
+        return outputs[index].alias;
+    }
+
+
+    /**
+     * Convert the raw value of an output variable from the response
+     */
+    Object convertOutput(int index, String rawValue) {
+        return outputs[index].convert(rawValue);
+    }
+
+
+    /**
+     * Number of associations
+     */
+    int associationCount() {
+        return associations.length;
+    }
+
+
+    /**
+     * Alias of an association, or its name if it has no alias
+     */
+    String associationName(int index) {
+        return associations[index].name;
+    }
+
+
+    /**
+     * Aliases of the members of an association (null for members that are not output variables)
+     */
+    String[] associationMemberAliases(int index) {
+        return associations[index].memberAliases;
+    }
+
+
+    /**
+     * Positions of the members of an association in the list of output variables (-1 for members that are not output
+     * variables)
+     */
+    int[] associationMemberIndexes(int index) {
+        return associations[index].memberIndexes;
+    }
+
+
+    /**
+     * Output variable with its alias and pre-resolved converter
+     */
+    private static class Output {
+        private final String varName;
+        private final String alias;
+        private final boolean bool;
+        private final CddConverter converter;
+
+        Output(CTXVariable v) {
+            varName = v.getVarName();
+            alias = (v.getVarAliasName() != null) ? v.getVarAliasName() : v.getVarName();
+            bool = "Y".equals(v.getVarIsBool());
+
+            // create a partial CDD entry with what we know about this variable so we can convert it to the
+            // proper data type
+            converter = bool ? null : CddConverter.forEntry(CddEntry.builder()
+                    .databaseUsageType(v.getVarDataType())
+                    .informConversionString(v.getVarConv())
+                    .maximumStorageSize(parseIntOrNull(v.getVarSize()))
+                    .build());
+        }
+
+        Object convert(String rawValue) {
+            if (rawValue == null) return null;
+
+            // Colleague Transactions allow for a "Boolean" type
+            if (bool) {
+                String val = rawValue.trim();
+                if (val.length() > 0) {
+                    if (val.charAt(0) == '1' || val.charAt(0) == 'Y' || val.charAt(0) == 'y')
+                        return true;
+                    else if (val.charAt(0) == '0' || val.charAt(0) == 'N' || val.charAt(0) == 'n')
+                        return false;
+                }
+
+                return null;
+            }
+
+            return converter.convertToValue(rawValue);
+        }
+    }
+
+
+    /**
+     * Association with the aliases and output positions of its members
+     */
+    private static class Assoc {
+        private final String name;
+        private final String[] memberAliases;
+        private final int[] memberIndexes;
+
+        Assoc(String name, String[] memberAliases, int[] memberIndexes) {
+            this.name = name;
+            this.memberAliases = memberAliases;
+            this.memberIndexes = memberIndexes;
+        }
+    }
+}
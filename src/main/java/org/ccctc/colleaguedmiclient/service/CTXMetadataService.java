@@ -11,8 +11,11 @@ import org.ccctc.colleaguedmiclient.model.CTXVariable;
 import org.ccctc.colleaguedmiclient.model.KeyValuePair;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import static org.ccctc.colleaguedmiclient.util.ArrayUtils.getAt;
 import static org.ccctc.colleaguedmiclient.util.StringUtils.*;
@@ -33,6 +36,7 @@ public class CTXMetadataService {
 
     private final DmiCTXService dmiCTXService;
     private final MetadataCache<CTXMetadata> cache;
+    private final Map<String, CTXBindingPlan> bindingPlans = new ConcurrentHashMap<>();
 
 
     /**
@@ -67,11 +71,39 @@ public class CTXMetadataService {
      * @return Entity Metadata
      */
     public CTXMetadata get(String appl, String transactionName, boolean refreshCache) {
-        if (!refreshCache) {
-            CTXMetadata cached = cache.get(appl, transactionName);
-            if (cached != null) return cached;
+        if (refreshCache)
+            return cache.refresh(appl, transactionName, () -> load(appl, transactionName));
+
+        return cache.get(appl, transactionName, () -> load(appl, transactionName));
+    }
+
+
+    /**
+     * Get the binding plan for a Colleague Transaction, compiled from its metadata. The plan is kept alongside the
+     * cached metadata and is compiled again whenever the metadata is reloaded.
+     *
+     * @param appl            Application
+     * @param transactionName Colleague Transaction name
+     * @return Binding plan
+     */
+    CTXBindingPlan getBindingPlan(String appl, String transactionName) {
+        CTXMetadata metadata = get(appl, transactionName);
+        String key = appl + "*" + transactionName;
+
+        CTXBindingPlan plan = bindingPlans.get(key);
+        if (plan == null || plan.getMetadata() != metadata) {
+            plan = new CTXBindingPlan(metadata);
+            bindingPlans.put(key, plan);
         }
 
+        return plan;
+    }
+
+
+    /**
+     * Load metadata from the DMI
+     */
+    private CTXMetadata load(String appl, String transactionName) {
         List<KeyValuePair<String, String>> params = new ArrayList<>();
         params.add(new KeyValuePair<>("TV.APPLICATION", appl));
         params.add(new KeyValuePair<>("TV.PRCS.ID", transactionName));
@@ -179,7 +211,6 @@ public class CTXMetadataService {
                     .associations(associations)
                     .build();
 
-            cache.put(appl, transactionName, c);
             return c;
         }
 
@@ -187,11 +218,32 @@ public class CTXMetadataService {
     }
 
 
+    /**
+     * Get all cached entries by cache key (application + "*" + name), used to save a snapshot of the cache
+     */
+    Map<String, CTXMetadata> getCachedEntries() {
+        Map<String, CTXMetadata> result = new HashMap<>();
+        for (Map.Entry<String, CTXMetadata> e : cache.entrySet()) {
+            result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+
+    /**
+     * Add an entry to the cache, used to restore a snapshot of the cache
+     */
+    void putCachedEntry(String appl, String name, CTXMetadata value) {
+        cache.put(appl, name, value);
+    }
+
+
     /**
      * Clear the cache
      */
     public void clearCache() {
         cache.clear();
+        bindingPlans.clear();
     }
 
 
@@ -213,4 +265,68 @@ public class CTXMetadataService {
     public void setCacheExpirationSeconds(long cacheExpirationSeconds) {
         cache.setCacheExpirationSeconds(cacheExpirationSeconds);
     }
+
+
+    /**
+     * Get maximum number of entries in the cache. Zero means unlimited.
+     *
+     * @return Maximum number of entries
+     */
+    public int getCacheMaxEntries() {
+        return cache.getMaxEntries();
+    }
+
+
+    /**
+     * Set maximum number of entries in the cache. When exceeded, the least recently used entry is removed. Default is
+     * zero (unlimited).
+     *
+     * @param cacheMaxEntries Maximum number of entries
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        cache.setMaxEntries(cacheMaxEntries);
+    }
+
+
+    /**
+     * Get number of seconds after expiration that a cache entry is still returned while it is refreshed in the
+     * background.
+     *
+     * @return Stale while revalidate time in seconds
+     */
+    public long getCacheStaleWhileRevalidateSeconds() {
+        return cache.getStaleWhileRevalidateSeconds();
+    }
+
+
+    /**
+     * Set number of seconds after expiration that a cache entry is still returned while it is refreshed in the
+     * background. Default is zero, meaning expired entries are refreshed before being returned.
+     *
+     * @param cacheStaleWhileRevalidateSeconds Stale while revalidate time in seconds
+     */
+    public void setCacheStaleWhileRevalidateSeconds(long cacheStaleWhileRevalidateSeconds) {
+        cache.setStaleWhileRevalidateSeconds(cacheStaleWhileRevalidateSeconds);
+    }
+
+    /**
+     * Get the executor that refreshes expired cache entries in the background.
+     *
+     * @return Executor
+     */
+    public Executor getCacheRefreshExecutor() {
+        return cache.getRefreshExecutor();
+    }
+
+
+    /**
+     * Set the executor that refreshes expired cache entries in the background. Default is a pool of two daemon threads
+     * shared by all metadata caches.
+     *
+     * @param cacheRefreshExecutor Executor
+     */
+    public void setCacheRefreshExecutor(@NonNull Executor cacheRefreshExecutor) {
+        cache.setRefreshExecutor(cacheRefreshExecutor);
+    }
+
 }
@@ -0,0 +1,226 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker for calls to the DMI, used by {@code DmiService} so that requests fail fast while the DMI is
+ * unreachable instead of each waiting on a connection timeout.
+ * <p>
+ * The breaker is CLOSED (calls allowed) until the failure rate or the slow call rate of the last {@code windowSize}
+ * calls reaches its threshold, after at least {@code minimumCalls} calls. It is then OPEN (calls rejected) for
+ * {@code openDurationMillis}. After that, the next call moves it to HALF_OPEN and sends a probe. A successful probe
+ * closes the breaker and a failed probe opens it again.
+ * <p>
+ * Only transport failures (exceptions sending or receiving) count as failures. An error response from the DMI shows
+ * that it is reachable and counts as a success. The breaker is thread safe.
+ */
+public class CircuitBreaker {
+
+    private final Log log = LogFactory.getLog(CircuitBreaker.class);
+
+    /**
+     * State of the breaker
+     */
+    public enum State {
+        /**
+         * Calls are allowed
+         */
+        CLOSED,
+
+        /**
+         * Calls are rejected
+         */
+        OPEN,
+
+        /**
+         * A probe is checking whether the DMI is reachable again. Other calls are rejected.
+         */
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    /**
+     * Failure rate (0 to 1) at which the breaker opens. Default is 0.5.
+     */
+    @Getter @Setter private double failureRateThreshold = 0.5;
+
+    /**
+     * Slow call rate (0 to 1) at which the breaker opens. Default is 1 (all calls in the window are slow).
+     */
+    @Getter @Setter private double slowCallRateThreshold = 1.0;
+
+    /**
+     * Duration after which a call is slow. Default is 60 seconds.
+     */
+    @Getter @Setter private long slowCallDurationMillis = 60 * 1000;
+
+    /**
+     * Minimum number of calls in the window before the rates are evaluated. Default is 10.
+     */
+    @Getter @Setter private int minimumCalls = 10;
+
+    /**
+     * Time the breaker stays open before a probe is sent. Default is 30 seconds.
+     */
+    @Getter @Setter private long openDurationMillis = 30 * 1000;
+
+    /**
+     * Number of most recent calls the rates are calculated from
+     */
+    @Getter private final int windowSize;
+
+    // ring buffer of the outcomes of the most recent calls
+    private final byte[] outcomes;
+    private int index;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+
+    // clock in nanoseconds, replaceable for testing
+    LongSupplier clock = System::nanoTime;
+
+
+    /**
+     * Create a circuit breaker with a window of 20 calls
+     */
+    public CircuitBreaker() {
+        this(20);
+    }
+
+
+    /**
+     * Create a circuit breaker
+     *
+     * @param windowSize Number of most recent calls the failure and slow call rates are calculated from
+     */
+    public CircuitBreaker(int windowSize) {
+        if (windowSize < 1) throw new IllegalArgumentException("windowSize must be at least 1");
+
+        this.windowSize = windowSize;
+        this.outcomes = new byte[windowSize];
+    }
+
+
+    /**
+     * Current state
+     *
+     * @return State
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+
+    /**
+     * Whether a call may be made. Only true while the breaker is closed.
+     *
+     * @return true if the call is allowed
+     */
+    public synchronized boolean allowRequest() {
+        return state == State.CLOSED;
+    }
+
+
+    /**
+     * If the breaker has been open for {@code openDurationMillis}, move it to half open so the caller can send a
+     * probe. Only one caller gets the probe.
+     *
+     * @return true if the caller should send a probe and report it with {@code onProbeResult()}
+     */
+    public synchronized boolean tryStartProbe() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= TimeUnit.MILLISECONDS.toNanos(openDurationMillis)) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Report the result of a probe, closing the breaker on success or opening it again on failure
+     *
+     * @param success Whether the probe succeeded
+     */
+    public synchronized void onProbeResult(boolean success) {
+        if (state != State.HALF_OPEN) return;
+
+        if (success) {
+            log.info("DMI circuit breaker closed");
+            state = State.CLOSED;
+            clearWindow();
+        } else {
+            open();
+        }
+    }
+
+
+    /**
+     * Record the outcome of a call. Calls are only recorded while the breaker is closed.
+     *
+     * @param success       Whether the call succeeded
+     * @param durationNanos Duration of the call in nanoseconds
+     */
+    public synchronized void record(boolean success, long durationNanos) {
+        if (state != State.CLOSED) return;
+
+        byte outcome = 0;
+        if (!success) outcome |= FAILED;
+        if (durationNanos >= TimeUnit.MILLISECONDS.toNanos(slowCallDurationMillis)) outcome |= SLOW;
+
+        // remove the oldest outcome once the window is full
+        if (calls == windowSize) {
+            byte oldest = outcomes[index];
+            if ((oldest & FAILED) != 0) failures--;
+            if ((oldest & SLOW) != 0) slowCalls--;
+        } else {
+            calls++;
+        }
+
+        outcomes[index] = outcome;
+        index = (index + 1) % windowSize;
+        if ((outcome & FAILED) != 0) failures++;
+        if ((outcome & SLOW) != 0) slowCalls++;
+
+        if (calls >= minimumCalls
+                && ((double) failures / calls >= failureRateThreshold || (double) slowCalls / calls >= slowCallRateThreshold))
+            open();
+    }
+
+
+    /**
+     * Close the breaker and clear its history
+     */
+    public synchronized void reset() {
+        state = State.CLOSED;
+        clearWindow();
+    }
+
+
+    private void open() {
+        log.warn("DMI circuit breaker opened. Failures: " + failures + ", slow calls: " + slowCalls + " of " + calls
+                + " calls. Requests will be rejected for " + openDurationMillis + " ms.");
+
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+    }
+
+
+    private void clearWindow() {
+        index = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
@@ -0,0 +1,133 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Point in time by which a request to the DMI must be completed, across waiting for a socket from the pool,
+ * connecting, sending, receiving and retries.
+ * <p>
+ * A deadline applies to the requests a thread sends to the DMI while it runs a call with {@code within()}, so it can
+ * be set for any method of the data, CTX and entity services, ie
+ * {@code Deadline.within(Duration.ofSeconds(5), () -> dmiDataService.singleKey(...))}. Deadlines nest, with the
+ * earliest deadline applying. When a deadline passes, the request is abandoned (recycling its socket) with a
+ * {@code DmiDeadlineExceededException}.
+ * <p>
+ * Requests made on other threads, ie by a {@code DmiBatchLoader}, or that wait on an identical request made by another
+ * thread with {@code coalesceRequests}, are not bound by the deadline. Batches read ahead by {@code streamForEntity}
+ * are bound by the deadline of the thread consuming the stream.
+ *
+ * @see DmiService#send(org.ccctc.colleaguedmiclient.transaction.DmiTransaction, Duration)
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+
+    /**
+     * Create a deadline a duration from now
+     *
+     * @param timeout Time until the deadline
+     * @return Deadline
+     */
+    public static Deadline after(@NonNull Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+
+    /**
+     * Deadline of the current thread
+     *
+     * @return Deadline, or null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+
+    /**
+     * Run a call with a deadline for the requests it sends to the DMI. If there already is an earlier deadline, it
+     * still applies.
+     *
+     * @param timeout Time until the deadline
+     * @param call    Call
+     * @param <T>     Type of result
+     * @return Result of the call
+     */
+    public static <T> T within(@NonNull Duration timeout, @NonNull Supplier<T> call) {
+        Deadline previous = CURRENT.get();
+        Deadline deadline = after(timeout);
+        if (previous != null && previous.deadlineNanos - deadline.deadlineNanos < 0) deadline = previous;
+
+        CURRENT.set(deadline);
+        try {
+            return call.get();
+        } finally {
+            if (previous != null) CURRENT.set(previous);
+            else CURRENT.remove();
+        }
+    }
+
+
+    /**
+     * Run a call with a deadline captured on another thread, ie when the call was handed to an executor, replacing any
+     * deadline of the current thread. A null deadline runs the call without one.
+     */
+    static <T> T callWith(Deadline deadline, Supplier<T> call) {
+        Deadline previous = CURRENT.get();
+        if (deadline != null) CURRENT.set(deadline);
+        else CURRENT.remove();
+
+        try {
+            return call.get();
+        } finally {
+            if (previous != null) CURRENT.set(previous);
+            else CURRENT.remove();
+        }
+    }
+
+
+    /**
+     * Time remaining until the deadline
+     *
+     * @return Remaining time in nanoseconds, or zero if the deadline has passed
+     */
+    public long remainingNanos() {
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+
+    /**
+     * Time remaining until the deadline
+     *
+     * @return Remaining time in milliseconds, or zero if the deadline has passed
+     */
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+
+    /**
+     * Whether the deadline has passed
+     *
+     * @return True if the deadline has passed
+     */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Deadline{remainingMillis=" + remainingMillis() + "}";
+    }
+}
@@ -0,0 +1,361 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ccctc.colleaguedmiclient.model.ColleagueData;
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord;
+import org.ccctc.colleaguedmiclient.transaction.data.ViewType;
+import org.ccctc.colleaguedmiclient.util.StringUtils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Batches single key reads made at about the same time into batch key reads, so that many concurrent lookups (ie from
+ * GraphQL resolvers) of the same view and columns, or of the same entity, are one DMI transaction rather than one each.
+ * <p>
+ * A lookup returns a future and is added to a pending batch. The batch is sent as a single {@code BatchKeysRequest}
+ * after {@code windowMillis}, or as soon as it has {@code maxBatchSize} keys, and each future is completed with its
+ * record (or null if not found). Lookups of the same key in a batch share one future. If the read fails, all futures of
+ * the batch complete exceptionally.
+ * <p>
+ * Batches are read on the executor given to the constructor, or by default on up to {@code DEFAULT_THREADS} threads of
+ * the loader, with further batches queued until a thread is free. If the executor rejects a batch, its futures
+ * complete exceptionally.
+ * <p>
+ * The loader is thread safe. Closing it sends any pending batches, after which lookups are no longer accepted.
+ */
+public class DmiBatchLoader implements Closeable {
+
+    private final Log log = LogFactory.getLog(DmiBatchLoader.class);
+
+    /**
+     * Number of threads reading batches when no executor is given
+     */
+    public final static int DEFAULT_THREADS = 4;
+
+    private final DmiDataService dmiDataService;
+    private final DmiEntityService dmiEntityService;
+
+    /**
+     * Time to wait for more keys before sending a batch. Default is 2 ms.
+     */
+    @Getter private long windowMillis = 2;
+
+    /**
+     * Number of keys at which a batch is sent without waiting for the window. Default is 100.
+     */
+    @Getter private int maxBatchSize = 100;
+
+    // pending batches by view and columns (or entity), and whether the loader is closed, guarded by pending
+    private final Map<String, Batch<?>> pending = new HashMap<>();
+    private boolean closed;
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+
+    // executor created by the loader, which is shut down when the loader is closed
+    private final ThreadPoolExecutor ownExecutor;
+
+
+    /**
+     * Create a batch loader for single key reads of data
+     *
+     * @param dmiDataService DMI Data Service
+     */
+    public DmiBatchLoader(@NonNull DmiDataService dmiDataService) {
+        this(dmiDataService, null, null);
+    }
+
+
+    /**
+     * Create a batch loader for single key reads of data, reading batches on an executor. The executor is not shut
+     * down when the loader is closed.
+     *
+     * @param dmiDataService DMI Data Service
+     * @param executor       Executor that reads batches
+     */
+    public DmiBatchLoader(@NonNull DmiDataService dmiDataService, @NonNull Executor executor) {
+        this(dmiDataService, null, executor);
+    }
+
+
+    /**
+     * Create a batch loader for single key reads of data and entities
+     *
+     * @param dmiEntityService DMI Entity Service
+     */
+    public DmiBatchLoader(@NonNull DmiEntityService dmiEntityService) {
+        this(dmiEntityService.getDmiDataService(), dmiEntityService, null);
+    }
+
+
+    /**
+     * Create a batch loader for single key reads of data and entities, reading batches on an executor. The executor is
+     * not shut down when the loader is closed.
+     *
+     * @param dmiEntityService DMI Entity Service
+     * @param executor         Executor that reads batches
+     */
+    public DmiBatchLoader(@NonNull DmiEntityService dmiEntityService, @NonNull Executor executor) {
+        this(dmiEntityService.getDmiDataService(), dmiEntityService, executor);
+    }
+
+
+    private DmiBatchLoader(DmiDataService dmiDataService, DmiEntityService dmiEntityService, Executor executor) {
+        this.dmiDataService = dmiDataService;
+        this.dmiEntityService = dmiEntityService;
+
+        ScheduledThreadPoolExecutor s = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dmi-batch-loader-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        s.setRemoveOnCancelPolicy(true);
+        this.scheduler = s;
+
+        if (executor == null) {
+            ThreadPoolExecutor e = new ThreadPoolExecutor(DEFAULT_THREADS, DEFAULT_THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "dmi-batch-loader");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            e.allowCoreThreadTimeOut(true);
+            this.ownExecutor = e;
+            this.executor = e;
+        } else {
+            this.ownExecutor = null;
+            this.executor = executor;
+        }
+    }
+
+
+    /**
+     * Set the time to wait for more keys before sending a batch. Default is 2 ms.
+     *
+     * @param windowMillis Window in milliseconds
+     */
+    public void setWindowMillis(long windowMillis) {
+        if (windowMillis < 1)
+            throw new IllegalArgumentException("windowMillis must be greater than zero");
+
+        this.windowMillis = windowMillis;
+    }
+
+
+    /**
+     * Set the number of keys at which a batch is sent without waiting for the window. Default is 100.
+     *
+     * @param maxBatchSize Maximum batch size
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be greater than zero");
+
+        this.maxBatchSize = maxBatchSize;
+    }
+
+
+    /**
+     * Read a single record from a view by primary key, as part of a batch. View type is assumed to be PHYS (physical).
+     *
+     * @param appl     Application
+     * @param viewName View
+     * @param columns  Columns
+     * @param key      Primary key
+     * @return Future of the record, completed with null if not found
+     * @throws IllegalStateException if the loader is closed
+     * @see DmiDataService#singleKey(String, String, Iterable, String)
+     */
+    public CompletableFuture<ColleagueData> singleKey(@NonNull String appl, @NonNull String viewName,
+                                                      @NonNull Iterable<String> columns, @NonNull String key) {
+        return singleKey(appl, viewName, ViewType.PHYS, columns, key, null);
+    }
+
+
+    /**
+     * Read a single record from a view by primary key, as part of a batch
+     *
+     * @param appl                Application
+     * @param viewName            View
+     * @param viewType            View type
+     * @param columns             Columns
+     * @param key                 Primary key
+     * @param cddViewNameOverride View name override in CDD
+     * @return Future of the record, completed with null if not found
+     * @throws IllegalStateException if the loader is closed
+     * @see DmiDataService#singleKey(String, String, ViewType, Iterable, String, String)
+     */
+    public CompletableFuture<ColleagueData> singleKey(@NonNull String appl, @NonNull String viewName,
+                                                      @NonNull ViewType viewType, @NonNull Iterable<String> columns,
+                                                      @NonNull String key, String cddViewNameOverride) {
+        String batchKey = appl + StringUtils.FM + viewName + StringUtils.FM + viewType + StringUtils.FM
+                + String.join(Character.toString(StringUtils.VM), columns) + StringUtils.FM + cddViewNameOverride;
+
+        return load(batchKey, key, keys -> {
+            Map<String, ColleagueData> result = new HashMap<>();
+            for (ColleagueData d : dmiDataService.batchKeys(appl, viewName, viewType, columns, keys, cddViewNameOverride)) {
+                result.put(d.getKey(), d);
+            }
+
+            return result;
+        });
+    }
+
+
+    /**
+     * Read an entity by key, as part of a batch
+     *
+     * @param key   Key
+     * @param clazz Entity type
+     * @return Future of the entity, completed with null if not found
+     * @throws IllegalStateException if the loader was not created with a DMI Entity Service, or is closed
+     * @see DmiEntityService#readForEntity(String, Class)
+     */
+    public <T extends ColleagueRecord> CompletableFuture<T> readForEntity(@NonNull String key, @NonNull Class<T> clazz) {
+        if (dmiEntityService == null)
+            throw new IllegalStateException("Batch loader was not created with a DMI Entity Service");
+
+        return load(clazz.getName(), key, keys -> {
+            Map<String, T> result = new HashMap<>();
+            for (T t : dmiEntityService.readForEntity(keys, clazz)) {
+                result.put(t.getRecordId(), t);
+            }
+
+            return result;
+        });
+    }
+
+
+    /**
+     * Send all pending batches without waiting for their window to end
+     */
+    public void dispatch() {
+        List<Batch<?>> batches;
+        synchronized (pending) {
+            batches = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+
+        for (Batch<?> b : batches) {
+            send(b);
+        }
+    }
+
+
+    /**
+     * Send all pending batches and stop accepting new ones
+     */
+    @Override
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+        }
+
+        scheduler.shutdownNow();
+        dispatch();
+        if (ownExecutor != null) ownExecutor.shutdown();
+    }
+
+
+    /**
+     * Add a key to the pending batch for a batch key, starting a new batch (and its window) if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private <V> CompletableFuture<V> load(String batchKey, String key, Function<List<String>, Map<String, V>> loader) {
+        CompletableFuture<V> future;
+        Batch<V> full = null;
+
+        synchronized (pending) {
+            if (closed) throw new IllegalStateException("Batch loader is closed");
+
+            Batch<V> batch = (Batch<V>) pending.get(batchKey);
+            if (batch == null) {
+                Batch<V> b = new Batch<>(loader);
+                b.timer = scheduler.schedule(() -> windowEnded(batchKey, b), windowMillis, TimeUnit.MILLISECONDS);
+                pending.put(batchKey, b);
+                batch = b;
+            }
+
+            future = batch.futures.computeIfAbsent(key, k -> new CompletableFuture<>());
+
+            if (batch.futures.size() >= maxBatchSize) {
+                pending.remove(batchKey);
+                full = batch;
+            }
+        }
+
+        if (full != null) send(full);
+        return future;
+    }
+
+
+    private void windowEnded(String batchKey, Batch<?> batch) {
+        synchronized (pending) {
+            if (!pending.remove(batchKey, batch)) return;
+        }
+
+        send(batch);
+    }
+
+
+    private void send(Batch<?> batch) {
+        batch.timer.cancel(false);
+
+        try {
+            executor.execute(batch::run);
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to read batch of " + batch.futures.size() + " keys: " + e.getMessage());
+            batch.fail(e);
+        }
+    }
+
+
+    private class Batch<V> {
+        private final Function<List<String>, Map<String, V>> loader;
+        private final Map<String, CompletableFuture<V>> futures = new LinkedHashMap<>();
+        private ScheduledFuture<?> timer;
+
+        Batch(Function<List<String>, Map<String, V>> loader) {
+            this.loader = loader;
+        }
+
+        void run() {
+            List<String> keys = new ArrayList<>(futures.keySet());
+            if (log.isDebugEnabled()) log.debug("Reading batch of " + keys.size() + " keys");
+
+            try {
+                Map<String, V> result = loader.apply(keys);
+                for (Map.Entry<String, CompletableFuture<V>> e : futures.entrySet()) {
+                    e.getValue().complete(result.get(e.getKey()));
+                }
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            }
+        }
+
+        void fail(Throwable e) {
+            for (CompletableFuture<V> f : futures.values()) {
+                f.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -2,27 +2,24 @@ package org.ccctc.colleaguedmiclient.service;
 
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.ccctc.colleaguedmiclient.model.CTXAssociation;
+import org.ccctc.colleaguedmiclient.metrics.DmiMetrics;
 import org.ccctc.colleaguedmiclient.model.CTXData;
-import org.ccctc.colleaguedmiclient.model.CTXMetadata;
-import org.ccctc.colleaguedmiclient.model.CTXVariable;
-import org.ccctc.colleaguedmiclient.model.CddEntry;
 import org.ccctc.colleaguedmiclient.model.KeyValuePair;
 import org.ccctc.colleaguedmiclient.model.SessionCredentials;
+import org.ccctc.colleaguedmiclient.socket.Priority;
 import org.ccctc.colleaguedmiclient.transaction.DmiTransaction;
 import org.ccctc.colleaguedmiclient.transaction.ctx.CTXRequest;
 import org.ccctc.colleaguedmiclient.transaction.ctx.CTXResponse;
-import org.ccctc.colleaguedmiclient.util.CddUtils;
+import org.ccctc.colleaguedmiclient.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static org.ccctc.colleaguedmiclient.util.StringUtils.parseIntOrNull;
-
 /**
  * Service for running a Colleague Transaction via the DMI Service.
  * <p>
@@ -42,6 +39,21 @@ public class DmiCTXService {
      */
     @Getter private final CTXMetadataService ctxMetadataService;
 
+    /**
+     * Share the result of identical inquiry-only Colleague Transactions (per {@code CTXMetadata.prcsInquiryOnly}) that
+     * are in flight at the same time, so that concurrent requests with the same parameters send one DMI transaction.
+     * Callers then receive the same {@code CTXData}, which should not be modified. Default is false.
+     */
+    @Getter @Setter private boolean coalesceRequests = false;
+
+    /**
+     * Priority of Colleague Transactions sent by this service when waiting for a socket from the pool. Default is
+     * DEFAULT.
+     */
+    @Getter @Setter @NonNull private Priority priority = Priority.DEFAULT;
+
+    private final InFlightRequests<CTXData> inFlightRequests = new InFlightRequests<>();
+
     /**
      * Create a DMI CTX Service (for running Colleague Transactions). This requires a DMI Service (to send/receive
      * DMI transactions). A default CTX Metadata Service created to map results to field names, types and associations.
@@ -77,33 +89,65 @@ public class DmiCTXService {
      * @return Data from the output parameters of the Colleague Transaction
      */
     public CTXData execute(@NonNull String appl, @NonNull String transactionName, List<KeyValuePair<String, String>> params) {
-        SessionCredentials creds = dmiService.getSessionCredentials();
+        CTXBindingPlan plan = ctxMetadataService.getBindingPlan(appl, transactionName);
 
         // convert parameter names
         List<KeyValuePair<String, String>> newParams = null;
         if (params != null) {
             newParams = new ArrayList<>();
-            CTXMetadata metadata = ctxMetadataService.get(appl, transactionName);
             for (KeyValuePair<String, String> p : params) {
-                String key = p.getKey();
-                String val = p.getValue();
-
-                if (key != null) {
-                    for (CTXVariable v : metadata.getVariables()) {
-                        if (key.equals(v.getVarName()) || key.equals(v.getVarAliasName())) {
-                            newParams.add(new KeyValuePair<>(v.getVarName(), val));
-                            break;
-                        }
-                    }
-                }
+                String varName = (p.getKey() != null) ? plan.varName(p.getKey()) : null;
+                if (varName != null)
+                    newParams.add(new KeyValuePair<>(varName, p.getValue()));
             }
         }
 
+        // an inquiry only reads data, so it is safe to send more than once (ie hedge) or share with identical requests
+        boolean inquiryOnly = plan.getMetadata() != null && "Y".equals(plan.getMetadata().getPrcsInquiryOnly());
+
+        if (coalesceRequests && inquiryOnly) {
+            List<KeyValuePair<String, String>> p = newParams;
+            return inFlightRequests.execute(requestKey(appl, transactionName, newParams),
+                    () -> send(appl, transactionName, p, plan, true));
+        }
+
+        return send(appl, transactionName, newParams, plan, inquiryOnly);
+    }
+
+
+    /**
+     * Send a Colleague Transaction and process its response
+     */
+    private CTXData send(String appl, String transactionName, List<KeyValuePair<String, String>> params,
+                         CTXBindingPlan plan, boolean inquiryOnly) {
+        SessionCredentials creds = dmiService.getSessionCredentials();
         CTXRequest request = new CTXRequest(dmiService.getAccount(), creds.getToken(), creds.getControlId(),
-                dmiService.getSharedSecret(), appl, transactionName, newParams);
+                dmiService.getSharedSecret(), appl, transactionName, params);
+        request.setIdempotent(inquiryOnly);
+        request.setPriority(priority);
 
         DmiTransaction dmiResponse = dmiService.send(request);
-        return processResponse(dmiResponse, appl, transactionName);
+
+        long start = System.nanoTime();
+        CTXData result = processResponse(dmiResponse, plan);
+        dmiService.getMetrics().record(DmiMetrics.MAP, transactionName, System.nanoTime() - start);
+
+        return result;
+    }
+
+
+    /**
+     * Key identifying identical Colleague Transactions for coalescing
+     */
+    private static String requestKey(String appl, String transactionName, List<KeyValuePair<String, String>> params) {
+        StringBuilder b = new StringBuilder(appl).append(StringUtils.FM).append(transactionName);
+        if (params != null) {
+            for (KeyValuePair<String, String> p : params) {
+                b.append(StringUtils.FM).append(p.getKey()).append(StringUtils.VM).append(p.getValue());
+            }
+        }
+
+        return b.toString();
     }
 
 
@@ -137,6 +181,7 @@ public class DmiCTXService {
                     + ", parameters = " + p);
         }
 
+        request.setPriority(priority);
         DmiTransaction dmiResponse = dmiService.send(request);
         CTXResponse ctxResponse = CTXResponse.fromDmiTransaction(dmiResponse);
 
@@ -162,71 +207,33 @@ public class DmiCTXService {
     /**
      * Process response from a CTX Transaction and map variable into their "alias" names as well as build any associations.
      *
-     * @param dmiResponse     DMI Transaction
-     * @param appl            Application
-     * @param transactionName Transaction Name
+     * @param dmiResponse DMI Transaction
+     * @param plan        Binding plan of the Colleague Transaction
      * @return CTX Data
      */
-    private CTXData processResponse(DmiTransaction dmiResponse, String appl, String transactionName) {
-        CTXMetadata metadata = ctxMetadataService.get(appl, transactionName);
+    private CTXData processResponse(DmiTransaction dmiResponse, CTXBindingPlan plan) {
         CTXResponse ctxResponse = CTXResponse.fromDmiTransaction(dmiResponse);
 
         Map<String, Object> variables = new HashMap<>();
         Map<String, List<Map<String, Object>>> associations = new HashMap<>();
 
-        Map<String, String> variableAliases = new HashMap<>();
-
-        // map output variables
-        for (CTXVariable v : metadata.getVariables()) {
-            if (v.getVarDirection() != null && (v.getVarDirection().equals("INOUT") || v.getVarDirection().equals("OUT"))) {
-                String rawValue = ctxResponse.getVariables().get(v.getVarName());
-
-                String variableName = (v.getVarAliasName() != null) ? v.getVarAliasName() : v.getVarName();
-                Object variableValue = null;
-
-                // save this mapping for later when we process associations
-                variableAliases.put(v.getVarName(), variableName);
-
-                if (rawValue != null) {
-                    // Colleague Transactions allow for a "Boolean" type
-                    if (v.getVarIsBool() != null && v.getVarIsBool().equals("Y")) {
-                        Boolean boolValue = null;
-                        String val = rawValue.trim();
-                        if (val.length() > 0) {
-                            if (val.charAt(0) == '1' || val.charAt(0) == 'Y' || val.charAt(0) == 'y')
-                                boolValue = true;
-                            else if (val.charAt(0) == '0' || val.charAt(0) == 'N' || val.charAt(0) == 'n')
-                                boolValue = false;
-                        }
-
-                        variableValue = boolValue;
-                    } else {
-                        // create a partial CDD entry with what we know about this variable so we can convert it to the
-                        // proper data type
-                        CddEntry e = CddEntry.builder()
-                                .databaseUsageType(v.getVarDataType())
-                                .informConversionString(v.getVarConv())
-                                .maximumStorageSize(parseIntOrNull(v.getVarSize()))
-                                .build();
-
-                        variableValue = CddUtils.convertToValue(rawValue, e);
-                    }
-                }
-
-                variables.put(variableName, variableValue);
-            }
+        // map output variables, keeping converted values by position for associations
+        Object[] values = new Object[plan.outputCount()];
+        for (int x = 0; x < values.length; x++) {
+            String rawValue = ctxResponse.getVariables().get(plan.outputVarName(x));
+            values[x] = plan.convertOutput(x, rawValue);
+            variables.put(plan.outputAlias(x), values[x]);
         }
 
         // map associations
-        for (CTXAssociation a : metadata.getAssociations()) {
-            String assocName = (a.getAssocAliasName() != null) ? a.getAssocAliasName() : a.getAssocName();
+        for (int a = 0; a < plan.associationCount(); a++) {
+            String[] aliases = plan.associationMemberAliases(a);
+            int[] indexes = plan.associationMemberIndexes(a);
 
             // determine array size
             int arraySize = 0;
-            for (String var : a.getAssocMembers()) {
-                String alias = variableAliases.get(var);
-
-                Object v = variables.get(alias);
+            for (int index : indexes) {
+                Object v = (index >= 0) ? values[index] : null;
 
                 if (v instanceof Object[]) {
                     int len = ((Object[])v).length;
@@ -239,10 +246,9 @@ public class DmiCTXService {
             while (assocValues.size() < arraySize) assocValues.add(new HashMap<>());
 
             // map values to association, ensuring that each Map in the List has all variables, even if the value is null
-            for (String var : a.getAssocMembers()) {
-                String alias = variableAliases.get(var);
-
-                Object v = variables.get(alias);
+            for (int m = 0; m < indexes.length; m++) {
+                String alias = aliases[m];
+                Object v = (indexes[m] >= 0) ? values[indexes[m]] : null;
 
                 if (v instanceof Object[]) {
                     Object[] o = (Object[])v;
@@ -258,7 +264,7 @@ public class DmiCTXService {
                 }
             }
 
-            associations.put(assocName, assocValues);
+            associations.put(plan.associationName(a), assocValues);
         }
 
         return new CTXData(variables, associations);
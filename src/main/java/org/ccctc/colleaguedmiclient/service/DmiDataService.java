@@ -2,21 +2,25 @@ package org.ccctc.colleaguedmiclient.service;
 
 import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
 import org.apache.commons.collections4.IteratorUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ccctc.colleaguedmiclient.exception.DmiServiceException;
+import org.ccctc.colleaguedmiclient.metrics.DmiMetrics;
 import org.ccctc.colleaguedmiclient.model.CddEntry;
 import org.ccctc.colleaguedmiclient.model.ColleagueData;
 import org.ccctc.colleaguedmiclient.model.ElfTranslateTable;
 import org.ccctc.colleaguedmiclient.model.EntityMetadata;
 import org.ccctc.colleaguedmiclient.model.SessionCredentials;
+import org.ccctc.colleaguedmiclient.socket.Priority;
 import org.ccctc.colleaguedmiclient.model.Valcode;
 import org.ccctc.colleaguedmiclient.transaction.data.SelectRequest;
 import org.ccctc.colleaguedmiclient.transaction.data.SelectResponse;
 import org.ccctc.colleaguedmiclient.transaction.data.SingleKeyRequest;
 import org.ccctc.colleaguedmiclient.transaction.data.ViewType;
 import org.ccctc.colleaguedmiclient.util.CddUtils;
+import org.ccctc.colleaguedmiclient.util.StringUtils;
 import org.ccctc.colleaguedmiclient.transaction.DmiTransaction;
 import org.ccctc.colleaguedmiclient.transaction.data.BatchKeysRequest;
 import org.ccctc.colleaguedmiclient.transaction.data.DataResponse;
@@ -60,6 +64,22 @@ public class DmiDataService {
      */
     private static final int batchSize = 1000;
 
+    /**
+     * Share the result of identical single key and batch key reads that are in flight at the same time, so that
+     * concurrent requests for the same records (ie the same section during registration) send one DMI transaction.
+     * Callers then receive the same {@code ColleagueData} objects, which should not be modified. Default is false.
+     */
+    @Getter @Setter private boolean coalesceRequests = false;
+
+    /**
+     * Priority of requests sent by this service when waiting for a socket from the pool. Default is DEFAULT. For bulk
+     * jobs such as exports, a separate service with BULK priority can share the DMI Service and metadata services.
+     */
+    @Getter @Setter @NonNull private Priority priority = Priority.DEFAULT;
+
+    private final InFlightRequests<ColleagueData> singleKeyRequests = new InFlightRequests<>();
+    private final InFlightRequests<List<ColleagueData>> batchKeysRequests = new InFlightRequests<>();
+
     /**
      * Create a DMI data service. This requires a DMI Service (to send/receive DMI transactions) and a DMI CTX
      * Service (to run CTX transactions). A default Entity Metadata Service created to map DMI results to actual
@@ -114,14 +134,36 @@ public class DmiDataService {
      */
     public ColleagueData singleKey(@NonNull String appl, @NonNull String viewName, @NonNull ViewType viewType,
                                    @NonNull Iterable<String> columns, @NonNull String key, String cddViewNameOverride) {
+        return singleKey(appl, viewName, viewType, columns, key, cddViewNameOverride, false);
+    }
+
+
+    /**
+     * Select a single record from a view by selection primary key, optionally returning multi-valued fields as
+     * {@code MultiValue} (converted lazily) rather than arrays.
+     */
+    ColleagueData singleKey(@NonNull String appl, @NonNull String viewName, @NonNull ViewType viewType,
+                            @NonNull Iterable<String> columns, @NonNull String key, String cddViewNameOverride,
+                            boolean lazyMultiValues) {
+        if (coalesceRequests)
+            return singleKeyRequests.execute(
+                    requestKey(appl, viewName, viewType, columns, Collections.singleton(key), cddViewNameOverride, lazyMultiValues),
+                    () -> doSingleKey(appl, viewName, viewType, columns, key, cddViewNameOverride, lazyMultiValues));
+
+        return doSingleKey(appl, viewName, viewType, columns, key, cddViewNameOverride, lazyMultiValues);
+    }
+
+    private ColleagueData doSingleKey(String appl, String viewName, ViewType viewType, Iterable<String> columns,
+                                      String key, String cddViewNameOverride, boolean lazyMultiValues) {
         SessionCredentials creds = dmiService.getSessionCredentials();
         SingleKeyRequest request = new SingleKeyRequest(dmiService.getAccount(), creds.getToken(), creds.getControlId(),
                 dmiService.getSharedSecret(), viewName, viewType, columns, key);
 
         logSend("singleKey", viewName, columns, Collections.singleton(key), null);
 
+        request.setPriority(priority);
         DmiTransaction dmiResponse = dmiService.send(request);
-        List<ColleagueData> data = processResponse(dmiResponse, appl, viewName, columns, cddViewNameOverride);
+        List<ColleagueData> data = processResponse(dmiResponse, appl, viewName, columns, cddViewNameOverride, lazyMultiValues);
 
         logReceive("singleKey", viewName, data.size());
 
@@ -163,6 +205,27 @@ public class DmiDataService {
     public List<ColleagueData> batchKeys(@NonNull String appl, @NonNull String viewName, @NonNull ViewType viewType,
                                          @NonNull Iterable<String> columns, @NonNull Iterable<String> keys,
                                          String cddViewNameOverride) {
+        return batchKeys(appl, viewName, viewType, columns, keys, cddViewNameOverride, false);
+    }
+
+
+    /**
+     * Select a list of records from a view by selection primary key(s), optionally returning multi-valued fields as
+     * {@code MultiValue} (converted lazily) rather than arrays.
+     */
+    List<ColleagueData> batchKeys(@NonNull String appl, @NonNull String viewName, @NonNull ViewType viewType,
+                                  @NonNull Iterable<String> columns, @NonNull Iterable<String> keys,
+                                  String cddViewNameOverride, boolean lazyMultiValues) {
+        if (coalesceRequests)
+            return batchKeysRequests.execute(
+                    requestKey(appl, viewName, viewType, columns, keys, cddViewNameOverride, lazyMultiValues),
+                    () -> doBatchKeys(appl, viewName, viewType, columns, keys, cddViewNameOverride, lazyMultiValues));
+
+        return doBatchKeys(appl, viewName, viewType, columns, keys, cddViewNameOverride, lazyMultiValues);
+    }
+
+    private List<ColleagueData> doBatchKeys(String appl, String viewName, ViewType viewType, Iterable<String> columns,
+                                            Iterable<String> keys, String cddViewNameOverride, boolean lazyMultiValues) {
 
         List<String> keysList = (keys instanceof List) ? (List) keys : IteratorUtils.toList(keys.iterator());
 
@@ -177,8 +240,9 @@ public class DmiDataService {
 
             logSend("batchKeys", viewName, columns, keys, null);
 
+            request.setPriority(priority);
             DmiTransaction dmiReponse = dmiService.send(request);
-            List<ColleagueData> data = processResponse(dmiReponse, appl, viewName, columns, cddViewNameOverride);
+            List<ColleagueData> data = processResponse(dmiReponse, appl, viewName, columns, cddViewNameOverride, lazyMultiValues);
 
             logReceive("batchKeys", viewName, data.size());
 
@@ -198,9 +262,10 @@ public class DmiDataService {
 
                 logSend("batchKeys", viewName, columns, keysSubList, null);
 
+                request.setPriority(priority);
                 DmiTransaction dmiReponse = dmiService.send(request);
 
-                List<ColleagueData> data = processResponse(dmiReponse, appl, viewName, columns, cddViewNameOverride);
+                List<ColleagueData> data = processResponse(dmiReponse, appl, viewName, columns, cddViewNameOverride, lazyMultiValues);
 
                 logReceive("batchKeys", viewName, data.size());
 
@@ -269,6 +334,7 @@ public class DmiDataService {
         BatchSelectRequest request = new BatchSelectRequest(dmiService.getAccount(), creds.getToken(), creds.getControlId(),
                 dmiService.getSharedSecret(), viewName, viewType, columns, criteria);
 
+        request.setPriority(priority);
         DmiTransaction dmiResponse = dmiService.send(request);
         return processResponse(dmiResponse, appl, viewName, columns);
 
@@ -315,6 +381,7 @@ public class DmiDataService {
 
         logSend("selectKeys", viewName, null, null, criteria);
 
+        request.setPriority(priority);
         DmiTransaction dmiResponse = dmiService.send(request);
         SelectResponse selectResponse = SelectResponse.fromDmiTransaction(dmiResponse);
 
@@ -399,6 +466,24 @@ public class DmiDataService {
         return null;
     }
 
+    /**
+     * Get the name of the view in the CDD (the name used to read its entity metadata) for a view, unless overridden
+     *
+     * @param appl                Application
+     * @param viewName            View
+     * @param cddViewNameOverride View name override in CDD (optional)
+     * @return View name in CDD
+     */
+    static String cddViewName(String appl, String viewName, String cddViewNameOverride) {
+        if (cddViewNameOverride != null) return cddViewNameOverride;
+
+        if (viewName.length() >= appl.length() + 1 && (appl + ".").equals(viewName.substring(0, appl.length() + 1)))
+            return "appl." + viewName.substring(appl.length() + 1);
+
+        return viewName;
+    }
+
+
     /**
      * Process a DMI response for this data request. The result is a list of records with the field names
      * and data types mapped based on the entity metadata from EntityMetadataService.
@@ -408,21 +493,19 @@ public class DmiDataService {
      * @param viewName
      * @param columns     Columns
      * @param cddViewNameOverride View name override in CDD
+     * @param lazyMultiValues     Return multi-valued fields as {@code MultiValue} rather than arrays?
      * @return List of records
      */
     private List<ColleagueData> processResponse(DmiTransaction dmiResponse, String appl, String viewName,
-                                                Iterable<String> columns, String cddViewNameOverride) {
+                                                Iterable<String> columns, String cddViewNameOverride,
+                                                boolean lazyMultiValues) {
 
         List<ColleagueData> result = new ArrayList<>();
 
-        if (cddViewNameOverride == null) {
-            if (viewName.length() >= appl.length() + 1 && (appl + ".").equals(viewName.substring(0, appl.length() + 1)))
-                cddViewNameOverride = "appl." + viewName.substring(appl.length() + 1);
-            else
-                cddViewNameOverride = viewName;
-        }
+        EntityMetadata entityMetadata = entityMetadataService.get(appl, cddViewName(appl, viewName, cddViewNameOverride));
 
-        EntityMetadata entityMetadata = entityMetadataService.get(appl, cddViewNameOverride);
+        // timed after the metadata, which may itself be read from the DMI
+        long start = System.nanoTime();
         DataResponse dataResponse = DataResponse.fromDmiTransaction(dmiResponse);
 
         if (dataResponse.getOrder().size() > 0) {
@@ -441,7 +524,7 @@ public class DmiDataService {
                     if (cddEntry == null)
                         throw new DmiServiceException("Invalid field requested: " + column + " for " + appl + "." + viewName);
 
-                    Object value = mapField(record, cddEntry);
+                    Object value = mapField(record, cddEntry, lazyMultiValues);
                     values.put(column, value);
                 }
 
@@ -449,6 +532,8 @@ public class DmiDataService {
             }
         }
 
+        dmiService.getMetrics().record(DmiMetrics.MAP, viewName, System.nanoTime() - start);
+
         return result;
     }
 
@@ -459,10 +544,11 @@ public class DmiDataService {
      * The following data types are possible: String, Long, Integer, BigDecimal, LocalDate, LocalTime
      *
      * @param record   Record from the DMI response. This includes all fields from the response.
-     * @param cddEntry CDD Entry of the field we want to map
+     * @param cddEntry        CDD Entry of the field we want to map
+     * @param lazyMultiValues Return a multi-valued field as a {@code MultiValue} rather than an array?
      * @return Mapped field
      */
-    private Object mapField(String[] record, CddEntry cddEntry) {
+    private Object mapField(String[] record, CddEntry cddEntry, boolean lazyMultiValues) {
         String stringValue = null;
 
         // find value in record based on field placement from CDD entry
@@ -472,8 +558,11 @@ public class DmiDataService {
             if ("".equals(stringValue)) stringValue = null;
         }
 
-        if (stringValue != null)
-            return CddUtils.convertToValue(stringValue, cddEntry);
+        if (stringValue != null) {
+            return lazyMultiValues
+                    ? cddEntry.getConverter().convertToLazyValue(stringValue)
+                    : CddUtils.convertToValue(stringValue, cddEntry);
+        }
 
         return null;
     }
@@ -549,6 +638,18 @@ public class DmiDataService {
     }
 
 
+    /**
+     * Key identifying identical reads for coalescing
+     */
+    private static String requestKey(String appl, String viewName, ViewType viewType, Iterable<String> columns,
+                                     Iterable<String> keys, String cddViewNameOverride, boolean lazyMultiValues) {
+        return appl + StringUtils.FM + viewName + StringUtils.FM + viewType + StringUtils.FM
+                + String.join(Character.toString(StringUtils.VM), columns) + StringUtils.FM
+                + String.join(Character.toString(StringUtils.VM), keys) + StringUtils.FM
+                + cddViewNameOverride + StringUtils.FM + lazyMultiValues;
+    }
+
+
     /**
      * Logging prior to sending data to the DMI
      */
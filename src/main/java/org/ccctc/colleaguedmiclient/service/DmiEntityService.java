@@ -1,9 +1,11 @@
 package org.ccctc.colleaguedmiclient.service;
 
+import lombok.NonNull;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.ccctc.colleaguedmiclient.annotation.Association;
 import org.ccctc.colleaguedmiclient.annotation.AssociationEntity;
+import org.ccctc.colleaguedmiclient.annotation.Cacheable;
 import org.ccctc.colleaguedmiclient.annotation.Entity;
 import org.ccctc.colleaguedmiclient.annotation.Field;
 import org.ccctc.colleaguedmiclient.annotation.Ignore;
@@ -11,6 +13,10 @@ import org.ccctc.colleaguedmiclient.annotation.Join;
 import org.ccctc.colleaguedmiclient.exception.DmiServiceException;
 import org.ccctc.colleaguedmiclient.model.ColleagueData;
 import org.ccctc.colleaguedmiclient.model.ColleagueRecord;
+import org.ccctc.colleaguedmiclient.model.DateVector;
+import org.ccctc.colleaguedmiclient.model.Lazy;
+import org.ccctc.colleaguedmiclient.model.LazyList;
+import org.ccctc.colleaguedmiclient.model.MultiValue;
 import org.ccctc.colleaguedmiclient.model.Property;
 import org.ccctc.colleaguedmiclient.transaction.data.ViewType;
 import org.ccctc.colleaguedmiclient.util.StringUtils;
@@ -18,19 +24,38 @@ import org.ccctc.colleaguedmiclient.util.StringUtils;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.reflect.Array;
 import java.lang.reflect.ParameterizedType;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DmiEntityService {
 
@@ -41,10 +66,16 @@ public class DmiEntityService {
 
     private final static String ID_FIELD = "@ID";
     private final static long DEFAULT_CACHE_EXPIRATION_SECONDS = 24 * 60 * 60;
+    private final static int DEFAULT_STREAM_BATCH_SIZE = 1000;
+    private final static Executor DEFAULT_READ_AHEAD_EXECUTOR = newReadAheadExecutor();
 
     private DmiDataService dmiDataService;
     private MetadataCache<EntityMetadata> entityCache;
+    private final Map<Class, EntityCache> recordCaches = new ConcurrentHashMap<>();
     private boolean concurrentQueries = false;
+    private int streamBatchSize = DEFAULT_STREAM_BATCH_SIZE;
+    private boolean streamReadAhead = false;
+    private Executor streamReadAheadExecutor = DEFAULT_READ_AHEAD_EXECUTOR;
 
     public DmiEntityService(DmiDataService dmiDataService) {
         this.dmiDataService = dmiDataService;
@@ -52,10 +83,19 @@ public class DmiEntityService {
     }
 
     /**
-     * Clear the cache
+     * Get the DMI Data Service used by this service
+     */
+    DmiDataService getDmiDataService() {
+        return dmiDataService;
+    }
+
+
+    /**
+     * Clear the cache, including records cached for entities marked with {@code @Cacheable}
      */
     public void clearCache() {
         entityCache.clear();
+        recordCaches.clear();
     }
 
 
@@ -105,6 +145,77 @@ public class DmiEntityService {
     }
 
 
+    /**
+     * Get number of records read per batch by {@code streamForEntity}
+     *
+     * @return Batch size
+     */
+    public int getStreamBatchSize() {
+        return streamBatchSize;
+    }
+
+
+    /**
+     * Set number of records read per batch by {@code streamForEntity}. Default is 1000.
+     *
+     * @param streamBatchSize Batch size
+     */
+    public void setStreamBatchSize(int streamBatchSize) {
+        if (streamBatchSize < 1)
+            throw new IllegalArgumentException("streamBatchSize must be greater than zero");
+
+        this.streamBatchSize = streamBatchSize;
+    }
+
+
+    /**
+     * Whether {@code streamForEntity} reads the next batch in the background while the current batch is consumed
+     *
+     * @return true/false
+     */
+    public boolean isStreamReadAhead() {
+        return streamReadAhead;
+    }
+
+
+    /**
+     * Enable reading the next batch in the background while the current batch of {@code streamForEntity} is consumed
+     */
+    public void enableStreamReadAhead() {
+        this.streamReadAhead = true;
+    }
+
+
+    /**
+     * Disable reading the next batch in the background while the current batch of {@code streamForEntity} is consumed
+     */
+    public void disableStreamReadAhead() {
+        this.streamReadAhead = false;
+    }
+
+
+    /**
+     * Get the executor that reads batches ahead for {@code streamForEntity}
+     *
+     * @return Executor
+     */
+    public Executor getStreamReadAheadExecutor() {
+        return streamReadAheadExecutor;
+    }
+
+
+    /**
+     * Set the executor that reads batches ahead for {@code streamForEntity}. Default is a pool of two daemon threads
+     * with room for 16 waiting batches, shared by all services. If the executor rejects a batch, it is read when the
+     * stream reaches it.
+     *
+     * @param streamReadAheadExecutor Executor
+     */
+    public void setStreamReadAheadExecutor(@NonNull Executor streamReadAheadExecutor) {
+        this.streamReadAheadExecutor = streamReadAheadExecutor;
+    }
+
+
     /**
      * Read data into an entity given a single key
      *
@@ -113,7 +224,20 @@ public class DmiEntityService {
      * @return Entity
      */
     public <T extends ColleagueRecord> T readForEntity(String key, Class<T> clazz) {
-        List<T> result = readForEntity(Collections.singletonList(key), clazz);
+        return readForEntity(key, clazz, FetchPlan.all());
+    }
+
+
+    /**
+     * Read data into an entity given a single key, reading only the fields and joins in the fetch plan
+     *
+     * @param key   Key
+     * @param clazz Entity type
+     * @param plan  Fetch plan
+     * @return Entity
+     */
+    public <T extends ColleagueRecord> T readForEntity(String key, Class<T> clazz, FetchPlan plan) {
+        List<T> result = readForEntity(Collections.singletonList(key), clazz, plan);
         return result.size() > 0 ? result.get(0) : null;
     }
 
@@ -129,8 +253,25 @@ public class DmiEntityService {
      */
     public <T extends ColleagueRecord> List<T> readForEntity(String viewName, String criteria,
                                                              Iterable<String> limitingKeys, Class<T> clazz) {
+        return readForEntity(viewName, criteria, limitingKeys, clazz, FetchPlan.all());
+    }
+
+
+    /**
+     * Read data into an entity given a query, reading only the fields and joins in the fetch plan
+     *
+     * @param viewName     View name
+     * @param criteria     Criteria (optional - if null will return all records in view)
+     * @param limitingKeys Limiting keys (optional)
+     * @param clazz        Entity type
+     * @param plan         Fetch plan
+     * @return Entities
+     */
+    public <T extends ColleagueRecord> List<T> readForEntity(String viewName, String criteria,
+                                                             Iterable<String> limitingKeys, Class<T> clazz,
+                                                             FetchPlan plan) {
         String[] keys = dmiDataService.selectKeys(viewName, criteria, limitingKeys);
-        return readForEntity(Arrays.asList(keys), clazz);
+        return readForEntity(Arrays.asList(keys), clazz, plan);
     }
 
 
@@ -142,8 +283,142 @@ public class DmiEntityService {
      * @return Entities
      */
     public <T extends ColleagueRecord> List<T> readForEntity(Collection<String> keys, Class<T> clazz) {
+        return readForEntity(keys, clazz, FetchPlan.all());
+    }
+
+
+    /**
+     * Stream data into an entity given a query. Records are read in batches of {@code streamBatchSize}, with joins
+     * resolved per batch, so that only one batch (two if read ahead is enabled) is held in memory at a time.
+     * <p>
+     * The stream should be closed if it is not fully consumed to cancel any batch being read ahead. Cancelling
+     * interrupts the thread reading ahead, which stops a read waiting for a socket or to retry - a DMI transaction that
+     * is already being sent completes and its result is discarded. Batches read ahead are bound by the {@code Deadline}
+     * of the thread that created the stream.
+     *
+     * @param viewName     View name
+     * @param criteria     Criteria (optional - if null will return all records in view)
+     * @param limitingKeys Limiting keys (optional)
+     * @param clazz        Entity type
+     * @return Stream of entities
+     */
+    public <T extends ColleagueRecord> Stream<T> streamForEntity(String viewName, String criteria,
+                                                                 Iterable<String> limitingKeys, Class<T> clazz) {
+        return streamForEntity(viewName, criteria, limitingKeys, clazz, FetchPlan.all());
+    }
+
+
+    /**
+     * Stream data into an entity given a query, reading only the fields and joins in the fetch plan
+     *
+     * @param viewName     View name
+     * @param criteria     Criteria (optional - if null will return all records in view)
+     * @param limitingKeys Limiting keys (optional)
+     * @param clazz        Entity type
+     * @param plan         Fetch plan
+     * @return Stream of entities
+     * @see #streamForEntity(String, String, Iterable, Class)
+     */
+    public <T extends ColleagueRecord> Stream<T> streamForEntity(String viewName, String criteria,
+                                                                 Iterable<String> limitingKeys, Class<T> clazz,
+                                                                 FetchPlan plan) {
+        String[] keys = dmiDataService.selectKeys(viewName, criteria, limitingKeys);
+        return streamForEntity(Arrays.asList(keys), clazz, plan);
+    }
+
+
+    /**
+     * Stream data into an entity given a list of keys, reading only the fields and joins in the fetch plan
+     *
+     * @param keys  Keys
+     * @param clazz Entity type
+     * @param plan  Fetch plan
+     * @return Stream of entities
+     * @see #streamForEntity(String, String, Iterable, Class)
+     */
+    public <T extends ColleagueRecord> Stream<T> streamForEntity(Collection<String> keys, Class<T> clazz, FetchPlan plan) {
+        BatchIterator<T> batches = new BatchIterator<>(keys, clazz, plan, streamBatchSize,
+                streamReadAhead ? streamReadAheadExecutor : null);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(List::stream)
+                .onClose(batches::close);
+    }
+
+
+    /**
+     * Read data into an entity given a list of keys, reading only the fields and joins in the fetch plan
+     *
+     * @param keys  Keys
+     * @param clazz Entity type
+     * @param plan  Fetch plan
+     * @return Entities
+     */
+    public <T extends ColleagueRecord> List<T> readForEntity(Collection<String> keys, Class<T> clazz, FetchPlan plan) {
         if (keys == null || keys.size() == 0) return new ArrayList<>();
+        if (plan == null) plan = FetchPlan.all();
+
+        Cacheable cacheable = clazz.getAnnotation(Cacheable.class);
+        if (cacheable != null)
+            return readCacheable(keys, clazz, plan, cacheable);
+
+        return readFromDmi(keys, clazz, plan);
+    }
+
+
+    /**
+     * Read an entity marked with {@code @Cacheable}. Records found in the cache are copied, the rest are read from the
+     * DMI. Records read from the DMI are only cached when read with a plan that reads all fields and joins, so the
+     * cache always holds complete records. Results are returned in the order of the keys.
+     */
+    private <T extends ColleagueRecord> List<T> readCacheable(Collection<String> keys, Class<T> clazz, FetchPlan plan,
+                                                             Cacheable cacheable) {
+        EntityCache cache = recordCaches.computeIfAbsent(clazz,
+                c -> new EntityCache(cacheable.ttlSeconds(), cacheable.maxEntries()));
+
+        Map<Object, Object> copies = new IdentityHashMap<>();
+        Map<String, T> found = new LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+
+        for (String key : keys) {
+            ColleagueRecord cached = cache.get(key);
+            if (cached != null) {
+                found.put(key, clazz.cast(copy(cached, copies)));
+            } else {
+                misses.add(key);
+            }
+        }
+
+        if (log.isTraceEnabled())
+            log.trace("Cache for " + clazz.getName() + ": " + found.size() + " hits, " + misses.size() + " misses");
 
+        Map<String, T> read = new LinkedHashMap<>();
+        if (misses.size() > 0) {
+            Map<Object, Object> stored = new IdentityHashMap<>();
+            for (T record : readFromDmi(misses, clazz, plan)) {
+                read.put(record.getRecordId(), record);
+                if (plan.isAll())
+                    cache.put(record.getRecordId(), (ColleagueRecord) copy(record, stored));
+            }
+        }
+
+        List<T> result = new ArrayList<>();
+        for (String key : keys) {
+            T record = found.containsKey(key) ? found.remove(key) : read.remove(key);
+            if (record != null) result.add(record);
+        }
+
+        // records from the DMI with a record ID that differs from the requested key
+        result.addAll(read.values());
+
+        return result;
+    }
+
+
+    /**
+     * Read data into an entity from the DMI given a list of keys, reading only the fields and joins in the fetch plan
+     */
+    private <T extends ColleagueRecord> List<T> readFromDmi(Collection<String> keys, Class<T> clazz, FetchPlan plan) {
         Entity entityAnnotation = clazz.getAnnotation(Entity.class);
 
         if (entityAnnotation == null)
@@ -155,20 +430,23 @@ public class DmiEntityService {
         String cddName = "".equals(entityAnnotation.cddName()) ? null : entityAnnotation.cddName();
 
         EntityMetadata entityMetadata = getEntityMetadata(clazz);
-        Set<String> columns = entityMetadata.getColumns();
+        entityMetadata.validate(plan, clazz);
+        Set<String> columns = entityMetadata.getColumns(plan);
 
-        // read data from the DMI
+        // read data from the DMI. multi-valued fields are read as MultiValue so that only the values that are mapped
+        // are split and converted (ie a single-valued property reads only the first value)
         List<ColleagueData> sourceData = null;
         if (keys.size() == 1) {
-            ColleagueData data = dmiDataService.singleKey(appl, viewName, viewType, columns, keys.iterator().next(), cddName);
+            ColleagueData data = dmiDataService.singleKey(appl, viewName, viewType, columns, keys.iterator().next(),
+                    cddName, true);
             if (data != null) sourceData = Collections.singletonList(data); 
         } else {
-            sourceData = dmiDataService.batchKeys(appl, viewName, viewType, columns, keys, cddName);
+            sourceData = dmiDataService.batchKeys(appl, viewName, viewType, columns, keys, cddName, true);
         }
 
         if (sourceData != null && sourceData.size() > 0) {
             // map source data to the destination entity, including making recursive calls to this method to handle joins
-            return processData(sourceData, entityMetadata, clazz);
+            return processData(sourceData, entityMetadata, clazz, plan);
         }
 
         return new ArrayList<>();
@@ -180,23 +458,24 @@ public class DmiEntityService {
      * records is processed first, indexing join specifications as it goes. Finally, joins are processed on the entire
      * result set for efficiency (as opposed to record by record) using the join spec indexes.
      */
-    private <T extends ColleagueRecord> List<T> processData(List<ColleagueData> sourceData, EntityMetadata metadata, Class<T> clazz) {
+    private <T extends ColleagueRecord> List<T> processData(List<ColleagueData> sourceData, EntityMetadata metadata,
+                                                            Class<T> clazz, FetchPlan plan) {
         Map<JoinMetadata, List<JoinSpec>> joinIndexes = new HashMap<>();
         List<T> result = new ArrayList<>();
 
         // read the data into our class and index the records by primary key as well as the join keys
         for (ColleagueData source : sourceData) {
             // map the data to a new object and add to our indexed result
-            T dest = mapEntityData(clazz, source, metadata);
+            T dest = mapEntityData(clazz, source, metadata, plan);
             result.add(dest);
 
             if (metadata.joinMap.size() > 0) {
-                indexJoins(source, dest, metadata.joinMap, joinIndexes);
+                indexJoins(source, dest, metadata.joinMap, joinIndexes, plan);
             }
         }
 
         // process joins
-        processJoins(joinIndexes);
+        processJoins(joinIndexes, plan);
 
         return result;
     }
@@ -218,9 +497,11 @@ public class DmiEntityService {
      *
      */
     private void indexJoins(ColleagueData sourceData, ColleagueRecord destData, Map<String, JoinMetadata> joinMetadataMap,
-                            Map<JoinMetadata, List<JoinSpec>> joinIndexes) {
+                            Map<JoinMetadata, List<JoinSpec>> joinIndexes, FetchPlan plan) {
         // index the joins
         for (Map.Entry<String, JoinMetadata> join : joinMetadataMap.entrySet()) {
+            if (!plan.followsJoin(join.getValue().property.getName())) continue;
+
             Object sourceValue = getColleagueDataField(sourceData, join.getKey());
 
             if (sourceValue != null) {
@@ -231,7 +512,13 @@ public class DmiEntityService {
                 String suffix = "";
 
                 // get key(s) from the source record
-                if (sourceValue instanceof Object[]) {
+                if (sourceValue instanceof MultiValue) {
+                    MultiValue<?> mv = (MultiValue<?>) sourceValue;
+                    for (int x = 0; x < mv.size(); x++) {
+                        Object s = mv.get(x);
+                        if (s != null) childKeys.add(s.toString());
+                    }
+                } else if (sourceValue instanceof Object[]) {
                     for (Object s : (Object[]) sourceValue) {
                         if (s != null) childKeys.add(s.toString());
                     }
@@ -304,14 +591,24 @@ public class DmiEntityService {
     }
 
     /**
-     * Process joins
+     * Process joins. Lazy joins are linked to their parents with proxies that are loaded on first access, all other
+     * joins are read immediately.
      */
-    private void processJoins(Map<JoinMetadata, List<JoinSpec>> joinIndexes) {
+    private void processJoins(Map<JoinMetadata, List<JoinSpec>> joinIndexes, FetchPlan plan) {
+        List<Map.Entry<JoinMetadata, List<JoinSpec>>> eagerJoins = new ArrayList<>();
+        for (Map.Entry<JoinMetadata, List<JoinSpec>> j : joinIndexes.entrySet()) {
+            if (j.getKey().lazy) {
+                processLazyJoin(j.getKey(), j.getValue(), plan);
+            } else {
+                eagerJoins.add(j);
+            }
+        }
+
         if (concurrentQueries) {
 
             // run the queries concurrently and wait for all of them to finish
-            joinIndexes.entrySet().stream()
-                    .map(j -> CompletableFuture.runAsync(() -> processOneJoin(j.getKey(), j.getValue())))
+            eagerJoins.stream()
+                    .map(j -> CompletableFuture.runAsync(() -> processOneJoin(j.getKey(), j.getValue(), plan)))
                     .collect(Collectors.toList())
                     .forEach(j -> {
                         try {
@@ -322,8 +619,8 @@ public class DmiEntityService {
                     });
 
         } else {
-            for (Map.Entry<JoinMetadata, List<JoinSpec>> j : joinIndexes.entrySet()) {
-                processOneJoin(j.getKey(), j.getValue());
+            for (Map.Entry<JoinMetadata, List<JoinSpec>> j : eagerJoins) {
+                processOneJoin(j.getKey(), j.getValue(), plan);
             }
         }
     }
@@ -332,7 +629,7 @@ public class DmiEntityService {
     /**
      * Process a single join
      */
-    private void processOneJoin(JoinMetadata joinMetadata, List<JoinSpec> joinSpecs) {
+    private void processOneJoin(JoinMetadata joinMetadata, List<JoinSpec> joinSpecs, FetchPlan plan) {
         Property parentProperty = joinMetadata.property;
         Class parentPropertyType = parentProperty.getType();
         boolean parentPropertyIsCollection = (parentPropertyType == Collection.class || parentPropertyType == List.class);
@@ -340,6 +637,55 @@ public class DmiEntityService {
 
         log.trace("Processing joins for field " + parentProperty.getName() + "...");
 
+        Map<String, ColleagueRecord> indexed = readJoinChildren(joinMetadata, joinSpecs, plan);
+
+        // link child entities back to parents
+        for (JoinSpec joinSpec : joinSpecs) {
+            List<ColleagueRecord> kids = joinSpec.getChildren(indexed);
+
+            if (kids.size() > 0) {
+                if (parentPropertyIsCollection) {
+                    parentProperty.setProperty(joinSpec.parent, kids);
+                } else if (parentPropertyIsArray) {
+                    parentProperty.setProperty(joinSpec.parent, kids.toArray(new ColleagueRecord[0]));
+                } else {
+                    parentProperty.setProperty(joinSpec.parent, kids.get(0));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Process a single lazy join. Each parent gets a proxy (a {@code Lazy} or a {@code LazyList}) that shares a single
+     * loader, so the first access to any of them reads the children of all parents in one request.
+     */
+    private void processLazyJoin(JoinMetadata joinMetadata, List<JoinSpec> joinSpecs, FetchPlan plan) {
+        Property parentProperty = joinMetadata.property;
+        boolean parentPropertyIsLazy = parentProperty.getType() == Lazy.class;
+
+        log.trace("Linking lazy joins for field " + parentProperty.getName() + "...");
+
+        LazyJoinLoader loader = new LazyJoinLoader(joinMetadata, joinSpecs, plan);
+
+        for (JoinSpec joinSpec : joinSpecs) {
+            if (parentPropertyIsLazy) {
+                parentProperty.setProperty(joinSpec.parent, new LazyJoin(loader, joinSpec));
+            } else {
+                parentProperty.setProperty(joinSpec.parent, new LazyJoinList(loader, joinSpec));
+            }
+        }
+    }
+
+
+    /**
+     * Read the child records of a join for all of its join specifications, indexed by record ID. The children are read
+     * using the join's plan from the parent's fetch plan.
+     */
+    private Map<String, ColleagueRecord> readJoinChildren(JoinMetadata joinMetadata, List<JoinSpec> joinSpecs,
+                                                          FetchPlan plan) {
+        Property parentProperty = joinMetadata.property;
+
         // get the full child keys from the join index (this includes the prefix and suffix appended)
         Set<String> childKeys = new HashSet<>();
         if (joinSpecs != null) {
@@ -348,51 +694,59 @@ public class DmiEntityService {
             }
         }
 
-        if (childKeys.size() == 0) return;
+        if (childKeys.size() == 0) return Collections.emptyMap();
+
+        Class childType = joinChildType(parentProperty);
+
+        // read child entities
+        List<ColleagueRecord> children = readForEntity(childKeys, childType, plan.getJoinPlan(parentProperty.getName()));
+
+        // index values
+        Map<String, ColleagueRecord> indexed = new HashMap<>();
+        for (ColleagueRecord o : children) {
+            indexed.put(o.getRecordId(), o);
+        }
+
+        return indexed;
+    }
+
+
+    /**
+     * Get the child record type of a join - if the property is a Collection or Lazy, this is its generic type
+     */
+    private Class joinChildType(Property property) {
+        Class propertyType = property.getType();
 
-        // get the child record type - if the property is a Collection, we need its generic type
         Class childType;
-        if (parentPropertyIsCollection) {
-            childType = (Class) parentProperty.getGenericTypeArguments()[0];
-        } else if (parentPropertyIsArray) {
-            childType = parentPropertyType.getComponentType();
+        if (propertyType == Collection.class || propertyType == List.class || propertyType == Lazy.class) {
+            childType = (Class) property.getGenericTypeArguments()[0];
+        } else if (propertyType.isArray()) {
+            childType = propertyType.getComponentType();
         } else {
-            childType = parentPropertyType;
+            childType = propertyType;
         }
 
         // ensure the child record type is a ColleagueRecord, otherwise the call to readForEntity will fail
         if (!ColleagueRecord.class.isAssignableFrom(childType))
             throw new DmiServiceException("Child class of Join must inherit from ColleagueRecord");
 
-        // read child entities
-        List<ColleagueRecord> children = readForEntity(childKeys, childType);
+        return childType;
+    }
 
-        // link child entities back to parents
-        if (children != null) {
-            // index values
-            Map<String, ColleagueRecord> indexed = new HashMap<>();
-            for (ColleagueRecord o : children) {
-                indexed.put(o.getRecordId(), o);
-            }
-
-            for (JoinSpec joinSpec : joinSpecs) {
-                List<ColleagueRecord> kids = new ArrayList<>();
-                for (String fk : joinSpec.fullKeys) {
-                    ColleagueRecord record = indexed.get(fk);
-                    if (record != null) kids.add(record);
-                }
 
-                if (kids.size() > 0) {
-                    if (parentPropertyIsCollection) {
-                        parentProperty.setProperty(joinSpec.parent, kids);
-                    } else if (parentPropertyIsArray) {
-                        parentProperty.setProperty(joinSpec.parent, kids.toArray(new ColleagueRecord[0]));
-                    } else {
-                        parentProperty.setProperty(joinSpec.parent, kids.get(0));
-                    }
-                }
-            }
+    /**
+     * Build and cache the metadata of an entity class, returning the classes of the entities it joins to. Used to
+     * warm up the service before the first read.
+     */
+    Set<Class<?>> prepareEntity(Class<?> clazz) {
+        EntityMetadata metadata = getEntityMetadata(clazz);
+
+        Set<Class<?>> result = new HashSet<>();
+        for (JoinMetadata j : metadata.joinMap.values()) {
+            result.add(joinChildType(j.property));
         }
+
+        return result;
     }
 
 
@@ -400,7 +754,8 @@ public class DmiEntityService {
      * Create a class of type T and map values from ColleagueData given the EntityMetadata specifications. This includes
      * associations, but does not include joins as those are processed separately.
      */
-    private <T extends ColleagueRecord> T mapEntityData(Class<T> clazz, ColleagueData data, EntityMetadata metadata) {
+    private <T extends ColleagueRecord> T mapEntityData(Class<T> clazz, ColleagueData data, EntityMetadata metadata,
+                                                        FetchPlan plan) {
 
         T result = newInstance(clazz);
 
@@ -408,13 +763,24 @@ public class DmiEntityService {
 
         // map fields
         for (Map.Entry<String, Property> f : metadata.fieldMap.entrySet()) {
-            Object value = getColleagueDataField(data, f.getKey());
             Property property = f.getValue();
+            if (!plan.includesField(property.getName())) continue;
+
+            Object value = getColleagueDataField(data, f.getKey());
             Class propertyType = property.getType();
             boolean propertyIsCollection = (propertyType == Collection.class || propertyType == List.class);
 
             if (value != null) {
-                if (value.getClass().isArray() && propertyIsCollection) {
+                if (propertyType == int[].class || propertyType == long[].class || propertyType == DateVector.class) {
+                    // primitive arrays and date vectors are read without boxing each value
+                    property.setProperty(result, unboxedValue(property, value));
+                } else if (value instanceof MultiValue) {
+                    // only split and convert what the property needs
+                    MultiValue<?> mv = (MultiValue<?>) value;
+                    if (propertyIsCollection) property.setProperty(result, mv.toList());
+                    else if (propertyType.isArray()) property.setProperty(result, mv.toArray());
+                    else property.setProperty(result, mv.first());
+                } else if (value.getClass().isArray() && propertyIsCollection) {
                     // convert array to List
                     property.setProperty(result, Arrays.asList((Object[]) value));
                 } else if (value.getClass().isArray() && !propertyType.isArray()) {
@@ -431,6 +797,8 @@ public class DmiEntityService {
         // map associations
         for (Map.Entry<String, AssociationMetadata> a : metadata.assocMap.entrySet()) {
             Property parentProperty = a.getValue().property;
+            if (!plan.includesField(parentProperty.getName())) continue;
+
             Class childType = a.getValue().type;
             Map<String, Property> fieldMap = a.getValue().fieldMap;
 
@@ -439,16 +807,27 @@ public class DmiEntityService {
             // map each field into the association
             for (Map.Entry<String, Property> f : fieldMap.entrySet()) {
                 Property childProperty = f.getValue();
-                Object[] value = (Object[]) data.getValues().get(f.getKey());
+                Object value = data.getValues().get(f.getKey());
+
+                if (value instanceof MultiValue) {
+                    MultiValue<?> mv = (MultiValue<?>) value;
+                    for (int x = 0; x < mv.size(); x++) {
+                        // expand the list size as necessary to accommodate new values
+                        while (assocValue.size() <= x)
+                            assocValue.add(newInstance(childType));
 
-                if (value != null) {
-                    for (int x = 0; x < value.length; x++) {
+                        // map the value
+                        childProperty.setProperty(assocValue.get(x), mv.get(x));
+                    }
+                } else if (value != null) {
+                    Object[] values = (Object[]) value;
+                    for (int x = 0; x < values.length; x++) {
                         // expand the list size as necessary to accommodate new values
                         while (assocValue.size() <= x)
                             assocValue.add(newInstance(childType));
 
                         // map the value
-                        childProperty.setProperty(assocValue.get(x), value[x]);
+                        childProperty.setProperty(assocValue.get(x), values[x]);
                     }
                 }
             }
@@ -460,6 +839,109 @@ public class DmiEntityService {
     }
 
 
+    /**
+     * Convert a value for an {@code int[]}, {@code long[]} or {@code DateVector} property. A {@code MultiValue} is
+     * parsed directly into the result. An array or single value (ie from an association or a single-valued field) is
+     * unboxed into a new array.
+     */
+    private Object unboxedValue(Property property, Object value) {
+        Class type = property.getType();
+
+        try {
+            if (value instanceof MultiValue) {
+                MultiValue<?> mv = (MultiValue<?>) value;
+                if (type == int[].class) return mv.toIntArray();
+                if (type == long[].class) return mv.toLongArray();
+                return mv.toDateVector();
+            }
+
+            Object[] values = (value instanceof Object[]) ? (Object[]) value : new Object[]{value};
+
+            if (type == DateVector.class) {
+                LocalDate[] dates = new LocalDate[values.length];
+                for (int x = 0; x < values.length; x++) dates[x] = (LocalDate) values[x];
+                return DateVector.of(dates);
+            }
+
+            Object result = Array.newInstance(type.getComponentType(), values.length);
+            for (int x = 0; x < values.length; x++) {
+                long v = (values[x] != null) ? ((Number) values[x]).longValue() : 0;
+                if (type == int[].class) Array.setInt(result, x, (int) v);
+                else Array.setLong(result, x, v);
+            }
+
+            return result;
+        } catch (IllegalStateException | ClassCastException e) {
+            throw new DmiServiceException("Unable to map property " + property.getName() + " of type "
+                    + type.getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Copy a value, copying records, beans, lists and arrays and sharing immutable values. Objects referenced more than
+     * once are copied once. Lazy joins that are not loaded yet are copied unloaded, with a loader of their own shared by
+     * the records copied together, so a copy does not keep the records of the original read.
+     */
+    private Object copy(Object value, Map<Object, Object> copies) {
+        if (value == null || isImmutable(value)) return value;
+
+        Object result = copies.get(value);
+        if (result != null) return result;
+
+        if (value instanceof Lazy) {
+            Lazy<?> lazy = (Lazy<?>) value;
+            if (lazy.isLoaded()) result = Lazy.of(copy(lazy.get(), copies));
+            else if (lazy instanceof LazyJoin) result = ((LazyJoin) lazy).copy(copies);
+            else result = new Lazy<>(() -> copy(lazy.get(), new IdentityHashMap<>()));
+        } else if (value instanceof LazyList) {
+            LazyList<?> list = (LazyList<?>) value;
+            if (list.isLoaded()) {
+                List<Object> loaded = copyList(list, copies);
+                result = new LazyList<>(() -> loaded);
+            } else if (list instanceof LazyJoinList) {
+                result = ((LazyJoinList) list).copy(copies);
+            } else {
+                result = new LazyList<>(() -> copyList(list, new IdentityHashMap<>()));
+            }
+        } else if (value instanceof List) {
+            result = copyList((List<?>) value, copies);
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            result = Array.newInstance(value.getClass().getComponentType(), length);
+            for (int x = 0; x < length; x++) {
+                Array.set(result, x, copy(Array.get(value, x), copies));
+            }
+        } else {
+            result = newInstance(value.getClass());
+            copies.put(value, result);
+            for (java.lang.reflect.Field f : getAllDeclaredFields(value.getClass())) {
+                Property p = getProperty(f.getName(), value.getClass());
+                if (p != null && p.isWritable()) p.setProperty(result, copy(p.getProperty(value), copies));
+            }
+        }
+
+        copies.put(value, result);
+        return result;
+    }
+
+
+    private List<Object> copyList(List<?> list, Map<Object, Object> copies) {
+        List<Object> result = new ArrayList<>(list.size());
+        for (Object o : list) {
+            result.add(copy(o, copies));
+        }
+        return result;
+    }
+
+
+    private boolean isImmutable(Object value) {
+        return value instanceof String || value instanceof Number || value instanceof Boolean
+                || value instanceof Character || value instanceof Enum || value instanceof TemporalAccessor
+                || value instanceof DateVector;
+    }
+
+
     /**
      * Get metadata about a class marked with the @Entity annotation, using caching for efficiency
      */
@@ -506,7 +988,13 @@ public class DmiEntityService {
 
                     List<String> p = join.prefixKeys().length > 0 ? Arrays.asList(join.prefixKeys()) : null;
                     List<String> s = join.suffixKeys().length > 0 ? Arrays.asList(join.suffixKeys()) : null;
-                    joinMap.put(name, new JoinMetadata(property, p, s));
+
+                    Class type = property.getType();
+                    boolean lazy = join.lazy() || type == Lazy.class;
+                    if (lazy && type != Lazy.class && type != Collection.class && type != List.class)
+                        throw new DmiServiceException("Lazy join for property " + property.getName() + " must be a Lazy or a List");
+
+                    joinMap.put(name, new JoinMetadata(property, p, s, lazy));
                 } else if (field != null || entityAnnotation.autoMap()) {
                     String name = (field != null) ? field.value() : camelToColleague(f.getName());
 
@@ -659,24 +1147,30 @@ public class DmiEntityService {
         }
 
         /**
-         * Get a distinct list of columns referenced by this entity's fields, joins and associations
+         * Get a distinct list of columns referenced by this entity's fields, joins and associations that are part of
+         * the fetch plan
          */
-        Set<String> getColumns() {
+        Set<String> getColumns(FetchPlan plan) {
             Set<String> columns = new HashSet<>();
 
             // get a distinct list of columns from fields, associations, joins
-            columns.addAll(this.fieldMap.keySet());
-            columns.addAll(this.joinMap.keySet());
+            for (Map.Entry<String, Property> f : this.fieldMap.entrySet()) {
+                if (plan.includesField(f.getValue().getName())) columns.add(f.getKey());
+            }
 
             // associated fields
             for (AssociationMetadata a : this.assocMap.values()) {
-                columns.addAll(a.fieldMap.keySet());
+                if (plan.includesField(a.property.getName())) columns.addAll(a.fieldMap.keySet());
             }
 
-            // prefix and suffix keys
-            for (JoinMetadata a : this.joinMap.values()) {
-                if (a.prefixKeys != null) columns.addAll(a.prefixKeys);
-                if (a.suffixKeys != null) columns.addAll(a.suffixKeys);
+            // joins, including prefix and suffix keys
+            for (Map.Entry<String, JoinMetadata> j : this.joinMap.entrySet()) {
+                JoinMetadata a = j.getValue();
+                if (plan.followsJoin(a.property.getName())) {
+                    columns.add(j.getKey());
+                    if (a.prefixKeys != null) columns.addAll(a.prefixKeys);
+                    if (a.suffixKeys != null) columns.addAll(a.suffixKeys);
+                }
             }
 
             // remove any virtual fields that start with @
@@ -685,6 +1179,32 @@ public class DmiEntityService {
 
             return columns;
         }
+
+        /**
+         * Ensure the fields and joins of a fetch plan exist on this entity
+         */
+        void validate(FetchPlan plan, Class<?> clazz) {
+            if (plan.getFields() != null) {
+                Set<String> names = new HashSet<>();
+                for (Property p : fieldMap.values()) names.add(p.getName());
+                for (AssociationMetadata a : assocMap.values()) names.add(a.property.getName());
+
+                for (String f : plan.getFields()) {
+                    if (!names.contains(f))
+                        throw new DmiServiceException("Fetch plan field " + f + " is not a field or association of class " + clazz.getName());
+                }
+            }
+
+            if (plan.getJoins() != null) {
+                Set<String> names = new HashSet<>();
+                for (JoinMetadata j : joinMap.values()) names.add(j.property.getName());
+
+                for (String j : plan.getJoins().keySet()) {
+                    if (!names.contains(j))
+                        throw new DmiServiceException("Fetch plan join " + j + " is not a join of class " + clazz.getName());
+                }
+            }
+        }
     }
 
 
@@ -695,11 +1215,13 @@ public class DmiEntityService {
         Property property;
         List<String> prefixKeys;
         List<String> suffixKeys;
+        boolean lazy;
 
-        JoinMetadata(Property property, List<String> prefixKeys, List<String> suffixKeys) {
+        JoinMetadata(Property property, List<String> prefixKeys, List<String> suffixKeys, boolean lazy) {
             this.property = property;
             this.prefixKeys = prefixKeys;
             this.suffixKeys = suffixKeys;
+            this.lazy = lazy;
         }
     }
 
@@ -745,6 +1267,220 @@ public class DmiEntityService {
                 }
             }
         }
+
+        /**
+         * Copy of this join specification without its parent
+         */
+        JoinSpec detach() {
+            return new JoinSpec(null, joinPrefix, joinSuffix, keys);
+        }
+
+        /**
+         * Get the child records of this join from the indexed child records
+         */
+        List<ColleagueRecord> getChildren(Map<String, ColleagueRecord> indexed) {
+            List<ColleagueRecord> kids = new ArrayList<>();
+            for (String fk : fullKeys) {
+                ColleagueRecord record = indexed.get(fk);
+                if (record != null) kids.add(record);
+            }
+
+            return kids;
+        }
+    }
+
+
+    /**
+     * Create the default executor that reads batches ahead for streams, whose threads stop when idle
+     */
+    private static Executor newReadAheadExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(16),
+                r -> {
+                    Thread t = new Thread(r, "dmi-stream-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
+    /**
+     * Iterator over batches of entities for {@code streamForEntity}. When reading ahead, the next batch is read in the
+     * background on the read ahead executor as soon as the current one is returned, and cancelled when the iterator is
+     * closed.
+     */
+    private class BatchIterator<T extends ColleagueRecord> implements Iterator<List<T>> {
+        final List<String> keys;
+        final Class<T> clazz;
+        final FetchPlan plan;
+        final int batchSize;
+        final Executor readAheadExecutor;
+        final Deadline deadline = Deadline.current();
+        int position = 0;
+        Future<List<T>> pending;
+
+        BatchIterator(Collection<String> keys, Class<T> clazz, FetchPlan plan, int batchSize, Executor readAheadExecutor) {
+            if (keys == null) this.keys = Collections.emptyList();
+            else this.keys = (keys instanceof List) ? (List<String>) keys : new ArrayList<>(keys);
+            this.clazz = clazz;
+            this.plan = plan;
+            this.batchSize = batchSize;
+            this.readAheadExecutor = readAheadExecutor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pending != null || position < keys.size();
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            List<T> result;
+            if (pending != null) {
+                try {
+                    result = pending.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    throw new RuntimeException(e.getCause());
+                } finally {
+                    pending = null;
+                }
+            } else {
+                result = readNextBatch();
+            }
+
+            if (readAheadExecutor != null && position < keys.size()) readAhead();
+
+            return result;
+        }
+
+        void close() {
+            if (pending != null) {
+                pending.cancel(true);
+                pending = null;
+            }
+        }
+
+        /**
+         * Read the next batch in the background, with the deadline of the thread that created the stream. If the
+         * executor rejects it, the batch is read when the stream reaches it.
+         */
+        private void readAhead() {
+            int start = position;
+            List<String> batch = nextBatchKeys();
+            FutureTask<List<T>> task = new FutureTask<>(() ->
+                    Deadline.callWith(deadline, () -> readForEntity(batch, clazz, plan)));
+
+            try {
+                readAheadExecutor.execute(task);
+                pending = task;
+            } catch (RejectedExecutionException e) {
+                log.debug("Unable to read batch ahead: " + e.getMessage());
+                position = start;
+            }
+        }
+
+        private List<T> readNextBatch() {
+            return Deadline.callWith(deadline, () -> readForEntity(nextBatchKeys(), clazz, plan));
+        }
+
+        private List<String> nextBatchKeys() {
+            int end = Math.min(position + batchSize, keys.size());
+            List<String> batch = keys.subList(position, end);
+            position = end;
+            return batch;
+        }
+    }
+
+
+    /**
+     * Loader for a lazy join, shared by all parents from the same read. The children of all parents are read on the
+     * first call to {@code load()}.
+     */
+    private class LazyJoinLoader {
+        final JoinMetadata joinMetadata;
+        final List<JoinSpec> joinSpecs;
+        final FetchPlan plan;
+        volatile Map<String, ColleagueRecord> indexed;
+
+        LazyJoinLoader(JoinMetadata joinMetadata, List<JoinSpec> joinSpecs, FetchPlan plan) {
+            this.joinMetadata = joinMetadata;
+            this.joinSpecs = joinSpecs;
+            this.plan = plan;
+        }
+
+        Map<String, ColleagueRecord> load() {
+            if (indexed == null) {
+                synchronized (this) {
+                    if (indexed == null) {
+                        log.trace("Loading lazy joins for field " + joinMetadata.property.getName() + "...");
+                        indexed = readJoinChildren(joinMetadata, joinSpecs, plan);
+                    }
+                }
+            }
+
+            return indexed;
+        }
+
+        /**
+         * Copy a join of this loader to a loader that is not loaded yet, shared by all copies made with the same
+         * {@code copies}. Only the keys of the join are copied, not its parent.
+         */
+        LazyJoinLoader copy(JoinSpec joinSpec, Map<Object, Object> copies) {
+            LazyJoinLoader result = (LazyJoinLoader) copies.computeIfAbsent(this,
+                    l -> new LazyJoinLoader(joinMetadata, new ArrayList<>(), plan));
+            result.joinSpecs.add(joinSpec);
+            return result;
+        }
+    }
+
+
+    /**
+     * Lazy single-valued join
+     */
+    private class LazyJoin extends Lazy<ColleagueRecord> {
+        final LazyJoinLoader loader;
+        final JoinSpec joinSpec;
+
+        LazyJoin(LazyJoinLoader loader, JoinSpec joinSpec) {
+            super(() -> {
+                List<ColleagueRecord> kids = joinSpec.getChildren(loader.load());
+                return kids.size() > 0 ? kids.get(0) : null;
+            });
+            this.loader = loader;
+            this.joinSpec = joinSpec;
+        }
+
+        LazyJoin copy(Map<Object, Object> copies) {
+            JoinSpec spec = joinSpec.detach();
+            return new LazyJoin(loader.copy(spec, copies), spec);
+        }
+    }
+
+
+    /**
+     * Lazy multi-valued join
+     */
+    private class LazyJoinList extends LazyList<ColleagueRecord> {
+        final LazyJoinLoader loader;
+        final JoinSpec joinSpec;
+
+        LazyJoinList(LazyJoinLoader loader, JoinSpec joinSpec) {
+            super(() -> joinSpec.getChildren(loader.load()));
+            this.loader = loader;
+            this.joinSpec = joinSpec;
+        }
+
+        LazyJoinList copy(Map<Object, Object> copies) {
+            JoinSpec spec = joinSpec.detach();
+            return new LazyJoinList(loader.copy(spec, copies), spec);
+        }
     }
 
 }
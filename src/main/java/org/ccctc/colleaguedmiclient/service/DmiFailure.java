@@ -0,0 +1,71 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Failed attempt to send a transaction to the DMI, classified for a {@code RetryPolicy}.
+ *
+ * @see RetryPolicy
+ */
+@Getter
+@ToString
+public class DmiFailure {
+
+    /**
+     * Type of failure
+     */
+    public enum Type {
+        /**
+         * SERRS response for invalid or expired credentials (SECURITY or TOKEN). The DMI Service logs back in before
+         * a retry.
+         */
+        SECURITY,
+
+        /**
+         * SERRS response with any other error type
+         */
+        ERROR,
+
+        /**
+         * I/O error sending or receiving the transaction, including a malformed or incomplete response
+         */
+        IO,
+
+        /**
+         * Any other exception
+         */
+        OTHER
+    }
+
+    /**
+     * Type of failure
+     */
+    private final Type type;
+
+    /**
+     * Error types of the SERRS sub transactions of the response (ie SET, SECURITY), empty for exceptions
+     */
+    private final List<String> errorTypes;
+
+    /**
+     * Error message
+     */
+    private final String message;
+
+    /**
+     * Exception, or null for a SERRS response
+     */
+    private final Exception exception;
+
+
+    DmiFailure(Type type, List<String> errorTypes, String message, Exception exception) {
+        this.type = type;
+        this.errorTypes = Collections.unmodifiableList(errorTypes);
+        this.message = message;
+        this.exception = exception;
+    }
+}
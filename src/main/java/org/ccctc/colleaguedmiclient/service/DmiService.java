@@ -12,24 +12,45 @@ import lombok.NonNull;
 import lombok.Setter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.ccctc.colleaguedmiclient.exception.DmiCircuitBreakerOpenException;
+import org.ccctc.colleaguedmiclient.exception.DmiDeadlineExceededException;
+import org.ccctc.colleaguedmiclient.exception.DmiOverloadException;
 import org.ccctc.colleaguedmiclient.exception.DmiServiceException;
 import org.ccctc.colleaguedmiclient.exception.DmiTransactionException;
+import org.ccctc.colleaguedmiclient.metrics.DmiMetrics;
 import org.ccctc.colleaguedmiclient.model.SessionCredentials;
+import org.ccctc.colleaguedmiclient.socket.PoolOverloadException;
+import org.ccctc.colleaguedmiclient.socket.PoolTimeoutException;
 import org.ccctc.colleaguedmiclient.socket.PooledSocket;
+import org.ccctc.colleaguedmiclient.socket.Priority;
 import org.ccctc.colleaguedmiclient.model.DmiSubTransaction;
 import org.ccctc.colleaguedmiclient.transaction.DmiTransaction;
 import org.ccctc.colleaguedmiclient.socket.PoolingSocketFactory;
 import org.ccctc.colleaguedmiclient.transaction.LoginRequest;
 import org.ccctc.colleaguedmiclient.transaction.SessionStateRequest;
+import org.ccctc.colleaguedmiclient.util.StringDictionary;
 import org.ccctc.colleaguedmiclient.util.StringUtils;
 
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service to handle communication with the DMI. Makes use of a {@code PoolingSocketFactory} to pool connections.
@@ -41,6 +62,9 @@ public class DmiService implements Closeable {
 
     private final static String SERRS = "SERRS";
 
+    // wait before retrying a failed background refresh of credentials
+    private final static long TOKEN_REFRESH_RETRY_SECONDS = 30;
+
 
     /**
      * Colleague account (aka environment)
@@ -67,23 +91,107 @@ public class DmiService implements Closeable {
      */
     @Getter @Setter private long authorizationExpirationSeconds = 4 * 60 * 60;
 
+    /**
+     * Seconds before authorization expires that new credentials are requested in the background, so that requests do
+     * not wait on a login. Default is 5 minutes. Zero disables background refresh.
+     */
+    @Getter @Setter private long tokenRefreshMarginSeconds = 5 * 60;
+
     /**
      * Maximum retries sending / receiving a DMI Transaction. Default is 2. This is in addition to the original
      * attempt, ie a retry of 2 means it will be tried initially then retried twice if there is an error.
      */
     @Getter @Setter private int maxDmiTransactionRetry = 2;
 
+    /**
+     * Maximum number of distinct values interned per response, so that repeated short values (ie codes) in a response
+     * share one string instance. Default is 0 (disabled).
+     *
+     * @see StringDictionary
+     */
+    @Getter @Setter private int internMaxEntries = 0;
+
+    /**
+     * Maximum length (in bytes) of a value to intern when {@code internMaxEntries} is set. Default is 16.
+     */
+    @Getter @Setter private int internMaxValueLength = 16;
+
+    /**
+     * Policy deciding whether and when a failed transaction is retried. Default is an
+     * {@code ExponentialBackoffRetryPolicy}. Retries are also limited by {@code maxDmiTransactionRetry}.
+     */
+    @Getter @Setter @NonNull private RetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy();
+
+    /**
+     * Circuit breaker that rejects requests while the DMI is unreachable, or null to disable. When open, requests
+     * fail immediately with a {@code DmiCircuitBreakerOpenException} until a probe (a session state request) reaches
+     * the DMI again. Default is null.
+     */
+    @Getter @Setter private CircuitBreaker circuitBreaker;
+
+    /**
+     * Limiter of the number of transactions in flight that adapts to DMI latency, or null to only be limited by the
+     * size of the socket pool. Default is null. The maximum limit should be the size of the socket pool, ie
+     * {@code new AdaptiveConcurrencyLimiter(socketFactory.getPoolSize())}.
+     */
+    @Getter @Setter private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Metrics of transactions sent by this service (and by the data and CTX services that use it). Default is
+     * {@code DmiMetrics.NOOP}, which discards them.
+     */
+    @Getter private DmiMetrics metrics = DmiMetrics.NOOP;
+
+    /**
+     * Hedge idempotent requests (data requests and CTX requests marked as idempotent). When a request has not been
+     * answered within {@code hedgePercentile} of the recent latency of its type, a duplicate is sent on another socket
+     * and the first response is used. Default is false.
+     */
+    @Getter @Setter private boolean hedgingEnabled = false;
+
+    /**
+     * Percentile of recent latency after which a request is hedged. Default is 0.95 (p95).
+     */
+    @Getter @Setter private double hedgePercentile = 0.95;
+
+    /**
+     * Budget limiting hedged requests to a ratio of requests, or null for no limit. Default is 5% of requests with up
+     * to 5 hedges banked.
+     */
+    @Getter @Setter private RetryBudget hedgeBudget = new RetryBudget(0.05, 5);
+
+    /**
+     * Executor that sends hedged requests. When it rejects a hedge, the original request is waited on without one.
+     * Default is a pool of daemon threads up to the size of the socket pool, which is shut down when the service is
+     * closed. An executor set here is not shut down by the service.
+     */
+    @Getter @Setter @NonNull private Executor hedgeExecutor;
+
+    /**
+     * Recent latency of idempotent requests by type, recorded while hedging is enabled
+     */
+    @Getter private final LatencyTracker latencyTracker = new LatencyTracker();
+
     /**
      * Pooling socket factory used by this service to send and receive data from the DMI.
      */
     @Getter protected final PoolingSocketFactory socketFactory;
 
     // current active credentials
-    private SessionCredentials sessionCredentials;
+    private volatile SessionCredentials sessionCredentials;
 
     // object used to synchronize on when login() is called
     private final Object loginLock = new Object();
 
+    // scheduler for background refresh of credentials and hedging - its thread is only started once a task is scheduled
+    ScheduledExecutorService scheduler = newScheduler();
+
+    // default hedge executor, created by the service and shut down when it is closed
+    private final ThreadPoolExecutor defaultHedgeExecutor;
+
+    // next background refresh, guarded by loginLock
+    private ScheduledFuture<?> scheduledRefresh;
+
     /**
      * Create and configure the DMI Service. Will use default PoolingSocketFactory.
      *
@@ -120,6 +228,16 @@ public class DmiService implements Closeable {
         this.password = password;
         this.sharedSecret = sharedSecret;
         this.socketFactory = poolingSocketFactory;
+
+        // a hedge needs a socket of its own, so more hedges than sockets could not be sent at once anyway
+        int hedgeThreads = Math.max(1, (poolingSocketFactory != null) ? poolingSocketFactory.getPoolSize() : 1);
+        this.defaultHedgeExecutor = new ThreadPoolExecutor(0, hedgeThreads, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "dmi-hedge");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.hedgeExecutor = defaultHedgeExecutor;
     }
 
     /**
@@ -130,10 +248,11 @@ public class DmiService implements Closeable {
      * @throws DmiServiceException if a new login attempt fails
      */
     public SessionCredentials getSessionCredentials() throws DmiServiceException {
-        if (!isActive())
+        SessionCredentials creds = sessionCredentials;
+        if (!isActive(creds))
             return login(false);
 
-        return sessionCredentials;
+        return creds;
     }
 
     /**
@@ -143,8 +262,11 @@ public class DmiService implements Closeable {
      * @return true or false
      */
     public boolean isActive() {
-        return sessionCredentials != null
-                && LocalDateTime.now().isBefore(sessionCredentials.getExpirationDateTime());
+        return isActive(sessionCredentials);
+    }
+
+    private static boolean isActive(SessionCredentials creds) {
+        return creds != null && LocalDateTime.now().isBefore(creds.getExpirationDateTime());
     }
 
     /**
@@ -178,20 +300,33 @@ public class DmiService implements Closeable {
      * @throws DmiServiceException if the login cannot request cannot be performed or if it fails
      */
     public SessionCredentials login(boolean force) throws DmiServiceException{
-        if (isActive() && !force) return sessionCredentials;
+        return login(force, false);
+    }
+
+    /**
+     * Perform a login. A background refresh keeps the current credentials if the login fails, as they are still valid
+     * until they expire.
+     */
+    private SessionCredentials login(boolean force, boolean background) throws DmiServiceException {
+        SessionCredentials current = sessionCredentials;
+        if (isActive(current) && !force) return current;
 
         synchronized (loginLock) {
             // do this check a second time in case a login was completed while waiting for the login lock
-            if (isActive() && !force) return sessionCredentials;
+            current = sessionCredentials;
+            if (isActive(current) && !force) return current;
 
             LoginRequest loginRequest = new LoginRequest(account, username, password);
 
             log.info("Sending login request to Colleague DMI");
 
+            acquire();
+
             DmiTransaction result;
             try {
-                result = doSend(loginRequest, true);
+                result = doSend(loginRequest, true, null, background ? null : Deadline.current());
             } catch (Exception e) {
+                metrics.increment(DmiMetrics.LOGINS, "failure");
                 throw new DmiServiceException("Login request failed", e);
             }
 
@@ -203,12 +338,18 @@ public class DmiService implements Closeable {
                     && result.getControlId() != null
                     && result.getToken().length > 0
                     && result.getControlId().length > 0) {
-                sessionCredentials = new SessionCredentials(result.getToken()[0], result.getControlId()[0],
+                current = new SessionCredentials(result.getToken()[0], result.getControlId()[0],
                         LocalDateTime.now().plus(authorizationExpirationSeconds, ChronoUnit.SECONDS));
+                sessionCredentials = current;
+                metrics.increment(DmiMetrics.LOGINS, "success");
 
-                log.info("Received credentials from DMI. Expiration: " + sessionCredentials.getExpirationDateTime().toString());
+                log.info("Received credentials from DMI. Expiration: " + current.getExpirationDateTime().toString());
+
+                scheduleRefresh(Duration.between(LocalDateTime.now(), current.getExpirationDateTime()).getSeconds()
+                        - tokenRefreshMarginSeconds);
             } else {
-                sessionCredentials = null;
+                if (!background) sessionCredentials = null;
+                metrics.increment(DmiMetrics.LOGINS, "failure");
 
                 // determine what went wrong - message should be in SERRS block
                 DmiSubTransaction errSub = null;
@@ -221,47 +362,133 @@ public class DmiService implements Closeable {
                 throw new DmiServiceException("Login request failed and no credentials or error message returned");
             }
 
-            return sessionCredentials;
+            return current;
+        }
+    }
+
+    /**
+     * Refresh credentials in the background. If the refresh fails, it is retried while the current credentials are
+     * still active.
+     */
+    void refreshCredentials() {
+        try {
+            login(true, true);
+        } catch (Exception e) {
+            log.warn("Background refresh of DMI credentials failed: " + e.getMessage());
+
+            SessionCredentials creds = sessionCredentials;
+            if (creds != null && LocalDateTime.now().plusSeconds(TOKEN_REFRESH_RETRY_SECONDS)
+                    .isBefore(creds.getExpirationDateTime())) {
+                synchronized (loginLock) {
+                    scheduleRefresh(TOKEN_REFRESH_RETRY_SECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedule the next background refresh of credentials, replacing any scheduled refresh. Must be called while
+     * holding the login lock.
+     */
+    private void scheduleRefresh(long delaySeconds) {
+        if (scheduledRefresh != null) scheduledRefresh.cancel(false);
+        scheduledRefresh = null;
+
+        if (tokenRefreshMarginSeconds <= 0 || delaySeconds <= 0) return;
+
+        try {
+            scheduledRefresh = scheduler.schedule(this::refreshCredentials, delaySeconds, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+            // service has been closed
         }
     }
 
+    private static ScheduledExecutorService newScheduler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "dmi-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Send a transaction to the DMI with a priority and return the response. Sockets in the pool go to waiting
+     * transactions of the highest priority first.
+     *
+     * @param transaction DMI Transaction
+     * @param priority    Priority
+     * @return Response
+     * @throws DmiServiceException if the request cannot be completed
+     * @see #send(DmiTransaction)
+     */
+    public DmiTransaction send(@NonNull DmiTransaction transaction, @NonNull Priority priority) throws DmiServiceException {
+        transaction.setPriority(priority);
+        return send(transaction);
+    }
+
     /**
-     * Send a transaction to the DMI and return the response.
+     * Send a transaction to the DMI and return the response, giving up with a {@code DmiDeadlineExceededException} if
+     * it cannot be completed within a timeout. The timeout caps the total time waiting for a socket from the pool,
+     * connecting, sending, receiving and retrying. Any earlier deadline set with {@code Deadline.within()} still applies.
+     *
+     * @param transaction DMI Transaction
+     * @param timeout     Timeout
+     * @return Response
+     * @throws DmiServiceException if the request cannot be completed
+     * @see Deadline
+     */
+    public DmiTransaction send(@NonNull DmiTransaction transaction, @NonNull Duration timeout) throws DmiServiceException {
+        return Deadline.within(timeout, () -> send(transaction));
+    }
+
+    /**
+     * Send a transaction to the DMI, with the priority set on the transaction, and return the response.
      * <p>
      * Error handling is done as part of the request and depending on the error a re-login
      * or retry of the transaction may be performed to see if it can complete the request.
-     * If it cannot complete the request, it will throw a {@code DmiServiceException}.
+     * If it cannot complete the request, it will throw a {@code DmiServiceException}. If the current thread has a
+     * {@code Deadline}, the request is given up with a {@code DmiDeadlineExceededException} when the deadline passes.
      *
      * @param transaction DMI Transaction
      * @return Response
      * @throws DmiServiceException if the request cannot be completed
      */
     public DmiTransaction send(@NonNull DmiTransaction transaction) throws DmiServiceException {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired())
+            throw new DmiDeadlineExceededException("Deadline exceeded before sending transaction to DMI", null);
+
+        RetryPolicy policy = retryPolicy;
+        policy.onRequest();
+
         int attempt = 0;
+        boolean forceNewSocket = false;
         while (true) {
             Exception ex = null;
-            DmiTransaction response = null;
             String errorMessage = null;
-            boolean isError = false;
+            List<String> errorTypes = new ArrayList<>();
             boolean logBackIn = false;
-            boolean fatal = false;
+
+            // an open circuit breaker rejects the request without retrying
+            acquire();
 
             try {
-                boolean forceNewSocket = (attempt > 0);
-                response = doSend(transaction, forceNewSocket);
+                DmiTransaction response = (hedgingEnabled && transaction.isIdempotent())
+                        ? hedgedSend(transaction, forceNewSocket, deadline)
+                        : doSend(transaction, forceNewSocket, null, deadline);
 
                 // check to see if the response is an error
                 for (DmiSubTransaction sub : response.getSubTransactions()) {
                     if (SERRS.equals(sub.getTransactionType())) {
-                        isError = true;
-
-                        // on error, determine whether we need new login credentials, whether this is a known "fatal" error,
-                        // or whether we should retry the transaction, hoping for a better result!
+                        // on error, determine whether we need new login credentials - whether to retry is up to the
+                        // retry policy
 
                         String errType = (sub.getCommands().length) > 0 ? sub.getCommands()[0] : null;
+                        if (errType != null) errorTypes.add(errType);
 
                         if ("SECURITY".equals(errType) || "TOKEN".equals(errType)) logBackIn = true;
-                        if ("SET".equals(errType)) fatal = true;
 
                         if (errorMessage != null)
                             errorMessage = errorMessage + ", " + String.join(", ", sub.getCommands());
@@ -270,17 +497,42 @@ public class DmiService implements Closeable {
                     }
                 }
 
-                if (!isError) return response;
+                if (errorMessage == null) return response;
             } catch (Exception e) {
                 ex = e;
             }
 
-            // fatal or max retry exceeded
-            if (fatal || ++attempt > maxDmiTransactionRetry) {
+            // an overloaded pool or concurrency limit rejects requests so they fail fast - retrying would only add to
+            // the overload
+            DmiOverloadException overload = findCause(ex, DmiOverloadException.class);
+            if (overload != null || isCause(ex, PoolOverloadException.class)) {
+                metrics.increment(DmiMetrics.REJECTED, transaction.getPriority().name());
+                throw (overload != null) ? overload : new DmiOverloadException("DMI socket pool is overloaded", ex);
+            }
+
+            DmiFailure failure = classify(ex, errorTypes, errorMessage, logBackIn);
+
+            if (deadline != null && deadline.isExpired())
+                throw new DmiDeadlineExceededException("Deadline exceeded sending/receiving transaction to/from DMI", ex);
+
+            // max retry exceeded or not to be retried
+            long delay = (++attempt > maxDmiTransactionRetry) ? RetryPolicy.NO_RETRY
+                    : policy.retryDelayMillis(attempt, failure);
+
+            if (delay < 0) {
                 if (ex != null) throw new DmiServiceException("Error sending/receiving transaction to/from DMI", ex);
                 throw new DmiServiceException("DMI Transaction resulted in an error: " + errorMessage);
             }
 
+            // do not wait to retry past the deadline
+            if (deadline != null && delay >= deadline.remainingMillis())
+                throw new DmiDeadlineExceededException("Deadline exceeded before retrying transaction to DMI", ex);
+
+            metrics.increment(DmiMetrics.RETRIES, failure.getType().name());
+
+            // a socket that failed may be broken, but a DMI error response came back on a working socket
+            forceNewSocket = (ex != null);
+
             // credentials error - retry login
             if (logBackIn) {
                 log.info("Invalid/expired credentials, attempting to log back in");
@@ -292,36 +544,241 @@ public class DmiService implements Closeable {
                 }
             } else {
 
-                // sleep 250 ms before attempting a retry
-                try {
-                    Thread.sleep(250);
-                } catch (InterruptedException ignored) { }
-
                 // on retry leave a message in the logger, but continue
-                log.error("DMI Transaction Error, attempting to retry: "
+                log.error("DMI Transaction Error, attempting to retry in " + delay + " ms: "
                         + (ex != null ? ex.getClass().getSimpleName() + " - " + ex.getMessage() : errorMessage));
 
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DmiServiceException("Interrupted while waiting to retry transaction", e);
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Check the circuit breaker before sending. If the breaker is open and due for a probe, send the probe and allow
+     * the request if it succeeds.
+     *
+     * @throws DmiCircuitBreakerOpenException if the breaker is open
+     */
+    private void acquire() throws DmiCircuitBreakerOpenException {
+        CircuitBreaker cb = circuitBreaker;
+        if (cb == null || cb.allowRequest()) return;
+
+        if (cb.tryStartProbe() && probe(cb)) return;
+
+        throw new DmiCircuitBreakerOpenException("Circuit breaker is open, DMI is unreachable");
+    }
+
+    /**
+     * Send a session state request to see whether the DMI is reachable. Any response (including an error response
+     * for missing or expired credentials) means the DMI is reachable.
+     */
+    private boolean probe(CircuitBreaker cb) {
+        SessionCredentials creds = sessionCredentials;
+        SessionStateRequest request = (creds != null)
+                ? new SessionStateRequest(account, creds.getToken(), creds.getControlId())
+                : new SessionStateRequest(account, null, null);
+
+        boolean success = false;
+        try {
+            doSend(request, true, null, Deadline.current());
+            success = true;
+        } catch (Exception e) {
+            log.warn("DMI circuit breaker probe failed: " + e.getMessage());
+        } finally {
+            cb.onProbeResult(success);
+        }
+
+        return success;
+    }
+
+    /**
+     * Whether an exception or one of its causes is of a type
+     */
+    private static boolean isCause(Throwable ex, Class<? extends Throwable> type) {
+        return findCause(ex, type) != null;
+    }
+
+    /**
+     * The first of an exception and its causes that is of a type, or null
+     */
+    private static <E extends Throwable> E findCause(Throwable ex, Class<E> type) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) return type.cast(t);
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether a failed attempt counts against the circuit breaker. Only transport failures of the DMI count: failing to
+     * connect, or a failure on a socket that was obtained. An error response is not an exception (the DMI is
+     * reachable), and the following are not failures of the DMI:
+     * <ul>
+     * <li>Not getting a socket because the pool is busy or overloaded, or the wait was interrupted</li>
+     * <li>A timeout cut short by the caller's deadline</li>
+     * </ul>
+     */
+    private static boolean isDmiFailure(Exception ex, PooledSocket socket, Deadline deadline) {
+        if (socket == null && (isCause(ex, PoolTimeoutException.class) || isCause(ex, PoolOverloadException.class)
+                || isCause(ex, InterruptedException.class)))
+            return false;
+
+        return !(deadline != null && deadline.isExpired() && isCause(ex, SocketTimeoutException.class));
+    }
+
+    /**
+     * Classify a failed attempt for the retry policy
+     */
+    private DmiFailure classify(Exception ex, List<String> errorTypes, String errorMessage, boolean logBackIn) {
+        if (ex == null) {
+            DmiFailure.Type type = logBackIn ? DmiFailure.Type.SECURITY : DmiFailure.Type.ERROR;
+            return new DmiFailure(type, errorTypes, errorMessage, null);
+        }
+
+        // exceptions from doSend are wrapped in a RuntimeException
+        DmiFailure.Type type = (isCause(ex, IOException.class) || isCause(ex, DmiTransactionException.class))
+                ? DmiFailure.Type.IO : DmiFailure.Type.OTHER;
+
+        return new DmiFailure(type, errorTypes, ex.getMessage(), ex);
+    }
+
+    /**
+     * Send an idempotent transaction, sending a duplicate on another socket if it takes longer than the hedge
+     * percentile of its type. The first response is returned and the socket of the other request is recycled.
+     * <p>
+     * The original request is sent on the calling thread. If the duplicate wins, the original's socket is recycled,
+     * which ends its wait for a response.
+     *
+     * @param transaction    DMI Transaction to send
+     * @param forceNewSocket Force new socket for the original request?
+     * @param deadline       Deadline, or null
+     * @return DMI Transaction response
+     */
+    private DmiTransaction hedgedSend(DmiTransaction transaction, boolean forceNewSocket, Deadline deadline) {
+        RetryBudget budget = hedgeBudget;
+        if (budget != null) budget.onRequest();
+
+        long delay = latencyTracker.percentileNanos(latencyKey(transaction), hedgePercentile);
+        if (delay < 0) return doSend(transaction, forceNewSocket, null, deadline);
+
+        SendAttempt primary = new SendAttempt();
+        SendAttempt secondary = new SendAttempt();
+        CompletableFuture<DmiTransaction> hedge = new CompletableFuture<>();
+
+        ScheduledFuture<?> timer;
+        try {
+            timer = scheduler.schedule(() -> {
+                try {
+                    hedgeExecutor.execute(() -> {
+                        if (secondary.isCancelled() || (budget != null && !budget.tryRetry())) return;
+
+                        log.debug("Hedging DMI transaction after " + TimeUnit.NANOSECONDS.toMillis(delay) + " ms");
+
+                        try {
+                            DmiTransaction response = doSend(transaction, false, secondary, deadline);
+
+                            // the duplicate wins if the original has not completed
+                            hedge.complete(response);
+                            if (primary.cancel()) log.debug("Hedged DMI transaction answered first");
+                        } catch (Exception e) {
+                            hedge.completeExceptionally(e);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // all hedge threads are busy - the original request is waited on without a hedge
+                    log.debug("DMI transaction not hedged: " + e.getMessage());
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // service has been closed
+            return doSend(transaction, forceNewSocket, null, deadline);
+        }
+
+        try {
+            DmiTransaction response = doSend(transaction, forceNewSocket, primary, deadline);
+            if (!primary.isCancelled()) return response;
+        } catch (RuntimeException e) {
+            if (!primary.isCancelled()) throw e;
+        } finally {
+            if (!primary.isCancelled()) {
+                timer.cancel(false);
+                secondary.cancel();
+            }
+        }
+
+        // the original was cancelled by the duplicate, which has completed
+        return hedge.join();
+    }
+
+    /**
+     * Time remaining until a deadline, or no limit without a deadline
+     */
+    private static long timeLimitMillis(Deadline deadline) {
+        return (deadline != null) ? deadline.remainingMillis() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Key used to track latency of a transaction - the transaction type and, if there is a sub transaction, its
+     * request type (ie DAFQ.SINGLEKEY, DAFQ.SELECT or CTRQ.[transaction name])
+     */
+    private static String latencyKey(DmiTransaction transaction) {
+        List<DmiSubTransaction> subs = transaction.getSubTransactions();
+        if (subs != null && !subs.isEmpty()) {
+            String[] commands = subs.get(0).getCommands();
+            if (commands != null && commands.length > 2 && commands[2] != null)
+                return transaction.getTransactionType() + "." + commands[2];
+        }
+
+        return transaction.getTransactionType();
+    }
+
     /**
      * Send data to the DMI and return the result
      *
      * @param transaction    DMI Transaction to send
      * @param forceNewSocket Force new socket for transaction?
+     * @param attempt        Hedged attempt, which may be cancelled, or null
+     * @param deadline       Deadline, or null
      * @return DMI Transaction response
      */
-    private DmiTransaction doSend(DmiTransaction transaction, boolean forceNewSocket) {
+    private DmiTransaction doSend(DmiTransaction transaction, boolean forceNewSocket, SendAttempt attempt,
+                                  Deadline deadline) {
         Exception ex = null;
         PooledSocket socket = null;
+        boolean attached = true;
         DmiTransaction response = null;
+        DmiMetrics m = metrics;
+
+        AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter != null) limiter.acquire(timeLimitMillis(deadline), transaction.getPriority());
+
+        long start = System.nanoTime();
 
         try {
-            socket = socketFactory.getSocket(forceNewSocket);
+            // the time left until the deadline caps the wait for a socket and the socket's connect and read timeouts
+            socket = socketFactory.getSocket(forceNewSocket, transaction.getPriority(), timeLimitMillis(deadline));
+            long acquired = System.nanoTime();
+            m.record(DmiMetrics.POOL_ACQUIRE, transaction.getPriority().name(), acquired - start);
+
+            if (attempt != null && !attempt.attach(socket)) {
+                attached = false;
+                throw new DmiServiceException("Hedged DMI transaction cancelled");
+            }
+
             DataOutputStream os = new DataOutputStream(socket.getOutputStream());
-            DataInputStream is = new DataInputStream(socket.getInputStream());
+            // the read timeout bounds each read rather than the whole response, so a deadline is checked between reads
+            DataInputStream is = new DataInputStream((deadline != null)
+                    ? socket.getInputStream(deadline::remainingMillis) : socket.getInputStream());
             byte[] bytes = transaction.toDmiBytes();
+            long serialized = System.nanoTime();
+            m.record(DmiMetrics.SERIALIZE, transaction.getTransactionType(), serialized - acquired);
 
             if (log.isTraceEnabled())
                 log.trace("DMI send: " + transaction.toDmiString());
@@ -329,13 +786,21 @@ public class DmiService implements Closeable {
             os.write(bytes);
 
             try {
-                response = DmiTransaction.fromResponse(is);
+                StringDictionary dictionary = (internMaxEntries > 0)
+                        ? new StringDictionary(internMaxEntries, internMaxValueLength) : null;
+                response = DmiTransaction.fromResponse(is, dictionary);
             } catch(DmiTransactionException e) {
                 // for logging purposes, set response on exception
                 response = e.getDmiTransaction();
                 throw e;
             }
 
+            // the response is decoded as it is read, so only splitting it into the transaction counts as parsing
+            long parse = Math.max(0, response.getParseNanos());
+            m.record(DmiMetrics.NETWORK, transaction.getTransactionType(), System.nanoTime() - serialized - parse);
+            m.record(DmiMetrics.PARSE, transaction.getTransactionType(), parse);
+            m.record(DmiMetrics.RESPONSE_BYTES, transaction.getTransactionType(), response.getTransactionBytes());
+
         } catch (Exception e) {
             ex = e;
             throw new RuntimeException(e);
@@ -343,23 +808,130 @@ public class DmiService implements Closeable {
             if (log.isTraceEnabled() && response != null && response.getRawResponse() != null)
                 log.trace("DMI recv: " + StringUtils.join(StringUtils.FM, response.getRawResponse()));
 
+            // a cancelled attempt lost to its hedge - its socket has been closed and its outcome does not count
+            boolean cancelled = (attempt != null && !attempt.complete());
+
             if (socket != null) {
-                // recycle the socket on exception
-                if (ex != null) socketFactory.recycle(socket);
+                // a socket acquired after its attempt was cancelled was never used, so it goes back to the pool.
+                // otherwise, recycle the socket on exception.
+                if (!attached) socketFactory.release(socket);
+                else if (ex != null || cancelled) socketFactory.recycle(socket);
                 else socketFactory.release(socket);
             }
 
+            long duration = System.nanoTime() - start;
+            if (limiter != null) limiter.release(cancelled ? -1 : duration, ex == null);
+
+            if (!cancelled) {
+
+                CircuitBreaker cb = circuitBreaker;
+                if (cb != null && (ex == null || isDmiFailure(ex, socket, deadline))) cb.record(ex == null, duration);
+
+                if (ex == null && hedgingEnabled && transaction.isIdempotent())
+                    latencyTracker.record(latencyKey(transaction), duration);
+
+            } else if (attached && socket != null && hedgingEnabled && transaction.isIdempotent()) {
+                // the slow attempt that lost to its hedge took at least this long. leaving it out would skew the
+                // tracked latency toward the hedges that won and lower the hedge delay.
+                latencyTracker.record(latencyKey(transaction), duration);
+            }
+
         }
 
         return response;
     }
 
+    /**
+     * Set the metrics of transactions sent by this service, and register gauges of the socket pool and concurrency
+     * limiter with them.
+     *
+     * @param metrics Metrics
+     * @see DmiMetrics
+     */
+    public void setMetrics(@NonNull DmiMetrics metrics) {
+        this.metrics = metrics;
+
+        metrics.gauge(DmiMetrics.POOL_USED, socketFactory::getUsed);
+        metrics.gauge(DmiMetrics.POOL_AVAILABLE, socketFactory::getAvailable);
+        metrics.gauge(DmiMetrics.POOL_WAITING, socketFactory::getWaiting);
+        metrics.gauge(DmiMetrics.CONCURRENCY_LIMIT, () -> {
+            AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+            return (limiter != null) ? limiter.getLimit() : 0;
+        });
+        metrics.gauge(DmiMetrics.IN_FLIGHT, () -> {
+            AdaptiveConcurrencyLimiter limiter = concurrencyLimiter;
+            return (limiter != null) ? limiter.getInFlight() : 0;
+        });
+    }
+
     /**
      * Empty the connection pool associated with the DMI Service. Any open sockets will be closed and recycled,
-     * ensuring no connections remain open.
+     * ensuring no connections remain open. Background refresh of credentials is stopped.
      */
     @Override
     public void close() {
+        this.scheduler.shutdownNow();
+        this.defaultHedgeExecutor.shutdownNow();
         this.socketFactory.close();
     }
+
+
+    /**
+     * One of the requests of a hedged send. Whichever of completing or cancelling happens first wins - a cancelled
+     * attempt has its socket closed, ending its wait for a response.
+     */
+    private class SendAttempt {
+        private PooledSocket socket;
+        private boolean completed;
+        private boolean cancelled;
+
+        /**
+         * Attach the socket being used
+         *
+         * @return false if the attempt has already been cancelled
+         */
+        synchronized boolean attach(PooledSocket socket) {
+            this.socket = socket;
+            return !cancelled;
+        }
+
+        /**
+         * Mark the attempt as completed
+         *
+         * @return false if the attempt has already been cancelled
+         */
+        synchronized boolean complete() {
+            if (!cancelled) completed = true;
+            return completed;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancel the attempt, closing its socket to end its wait for a response. The socket is recycled by the
+         * attempt itself once it stops.
+         *
+         * @return false if the attempt has already completed
+         */
+        boolean cancel() {
+            PooledSocket s;
+            synchronized (this) {
+                if (completed || cancelled) return false;
+                cancelled = true;
+                s = socket;
+            }
+
+            if (s != null) {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    log.debug("Error closing socket of cancelled DMI transaction: " + e.getMessage());
+                }
+            }
+
+            return true;
+        }
+    }
 }
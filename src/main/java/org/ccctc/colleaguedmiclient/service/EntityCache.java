@@ -0,0 +1,101 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded cache of records for an entity marked with {@code @Cacheable}, stored by record ID. When the cache is
+ * full, the least recently used record is removed.
+ */
+class EntityCache {
+
+    private final long ttlSeconds;
+    private final int maxEntries;
+    private final Map<String, Entry> cache;
+
+
+    /**
+     * Create an entity cache
+     *
+     * @param ttlSeconds Cache entry expiration time in seconds
+     * @param maxEntries Maximum number of entries
+     */
+    EntityCache(long ttlSeconds, int maxEntries) {
+        this.ttlSeconds = ttlSeconds;
+        this.maxEntries = maxEntries;
+        this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > EntityCache.this.maxEntries;
+            }
+        };
+    }
+
+
+    /**
+     * Get a record from the cache or null if not found or expired
+     *
+     * @param recordId Record ID
+     * @return Record
+     */
+    synchronized ColleagueRecord get(String recordId) {
+        Entry entry = cache.get(recordId);
+        if (entry != null) {
+            if (!entry.isExpired()) {
+                return entry.getValue();
+            } else {
+                cache.remove(recordId);
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Add a record to the cache
+     *
+     * @param recordId Record ID
+     * @param record   Record
+     */
+    synchronized void put(String recordId, ColleagueRecord record) {
+        cache.put(recordId, new Entry(record, LocalDateTime.now().plusSeconds(ttlSeconds)));
+    }
+
+
+    /**
+     * Remove all records from the cache
+     */
+    synchronized void clear() {
+        cache.clear();
+    }
+
+
+    /**
+     * Number of records in the cache, including expired records that have not been removed yet
+     *
+     * @return Size
+     */
+    synchronized int size() {
+        return cache.size();
+    }
+
+
+    /**
+     * Cached record with an expiration date/time
+     */
+    @AllArgsConstructor
+    private static class Entry {
+        @Getter private final ColleagueRecord value;
+        private final LocalDateTime expirationDateTime;
+
+        boolean isExpired() {
+            return !expirationDateTime.isAfter(LocalDateTime.now());
+        }
+    }
+}
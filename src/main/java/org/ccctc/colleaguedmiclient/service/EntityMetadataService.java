@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static org.ccctc.colleaguedmiclient.util.ArrayUtils.getAt;
 import static org.ccctc.colleaguedmiclient.util.ArrayUtils.getAtInt;
@@ -71,11 +72,17 @@ public class EntityMetadataService {
      * @return Entity Metadata
      */
     public EntityMetadata get(String appl, String entityName, boolean refreshCache) {
-        if (!refreshCache) {
-            EntityMetadata cached = cache.get(appl, entityName);
-            if (cached != null) return cached;
-        }
+        if (refreshCache)
+            return cache.refresh(appl, entityName, () -> load(appl, entityName));
+
+        return cache.get(appl, entityName, () -> load(appl, entityName));
+    }
+
 
+    /**
+     * Load metadata from the DMI
+     */
+    private EntityMetadata load(String appl, String entityName) {
         List<KeyValuePair<String, String>> params = new ArrayList<>();
         params.add(new KeyValuePair<>("TV.APPLICATION", appl));
         params.add(new KeyValuePair<>("TV.ENTITY.NAME", entityName));
@@ -144,7 +151,6 @@ public class EntityMetadataService {
 
             EntityMetadata entityMetadata = new EntityMetadata(entityType, guidEnabled, map, ordered);
 
-            cache.put(appl, entityName, entityMetadata);
             return entityMetadata;
 
         }
@@ -153,6 +159,26 @@ public class EntityMetadataService {
     }
 
 
+    /**
+     * Get all cached entries by cache key (application + "*" + name), used to save a snapshot of the cache
+     */
+    Map<String, EntityMetadata> getCachedEntries() {
+        Map<String, EntityMetadata> result = new HashMap<>();
+        for (Map.Entry<String, EntityMetadata> e : cache.entrySet()) {
+            result.put(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+
+    /**
+     * Add an entry to the cache, used to restore a snapshot of the cache
+     */
+    void putCachedEntry(String appl, String name, EntityMetadata value) {
+        cache.put(appl, name, value);
+    }
+
+
     /**
      * Clear the cache
      */
@@ -179,4 +205,68 @@ public class EntityMetadataService {
     public void setCacheExpirationSeconds(long cacheExpirationSeconds) {
         cache.setCacheExpirationSeconds(cacheExpirationSeconds);
     }
+
+
+    /**
+     * Get maximum number of entries in the cache. Zero means unlimited.
+     *
+     * @return Maximum number of entries
+     */
+    public int getCacheMaxEntries() {
+        return cache.getMaxEntries();
+    }
+
+
+    /**
+     * Set maximum number of entries in the cache. When exceeded, the least recently used entry is removed. Default is
+     * zero (unlimited).
+     *
+     * @param cacheMaxEntries Maximum number of entries
+     */
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        cache.setMaxEntries(cacheMaxEntries);
+    }
+
+
+    /**
+     * Get number of seconds after expiration that a cache entry is still returned while it is refreshed in the
+     * background.
+     *
+     * @return Stale while revalidate time in seconds
+     */
+    public long getCacheStaleWhileRevalidateSeconds() {
+        return cache.getStaleWhileRevalidateSeconds();
+    }
+
+
+    /**
+     * Set number of seconds after expiration that a cache entry is still returned while it is refreshed in the
+     * background. Default is zero, meaning expired entries are refreshed before being returned.
+     *
+     * @param cacheStaleWhileRevalidateSeconds Stale while revalidate time in seconds
+     */
+    public void setCacheStaleWhileRevalidateSeconds(long cacheStaleWhileRevalidateSeconds) {
+        cache.setStaleWhileRevalidateSeconds(cacheStaleWhileRevalidateSeconds);
+    }
+
+    /**
+     * Get the executor that refreshes expired cache entries in the background.
+     *
+     * @return Executor
+     */
+    public Executor getCacheRefreshExecutor() {
+        return cache.getRefreshExecutor();
+    }
+
+
+    /**
+     * Set the executor that refreshes expired cache entries in the background. Default is a pool of two daemon threads
+     * shared by all metadata caches.
+     *
+     * @param cacheRefreshExecutor Executor
+     */
+    public void setCacheRefreshExecutor(@NonNull Executor cacheRefreshExecutor) {
+        cache.setRefreshExecutor(cacheRefreshExecutor);
+    }
+
 }
\ No newline at end of file
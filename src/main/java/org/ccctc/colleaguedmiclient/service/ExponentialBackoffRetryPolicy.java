@@ -0,0 +1,105 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy with exponential backoff and jitter, limited by a retry budget. This is the default policy of
+ * {@code DmiService}.
+ * <p>
+ * The delay before retry {@code n} is {@code baseDelayMillis * multiplier^(n-1)}, capped at {@code maxDelayMillis},
+ * with up to {@code jitter} of it removed at random so that threads failing at the same time do not retry in
+ * lockstep.
+ * <p>
+ * Failures are classified by type and by SERRS error type. By default all failure types are retried except SERRS
+ * responses with an error type in {@code nonRetryableErrorTypes} (SET, meaning an invalid request). Security failures
+ * (after which the DMI Service logs back in) are retried immediately and do not count against the budget.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    private final Log log = LogFactory.getLog(ExponentialBackoffRetryPolicy.class);
+
+    /**
+     * Delay before the first retry. Default is 250 ms.
+     */
+    @Getter @Setter private long baseDelayMillis = 250;
+
+    /**
+     * Maximum delay before a retry. Default is 10 seconds.
+     */
+    @Getter @Setter private long maxDelayMillis = 10000;
+
+    /**
+     * Multiplier of the delay for each subsequent retry. Default is 2.
+     */
+    @Getter @Setter private double multiplier = 2.0;
+
+    /**
+     * Fraction of the delay that is randomized, between 0 (none) and 1 (full jitter). Default is 0.5.
+     */
+    @Getter @Setter private double jitter = 0.5;
+
+    /**
+     * Failure types that are retried. Default is all types.
+     */
+    @Getter @Setter @NonNull private Set<DmiFailure.Type> retryableTypes = EnumSet.allOf(DmiFailure.Type.class);
+
+    /**
+     * SERRS error types that are never retried. Default is SET.
+     */
+    @Getter @Setter @NonNull private Set<String> nonRetryableErrorTypes = new HashSet<>(Collections.singleton("SET"));
+
+    /**
+     * Retry budget, or null for no budget. Default is 10% of requests with up to 10 retries banked.
+     */
+    @Getter @Setter private RetryBudget retryBudget = new RetryBudget(0.1, 10);
+
+
+    @Override
+    public void onRequest() {
+        RetryBudget budget = retryBudget;
+        if (budget != null) budget.onRequest();
+    }
+
+
+    @Override
+    public long retryDelayMillis(int attempt, DmiFailure failure) {
+        if (!retryableTypes.contains(failure.getType())) return NO_RETRY;
+
+        for (String errorType : failure.getErrorTypes()) {
+            if (nonRetryableErrorTypes.contains(errorType)) return NO_RETRY;
+        }
+
+        if (failure.getType() == DmiFailure.Type.SECURITY) return 0;
+
+        RetryBudget budget = retryBudget;
+        if (budget != null && !budget.tryRetry()) {
+            log.warn("Retry budget exhausted, not retrying DMI transaction");
+            return NO_RETRY;
+        }
+
+        return delay(attempt);
+    }
+
+
+    /**
+     * Calculate the delay before retrying after a failed attempt, with jitter
+     */
+    long delay(int attempt) {
+        double d = baseDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+        d = Math.min(d, maxDelayMillis);
+
+        if (jitter > 0) d -= d * jitter * ThreadLocalRandom.current().nextDouble();
+
+        return Math.max(0, (long) d);
+    }
+}
@@ -0,0 +1,203 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plan for reading an entity with {@code DmiEntityService}, specifying which fields to read and which joins to follow.
+ * Fields, associations and joins are referenced by their Java property names.
+ * <p>
+ * Only the columns needed by the plan are requested from the DMI, so a plan that reads a few fields from a large entity
+ * results in a smaller request and response.
+ * <p>
+ * Example - read two fields, follow the {@code stcCourse} join (reading only {@code crsName}) and the {@code term} join
+ * (reading all fields, but none of its joins):
+ * <pre>
+ * FetchPlan plan = FetchPlan.builder()
+ *         .fields("stcTitle", "stcStatuses")
+ *         .join("stcCourse", FetchPlan.builder().fields("crsName").build())
+ *         .join("term", FetchPlan.builder().maxDepth(0).build())
+ *         .build();
+ * </pre>
+ */
+public class FetchPlan {
+
+    private static final FetchPlan ALL = new FetchPlan(null, null, Integer.MAX_VALUE);
+
+    private final Set<String> fields;
+    private final Map<String, FetchPlan> joins;
+    private final int maxDepth;
+
+    private FetchPlan(Set<String> fields, Map<String, FetchPlan> joins, int maxDepth) {
+        this.fields = fields;
+        this.joins = joins;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Plan that reads all fields and follows all joins. This is the default for {@code DmiEntityService}.
+     *
+     * @return Fetch plan
+     */
+    public static FetchPlan all() {
+        return ALL;
+    }
+
+    /**
+     * Create a new builder
+     *
+     * @return Builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Fields and associations to read (by property name). Null if all fields are read.
+     *
+     * @return Fields
+     */
+    public Set<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * Joins to follow (by property name) and the plan for each. Null if all joins are followed.
+     *
+     * @return Joins
+     */
+    public Map<String, FetchPlan> getJoins() {
+        return joins;
+    }
+
+    /**
+     * Maximum depth of joins to follow. Zero means no joins are followed.
+     *
+     * @return Maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Whether this plan reads all fields and follows all joins
+     */
+    boolean isAll() {
+        return fields == null && joins == null && maxDepth == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Whether a field or association is read by this plan
+     */
+    boolean includesField(String propertyName) {
+        return fields == null || fields.contains(propertyName);
+    }
+
+    /**
+     * Whether a join is followed by this plan
+     */
+    boolean followsJoin(String propertyName) {
+        return maxDepth > 0 && (joins == null || joins.containsKey(propertyName));
+    }
+
+    /**
+     * Get the plan for the child entity of a join, limited to the remaining depth of this plan
+     */
+    FetchPlan getJoinPlan(String propertyName) {
+        FetchPlan child = (joins != null && joins.get(propertyName) != null) ? joins.get(propertyName) : ALL;
+
+        int depth = (maxDepth == Integer.MAX_VALUE) ? child.maxDepth : Math.min(child.maxDepth, maxDepth - 1);
+        if (depth == child.maxDepth) return child;
+
+        return new FetchPlan(child.fields, child.joins, depth);
+    }
+
+
+    /**
+     * Builder for {@code FetchPlan}
+     */
+    public static class Builder {
+        private Set<String> fields;
+        private Map<String, FetchPlan> joins;
+        private int maxDepth = Integer.MAX_VALUE;
+
+        private Builder() {
+        }
+
+        /**
+         * Read only these fields and associations (by property name). If never called, all fields are read.
+         *
+         * @param fields Property names
+         * @return Builder
+         */
+        public Builder fields(String... fields) {
+            if (this.fields == null) this.fields = new HashSet<>();
+            this.fields.addAll(Arrays.asList(fields));
+            return this;
+        }
+
+        /**
+         * Follow a join, reading all fields of the child entity. Once a join is specified, only specified joins are
+         * followed.
+         *
+         * @param propertyName Property name of the join
+         * @return Builder
+         */
+        public Builder join(String propertyName) {
+            return join(propertyName, ALL);
+        }
+
+        /**
+         * Follow a join using a plan for the child entity. Once a join is specified, only specified joins are followed.
+         *
+         * @param propertyName Property name of the join
+         * @param plan         Plan for the child entity
+         * @return Builder
+         */
+        public Builder join(String propertyName, FetchPlan plan) {
+            if (this.joins == null) this.joins = new HashMap<>();
+            this.joins.put(propertyName, plan);
+            return this;
+        }
+
+        /**
+         * Do not follow any joins
+         *
+         * @return Builder
+         */
+        public Builder noJoins() {
+            this.joins = new HashMap<>();
+            return this;
+        }
+
+        /**
+         * Maximum depth of joins to follow. Zero means no joins are followed. Default is unlimited.
+         *
+         * @param maxDepth Maximum depth
+         * @return Builder
+         */
+        public Builder maxDepth(int maxDepth) {
+            if (maxDepth < 0)
+                throw new IllegalArgumentException("maxDepth must be zero or greater");
+
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Build the plan
+         *
+         * @return Fetch plan
+         */
+        public FetchPlan build() {
+            return new FetchPlan(
+                    fields == null ? null : Collections.unmodifiableSet(new HashSet<>(fields)),
+                    joins == null ? null : Collections.unmodifiableMap(new HashMap<>(joins)),
+                    maxDepth);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical requests that are in flight at the same time, so that concurrent callers share a single round
+ * trip to the DMI and its result (or exception).
+ * <p>
+ * Only requests that overlap in time are shared - once a request completes, the next request with the same key is
+ * sent again. Callers receive the same result object, so results should be treated as read only.
+ * <p>
+ * Requests may also be started in the background with {@code executeAsync}, for example to reload a cached value,
+ * and callers of {@code execute} with the same key wait for the background request.
+ *
+ * @param <T> Type of result
+ */
+public class InFlightRequests<T> {
+
+    private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+
+    /**
+     * Execute a request, or wait for the result of an identical request already in flight
+     *
+     * @param key     Key identifying identical requests
+     * @param request Request
+     * @return Result
+     */
+    public T execute(String key, Supplier<T> request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> existing = inFlight.putIfAbsent(key, future);
+
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                // only runtime exceptions and errors complete a request exceptionally
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw (RuntimeException) e.getCause();
+            }
+        }
+
+        return run(key, request, future);
+    }
+
+
+    /**
+     * Start a request in the background, unless an identical request is already in flight. Exceptions thrown by the
+     * request are only passed to callers waiting on it.
+     *
+     * @param key      Key identifying identical requests
+     * @param request  Request
+     * @param executor Executor that runs the request
+     * @return True if the request was started, false if an identical request is already in flight
+     * @throws RejectedExecutionException if the executor does not accept the request
+     */
+    public boolean executeAsync(String key, Supplier<T> request, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(key, future) != null) return false;
+
+        try {
+            executor.execute(() -> {
+                try {
+                    run(key, request, future);
+                } catch (RuntimeException | Error ignored) {
+                    // already passed to any waiting callers
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Run a request registered as in flight and complete its future
+     */
+    private T run(String key, Supplier<T> request, CompletableFuture<T> future) {
+        // no longer in flight before waiting callers are woken, so that a failed request is not joined by a later call
+        try {
+            T value = request.get();
+            inFlight.remove(key, future);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+
+    /**
+     * Number of requests in flight
+     *
+     * @return Size
+     */
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,121 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the latency of the most recent calls by key (ie transaction type) so that percentiles can be looked up, for
+ * example to decide when to hedge a request.
+ * <p>
+ * Each key keeps a window of its most recent {@code windowSize} latencies. Percentiles are calculated from a sorted copy
+ * of the window, which is only refreshed after 1/16th of the window has been replaced, so a lookup is normally just an
+ * array access. The tracker is thread safe.
+ */
+public class LatencyTracker {
+
+    /**
+     * Number of most recent latencies kept per key
+     */
+    @Getter private final int windowSize;
+
+    /**
+     * Minimum number of latencies recorded for a key before percentiles are available
+     */
+    @Getter private final int minSamples;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+
+    /**
+     * Create a latency tracker with a window of 256 latencies and a minimum of 20
+     */
+    public LatencyTracker() {
+        this(256, 20);
+    }
+
+
+    /**
+     * Create a latency tracker
+     *
+     * @param windowSize Number of most recent latencies kept per key
+     * @param minSamples Minimum number of latencies recorded for a key before percentiles are available
+     */
+    public LatencyTracker(int windowSize, int minSamples) {
+        if (windowSize < 1) throw new IllegalArgumentException("windowSize must be at least 1");
+        if (minSamples < 1 || minSamples > windowSize)
+            throw new IllegalArgumentException("minSamples must be between 1 and windowSize");
+
+        this.windowSize = windowSize;
+        this.minSamples = minSamples;
+    }
+
+
+    /**
+     * Record a latency
+     *
+     * @param key           Key
+     * @param latencyNanos  Latency in nanoseconds
+     */
+    public void record(String key, long latencyNanos) {
+        windows.computeIfAbsent(key, k -> new Window(windowSize)).record(latencyNanos);
+    }
+
+
+    /**
+     * Get a percentile of the recent latencies for a key
+     *
+     * @param key        Key
+     * @param percentile Percentile, between 0 and 1 (ie 0.95 for p95)
+     * @return Latency in nanoseconds, or -1 if fewer than {@code minSamples} latencies have been recorded
+     */
+    public long percentileNanos(String key, double percentile) {
+        Window w = windows.get(key);
+        return (w != null) ? w.percentile(percentile, minSamples) : -1;
+    }
+
+
+    /**
+     * Clear all recorded latencies
+     */
+    public void clear() {
+        windows.clear();
+    }
+
+
+    private static class Window {
+        private final long[] samples;
+        private final int refreshAfter;
+        private int index;
+        private int count;
+        private int changes;
+        private long[] sorted;
+
+        Window(int size) {
+            samples = new long[size];
+            refreshAfter = Math.max(1, size / 16);
+        }
+
+        synchronized void record(long latencyNanos) {
+            samples[index] = latencyNanos;
+            index = (index + 1) % samples.length;
+            if (count < samples.length) count++;
+            changes++;
+        }
+
+        synchronized long percentile(double percentile, int minSamples) {
+            if (count < minSamples) return -1;
+
+            if (sorted == null || changes >= refreshAfter) {
+                sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                changes = 0;
+            }
+
+            int i = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.min(sorted.length - 1, Math.max(0, i))];
+        }
+    }
+}
@@ -1,32 +1,74 @@
 package org.ccctc.colleaguedmiclient.service;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.Setter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import java.time.LocalDateTime;
 import java.util.AbstractMap;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * Cache used for metadata from Colleague. Values in the cache are stored/retrieved by application name + "*" + value,
  * for example CORE*PERSON for an entity or UT*GET.SESSION.INFO for a CTX.
+ * <p>
+ * The cache is thread safe. When values are read with a loader, only one thread loads a missing value while other
+ * threads requesting the same value wait for it. Optionally, the cache can be limited in size (removing the least
+ * recently used entry when full) and expired values can be returned while they are reloaded in the background.
+ * Background reloads run on {@code refreshExecutor}, which by default is a small pool of daemon threads shared by all
+ * caches, so that blocking DMI requests do not run on the common fork join pool.
  *
  * @param <T> Type of Cache
  */
 class MetadataCache<T> implements Map<String, T> {
 
-    private Map<String, MetadataCache.Entry<T>> cache = new HashMap<>();
+    private final static Log log = LogFactory.getLog(MetadataCache.class);
+
+    private final static Executor DEFAULT_REFRESH_EXECUTOR = newRefreshExecutor();
+
+    private final Map<String, MetadataCache.Entry<T>> cache = new ConcurrentHashMap<>();
+    private final InFlightRequests<T> loads = new InFlightRequests<>();
+
+    // keys from least to most recently used, only kept while the cache is limited in size (guarded by itself)
+    private final LinkedHashMap<String, Boolean> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
 
     /**
      * Number of seconds before a cache entry will expire. Default is 24 hours.
      */
     @Getter @Setter private long cacheExpirationSeconds;
 
+    /**
+     * Maximum number of entries in the cache. When exceeded, the least recently used entry is removed. Zero (the
+     * default) means unlimited.
+     */
+    @Getter private volatile int maxEntries = 0;
+
+    /**
+     * Number of seconds after expiration that an entry will still be returned by {@code get(appl, name, loader)} while
+     * it is reloaded in the background. Zero (the default) means expired entries are reloaded before being returned.
+     */
+    @Getter @Setter private long staleWhileRevalidateSeconds = 0;
+
+    /**
+     * Executor that reloads expired entries in the background. Default is a pool of two daemon threads shared by all
+     * caches.
+     */
+    @Getter @Setter @NonNull private Executor refreshExecutor = DEFAULT_REFRESH_EXECUTOR;
+
 
     /**
      * Create a metadata cache with a given expiration time for entries
@@ -38,6 +80,24 @@ class MetadataCache<T> implements Map<String, T> {
     }
 
 
+    /**
+     * Set the maximum number of entries in the cache. When exceeded, the least recently used entry is removed. Zero
+     * means unlimited.
+     *
+     * @param maxEntries Maximum number of entries
+     */
+    public void setMaxEntries(int maxEntries) {
+        synchronized (accessOrder) {
+            this.maxEntries = maxEntries;
+            accessOrder.clear();
+            if (maxEntries > 0) {
+                for (String key : cache.keySet()) accessOrder.put(key, Boolean.TRUE);
+                evict();
+            }
+        }
+    }
+
+
     /**
      * Get an entry from the cache or null if not found. If an entry has expired it will not be returned and it will
      * be removed from the Cache.
@@ -52,6 +112,53 @@ class MetadataCache<T> implements Map<String, T> {
     }
 
 
+    /**
+     * Get an entry from the cache, loading it if not found or expired. If multiple threads request the same missing
+     * entry at once, only one of them calls the loader.
+     * <p>
+     * If an entry has expired within the last {@code staleWhileRevalidateSeconds}, the expired entry is returned and
+     * reloaded in the background.
+     *
+     * @param appl   Entry application
+     * @param name   Entry name
+     * @param loader Loader
+     * @return Entry
+     */
+    public T get(String appl, String name, Supplier<T> loader) {
+        String key = appl + "*" + name;
+
+        Entry<T> entry = cache.get(key);
+        if (entry != null) {
+            if (!entry.isExpired()) {
+                touch(key);
+                return entry.getValue();
+            }
+
+            if (!entry.isStale()) {
+                touch(key);
+                refreshInBackground(key, loader);
+                return entry.getValue();
+            }
+        }
+
+        return load(key, loader);
+    }
+
+
+    /**
+     * Load an entry, replacing any cached entry. If the entry is already being loaded by another thread, the result
+     * of that load is returned.
+     *
+     * @param appl   Entry application
+     * @param name   Entry name
+     * @param loader Loader
+     * @return Entry
+     */
+    public T refresh(String appl, String name, Supplier<T> loader) {
+        return load(appl + "*" + name, loader);
+    }
+
+
     /**
      * Add an entry to the cache
      *
@@ -66,6 +173,62 @@ class MetadataCache<T> implements Map<String, T> {
     }
 
 
+    /**
+     * Load an entry, waiting on another thread if it is already loading the same entry
+     */
+    private T load(String key, Supplier<T> loader) {
+        return loads.execute(key, () -> put(key, loader.get()));
+    }
+
+
+    /**
+     * Reload an entry in the background, unless it is already being loaded
+     */
+    private void refreshInBackground(String key, Supplier<T> loader) {
+        try {
+            boolean started = loads.executeAsync(key, () -> {
+                try {
+                    return put(key, loader.get());
+                } catch (RuntimeException | Error e) {
+                    log.warn("Error refreshing cache entry " + key + ": " + e.getClass().getName() + ": " + e.getMessage());
+                    throw e;
+                }
+            }, refreshExecutor);
+
+            if (started) log.debug("Refreshing expired cache entry " + key + " in the background");
+        } catch (RejectedExecutionException e) {
+            // the expired entry is reloaded by a later request instead
+            log.warn("Unable to refresh cache entry " + key + " in the background: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Mark a key as the most recently used, if the cache is limited in size
+     */
+    private void touch(String key) {
+        if (maxEntries > 0) {
+            synchronized (accessOrder) {
+                if (maxEntries > 0) accessOrder.put(key, Boolean.TRUE);
+            }
+        }
+    }
+
+
+    /**
+     * Remove least recently used entries while the cache is over its maximum size. Must hold the lock on
+     * {@code accessOrder}. Keys of entries that were removed by other means are skipped.
+     */
+    private void evict() {
+        Iterator<String> eldest = accessOrder.keySet().iterator();
+        while (cache.size() > maxEntries && eldest.hasNext()) {
+            String key = eldest.next();
+            eldest.remove();
+            cache.remove(key);
+        }
+    }
+
+
     // Implemented methods of Map
 
     @Override
@@ -94,9 +257,10 @@ class MetadataCache<T> implements Map<String, T> {
         Entry<T> entry = cache.get(key);
         if (entry != null) {
             if (!entry.isExpired()) {
+                touch(key.toString());
                 return entry.getValue();
-            } else {
-                cache.remove(key.toString());
+            } else if (entry.isStale()) {
+                removeEntry(key.toString(), entry);
             }
         }
 
@@ -105,14 +269,36 @@ class MetadataCache<T> implements Map<String, T> {
 
     @Override
     public T put(String key, T value) {
-        Entry<T> entry = new Entry<>(value, LocalDateTime.now().plusSeconds(cacheExpirationSeconds));
-        cache.put(key, entry);
+        LocalDateTime expiration = LocalDateTime.now().plusSeconds(cacheExpirationSeconds);
+        Entry<T> entry = new Entry<>(value, expiration, expiration.plusSeconds(staleWhileRevalidateSeconds));
+
+        if (maxEntries > 0) {
+            synchronized (accessOrder) {
+                cache.put(key, entry);
+                if (maxEntries > 0) {
+                    accessOrder.put(key, Boolean.TRUE);
+                    evict();
+                }
+            }
+        } else {
+            cache.put(key, entry);
+        }
+
         return value;
     }
 
     @Override
     public T remove(Object key) {
-        Entry<T> entry = cache.remove(key);
+        Entry<T> entry;
+        if (maxEntries > 0) {
+            synchronized (accessOrder) {
+                entry = cache.remove(key);
+                accessOrder.remove(key);
+            }
+        } else {
+            entry = cache.remove(key);
+        }
+
         if (entry != null) return entry.getValue();
         return null;
     }
@@ -124,7 +310,10 @@ class MetadataCache<T> implements Map<String, T> {
 
     @Override
     public void clear() {
-        cache.clear();
+        synchronized (accessOrder) {
+            cache.clear();
+            accessOrder.clear();
+        }
     }
 
     @Override
@@ -151,20 +340,47 @@ class MetadataCache<T> implements Map<String, T> {
 
 
     /**
-     * Remove expired values from the cache
+     * Remove expired values from the cache, excluding values that may still be returned while they are reloaded
      */
     private void removeExpired() {
-        for (Map.Entry<String, MetadataCache.Entry<T>> e : cache.entrySet()) {
-            if (e.getValue().isExpired())
-                remove(e.getKey());
+        cache.forEach((key, entry) -> {
+            if (entry.isStale()) removeEntry(key, entry);
+        });
+    }
+
+
+    /**
+     * Remove an entry if it has not been replaced
+     */
+    private void removeEntry(String key, Entry<T> entry) {
+        if (maxEntries > 0) {
+            synchronized (accessOrder) {
+                if (cache.remove(key, entry)) accessOrder.remove(key);
+            }
+        } else {
+            cache.remove(key, entry);
         }
     }
 
 
+    /**
+     * Create the default executor for background reloads, whose threads stop when idle
+     */
+    private static Executor newRefreshExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "dmi-metadata-refresh");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+
     /**
      * Cached entry with an expiration date/time
      */
-    @AllArgsConstructor
     private static class Entry<T> {
         /**
          * Value of the entry
@@ -176,8 +392,23 @@ class MetadataCache<T> implements Map<String, T> {
          */
         private final LocalDateTime expirationDateTime;
 
+        /**
+         * Date and time after which the expired entry can no longer be returned while it is reloaded
+         */
+        private final LocalDateTime staleDateTime;
+
+        Entry(T value, LocalDateTime expirationDateTime, LocalDateTime staleDateTime) {
+            this.value = value;
+            this.expirationDateTime = expirationDateTime;
+            this.staleDateTime = staleDateTime;
+        }
+
         boolean isExpired() {
             return !expirationDateTime.isAfter(LocalDateTime.now());
         }
+
+        boolean isStale() {
+            return !staleDateTime.isAfter(LocalDateTime.now());
+        }
     }
 }
@@ -0,0 +1,508 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.NonNull;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ccctc.colleaguedmiclient.model.CTXAssociation;
+import org.ccctc.colleaguedmiclient.model.CTXElement;
+import org.ccctc.colleaguedmiclient.model.CTXMetadata;
+import org.ccctc.colleaguedmiclient.model.CTXVariable;
+import org.ccctc.colleaguedmiclient.model.CddEntry;
+import org.ccctc.colleaguedmiclient.model.EntityMetadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshot of the metadata caches of {@code EntityMetadataService} and {@code CTXMetadataService}, saved to a local
+ * file. Loading a snapshot at startup avoids reading all metadata from the DMI before the first request is served.
+ * After a snapshot is loaded, its entries are refreshed from the DMI in the background.
+ * <p>
+ * The snapshot is a compact, gzipped binary file. A snapshot that can't be read (missing, corrupt or from a different
+ * version) is ignored, so the caches are filled from the DMI as usual.
+ * <p>
+ * Example:
+ * <pre>
+ * MetadataSnapshotStore store = new MetadataSnapshotStore(Paths.get("/var/cache/dmi-metadata.snapshot"));
+ * store.load(entityMetadataService, ctxMetadataService);
+ * ...
+ * store.save(entityMetadataService, ctxMetadataService);
+ * </pre>
+ */
+public class MetadataSnapshotStore {
+
+    private final static Log log = LogFactory.getLog(MetadataSnapshotStore.class);
+
+    private final static int MAGIC = 0x444D4953; // DMIS
+    private final static int VERSION = 1;
+    private final static int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+    private final static int MAX_COUNT = 1024 * 1024;
+
+    private final Path file;
+
+    // background refresh of the last loaded snapshot
+    private volatile CompletableFuture<Void> revalidation = CompletableFuture.completedFuture(null);
+
+
+    /**
+     * Create a snapshot store
+     *
+     * @param file Snapshot file
+     */
+    public MetadataSnapshotStore(@NonNull Path file) {
+        this.file = file;
+    }
+
+
+    /**
+     * Get the background refresh of the entries of the last loaded snapshot, ie to wait until they have been refreshed
+     * from the DMI. Completes normally even if some entries could not be refreshed.
+     *
+     * @return Future completed when the refresh is done (already completed if there is none)
+     */
+    public CompletableFuture<Void> getRevalidation() {
+        // a dependent future, so that callers cannot complete or cancel the refresh itself
+        return revalidation.thenApply(v -> v);
+    }
+
+
+    /**
+     * Save the cached metadata of the services to the snapshot file. The file is written to a temporary file first,
+     * then moved into place.
+     *
+     * @param entityMetadataService Entity Metadata Service (optional)
+     * @param ctxMetadataService    CTX Metadata Service (optional)
+     * @throws IOException if the file can't be written
+     */
+    public void save(EntityMetadataService entityMetadataService, CTXMetadataService ctxMetadataService) throws IOException {
+        Map<String, EntityMetadata> entities = entityMetadataService != null
+                ? entityMetadataService.getCachedEntries() : new HashMap<>();
+        Map<String, CTXMetadata> ctxs = ctxMetadataService != null
+                ? ctxMetadataService.getCachedEntries() : new HashMap<>();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                out.writeInt(entities.size());
+                for (Map.Entry<String, EntityMetadata> e : entities.entrySet()) {
+                    writeString(out, e.getKey());
+                    writeEntityMetadata(out, e.getValue());
+                }
+
+                out.writeInt(ctxs.size());
+                for (Map.Entry<String, CTXMetadata> e : ctxs.entrySet()) {
+                    writeString(out, e.getKey());
+                    writeCTXMetadata(out, e.getValue());
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        log.debug("Saved metadata snapshot to " + file + ": " + entities.size() + " entities, " + ctxs.size() + " CTXs");
+    }
+
+
+    /**
+     * Load the snapshot file into the caches of the services, then refresh the loaded entries in the background
+     *
+     * @param entityMetadataService Entity Metadata Service (optional)
+     * @param ctxMetadataService    CTX Metadata Service (optional)
+     * @return Number of entries loaded
+     */
+    public int load(EntityMetadataService entityMetadataService, CTXMetadataService ctxMetadataService) {
+        return load(entityMetadataService, ctxMetadataService, true);
+    }
+
+
+    /**
+     * Load the snapshot file into the caches of the services, optionally refreshing the loaded entries in the
+     * background. If the file does not exist or can't be read, nothing is loaded.
+     *
+     * @param entityMetadataService Entity Metadata Service (optional)
+     * @param ctxMetadataService    CTX Metadata Service (optional)
+     * @param revalidate            Refresh loaded entries from the DMI in the background
+     * @return Number of entries loaded
+     */
+    public int load(EntityMetadataService entityMetadataService, CTXMetadataService ctxMetadataService,
+                    boolean revalidate) {
+        if (!Files.exists(file)) return 0;
+
+        Map<String, EntityMetadata> entities = new HashMap<>();
+        Map<String, CTXMetadata> ctxs = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring metadata snapshot " + file + ": unsupported format");
+                return 0;
+            }
+
+            int count = readCount(in);
+            for (int x = 0; x < count; x++) {
+                entities.put(readString(in), readEntityMetadata(in));
+            }
+
+            count = readCount(in);
+            for (int x = 0; x < count; x++) {
+                ctxs.put(readString(in), readCTXMetadata(in));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring metadata snapshot " + file + ": " + e.getClass().getName() + ": " + e.getMessage());
+            return 0;
+        }
+
+        int loaded = 0;
+        if (entityMetadataService != null) {
+            for (Map.Entry<String, EntityMetadata> e : entities.entrySet()) {
+                String[] key = splitKey(e.getKey());
+                entityMetadataService.putCachedEntry(key[0], key[1], e.getValue());
+                loaded++;
+            }
+        }
+
+        if (ctxMetadataService != null) {
+            for (Map.Entry<String, CTXMetadata> e : ctxs.entrySet()) {
+                String[] key = splitKey(e.getKey());
+                ctxMetadataService.putCachedEntry(key[0], key[1], e.getValue());
+                loaded++;
+            }
+        }
+
+        log.debug("Loaded metadata snapshot from " + file + ": " + loaded + " entries");
+
+        if (revalidate && loaded > 0) {
+            // refreshing blocks on the DMI, so it runs on its own thread rather than the common fork join pool
+            revalidation = CompletableFuture.runAsync(() -> {
+                if (entityMetadataService != null) {
+                    for (String k : entities.keySet()) {
+                        String[] key = splitKey(k);
+                        refresh(k, () -> entityMetadataService.get(key[0], key[1], true));
+                    }
+                }
+
+                if (ctxMetadataService != null) {
+                    for (String k : ctxs.keySet()) {
+                        String[] key = splitKey(k);
+                        refresh(k, () -> ctxMetadataService.get(key[0], key[1], true));
+                    }
+                }
+            }, r -> {
+                Thread t = new Thread(r, "dmi-metadata-snapshot-refresh");
+                t.setDaemon(true);
+                t.start();
+            });
+        }
+
+        return loaded;
+    }
+
+
+    /**
+     * Refresh one entry, logging failures (the snapshot entry stays in the cache)
+     */
+    private void refresh(String key, Runnable refresh) {
+        try {
+            refresh.run();
+        } catch (RuntimeException e) {
+            log.warn("Error refreshing metadata for " + key + " from snapshot: " + e.getClass().getName() + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Split a cache key into application and name
+     */
+    private String[] splitKey(String key) {
+        int pos = key.indexOf('*');
+        if (pos < 0) throw new IllegalArgumentException("Invalid cache key " + key);
+        return new String[]{key.substring(0, pos), key.substring(pos + 1)};
+    }
+
+
+    //
+    // Entity metadata
+    //
+
+    private void writeEntityMetadata(DataOutputStream out, EntityMetadata m) throws IOException {
+        writeString(out, m.getEntityType());
+        writeString(out, m.getGuidEnabled());
+
+        Map<String, CddEntry> entries = m.getEntries();
+        out.writeInt(entries == null ? -1 : entries.size());
+        if (entries != null) {
+            for (Map.Entry<String, CddEntry> e : entries.entrySet()) {
+                writeString(out, e.getKey());
+                writeCddEntry(out, e.getValue());
+            }
+        }
+
+        // ordered entries are the same entries as in the map, so only their names are written
+        CddEntry[] ordered = m.getOrderedEntries();
+        out.writeInt(ordered == null ? -1 : ordered.length);
+        if (ordered != null) {
+            for (CddEntry e : ordered) {
+                writeString(out, e == null ? null : e.getName());
+            }
+        }
+    }
+
+    private EntityMetadata readEntityMetadata(DataInputStream in) throws IOException {
+        String entityType = readString(in);
+        String guidEnabled = readString(in);
+
+        Map<String, CddEntry> entries = null;
+        int count = readCount(in);
+        if (count >= 0) {
+            entries = new HashMap<>();
+            for (int x = 0; x < count; x++) {
+                entries.put(readString(in), readCddEntry(in));
+            }
+        }
+
+        CddEntry[] ordered = null;
+        count = readCount(in);
+        if (count >= 0) {
+            ordered = new CddEntry[count];
+            for (int x = 0; x < count; x++) {
+                String name = readString(in);
+                if (name != null && entries != null) ordered[x] = entries.get(name);
+            }
+        }
+
+        return new EntityMetadata(entityType, guidEnabled, entries, ordered);
+    }
+
+    private void writeCddEntry(DataOutputStream out, CddEntry e) throws IOException {
+        writeString(out, e.getName());
+        writeString(out, e.getPhysName());
+        writeString(out, e.getSource());
+        writeInteger(out, e.getMaximumStorageSize());
+        writeInteger(out, e.getFieldPlacement());
+        writeString(out, e.getDatabaseUsageType());
+        writeString(out, e.getDefaultDisplaySize());
+        writeString(out, e.getInformFormatString());
+        writeString(out, e.getInformConversionString());
+        writeString(out, e.getDataType());
+        writeString(out, e.getElementAssocName());
+        writeString(out, e.getElementAssocType());
+    }
+
+    private CddEntry readCddEntry(DataInputStream in) throws IOException {
+        return CddEntry.builder()
+                .name(readString(in))
+                .physName(readString(in))
+                .source(readString(in))
+                .maximumStorageSize(readInteger(in))
+                .fieldPlacement(readInteger(in))
+                .databaseUsageType(readString(in))
+                .defaultDisplaySize(readString(in))
+                .informFormatString(readString(in))
+                .informConversionString(readString(in))
+                .dataType(readString(in))
+                .elementAssocName(readString(in))
+                .elementAssocType(readString(in))
+                .build();
+    }
+
+
+    //
+    // CTX metadata
+    //
+
+    private void writeCTXMetadata(DataOutputStream out, CTXMetadata m) throws IOException {
+        writeString(out, m.getPrcsAliasName());
+        writeString(out, m.getIsAnonymousCtx());
+        writeString(out, m.getPrcsInquiryOnly());
+        writeInteger(out, m.getPrcsVersion());
+
+        List<CTXVariable> variables = m.getVariables();
+        out.writeInt(variables == null ? -1 : variables.size());
+        if (variables != null) {
+            for (CTXVariable v : variables) {
+                writeString(out, v.getVarName());
+                writeString(out, v.getVarAliasName());
+                writeString(out, v.getVarRequired());
+                writeString(out, v.getVarDirection());
+                writeString(out, v.getVarDataType());
+                writeString(out, v.getVarConv());
+                writeString(out, v.getVarGroup());
+                writeString(out, v.getVarIsBool());
+                writeString(out, v.getVarSize());
+                writeString(out, v.getVarIsUri());
+            }
+        }
+
+        List<CTXElement> elements = m.getElements();
+        out.writeInt(elements == null ? -1 : elements.size());
+        if (elements != null) {
+            for (CTXElement e : elements) {
+                writeString(out, e.getElementName());
+                writeString(out, e.getPointsToFile());
+                writeString(out, e.getElementRequired());
+                writeString(out, e.getElementDirection());
+                writeString(out, e.getElementAliasName());
+                writeString(out, e.getElementDispOnly());
+                writeString(out, e.getElementConv());
+                writeString(out, e.getElementGroup());
+                writeString(out, e.getElementIsBool());
+                writeString(out, e.getElementSize());
+                writeString(out, e.getElementDataType());
+            }
+        }
+
+        List<CTXAssociation> associations = m.getAssociations();
+        out.writeInt(associations == null ? -1 : associations.size());
+        if (associations != null) {
+            for (CTXAssociation a : associations) {
+                writeString(out, a.getAssocName());
+                writeString(out, a.getAssocAliasName());
+                writeString(out, a.getAssocRange());
+                writeString(out, a.getAssocType());
+
+                String[] members = a.getAssocMembers();
+                out.writeInt(members == null ? -1 : members.length);
+                if (members != null) {
+                    for (String s : members) writeString(out, s);
+                }
+            }
+        }
+    }
+
+    private CTXMetadata readCTXMetadata(DataInputStream in) throws IOException {
+        CTXMetadata.CTXMetadataBuilder b = CTXMetadata.builder()
+                .prcsAliasName(readString(in))
+                .isAnonymousCtx(readString(in))
+                .prcsInquiryOnly(readString(in))
+                .prcsVersion(readInteger(in));
+
+        int count = readCount(in);
+        if (count >= 0) {
+            List<CTXVariable> variables = new ArrayList<>(Math.min(count, 64));
+            for (int x = 0; x < count; x++) {
+                variables.add(CTXVariable.builder()
+                        .varName(readString(in))
+                        .varAliasName(readString(in))
+                        .varRequired(readString(in))
+                        .varDirection(readString(in))
+                        .varDataType(readString(in))
+                        .varConv(readString(in))
+                        .varGroup(readString(in))
+                        .varIsBool(readString(in))
+                        .varSize(readString(in))
+                        .varIsUri(readString(in))
+                        .build());
+            }
+            b.variables(variables);
+        }
+
+        count = readCount(in);
+        if (count >= 0) {
+            List<CTXElement> elements = new ArrayList<>(Math.min(count, 64));
+            for (int x = 0; x < count; x++) {
+                elements.add(CTXElement.builder()
+                        .elementName(readString(in))
+                        .pointsToFile(readString(in))
+                        .elementRequired(readString(in))
+                        .elementDirection(readString(in))
+                        .elementAliasName(readString(in))
+                        .elementDispOnly(readString(in))
+                        .elementConv(readString(in))
+                        .elementGroup(readString(in))
+                        .elementIsBool(readString(in))
+                        .elementSize(readString(in))
+                        .elementDataType(readString(in))
+                        .build());
+            }
+            b.elements(elements);
+        }
+
+        count = readCount(in);
+        if (count >= 0) {
+            List<CTXAssociation> associations = new ArrayList<>(Math.min(count, 64));
+            for (int x = 0; x < count; x++) {
+                CTXAssociation.CTXAssociationBuilder a = CTXAssociation.builder()
+                        .assocName(readString(in))
+                        .assocAliasName(readString(in))
+                        .assocRange(readString(in))
+                        .assocType(readString(in));
+
+                int members = readCount(in);
+                if (members >= 0) {
+                    String[] m = new String[members];
+                    for (int y = 0; y < members; y++) m[y] = readString(in);
+                    a.assocMembers(m);
+                }
+
+                associations.add(a.build());
+            }
+            b.associations(associations);
+        }
+
+        return b.build();
+    }
+
+
+    //
+    // Primitives - null values are written with a length (or flag) of -1
+    //
+
+    private void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > MAX_STRING_LENGTH) throw new IOException("Invalid string length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the number of items that follow, or -1 for null. Counts are checked before anything is allocated for them,
+     * so that a corrupt snapshot fails with an exception rather than running out of memory.
+     */
+    private int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < -1 || count > MAX_COUNT) throw new IOException("Invalid count " + count);
+        return count;
+    }
+
+    private void writeInteger(DataOutputStream out, Integer i) throws IOException {
+        out.writeBoolean(i != null);
+        if (i != null) out.writeInt(i);
+    }
+
+    private Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
@@ -0,0 +1,362 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ccctc.colleaguedmiclient.annotation.Entity;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+/**
+ * Warm up the metadata caches before the first request is served, so that metadata isn't read serially (and lazily)
+ * while processing the first requests.
+ * <p>
+ * Given a set of entity classes (or packages to scan for classes marked with {@code @Entity}) and a list of Colleague
+ * Transactions, this reads the entity metadata of every view used by the classes - including views reached through
+ * joins and CDD name overrides - and the CTX metadata of the transactions concurrently. The entity metadata of
+ * {@code DmiEntityService} for each class is built as well.
+ * <p>
+ * Example:
+ * <pre>
+ * MetadataWarmUp.Result result = new MetadataWarmUp(dmiEntityService, dmiCTXService)
+ *         .scanPackage("com.example.model")
+ *         .ctx("ST", "GET.STUDENT.INFO")
+ *         .parallelism(8)
+ *         .warmUp();
+ * </pre>
+ */
+public class MetadataWarmUp {
+
+    private final static Log log = LogFactory.getLog(MetadataWarmUp.class);
+    private final static int DEFAULT_PARALLELISM = 4;
+
+    private final DmiEntityService dmiEntityService;
+    private final EntityMetadataService entityMetadataService;
+    private final CTXMetadataService ctxMetadataService;
+
+    private final Set<Class<?>> classes = new LinkedHashSet<>();
+    private final Set<String> views = new LinkedHashSet<>();
+    private final Set<String> ctxs = new LinkedHashSet<>();
+    private int parallelism = DEFAULT_PARALLELISM;
+
+
+    /**
+     * Create a metadata warm up for an entity service and CTX service
+     *
+     * @param dmiEntityService DMI Entity Service
+     * @param dmiCTXService    DMI CTX Service
+     */
+    public MetadataWarmUp(@NonNull DmiEntityService dmiEntityService, @NonNull DmiCTXService dmiCTXService) {
+        this.dmiEntityService = dmiEntityService;
+        this.entityMetadataService = dmiEntityService.getDmiDataService().getEntityMetadataService();
+        this.ctxMetadataService = dmiCTXService.getCtxMetadataService();
+    }
+
+
+    /**
+     * Create a metadata warm up for the metadata services only. Entity classes may still be added, but the metadata of
+     * {@code DmiEntityService} for each class will not be built.
+     *
+     * @param entityMetadataService Entity Metadata Service
+     * @param ctxMetadataService    CTX Metadata Service
+     */
+    public MetadataWarmUp(@NonNull EntityMetadataService entityMetadataService,
+                          @NonNull CTXMetadataService ctxMetadataService) {
+        this.dmiEntityService = null;
+        this.entityMetadataService = entityMetadataService;
+        this.ctxMetadataService = ctxMetadataService;
+    }
+
+
+    /**
+     * Add entity classes, marked with {@code @Entity}
+     *
+     * @param classes Classes
+     * @return This warm up
+     */
+    public MetadataWarmUp entities(Class<?>... classes) {
+        return entities(Arrays.asList(classes));
+    }
+
+
+    /**
+     * Add entity classes, marked with {@code @Entity}
+     *
+     * @param classes Classes
+     * @return This warm up
+     */
+    public MetadataWarmUp entities(Collection<Class<?>> classes) {
+        this.classes.addAll(classes);
+        return this;
+    }
+
+
+    /**
+     * Add all classes marked with {@code @Entity} in a package and its sub-packages, using the context class loader
+     *
+     * @param packageName Package name
+     * @return This warm up
+     */
+    public MetadataWarmUp scanPackage(String packageName) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return scanPackage(packageName, classLoader != null ? classLoader : MetadataWarmUp.class.getClassLoader());
+    }
+
+
+    /**
+     * Add all classes marked with {@code @Entity} in a package and its sub-packages. Classes may be in directories or
+     * jar files.
+     *
+     * @param packageName Package name
+     * @param classLoader Class loader
+     * @return This warm up
+     */
+    public MetadataWarmUp scanPackage(String packageName, ClassLoader classLoader) {
+        String path = packageName.replace('.', '/');
+
+        try {
+            Enumeration<URL> resources = classLoader.getResources(path);
+            while (resources.hasMoreElements()) {
+                URL url = resources.nextElement();
+                if ("file".equals(url.getProtocol())) {
+                    File dir = new File(URLDecoder.decode(url.getFile(), StandardCharsets.UTF_8.name()));
+                    scanDirectory(dir, packageName, classLoader);
+                } else if ("jar".equals(url.getProtocol())) {
+                    JarFile jar = ((JarURLConnection) url.openConnection()).getJarFile();
+                    scanJar(jar, path, classLoader);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error scanning package " + packageName, e);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Add a Colleague Transaction
+     *
+     * @param appl            Application
+     * @param transactionName Colleague Transaction name
+     * @return This warm up
+     */
+    public MetadataWarmUp ctx(String appl, String transactionName) {
+        ctxs.add(appl + "*" + transactionName);
+        return this;
+    }
+
+
+    /**
+     * Add entity metadata for a view that is not used by an entity class, ie one read with {@code DmiDataService}
+     *
+     * @param appl     Application
+     * @param viewName View
+     * @return This warm up
+     */
+    public MetadataWarmUp view(String appl, String viewName) {
+        views.add(appl + "*" + DmiDataService.cddViewName(appl, viewName, null));
+        return this;
+    }
+
+
+    /**
+     * Number of metadata requests to run at once. Default is 4.
+     *
+     * @param parallelism Parallelism
+     * @return This warm up
+     */
+    public MetadataWarmUp parallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be greater than zero");
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+    /**
+     * Read all metadata, waiting for it to finish. Failures are logged and returned in the result rather than thrown,
+     * as the metadata will be read again when first used.
+     *
+     * @return Result
+     */
+    public Result warmUp() {
+        Map<String, RuntimeException> failures = new ConcurrentHashMap<>();
+        Set<String> entityViews = new LinkedHashSet<>(views);
+
+        // walk the classes and their joins, collecting views
+        Set<Class<?>> visited = new LinkedHashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>(classes);
+        while (!queue.isEmpty()) {
+            Class<?> clazz = queue.pop();
+            if (!visited.add(clazz)) continue;
+
+            Entity entity = clazz.getAnnotation(Entity.class);
+            if (entity == null) {
+                failures.put(clazz.getName(), new IllegalArgumentException("Class " + clazz.getName() + " does not contain @Entity annotation"));
+                continue;
+            }
+
+            String cddName = "".equals(entity.cddName()) ? null : entity.cddName();
+            entityViews.add(entity.appl() + "*" + DmiDataService.cddViewName(entity.appl(), entity.name(), cddName));
+
+            if (dmiEntityService != null) {
+                try {
+                    queue.addAll(dmiEntityService.prepareEntity(clazz));
+                } catch (RuntimeException e) {
+                    log.warn("Error preparing entity " + clazz.getName() + ": " + e.getClass().getName() + ": " + e.getMessage());
+                    failures.put(clazz.getName(), e);
+                }
+            }
+        }
+
+        log.info("Warming up metadata: " + entityViews.size() + " entities, " + ctxs.size() + " CTXs, " +
+                visited.size() + " classes");
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "dmi-metadata-warm-up");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            List<CompletableFuture<Void>> futures = entityViews.stream()
+                    .map(k -> load(k, failures, executor, (a, n) -> entityMetadataService.get(a, n)))
+                    .collect(Collectors.toList());
+
+            futures.addAll(ctxs.stream()
+                    .map(k -> load(k, failures, executor, (a, n) -> ctxMetadataService.get(a, n)))
+                    .collect(Collectors.toList()));
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failures.size() > 0)
+            log.warn("Metadata warm up completed with " + failures.size() + " failures: " + failures.keySet());
+
+        return new Result(entityViews.size(), ctxs.size(), visited.size(), new LinkedHashMap<>(failures));
+    }
+
+
+    /**
+     * Load one metadata entry in the background, recording failures
+     */
+    private CompletableFuture<Void> load(String key, Map<String, RuntimeException> failures, ExecutorService executor,
+                                         Loader loader) {
+        int pos = key.indexOf('*');
+        String appl = key.substring(0, pos);
+        String name = key.substring(pos + 1);
+
+        return CompletableFuture.runAsync(() -> {
+            try {
+                loader.load(appl, name);
+            } catch (RuntimeException e) {
+                log.warn("Error warming up metadata for " + key + ": " + e.getClass().getName() + ": " + e.getMessage());
+                failures.put(key, e);
+            }
+        }, executor);
+    }
+
+
+    private void scanDirectory(File dir, String packageName, ClassLoader classLoader) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+
+        for (File f : files) {
+            if (f.isDirectory()) {
+                scanDirectory(f, packageName + "." + f.getName(), classLoader);
+            } else if (f.getName().endsWith(".class")) {
+                addIfEntity(packageName + "." + f.getName().substring(0, f.getName().length() - 6), classLoader);
+            }
+        }
+    }
+
+
+    private void scanJar(JarFile jar, String path, ClassLoader classLoader) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            if (name.startsWith(path + "/") && name.endsWith(".class")) {
+                addIfEntity(name.substring(0, name.length() - 6).replace('/', '.'), classLoader);
+            }
+        }
+    }
+
+
+    private void addIfEntity(String className, ClassLoader classLoader) {
+        try {
+            Class<?> clazz = Class.forName(className, false, classLoader);
+            if (clazz.getAnnotation(Entity.class) != null) classes.add(clazz);
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.debug("Skipping class " + className + " during package scan: " + e.getMessage());
+        }
+    }
+
+
+    @FunctionalInterface
+    private interface Loader {
+        void load(String appl, String name);
+    }
+
+
+    /**
+     * Result of a metadata warm up
+     */
+    @Getter
+    public static class Result {
+        /**
+         * Number of entities (views) whose metadata was read
+         */
+        private final int entityCount;
+
+        /**
+         * Number of Colleague Transactions whose metadata was read
+         */
+        private final int ctxCount;
+
+        /**
+         * Number of entity classes prepared, including classes reached through joins
+         */
+        private final int classCount;
+
+        /**
+         * Failures by application + "*" + name (or class name for entity classes)
+         */
+        private final Map<String, RuntimeException> failures;
+
+        Result(int entityCount, int ctxCount, int classCount, Map<String, RuntimeException> failures) {
+            this.entityCount = entityCount;
+            this.ctxCount = ctxCount;
+            this.classCount = classCount;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget limiting retries to a ratio of requests, so that retries cannot multiply traffic to a struggling DMI.
+ * <p>
+ * Each request deposits {@code ratio} of a token and each retry withdraws a whole token. The balance is capped at
+ * {@code maxTokens}, which is also the starting balance, allowing a few retries before many requests have been made.
+ * For example, a ratio of 0.1 allows at most one retry for every ten requests once the initial tokens are spent.
+ * <p>
+ * The budget is thread safe.
+ */
+public class RetryBudget {
+
+    // balance is kept in thousandths of a token
+    private final static long SCALE = 1000;
+
+    /**
+     * Ratio of retries to requests
+     */
+    @Getter private final double ratio;
+
+    /**
+     * Maximum (and initial) number of tokens
+     */
+    @Getter private final int maxTokens;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+
+    /**
+     * Create a retry budget
+     *
+     * @param ratio     Ratio of retries to requests, ie 0.1 for 10%
+     * @param maxTokens Maximum (and initial) number of retries that can be made without requests
+     */
+    public RetryBudget(double ratio, int maxTokens) {
+        if (ratio < 0) throw new IllegalArgumentException("ratio must not be negative");
+        if (maxTokens < 0) throw new IllegalArgumentException("maxTokens must not be negative");
+
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.deposit = Math.round(ratio * SCALE);
+        this.maxBalance = maxTokens * SCALE;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+
+    /**
+     * Deposit a request
+     */
+    public void onRequest() {
+        balance.accumulateAndGet(deposit, (b, d) -> Math.min(maxBalance, b + d));
+    }
+
+
+    /**
+     * Withdraw a retry if the budget allows it
+     *
+     * @return true if the retry may be made
+     */
+    public boolean tryRetry() {
+        while (true) {
+            long b = balance.get();
+            if (b < SCALE) return false;
+            if (balance.compareAndSet(b, b - SCALE)) return true;
+        }
+    }
+
+
+    /**
+     * Number of retries currently available
+     *
+     * @return Available retries
+     */
+    public int available() {
+        return (int) (balance.get() / SCALE);
+    }
+}
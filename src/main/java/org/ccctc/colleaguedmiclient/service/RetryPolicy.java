@@ -0,0 +1,32 @@
+package org.ccctc.colleaguedmiclient.service;
+
+/**
+ * Policy deciding whether, and after what delay, a failed DMI transaction is retried by {@code DmiService.send()}.
+ * <p>
+ * Retries are also limited by {@code DmiService.maxDmiTransactionRetry}, which is checked before the policy. A policy
+ * may be shared by several DMI Services (ie to share a retry budget) so implementations must be thread safe.
+ *
+ * @see ExponentialBackoffRetryPolicy
+ */
+public interface RetryPolicy {
+
+    /**
+     * Returned by {@code retryDelayMillis} when a failure should not be retried
+     */
+    long NO_RETRY = -1;
+
+    /**
+     * Called once for each transaction sent (not including retries)
+     */
+    default void onRequest() {
+    }
+
+    /**
+     * Decide whether to retry a failed attempt
+     *
+     * @param attempt Number of the attempt that failed (1 for the original attempt)
+     * @param failure Failure
+     * @return Delay in milliseconds before retrying (zero to retry immediately), or {@code NO_RETRY}
+     */
+    long retryDelayMillis(int attempt, DmiFailure failure);
+}
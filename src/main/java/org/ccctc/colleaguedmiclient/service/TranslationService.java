@@ -0,0 +1,416 @@
+package org.ccctc.colleaguedmiclient.service;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.ccctc.colleaguedmiclient.model.ElfTranslateTable;
+import org.ccctc.colleaguedmiclient.model.Valcode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Translation of codes through valcodes (VALCODES) and ELF translation tables (ELF.TRANSLATE.TABLES), using in-memory
+ * indexes so that translating a code is a map lookup.
+ * <p>
+ * Valcodes and translation tables are read from the DMI the first time they are used, or in bulk ahead of time with
+ * {@code preloadValcodes()} and {@code preloadElfTranslationTables()}, and cached. By default, an expired entry is still
+ * used while it is refreshed in the background, so once loaded, translating a code does not wait on the DMI. Valcodes
+ * and translation tables that do not exist are cached as empty.
+ *
+ * @see DmiDataService#valcode(String, String)
+ * @see DmiDataService#elfTranslationTable(String)
+ */
+public class TranslationService {
+
+    private final static long DEFAULT_CACHE_EXPIRATION_SECONDS = 60 * 60;
+    private final static String CORE = "CORE";
+
+    private final DmiDataService dmiDataService;
+    private final MetadataCache<ValcodeLookup> valcodeCache;
+    private final MetadataCache<ElfLookup> elfCache;
+
+
+    /**
+     * Create a Translation Service
+     *
+     * @param dmiDataService DMI Data Service
+     */
+    public TranslationService(@NonNull DmiDataService dmiDataService) {
+        this.dmiDataService = dmiDataService;
+        this.valcodeCache = new MetadataCache<>(DEFAULT_CACHE_EXPIRATION_SECONDS);
+        this.elfCache = new MetadataCache<>(DEFAULT_CACHE_EXPIRATION_SECONDS);
+
+        setCacheStaleWhileRevalidateSeconds(DEFAULT_CACHE_EXPIRATION_SECONDS);
+    }
+
+
+    /**
+     * Read and cache valcodes in a single request
+     *
+     * @param appl Application
+     * @param keys Valcode keys
+     * @return This service
+     */
+    public TranslationService preloadValcodes(@NonNull String appl, @NonNull String... keys) {
+        return preloadValcodes(appl, Arrays.asList(keys));
+    }
+
+
+    /**
+     * Read and cache valcodes in a single request
+     *
+     * @param appl Application
+     * @param keys Valcode keys
+     * @return This service
+     */
+    public TranslationService preloadValcodes(@NonNull String appl, @NonNull Iterable<String> keys) {
+        Set<String> missing = new HashSet<>();
+        keys.forEach(missing::add);
+
+        List<Valcode> valcodes = dmiDataService.valcodes(appl, keys);
+        if (valcodes != null) {
+            for (Valcode v : valcodes) {
+                valcodeCache.put(appl, v.getKey(), new ValcodeLookup(v));
+                missing.remove(v.getKey());
+            }
+        }
+
+        for (String key : missing) {
+            valcodeCache.put(appl, key, new ValcodeLookup(new Valcode(key, new ArrayList<>())));
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Read and cache ELF translation tables in a single request
+     *
+     * @param keys ELF translation table keys
+     * @return This service
+     */
+    public TranslationService preloadElfTranslationTables(@NonNull String... keys) {
+        return preloadElfTranslationTables(Arrays.asList(keys));
+    }
+
+
+    /**
+     * Read and cache ELF translation tables in a single request
+     *
+     * @param keys ELF translation table keys
+     * @return This service
+     */
+    public TranslationService preloadElfTranslationTables(@NonNull Iterable<String> keys) {
+        Set<String> missing = new HashSet<>();
+        keys.forEach(missing::add);
+
+        List<ElfTranslateTable> tables = dmiDataService.elfTranslationTables(keys);
+        if (tables != null) {
+            for (ElfTranslateTable t : tables) {
+                elfCache.put(CORE, t.getKey(), new ElfLookup(t));
+                missing.remove(t.getKey());
+            }
+        }
+
+        for (String key : missing) {
+            elfCache.put(CORE, key, new ElfLookup(emptyTable(key)));
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Get the lookup for a valcode, reading it from the DMI if it is not cached
+     *
+     * @param appl Application
+     * @param key  Valcode key
+     * @return Valcode lookup
+     */
+    public ValcodeLookup valcode(@NonNull String appl, @NonNull String key) {
+        return valcodeCache.get(appl, key, () -> {
+            Valcode v = dmiDataService.valcode(appl, key);
+            return new ValcodeLookup(v != null ? v : new Valcode(key, new ArrayList<>()));
+        });
+    }
+
+
+    /**
+     * Get the lookup for an ELF translation table, reading it from the DMI if it is not cached
+     *
+     * @param key ELF translation table key
+     * @return ELF translation table lookup
+     */
+    public ElfLookup elfTranslationTable(@NonNull String key) {
+        return elfCache.get(CORE, key, () -> {
+            ElfTranslateTable t = dmiDataService.elfTranslationTable(key);
+            return new ElfLookup(t != null ? t : emptyTable(key));
+        });
+    }
+
+
+    /**
+     * Translate an internal code to its external representation
+     *
+     * @param appl         Application
+     * @param valcode      Valcode key
+     * @param internalCode Internal code
+     * @return External representation, or null if not found
+     */
+    public String externalRepresentation(String appl, String valcode, String internalCode) {
+        return valcode(appl, valcode).externalRepresentation(internalCode);
+    }
+
+
+    /**
+     * Translate an external representation to its internal code
+     *
+     * @param appl                   Application
+     * @param valcode                Valcode key
+     * @param externalRepresentation External representation
+     * @return Internal code, or null if not found
+     */
+    public String internalCode(String appl, String valcode, String externalRepresentation) {
+        return valcode(appl, valcode).internalCode(externalRepresentation);
+    }
+
+
+    /**
+     * Translate an original code to its new code through an ELF translation table
+     *
+     * @param table        ELF translation table key
+     * @param originalCode Original code
+     * @return New code, or null if not found
+     */
+    public String elfTranslate(String table, String originalCode) {
+        return elfTranslationTable(table).newCode(originalCode);
+    }
+
+
+    /**
+     * Clear the cache of valcodes and ELF translation tables
+     */
+    public void clearCache() {
+        valcodeCache.clear();
+        elfCache.clear();
+    }
+
+
+    /**
+     * Get number of seconds before a new cache entry will expire. Default is 1 hour.
+     *
+     * @return Cache entry expiration time in seconds
+     */
+    public long getCacheExpirationSeconds() {
+        return valcodeCache.getCacheExpirationSeconds();
+    }
+
+
+    /**
+     * Set number of seconds before a new cache entry will expire.
+     *
+     * @param cacheExpirationSeconds Cache entry expiration time in seconds
+     */
+    public void setCacheExpirationSeconds(long cacheExpirationSeconds) {
+        valcodeCache.setCacheExpirationSeconds(cacheExpirationSeconds);
+        elfCache.setCacheExpirationSeconds(cacheExpirationSeconds);
+    }
+
+
+    /**
+     * Get number of seconds after expiration that a cache entry is still used while it is refreshed in the background.
+     *
+     * @return Stale while revalidate time in seconds
+     */
+    public long getCacheStaleWhileRevalidateSeconds() {
+        return valcodeCache.getStaleWhileRevalidateSeconds();
+    }
+
+
+    /**
+     * Set number of seconds after expiration that a cache entry is still used while it is refreshed in the
+     * background. Default is 1 hour. Zero means expired entries are refreshed before being used.
+     *
+     * @param cacheStaleWhileRevalidateSeconds Stale while revalidate time in seconds
+     */
+    public void setCacheStaleWhileRevalidateSeconds(long cacheStaleWhileRevalidateSeconds) {
+        valcodeCache.setStaleWhileRevalidateSeconds(cacheStaleWhileRevalidateSeconds);
+        elfCache.setStaleWhileRevalidateSeconds(cacheStaleWhileRevalidateSeconds);
+    }
+
+    /**
+     * Get the executor that refreshes expired cache entries in the background.
+     *
+     * @return Executor
+     */
+    public Executor getCacheRefreshExecutor() {
+        return valcodeCache.getRefreshExecutor();
+    }
+
+
+    /**
+     * Set the executor that refreshes expired cache entries in the background. Default is a pool of two daemon threads
+     * shared by all metadata caches.
+     *
+     * @param cacheRefreshExecutor Executor
+     */
+    public void setCacheRefreshExecutor(@NonNull Executor cacheRefreshExecutor) {
+        valcodeCache.setRefreshExecutor(cacheRefreshExecutor);
+        elfCache.setRefreshExecutor(cacheRefreshExecutor);
+    }
+
+
+
+    private static ElfTranslateTable emptyTable(String key) {
+        return new ElfTranslateTable(key, null, new ArrayList<>(), null, null, new ArrayList<>());
+    }
+
+
+    /**
+     * Valcode indexed by internal code and by external representation.
+     * <p>
+     * As with {@code Valcode.asMap()}, null codes are not indexed and the first of duplicate codes is kept.
+     */
+    public static class ValcodeLookup {
+
+        /**
+         * Valcode
+         */
+        @Getter private final Valcode valcode;
+
+        private final Map<String, Valcode.Entry> entries;
+        private final Map<String, String> internalToExternal;
+        private final Map<String, String> externalToInternal;
+
+        ValcodeLookup(Valcode valcode) {
+            this.valcode = valcode;
+
+            Map<String, String> i2e = new HashMap<>();
+            Map<String, String> e2i = new HashMap<>();
+            for (Valcode.Entry e : valcode.getEntries()) {
+                if (e.getInternalCode() == null) continue;
+                i2e.putIfAbsent(e.getInternalCode(), e.getExternalRepresentation());
+                if (e.getExternalRepresentation() != null)
+                    e2i.putIfAbsent(e.getExternalRepresentation(), e.getInternalCode());
+            }
+
+            this.entries = Collections.unmodifiableMap(valcode.asMap());
+            this.internalToExternal = Collections.unmodifiableMap(i2e);
+            this.externalToInternal = Collections.unmodifiableMap(e2i);
+        }
+
+        /**
+         * Get an entry by internal code
+         *
+         * @param internalCode Internal code
+         * @return Entry, or null if not found
+         */
+        public Valcode.Entry entry(String internalCode) {
+            return entries.get(internalCode);
+        }
+
+        /**
+         * Translate an internal code to its external representation
+         *
+         * @param internalCode Internal code
+         * @return External representation, or null if not found
+         */
+        public String externalRepresentation(String internalCode) {
+            return internalToExternal.get(internalCode);
+        }
+
+        /**
+         * Translate an external representation to its internal code
+         *
+         * @param externalRepresentation External representation
+         * @return Internal code, or null if not found
+         */
+        public String internalCode(String externalRepresentation) {
+            return externalToInternal.get(externalRepresentation);
+        }
+
+        /**
+         * Map of internal code to external representation (unmodifiable)
+         *
+         * @return Map
+         */
+        public Map<String, String> internalToExternal() {
+            return internalToExternal;
+        }
+
+        /**
+         * Map of external representation to internal code (unmodifiable)
+         *
+         * @return Map
+         */
+        public Map<String, String> externalToInternal() {
+            return externalToInternal;
+        }
+    }
+
+
+    /**
+     * ELF translation table indexed by original code.
+     * <p>
+     * As with {@code ElfTranslateTable.asMap()}, a null original code is indexed as an empty string and the first of
+     * duplicate codes is kept.
+     */
+    public static class ElfLookup {
+
+        /**
+         * ELF translation table
+         */
+        @Getter private final ElfTranslateTable table;
+
+        private final Map<String, ElfTranslateTable.Entry> entries;
+        private final Map<String, String> originalToNew;
+
+        ElfLookup(ElfTranslateTable table) {
+            this.table = table;
+            this.entries = Collections.unmodifiableMap(table.asMap());
+
+            Map<String, String> o2n = new HashMap<>();
+            for (Map.Entry<String, ElfTranslateTable.Entry> e : entries.entrySet()) {
+                o2n.put(e.getKey(), e.getValue().getNewCode());
+            }
+
+            this.originalToNew = Collections.unmodifiableMap(o2n);
+        }
+
+        /**
+         * Get an entry by original code
+         *
+         * @param originalCode Original code (null is the same as an empty string)
+         * @return Entry, or null if not found
+         */
+        public ElfTranslateTable.Entry entry(String originalCode) {
+            return entries.get(originalCode == null ? "" : originalCode);
+        }
+
+        /**
+         * Translate an original code to its new code
+         *
+         * @param originalCode Original code (null is the same as an empty string)
+         * @return New code, or null if not found
+         */
+        public String newCode(String originalCode) {
+            return originalToNew.get(originalCode == null ? "" : originalCode);
+        }
+
+        /**
+         * Map of original code to new code (unmodifiable)
+         *
+         * @return Map
+         */
+        public Map<String, String> originalToNew() {
+            return originalToNew;
+        }
+    }
+}
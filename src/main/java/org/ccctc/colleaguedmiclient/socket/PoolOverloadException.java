@@ -0,0 +1,16 @@
+package org.ccctc.colleaguedmiclient.socket;
+
+import java.net.SocketException;
+
+/**
+ * Thrown when a request for a socket is rejected without waiting because the pool is overloaded, ie too many requests
+ * are already waiting for a socket or requests are waiting too long.
+ *
+ * @see PoolingSocketFactory#setMaxWaiters(int)
+ * @see PoolingSocketFactory#setMaxQueueWaitMs(int)
+ */
+public class PoolOverloadException extends SocketException {
+    public PoolOverloadException(String message) {
+        super(message);
+    }
+}
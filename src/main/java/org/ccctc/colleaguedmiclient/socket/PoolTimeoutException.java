@@ -0,0 +1,15 @@
+package org.ccctc.colleaguedmiclient.socket;
+
+import java.net.SocketException;
+
+/**
+ * Thrown when no socket becomes available in the pool within the pool timeout or the time limit of the request. This
+ * means the pool is busy, not that the DMI is unreachable.
+ *
+ * @see PoolingSocketFactory#setPoolTimeoutMs(int)
+ */
+public class PoolTimeoutException extends SocketException {
+    public PoolTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -1,18 +1,23 @@
 package org.ccctc.colleaguedmiclient.socket;
 
+import lombok.NonNull;
+
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.function.LongSupplier;
 
 /**
  * This class extends {@code Socket} to add an expiration time for use by the {@code PoolingSocketFactory}
@@ -26,6 +31,7 @@ public class PooledSocket implements Closeable {
      */
     private final LocalDateTime expiration;
     private Socket socket;
+    private int soTimeout = -1;
 
     /**
      * Create a socket for the given host and port and connect.
@@ -74,12 +80,49 @@ public class PooledSocket implements Closeable {
         return socket.getInputStream();
     }
 
+    /**
+     * Get an input stream whose reads are bounded by a time limit, ie the deadline of a request. The read timeout
+     * only bounds a single read, so before each read it is shortened to the time remaining, and once no time remains
+     * reads fail with a {@code SocketTimeoutException}. The shortened read timeout is reset when the socket is next
+     * taken from the pool.
+     *
+     * @param remainingMillis Time remaining in milliseconds
+     * @return Input stream
+     * @throws IOException if an I/O error occurs when creating the input stream
+     */
+    public InputStream getInputStream(@NonNull LongSupplier remainingMillis) throws IOException {
+        return new FilterInputStream(socket.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                limitSoTimeout(remainingMillis.getAsLong());
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                limitSoTimeout(remainingMillis.getAsLong());
+                return super.read(b, off, len);
+            }
+        };
+    }
+
     void setKeepAlive(boolean on) throws SocketException {
         socket.setKeepAlive(on);
     }
 
     synchronized void setSoTimeout(int timeout) throws SocketException {
-        socket.setSoTimeout(timeout);
+        if (timeout != soTimeout) {
+            socket.setSoTimeout(timeout);
+            soTimeout = timeout;
+        }
+    }
+
+    /**
+     * Shorten the read timeout to the time remaining, if it is less (zero is no timeout)
+     */
+    private synchronized void limitSoTimeout(long remainingMs) throws SocketException, SocketTimeoutException {
+        if (remainingMs <= 0) throw new SocketTimeoutException("Time limit exceeded reading from socket");
+        if (soTimeout <= 0 || remainingMs < soTimeout) setSoTimeout((int) remainingMs);
     }
 
     /**
@@ -1,6 +1,7 @@
 package org.ccctc.colleaguedmiclient.socket;
 
 import lombok.Getter;
+import lombok.NonNull;
 import lombok.Setter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -22,7 +23,14 @@ import java.util.concurrent.locks.ReentrantLock;
  * This class represents a factory for maintaining a pool of sockets of a specific size to a specific host and port.
  * <p>
  * When a new socket is requested and the pool is full, the operation will wait until a socket becomes available.
- * Fairness is guaranteed and sockets requests are filled on a first come, first served basis.
+ * Requests have a {@code Priority} and wait in a lane per priority. A socket that becomes available goes to the highest
+ * priority lane with a waiting request, and within a lane requests are filled on a first come, first served basis.
+ * Bulk requests cannot use the last {@code reservedSockets} sockets of the pool, so that they only use sockets left
+ * over by interactive and default traffic.
+ * <p>
+ * To shed load rather than have threads pile up waiting for sockets, the number of waiting requests can be limited
+ * with {@code maxWaiters} and the time a request waits with {@code maxQueueWaitMs}. Beyond either, requests are rejected
+ * immediately with a {@code PoolOverloadException}.
  * <p>
  * Sockets in the pool are not closed immediately and will be re-used by subsequent requests until the socket expires
  * after a configurable number of seconds.
@@ -79,9 +87,37 @@ public class PoolingSocketFactory implements Closeable {
      */
     @Getter @Setter private int socketExpirationMs = 30 * 60 * 1000;
 
+    /**
+     * Number of sockets reserved for interactive and default requests, ie that bulk requests cannot use. Default is a
+     * quarter of the pool size.
+     */
+    @Getter @Setter private int reservedSockets;
+
+    /**
+     * Maximum number of requests waiting for a socket. When reached, further requests that would wait are rejected with
+     * a {@code PoolOverloadException}. Default is 0 (no limit).
+     */
+    @Getter @Setter private int maxWaiters = 0;
+
+    /**
+     * Maximum time a request waits for a socket. A request that waits this long is rejected with a
+     * {@code PoolOverloadException}, and so are further requests that would wait, until a request gets a socket within
+     * this time again. Default is 0 (no limit other than {@code poolTimeoutMs}).
+     */
+    @Getter @Setter private int maxQueueWaitMs = 0;
+
 
     private final ReentrantLock lock = new ReentrantLock(true);
-    private final Condition isFull = lock.newCondition();
+
+    // one wait lane per priority, with the number of requests waiting in each and per lane totals
+    private final Condition[] lanes = new Condition[Priority.values().length];
+    private final int[] waiting = new int[lanes.length];
+    private final long[] acquired = new long[lanes.length];
+    private final long[] waitNanos = new long[lanes.length];
+    private final long[] rejected = new long[lanes.length];
+
+    // whether a request has waited longer than maxQueueWaitMs since one last got a socket within it
+    private boolean queueOverloaded;
 
     private final SocketFactory socketFactory;
     private final Queue<PooledSocket> available;
@@ -106,12 +142,17 @@ public class PoolingSocketFactory implements Closeable {
         this.poolSize = poolSize;
         this.secure = secure;
         this.hostnameOverride = hostnameOverride;
+        this.reservedSockets = poolSize / 4;
         socketFactory = (secure)
                     ? (SSLSocketFactory) SSLSocketFactory.getDefault()
                     : SocketFactory.getDefault();
 
         available = new ConcurrentLinkedQueue<>();
         used = new ArrayList<>();
+
+        for (int x = 0; x < lanes.length; x++) {
+            lanes[x] = lock.newCondition();
+        }
     }
 
 
@@ -141,28 +182,208 @@ public class PoolingSocketFactory implements Closeable {
 
 
     /**
-     * Get a socket from the pool by either finding an available socket or creating a new one. If the pool is full,
-     * the request will wait until a socket becomes available, or the timeout expires.
+     * Get the number of requests of a priority waiting for a socket.
+     *
+     * @param priority Priority
+     * @return Requests waiting
+     */
+    public int getWaiting(Priority priority) {
+        lock.lock();
+        try {
+            return waiting[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the number of requests waiting for a socket.
+     *
+     * @return Requests waiting
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            int total = 0;
+            for (int w : waiting) total += w;
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the number of sockets acquired by requests of a priority since the factory was created.
+     *
+     * @param priority Priority
+     * @return Sockets acquired
+     */
+    public long getAcquired(Priority priority) {
+        lock.lock();
+        try {
+            return acquired[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the total time requests of a priority have waited for a socket since the factory was created. Divided by
+     * {@code getAcquired()}, this is the average wait.
+     *
+     * @param priority Priority
+     * @return Total wait time in milliseconds
+     */
+    public long getWaitTimeMs(Priority priority) {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(waitNanos[priority.ordinal()]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the number of requests of a priority rejected because the pool was overloaded since the factory was created.
+     *
+     * @param priority Priority
+     * @return Requests rejected
+     */
+    public long getRejected(Priority priority) {
+        lock.lock();
+        try {
+            return rejected[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get the number of requests rejected because the pool was overloaded since the factory was created.
+     *
+     * @return Requests rejected
+     */
+    public long getRejected() {
+        lock.lock();
+        try {
+            long total = 0;
+            for (long r : rejected) total += r;
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Get a socket from the pool with the default priority.
      *
      * @param forceNewSocket Force creation of a new socket (rather than using an already open socket)
      * @return Socket
      * @throws SocketException if the socket connection fails,if the timeout expires attempting to get an available
      *                         socket from the pool, or if the operation is interrupted waiting for an available socket
      *                         from the pool.
+     * @see #getSocket(boolean, Priority)
      */
     public PooledSocket getSocket(boolean forceNewSocket) throws SocketException {
+        return getSocket(forceNewSocket, Priority.DEFAULT);
+    }
+
+
+    /**
+     * Get a socket from the pool by either finding an available socket or creating a new one. If the pool is full,
+     * the request will wait until a socket becomes available, or the timeout expires. Available sockets go to waiting
+     * requests of the highest priority first.
+     *
+     * @param forceNewSocket Force creation of a new socket (rather than using an already open socket)
+     * @param priority       Priority
+     * @return Socket
+     * @throws SocketException if the socket connection fails,if the timeout expires attempting to get an available
+     *                         socket from the pool, or if the operation is interrupted waiting for an available socket
+     *                         from the pool.
+     * @see #getSocket(boolean, Priority, long)
+     */
+    public PooledSocket getSocket(boolean forceNewSocket, Priority priority) throws SocketException {
+        return getSocket(forceNewSocket, priority, Long.MAX_VALUE);
+    }
+
+
+    /**
+     * Get a socket from the pool within a time limit, ie the time remaining until the deadline of a request. The
+     * time limit caps the wait for an available socket, the connection timeout of a new socket and the read timeout
+     * of the socket (until it is next taken from the pool).
+     *
+     * @param forceNewSocket Force creation of a new socket (rather than using an already open socket)
+     * @param priority       Priority
+     * @param timeLimitMs    Time limit in milliseconds
+     * @return Socket
+     * @throws SocketException if the socket connection fails,if the timeout or time limit expires attempting to get an
+     *                         available socket from the pool, or if the operation is interrupted waiting for an
+     *                         available socket from the pool. A {@code PoolTimeoutException} if the timeout or
+     *                         time limit expires, and a {@code PoolOverloadException} if the pool is overloaded.
+     */
+    public PooledSocket getSocket(boolean forceNewSocket, @NonNull Priority priority, long timeLimitMs)
+            throws SocketException {
+        int lane = priority.ordinal();
+        long start = System.nanoTime();
+        long timeLimitNanos = TimeUnit.MILLISECONDS.toNanos(timeLimitMs);
+        boolean success = false;
+
         lock.lock();
         try {
-            log.trace("New socket requested, used=" + this.getUsed() + ", available=" + this.getAvailable()
-                    + ", waiting=" + lock.getWaitQueueLength(isFull));
+            log.trace("New " + priority + " socket requested, used=" + this.getUsed() + ", available="
+                    + this.getAvailable() + ", waiting=" + waiting[lane]);
+
+            if (!canAcquire(lane)) {
+                int totalWaiting = 0;
+                for (int w : waiting) totalWaiting += w;
 
-            while (used.size() >= poolSize) {
-                log.trace("Waiting for available socket");
-                if (!isFull.await(poolTimeoutMs, TimeUnit.MILLISECONDS)) {
-                    throw new SocketException("Timeout exceeded waiting for available socket");
+                if (maxWaiters > 0 && totalWaiting >= maxWaiters)
+                    throw reject(lane, "Pool overloaded, " + totalWaiting + " requests already waiting for a socket");
+                if (maxQueueWaitMs > 0 && queueOverloaded)
+                    throw reject(lane, "Pool overloaded, requests are waiting over " + maxQueueWaitMs + " ms for a socket");
+
+                waiting[lane]++;
+                try {
+                    long nanos = Math.min(TimeUnit.MILLISECONDS.toNanos(poolTimeoutMs), timeLimitNanos);
+                    boolean queueLimited = maxQueueWaitMs > 0 && TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs) < nanos;
+                    if (queueLimited) nanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs);
+
+                    do {
+                        log.trace("Waiting for available socket");
+                        if (nanos <= 0) {
+                            if (queueLimited) {
+                                queueOverloaded = true;
+                                throw reject(lane, "Pool overloaded, waited " + maxQueueWaitMs + " ms for a socket");
+                            }
+
+                            throw new PoolTimeoutException("Timeout exceeded waiting for available socket");
+                        }
+
+                        nanos = lanes[lane].awaitNanos(nanos);
+                    } while (!canAcquire(lane));
+                } finally {
+                    waiting[lane]--;
                 }
             }
 
+            long waited = System.nanoTime() - start;
+            if (waited >= timeLimitNanos)
+                throw new PoolTimeoutException("Time limit exceeded waiting for available socket");
+
+            acquired[lane]++;
+            waitNanos[lane] += waited;
+            if (waited < TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs)) queueOverloaded = false;
+
+            // the rest of the time limit caps connecting to and reading from the socket
+            int remainingMs = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    TimeUnit.NANOSECONDS.toMillis(timeLimitNanos - waited)));
+
             // loop through available sockets, closing any that are expired
             PooledSocket socket = available.poll();
             while (socket != null) {
@@ -198,23 +419,31 @@ public class PoolingSocketFactory implements Closeable {
 
             // create a new socket
             if (socket == null) {
-                socket = newSocket();
+                socket = newSocket(Math.min(socketConnectTimeoutMs, remainingMs), Math.min(socketReadTimeoutMs, remainingMs));
                 log.trace("New socket created: " + socket.toString());
             } else {
+                socket.setSoTimeout(Math.min(socketReadTimeoutMs, remainingMs));
                 log.trace("Available socket re-used: " + socket.toString());
             }
 
             used.add(socket);
-
-            if (used.size() < poolSize)
-                isFull.signal();
+            success = true;
+            signalNext();
 
             return socket;
         } catch (InterruptedException e) {
-            throw new SocketException("Attempt to acquire available connection interrupted - " + e.getClass().getName() + ": " + e.getMessage());
+            SocketException se = new SocketException("Attempt to acquire available connection interrupted - " + e.getClass().getName() + ": " + e.getMessage());
+            se.initCause(e);
+            throw se;
+        } catch (PoolOverloadException | PoolTimeoutException e) {
+            throw e;
         } catch (IOException e) {
-            throw new SocketException("Unable to connect to socket: " + e.getClass().getName() + ": " + e.getMessage());
+            SocketException se = new SocketException("Unable to connect to socket: " + e.getClass().getName() + ": " + e.getMessage());
+            se.initCause(e);
+            throw se;
         } finally {
+            // pass on the wake up this request may have taken, ie to a lower priority lane that was waiting on it
+            if (!success) signalNext();
             lock.unlock();
         }
     }
@@ -247,7 +476,7 @@ public class PoolingSocketFactory implements Closeable {
             }
 
             used.clear();
-            isFull.signalAll();
+            for (Condition c : lanes) c.signalAll();
         } finally {
             lock.unlock();
         }
@@ -257,14 +486,16 @@ public class PoolingSocketFactory implements Closeable {
     /**
      * Create a new pooled socket
      *
+     * @param connectTimeoutMs Connection timeout
+     * @param readTimeoutMs    Read timeout
      * @return Socket
      * @throws IOException if there is an error
      */
-    private PooledSocket newSocket() throws IOException {
+    private PooledSocket newSocket(int connectTimeoutMs, int readTimeoutMs) throws IOException {
         log.trace("Creating new socket");
-        PooledSocket s = new PooledSocket(host, port, socketConnectTimeoutMs, socketExpirationMs, socketFactory);
+        PooledSocket s = new PooledSocket(host, port, connectTimeoutMs, socketExpirationMs, socketFactory);
         s.setKeepAlive(true);
-        s.setSoTimeout(socketReadTimeoutMs);
+        s.setSoTimeout(readTimeoutMs);
         return s;
     }
 
@@ -280,7 +511,7 @@ public class PoolingSocketFactory implements Closeable {
             log.trace("Releasing socket back to pool: " + socket.toString());
             used.remove(socket);
             available.add(socket);
-            isFull.signal();
+            signalNext();
         } finally {
             lock.unlock();
         }
@@ -303,9 +534,50 @@ public class PoolingSocketFactory implements Closeable {
                 log.error("Error closing socket", e);
             }
 
-            isFull.signal();
+            signalNext();
         } finally {
             lock.unlock();
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Whether a request of a lane can take a socket now: there must be room in the pool for its priority and no
+     * request waiting in a higher priority lane
+     */
+    private boolean canAcquire(int lane) {
+        for (int x = 0; x < lane; x++) {
+            if (waiting[x] > 0) return false;
+        }
+
+        return used.size() < limit(lane);
+    }
+
+
+    /**
+     * Wake the next request in the highest priority lane with a waiting request, if it can take a socket
+     */
+    private void signalNext() {
+        for (int x = 0; x < lanes.length; x++) {
+            if (waiting[x] > 0) {
+                if (used.size() < limit(x)) lanes[x].signal();
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Count a rejected request of a lane
+     */
+    private PoolOverloadException reject(int lane, String message) {
+        rejected[lane]++;
+        log.warn(message);
+        return new PoolOverloadException(message);
+    }
+
+
+    private int limit(int lane) {
+        return (lane == Priority.BULK.ordinal()) ? Math.max(1, poolSize - reservedSockets) : poolSize;
+    }
+}
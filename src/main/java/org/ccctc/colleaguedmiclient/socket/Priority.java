@@ -0,0 +1,25 @@
+package org.ccctc.colleaguedmiclient.socket;
+
+/**
+ * Priority of a request for a socket from a {@code PoolingSocketFactory}, in order from highest to lowest. Each
+ * priority waits in its own lane, and a socket that becomes available goes to the highest priority lane with a
+ * waiting request.
+ */
+public enum Priority {
+
+    /**
+     * Requests a user is waiting on, ie web lookups
+     */
+    INTERACTIVE,
+
+    /**
+     * Requests with no particular priority
+     */
+    DEFAULT,
+
+    /**
+     * Bulk requests, ie nightly exports. These only use sockets that interactive and default requests are not waiting
+     * on, and not the sockets reserved with {@code PoolingSocketFactory.setReservedSockets()}.
+     */
+    BULK
+}
@@ -10,7 +10,9 @@ import org.apache.commons.logging.LogFactory;
 import org.ccctc.colleaguedmiclient.exception.DmiTransactionException;
 import org.ccctc.colleaguedmiclient.model.ByteSplitRemainder;
 import org.ccctc.colleaguedmiclient.model.DmiSubTransaction;
+import org.ccctc.colleaguedmiclient.socket.Priority;
 import org.ccctc.colleaguedmiclient.util.ByteUtils;
+import org.ccctc.colleaguedmiclient.util.StringDictionary;
 import org.ccctc.colleaguedmiclient.util.StringUtils;
 
 import java.io.DataInputStream;
@@ -175,6 +177,22 @@ public class DmiTransaction {
      */
     private long transactionBytes = -1;
 
+    /**
+     * Time in nanoseconds spent parsing the response into this transaction, set on a fromResponse (used in metrics)
+     */
+    private long parseNanos = -1;
+
+    /**
+     * Whether the transaction only reads data, so that sending it more than once has no effect other than the response
+     * (ie it may be hedged). True for data requests.
+     */
+    private boolean idempotent = false;
+
+    /**
+     * Priority of the transaction when waiting for a socket from the pool. Default is DEFAULT.
+     */
+    @Setter @NonNull private Priority priority = Priority.DEFAULT;
+
 
     private DmiTransaction() {
     }
@@ -360,19 +378,39 @@ public class DmiTransaction {
      * @return DMI Transaction
      */
     public static DmiTransaction fromResponse(DataInputStream is) {
+        return fromResponse(is, null);
+    }
+
+    /**
+     * Create a DMI transaction from an input stream from the DMI, sharing string instances of repeated short values
+     * through a dictionary
+     *
+     * @param is         Input stream
+     * @param dictionary Dictionary of values, or null to not intern values
+     * @return DMI Transaction
+     */
+    public static DmiTransaction fromResponse(DataInputStream is, StringDictionary dictionary) {
         DmiTransaction result = new DmiTransaction();
-        result.readFromStream(is);
+        result.readFromStream(is, dictionary);
         return result;
     }
 
+    /**
+     * Convert bytes from the response to a string, through the dictionary if there is one
+     */
+    private static String decode(byte[] bytes, StringDictionary dictionary) throws UnsupportedEncodingException {
+        return (dictionary != null) ? dictionary.decode(bytes) : byteArrayToString(bytes);
+    }
+
     /**
      * Process the input stream, reading the data in chunks and splitting into byte arrays delimited by FM so that it
      * can be easily processed. By splitting the values of the array up during the read process, less work needs to
      * be done later to separate each field.
      *
-     * @param is Input stream
+     * @param is         Input stream
+     * @param dictionary Dictionary of values (optional)
      */
-    private void readFromStream(DataInputStream is) {
+    private void readFromStream(DataInputStream is, StringDictionary dictionary) {
 
         //
         // determine the size of the response. the format of the header is #...# with the value between
@@ -401,7 +439,7 @@ public class DmiTransaction {
                 throw new DmiTransactionException("Invalid header size (non-numeric)", this);
             }
         } catch (IOException e) {
-            throw new DmiTransactionException("Problem processing DMI response - " + e.getClass().getName() + ": " + e.getMessage(), this);
+            throw new DmiTransactionException("Problem processing DMI response - " + e.getClass().getName() + ": " + e.getMessage(), this, e);
         }
 
         this.transactionBytes = headerBytes + responseSize;
@@ -433,19 +471,19 @@ public class DmiTransaction {
                     byte[] first = split.get(0);
 
                     if (remainder == null || remainder.length == 0) {
-                        results.add(byteArrayToString(first));
+                        results.add(decode(first, dictionary));
                     } else {
                         // combine remainder in to first result
                         byte[] combined = new byte[remainder.length + first.length];
                         System.arraycopy(remainder, 0, combined, 0, remainder.length);
                         System.arraycopy(first, 0, combined, remainder.length, first.length);
-                        results.add(byteArrayToString(combined));
+                        results.add(decode(combined, dictionary));
 
                         remainder = null;
                     }
 
                     for (int x = 1; x < split.size(); x++) {
-                        results.add(byteArrayToString(split.get(x)));
+                        results.add(decode(split.get(x), dictionary));
                     }
                 }
 
@@ -477,7 +515,7 @@ public class DmiTransaction {
 
                             if (remainder.length > 5) {
                                 byte[] l = Arrays.copyOfRange(remainder, 0, remainder.length - 5);
-                                results.add(byteArrayToString(l));
+                                results.add(decode(l, dictionary));
                             } else {
                                 results.add(null);
                             }
@@ -489,12 +527,14 @@ public class DmiTransaction {
                     throw new DmiTransactionException("Transaction end not found", this);
                 }
             } catch (IOException e) {
-                throw new DmiTransactionException("Problem processing response - " + e.getClass().getName() + ": " + e.getMessage(), this);
+                throw new DmiTransactionException("Problem processing response - " + e.getClass().getName() + ": " + e.getMessage(), this, e);
             }
         }
 
         // now that it's split out, send it to readResponse for processing
+        long parseStart = System.nanoTime();
         readResponse(results);
+        this.parseNanos = System.nanoTime() - parseStart;
     }
 
     /**
@@ -34,6 +34,17 @@ public class CTXRequest extends DmiTransaction {
         super.addHashSubRequest(sharedSecret);
     }
 
+    /**
+     * Set whether the Colleague Transaction only reads data (an inquiry), so that it is safe to send more than once.
+     * Default is false.
+     *
+     * @param idempotent Idempotent
+     */
+    @Override
+    public void setIdempotent(boolean idempotent) {
+        super.setIdempotent(idempotent);
+    }
+
     /**
      * Create the SCTRQ sub transaction for a request
      *
@@ -24,6 +24,9 @@ abstract class DataRequest extends DmiTransaction {
 
     DataRequest(@NonNull String account, String token, String controlId) {
         super(account, DAFQ, "UT", token, controlId);
+
+        // data requests only read data
+        setIdempotent(true);
     }
 
     /**
@@ -0,0 +1,393 @@
+package org.ccctc.colleaguedmiclient.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.ccctc.colleaguedmiclient.exception.FieldOverflowException;
+import org.ccctc.colleaguedmiclient.model.CddEntry;
+import org.ccctc.colleaguedmiclient.model.CddEntryType;
+import org.ccctc.colleaguedmiclient.model.MultiValue;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * Converter between the string values of a CDD Entry and Java types. The data type of the CDD Entry is derived once
+ * when the converter is created, with a specialized implementation for each type (String, Integer, Long, BigDecimal,
+ * LocalDate, LocalTime), and for multi-valued types.
+ * <p>
+ * Converters are immutable and thread safe. A CDD Entry keeps its converter - see {@code CddEntry.getConverter()}.
+ *
+ * @see CddUtils
+ */
+public abstract class CddConverter {
+
+    private static final Log log = LogFactory.getLog(CddConverter.class);
+
+    // maximum and minimum from UniData documentation
+    private static final long MIN_DATE = -46385L;  // December 31, 1840
+    private static final long MAX_DATE = 2933628L; // December 31, 9999
+
+    // maximum and minimum times as seconds in a day
+    private static final long MIN_TIME = 0;     // 00:00:00
+    private static final long MAX_TIME = 86399; // 23:59:59
+
+    private static final String EMPTY_STRING = "";
+
+    private final CddEntryType cddEntryType;
+    private final Integer maxLength;
+
+
+    private CddConverter(CddEntryType cddEntryType) {
+        this.cddEntryType = cddEntryType;
+
+        CddEntry cddEntry = cddEntryType.getCddEntry();
+        Integer max;
+        if ("T".equals(cddEntry.getDatabaseUsageType())) {
+            max = 1996; // "text" field - in SQL Server is up to 1996 characters
+        } else {
+            max = cddEntry.getMaximumStorageSize();
+            if (max == null) max = StringUtils.parseIntOrNull(cddEntry.getDefaultDisplaySize());
+        }
+
+        this.maxLength = max;
+    }
+
+
+    /**
+     * Create a converter for a CDD Entry
+     *
+     * @param cddEntry CDD Entry
+     * @return Converter
+     */
+    public static CddConverter forEntry(CddEntry cddEntry) {
+        CddEntryType type = CddUtils.cddEntryType(cddEntry);
+
+        CddConverter converter;
+        if (type.getType() == LocalDate.class) converter = new DateConverter(type);
+        else if (type.getType() == LocalTime.class) converter = new TimeConverter(type);
+        else if (type.getType() == Integer.class) converter = new IntegerConverter(type);
+        else if (type.getType() == Long.class) converter = new LongConverter(type);
+        else if (type.getType() == BigDecimal.class) converter = new DecimalConverter(type);
+        else converter = new StringConverter(type);
+
+        return type.isArray() ? new MultiValueConverter(converter) : converter;
+    }
+
+
+    /**
+     * Data type information of the CDD Entry, including Java type, array (true/false) and numeric scale
+     *
+     * @return CDD Entry w/ type information
+     */
+    public CddEntryType getCddEntryType() {
+        return cddEntryType;
+    }
+
+
+    /**
+     * Maximum length of the string value of the field, if known
+     */
+    Integer maxLength() {
+        return maxLength;
+    }
+
+
+    /**
+     * Convert a string to a Java type. See {@code CddUtils.convertToValue()}.
+     *
+     * @param value Value to convert
+     * @return Converted value
+     */
+    public Object convertToValue(String value) {
+        if (value == null) return null;
+        return convertOne(value);
+    }
+
+
+    /**
+     * Convert a string to a Java type, like {@code convertToValue()}, except that multi-valued types are returned as a
+     * {@code MultiValue} rather than an array. The values of a {@code MultiValue} are only split and converted when
+     * they are accessed.
+     *
+     * @param value Value to convert
+     * @return Converted value
+     */
+    public Object convertToLazyValue(String value) {
+        if (value == null) return null;
+        return toLazyValue(value);
+    }
+
+
+    /**
+     * Convert a Java type to a string for serialization to the DMI. See {@code CddUtils.convertFromValue()}.
+     *
+     * @param value          Java type to convert
+     * @param checkFieldSize Validate field size, throwing {@code FieldOverflowException} if overflow occurs?
+     * @return Converted value
+     * @throws NumberFormatException  if conversion to a numeric value fails (including date and time, which are numeric)
+     * @throws FieldOverflowException if conversion would result in exceeding the max size of the field
+     */
+    public String convertFromValue(Object value, boolean checkFieldSize)
+            throws NumberFormatException, FieldOverflowException {
+        if (value == null) return EMPTY_STRING;
+        return fromValue(value, checkFieldSize);
+    }
+
+
+    /**
+     * Convert a single value, returning null if it is not valid for the type
+     */
+    Object convertOne(String value) {
+        try {
+            return toValue(value);
+        } catch (NumberFormatException e) {
+            log.warn("Unable to convert value to numeric equivalent. Null will be returned instead. Value = "
+                    + value + ", conversion  = " + cddEntryType.getCddEntry().getInformConversionString());
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Convert a single (non-null) value to the Java type
+     */
+    abstract Object toValue(String value);
+
+
+    /**
+     * Convert a (non-null) value, deferring the conversion of multi-valued types
+     */
+    Object toLazyValue(String value) {
+        return convertOne(value);
+    }
+
+
+    /**
+     * Convert a (non-null) Java value to a string
+     */
+    abstract String fromValue(Object value, boolean checkFieldSize);
+
+
+    /**
+     * String type. An empty string is converted to null. Any Java type is converted with {@code toString()}, except
+     * Boolean which is converted to Y or N.
+     */
+    private static class StringConverter extends CddConverter {
+        StringConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+        }
+
+        @Override
+        Object toValue(String value) {
+            return EMPTY_STRING.equals(value) ? null : value;
+        }
+
+        @Override
+        String fromValue(Object value, boolean checkFieldSize) {
+            if (value instanceof Boolean)
+                return ((Boolean) value) ? "Y" : "N";
+
+            // anything else can be converted to a string
+            String sVal = value.toString();
+            if (checkFieldSize && maxLength() != null && sVal.length() > maxLength())
+                throw new FieldOverflowException("Maximum size exceeded for text field " + getCddEntryType().getCddEntry().getName());
+
+            return sVal;
+        }
+    }
+
+
+    /**
+     * Numeric types, stored in Colleague as a numeric string without a decimal point
+     */
+    private static abstract class NumericConverter extends CddConverter {
+        private final int scale;
+
+        NumericConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+            this.scale = cddEntryType.getScale() != null ? cddEntryType.getScale() : 0;
+        }
+
+        int scale() {
+            return scale;
+        }
+
+        @Override
+        String fromValue(Object value, boolean checkFieldSize) {
+            BigDecimal dVal;
+
+            if (value instanceof BigDecimal)
+                dVal = ((BigDecimal) value);
+            else if (value instanceof Double)
+                dVal = new BigDecimal((double) value);
+            else if (value instanceof Float)
+                dVal = new BigDecimal((double) (float) value);
+            else
+                dVal = new BigDecimal(value.toString());
+
+            // convert to string, check size
+            if (scale > 0) dVal = dVal.movePointRight(scale);
+            String sVal = dVal.setScale(0, RoundingMode.HALF_UP).toString();
+            if (checkFieldSize && maxLength() != null && sVal.length() > maxLength())
+                throw new FieldOverflowException("Maximum size exceeded for numeric field " + getCddEntryType().getCddEntry().getName());
+
+            return sVal;
+        }
+    }
+
+
+    private static class IntegerConverter extends NumericConverter {
+        IntegerConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+        }
+
+        @Override
+        Object toValue(String value) {
+            long v = StringUtils.parseDigits(value, 0, value.length());
+            if (v != StringUtils.NOT_PARSED && v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                return Integer.valueOf((int) v);
+
+            return Integer.valueOf(value);
+        }
+    }
+
+
+    private static class LongConverter extends NumericConverter {
+        LongConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+        }
+
+        @Override
+        Object toValue(String value) {
+            long v = StringUtils.parseDigits(value, 0, value.length());
+            return (v != StringUtils.NOT_PARSED) ? Long.valueOf(v) : Long.valueOf(value);
+        }
+    }
+
+
+    private static class DecimalConverter extends NumericConverter {
+        DecimalConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+        }
+
+        @Override
+        Object toValue(String value) {
+            // values of up to 18 digits fit in a long, avoiding the BigInteger
+            long v = StringUtils.parseDigits(value, 0, value.length());
+            if (v != StringUtils.NOT_PARSED)
+                return BigDecimal.valueOf(v, scale());
+
+            return new BigDecimal(new BigInteger(value), scale());
+        }
+    }
+
+
+    /**
+     * Date type, stored in Colleague as the number of days since December 31, 1967
+     */
+    private static class DateConverter extends CddConverter {
+        DateConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+        }
+
+        @Override
+        Object toValue(String value) {
+            return StringUtils.dateFromString(value);
+        }
+
+        @Override
+        String fromValue(Object value, boolean checkFieldSize) {
+            long dateValue;
+
+            if (value instanceof Date)
+                dateValue = Long.parseLong(StringUtils.dateToString(((Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate()));
+            else if (value instanceof LocalDate)
+                dateValue = Long.parseLong(StringUtils.dateToString((LocalDate) value));
+            else if (value instanceof LocalDateTime)
+                dateValue = Long.parseLong(StringUtils.dateToString(((LocalDateTime) value).toLocalDate()));
+            else
+                dateValue = Long.parseLong(value.toString());
+
+            if (checkFieldSize && (dateValue < MIN_DATE || dateValue > MAX_DATE))
+                throw new FieldOverflowException("Date value invalid - must be a number between " + MIN_DATE + " and " + MAX_DATE);
+
+            return Long.toString(dateValue);
+        }
+    }
+
+
+    /**
+     * Time type, stored in Colleague as the number of seconds since midnight
+     */
+    private static class TimeConverter extends CddConverter {
+        TimeConverter(CddEntryType cddEntryType) {
+            super(cddEntryType);
+        }
+
+        @Override
+        Object toValue(String value) {
+            return StringUtils.timeFromString(value);
+        }
+
+        @Override
+        String fromValue(Object value, boolean checkFieldSize) {
+            if (value instanceof Date)
+                return StringUtils.timeToString(((Date) value).toInstant().atZone(ZoneId.systemDefault()).toLocalTime());
+
+            if (value instanceof LocalTime)
+                return StringUtils.timeToString((LocalTime) value);
+
+            if (value instanceof LocalDateTime)
+                return StringUtils.timeToString(((LocalDateTime) value).toLocalTime());
+
+            // time handling for non-LocalTime. must be a number between 0 and 86400 (number of seconds in a day).
+            Long v = Long.parseLong(value.toString());
+            if (checkFieldSize && (v < MIN_TIME || v > MAX_TIME))
+                throw new FieldOverflowException("Time value invalid - must be a number between " + MIN_TIME + " and  " + MAX_TIME);
+            return v.toString();
+        }
+    }
+
+
+    /**
+     * Multi-valued type. Values are split on value marks and converted to an array of the single-valued type.
+     */
+    private static class MultiValueConverter extends CddConverter {
+        private final CddConverter element;
+
+        MultiValueConverter(CddConverter element) {
+            super(element.getCddEntryType());
+            this.element = element;
+        }
+
+        @Override
+        Object toValue(String value) {
+            // convert values in place from their offsets rather than splitting to an intermediate String[]
+            int[] offsets = StringUtils.splitOffsets(value, StringUtils.VM);
+            Object[] array = (Object[]) Array.newInstance(getCddEntryType().getType(), offsets.length - 1);
+            for (int x = 0; x < array.length; x++) {
+                array[x] = element.convertOne(value.substring(offsets[x], offsets[x + 1] - 1));
+            }
+
+            return array;
+        }
+
+        @Override
+        Object toLazyValue(String value) {
+            return new MultiValue<>(value, StringUtils.VM, getCddEntryType().getType(), element::convertOne);
+        }
+
+        @Override
+        String fromValue(Object value, boolean checkFieldSize) {
+            return element.fromValue(value, checkFieldSize);
+        }
+    }
+}
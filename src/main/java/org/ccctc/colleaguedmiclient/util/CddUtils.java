@@ -1,35 +1,15 @@
 package org.ccctc.colleaguedmiclient.util;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.ccctc.colleaguedmiclient.exception.FieldOverflowException;
 import org.ccctc.colleaguedmiclient.model.CddEntry;
 import org.ccctc.colleaguedmiclient.model.CddEntryType;
 
-import java.lang.reflect.Array;
 import java.math.BigDecimal;
-import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.ZoneId;
-import java.util.Date;
 
 public class CddUtils {
 
-    private static final Log log = LogFactory.getLog(CddUtils.class);
-
-    // maximum and minimum from UniData documentation
-    private static final long MIN_DATE = -46385L;  // December 31, 1840
-    private static final long MAX_DATE = 2933628L; // December 31, 9999
-
-    // maximum and minimum times as seconds in a day
-    private static final long MIN_TIME = 0;     // 00:00:00
-    private static final long MAX_TIME = 86399; // 23:59:59
-
-    private static final String EMPTY_STRING = "";
-
     /**
      * Get data type information from a CDD Entry, including Java type, array (true/false) and numeric scale
      *
@@ -116,27 +96,15 @@ public class CddUtils {
      * as arrays, ie String[], Integer[], etc.
      * <p>
      * Note: For string values, an empty string is converted to null.
+     * <p>
+     * The conversion uses the converter kept by the CDD Entry, so the data type is only derived once per entry.
      *
      * @param value    Value to convert
      * @param cddEntry CDD Entry
      * @return Converted value
      */
     public static Object convertToValue(String value, CddEntry cddEntry) {
-        if (value == null) return null;
-
-        CddEntryType cddEntryType = cddEntryType(cddEntry);
-
-        if (cddEntryType.isArray()) {
-            String[] strSplit = StringUtils.split(value, StringUtils.VM);
-            Object[] array = (Object[]) Array.newInstance(cddEntryType.getType(), strSplit.length);
-            for (int x = 0; x < strSplit.length; x++) {
-                array[x] = convertOneValue(strSplit[x], cddEntryType);
-            }
-
-            return array;
-        }
-
-        return convertOneValue(value, cddEntryType);
+        return cddEntry.getConverter().convertToValue(value);
     }
 
     /**
@@ -173,128 +141,6 @@ public class CddUtils {
      */
     public static String convertFromValue(Object value, CddEntry cddEntry, boolean checkFieldSize)
             throws NumberFormatException, FieldOverflowException {
-        if (value == null) return "";
-
-        CddEntryType cddEntryType = cddEntryType(cddEntry);
-
-        Integer maxLength = null;
-        if ("T".equals(cddEntry.getDatabaseUsageType())) {
-            maxLength = 1996; // "text" field - in SQL Server is up to 1996 characters
-        } else {
-            maxLength = cddEntry.getMaximumStorageSize();
-            if (maxLength == null) {
-                try {
-                    maxLength = Integer.parseInt(cddEntry.getDefaultDisplaySize());
-                } catch (NumberFormatException ignored) { }
-            }
-        }
-
-        // numeric type handling
-        if (cddEntryType.isNumeric()) {
-            BigDecimal dVal;
-
-            Integer scale = cddEntryType.getScale();
-            if (scale == null) scale = 0;
-
-            if (value instanceof BigDecimal)
-                dVal = ((BigDecimal) value);
-            else if (value instanceof Double)
-                dVal = new BigDecimal((double) value);
-            else if (value instanceof Float)
-                dVal = new BigDecimal((double) (float)value);
-            else
-                dVal = new BigDecimal(value.toString());
-
-            // convert to string, check size
-            if (scale > 0) dVal = dVal.movePointRight(scale);
-            String sVal = dVal.setScale(0, RoundingMode.HALF_UP).toString();
-            if (checkFieldSize && maxLength != null && sVal.length() > maxLength)
-                throw new FieldOverflowException("Maximum size exceeded for numeric field " + cddEntry.getName());
-
-            return sVal;
-        }
-
-        // date / time handling
-        if (cddEntryType.isDate() || cddEntryType.isTime()) {
-            // convert java.util.Date to LocalDate or LocalTime
-            if (value instanceof Date) {
-                if (cddEntryType.isDate())
-                    value = ((Date)value).toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
-                else
-                    value = ((Date)value).toInstant().atZone(ZoneId.systemDefault()).toLocalTime();
-            }
-
-            if (cddEntryType.isDate()) {
-                Long dateValue;
-
-                if (value instanceof LocalDate)
-                    dateValue = Long.parseLong(StringUtils.dateToString((LocalDate)value));
-                else if (value instanceof LocalDateTime)
-                    dateValue = Long.parseLong(StringUtils.dateToString(((LocalDateTime)value).toLocalDate()));
-                else {
-                    dateValue = Long.parseLong(value.toString());
-                }
-
-                if (checkFieldSize && (dateValue < MIN_DATE || dateValue > MAX_DATE))
-                    throw new FieldOverflowException("Date value invalid - must be a number between " + MIN_DATE + " and " + MAX_DATE);
-
-                return Long.toString(dateValue);
-            } else {
-                if (value instanceof LocalTime)
-                    return StringUtils.timeToString((LocalTime)value);
-
-                if (value instanceof LocalDateTime)
-                    return StringUtils.timeToString(((LocalDateTime)value).toLocalTime());
-
-                // time handling for non-LocalTime. must be a number between 0 and 86400 (number of seconds in a day).
-                Long v = Long.parseLong(value.toString());
-                if (checkFieldSize && (v < MIN_TIME || v > MAX_TIME))
-                    throw new FieldOverflowException("Time value invalid - must be a number between " + MIN_TIME + " and  " + MAX_TIME);
-                return v.toString();
-            }
-        }
-
-        if (value instanceof Boolean)
-            return ((Boolean)value) ? "Y" : "N";
-
-        // anything else can be converted to a string
-        String sVal = value.toString();
-        if (checkFieldSize && maxLength != null && sVal.length() > maxLength)
-            throw new FieldOverflowException("Maximum size exceeded for text field " + cddEntry.getName());
-
-        return sVal;
-    }
-
-
-    private static Object convertOneValue(String value, CddEntryType cddEntryType) {
-
-        Class c = cddEntryType.getType();
-        Integer scale = cddEntryType.getScale();
-
-        try {
-            if (c == String.class)
-                return EMPTY_STRING.equals(value) ? null : value;
-
-            if (c == LocalDate.class)
-                return StringUtils.dateFromString(value);
-
-            if (c == LocalTime.class)
-                return StringUtils.timeFromString(value);
-
-            if (c == Long.class)
-                return Long.valueOf(value);
-
-            if (c == Integer.class)
-                return Integer.valueOf(value);
-
-            if (c == BigDecimal.class)
-                return new BigDecimal(new BigInteger(value), scale);
-
-        } catch (NumberFormatException e) {
-            log.warn("Unable to convert value to numeric equivalent. Null will be returned instead. Value = "
-                    + value + ", conversion  = " + cddEntryType.getCddEntry().getInformConversionString());
-        }
-
-        return null;
+        return cddEntry.getConverter().convertFromValue(value, checkFieldSize);
     }
 }
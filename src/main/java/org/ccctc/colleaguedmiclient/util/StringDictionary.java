@@ -0,0 +1,122 @@
+package org.ccctc.colleaguedmiclient.util;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Bounded dictionary of short string values, used while reading a DMI response so that repeated values (term codes,
+ * status codes, valcode keys, etc) share one {@code String} instance rather than each being a new string.
+ * <p>
+ * Values are looked up by their bytes, so a repeated value does not create a new string at all. Only values up to
+ * {@code maxValueLength} bytes are interned, and once {@code maxEntries} distinct values have been interned, new values
+ * are decoded as usual without being added.
+ * <p>
+ * A dictionary is not thread safe - it is meant to be used for a single response (or a series of responses read by
+ * a single thread). All operations use Windows-1252 encoding.
+ */
+public class StringDictionary {
+
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private final int maxEntries;
+    private final int maxValueLength;
+
+    // open addressing hash table of byte values and their strings
+    private final byte[][] keys;
+    private final String[] values;
+    private final int mask;
+
+    private int size;
+    private long hits;
+    private long misses;
+
+
+    /**
+     * Create a dictionary
+     *
+     * @param maxEntries     Maximum number of distinct values
+     * @param maxValueLength Maximum length (in bytes) of a value to intern
+     */
+    public StringDictionary(int maxEntries, int maxValueLength) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be at least 1");
+        if (maxValueLength < 1) throw new IllegalArgumentException("maxValueLength must be at least 1");
+
+        this.maxEntries = maxEntries;
+        this.maxValueLength = maxValueLength;
+
+        // keep the table at most half full
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, 2) * 2 - 1) << 1;
+        keys = new byte[capacity][];
+        values = new String[capacity];
+        mask = capacity - 1;
+    }
+
+
+    /**
+     * Decode bytes to a string, returning the existing instance if the same value has been seen before. As with
+     * {@code ByteUtils.byteArrayToString()}, null is returned for an empty value.
+     *
+     * @param bytes Bytes
+     * @return String
+     */
+    public String decode(byte[] bytes) {
+        if (bytes.length == 0) return null;
+        if (bytes.length > maxValueLength) return new String(bytes, WINDOWS_1252);
+
+        int i = hash(bytes) & mask;
+        while (keys[i] != null) {
+            if (Arrays.equals(keys[i], bytes)) {
+                hits++;
+                return values[i];
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        misses++;
+        String value = new String(bytes, WINDOWS_1252);
+        if (size < maxEntries) {
+            keys[i] = bytes;
+            values[i] = value;
+            size++;
+        }
+
+        return value;
+    }
+
+
+    /**
+     * Number of distinct values in the dictionary
+     *
+     * @return Size
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Number of values that were found in the dictionary (ie strings that were not created)
+     *
+     * @return Hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Number of values of up to {@code maxValueLength} bytes that were not found in the dictionary
+     *
+     * @return Misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+
+    private static int hash(byte[] bytes) {
+        int h = Arrays.hashCode(bytes);
+        return h ^ (h >>> 16);
+    }
+}
@@ -6,8 +6,6 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.ArrayList;
-import java.util.List;
 
 public class StringUtils {
 
@@ -17,6 +15,17 @@ public class StringUtils {
     public final static char TM = (char) 251;
     public final static LocalDate BASE_DATE = LocalDate.of(1967, 12, 31);
 
+    /**
+     * Returned by {@code parseDigits} when a value cannot be parsed by the fast path
+     */
+    public final static long NOT_PARSED = Long.MIN_VALUE;
+
+    // cache of dates for UniData day numbers from 30 years before to 10 years after the current date, as most dates
+    // read from Colleague fall in this range. entries are created on first use.
+    private final static int DATE_CACHE_SIZE = 40 * 366;
+    private final static long DATE_CACHE_START = LocalDate.now().toEpochDay() - BASE_DATE.toEpochDay() - 30 * 366;
+    private final static LocalDate[] DATE_CACHE = new LocalDate[DATE_CACHE_SIZE];
+
 
     /**
      * Convert a UniData date string to a LocalDate.
@@ -27,15 +36,40 @@ public class StringUtils {
      * @return LocalDate
      */
     public static LocalDate dateFromString(String ds) {
-        LocalDate result = null;
-        if (ds != null) {
+        if (ds == null) return null;
+
+        long x = parseDigits(ds, 0, ds.length());
+        if (x == NOT_PARSED) {
             try {
-                long x = Long.parseLong(ds);
-                result = BASE_DATE.plusDays(x);
+                x = Long.parseLong(ds);
             } catch (NumberFormatException ignored) {
+                return null;
             }
         }
 
+        return dateFromDayNumber(x);
+    }
+
+
+    /**
+     * Convert a UniData day number (days since December 31, 1967) to a LocalDate. Dates within recent years are
+     * cached, so converting the same day number again does not create a new LocalDate.
+     *
+     * @param dayNumber UniData day number
+     * @return LocalDate
+     */
+    public static LocalDate dateFromDayNumber(long dayNumber) {
+        long index = dayNumber - DATE_CACHE_START;
+        if (index < 0 || index >= DATE_CACHE_SIZE)
+            return BASE_DATE.plusDays(dayNumber);
+
+        // LocalDate is immutable, so a racy read of the cache at worst creates an extra instance
+        LocalDate result = DATE_CACHE[(int) index];
+        if (result == null) {
+            result = BASE_DATE.plusDays(dayNumber);
+            DATE_CACHE[(int) index] = result;
+        }
+
         return result;
     }
 
@@ -64,18 +98,20 @@ public class StringUtils {
      * @return LocalDate
      */
     public static LocalTime timeFromString(String ts) {
-        LocalTime result = null;
-        if (ts != null) {
+        if (ts == null) return null;
+
+        long x = parseDigits(ts, 0, ts.length());
+        if (x == NOT_PARSED) {
             try {
-                long x = Long.parseLong(ts);
-                if (x < 0) x = Math.abs(x);
-                if (x > 86400) x = x % 86400;
-                result = LocalTime.ofSecondOfDay(x);
+                x = Long.parseLong(ts);
             } catch (NumberFormatException ignored) {
+                return null;
             }
         }
 
-        return result;
+        if (x < 0) x = Math.abs(x);
+        if (x > 86400) x = x % 86400;
+        return LocalTime.ofSecondOfDay(x);
     }
 
     /**
@@ -105,16 +141,45 @@ public class StringUtils {
     public static String[] split(String str, char delimiter) {
         if (str == null) return null;
 
-        List<String> results = new ArrayList<>();
-        int start = 0;
-        int next;
-        do {
-            next = str.indexOf(delimiter, start);
-            results.add(str.substring(start, (next == -1) ? str.length() : next));
-            start = next + 1;
-        } while(next != -1 && start < str.length());
+        int[] offsets = splitOffsets(str, delimiter);
+        String[] results = new String[offsets.length - 1];
+        for (int x = 0; x < results.length; x++) {
+            results[x] = str.substring(offsets[x], offsets[x + 1] - 1);
+        }
+
+        return results;
+    }
+
+
+    /**
+     * Get the offsets of the values of a delimited string, without extracting them. The result has one more entry
+     * than the number of values - value {@code x} is {@code str.substring(offsets[x], offsets[x + 1] - 1)}.
+     * <p>
+     * As with {@code split()}, an empty string has one (empty) value and a trailing delimiter does not add an empty
+     * value.
+     *
+     * @param str       String to split
+     * @param delimiter Delimiter
+     * @return Offsets
+     */
+    public static int[] splitOffsets(String str, char delimiter) {
+        int length = str.length();
+        boolean trailing = length > 0 && str.charAt(length - 1) == delimiter;
 
-        return results.toArray(new String[0]);
+        int count = trailing ? 0 : 1;
+        for (int x = 0; x < length; x++) {
+            if (str.charAt(x) == delimiter) count++;
+        }
+
+        int[] offsets = new int[count + 1];
+        int k = 1;
+        for (int x = 0; x < length && k < count; x++) {
+            if (str.charAt(x) == delimiter) offsets[k++] = x + 1;
+        }
+
+        // the end of the last value, as if it were followed by a delimiter
+        offsets[count] = (trailing ? length - 1 : length) + 1;
+        return offsets;
     }
 
 
@@ -182,6 +247,40 @@ public class StringUtils {
     }
 
 
+    /**
+     * Parse a range of characters made up of ASCII digits, with an optional leading sign, to a long without
+     * allocating. Only values of up to 18 digits are parsed, as they always fit in a long. Anything else (empty
+     * values, longer values, other characters) returns {@code NOT_PARSED}, so the caller can fall back to the parsing
+     * methods of the JDK for the exact same result and exceptions.
+     *
+     * @param s     Characters
+     * @param start Start index (inclusive)
+     * @param end   End index (exclusive)
+     * @return Parsed value or {@code NOT_PARSED}
+     */
+    public static long parseDigits(CharSequence s, int start, int end) {
+        boolean negative = false;
+        if (start < end) {
+            char c = s.charAt(start);
+            if (c == '-' || c == '+') {
+                negative = (c == '-');
+                start++;
+            }
+        }
+
+        if (start >= end || end - start > 18) return NOT_PARSED;
+
+        long result = 0;
+        for (int x = start; x < end; x++) {
+            int d = s.charAt(x) - '0';
+            if (d < 0 || d > 9) return NOT_PARSED;
+            result = result * 10 + d;
+        }
+
+        return negative ? -result : result;
+    }
+
+
     /**
      * Parse a string to an integer and return the value or null if conversion is not possible (rather than throwing
      * an exception).
@@ -0,0 +1,90 @@
+package org.ccctc.colleaguedmiclient.metrics
+
+import spock.lang.Specification
+
+class HistogramSpec extends Specification {
+
+    def "empty"() {
+        when:
+        def h = new Histogram()
+
+        then:
+        h.count == 0
+        h.total == 0
+        h.min == 0
+        h.max == 0
+        h.mean == 0
+        h.getValueAtPercentile(50) == 0
+    }
+
+    def "record"() {
+        setup:
+        def h = new Histogram()
+
+        when:
+        (1..1000).each { h.record(it * 1000L) }
+        h.record(-5)
+
+        then:
+        h.count == 1001
+        h.total == 500500000L
+        h.min == 0
+        h.max == 1000000
+        h.mean == 500500000 / 1001
+        h.getValueAtPercentile(0) == 0
+        h.getValueAtPercentile(100) == 1000000
+        h.getValueAtPercentile(200) == 1000000
+        // percentiles are within the precision of the buckets
+        Math.abs(h.getValueAtPercentile(50) - 500000) <= 500000 * 0.035
+        Math.abs(h.getValueAtPercentile(99) - 990000) <= 990000 * 0.035
+        h.toString().startsWith("Histogram{count=1001, min=0")
+    }
+
+    def "buckets"() {
+        expect:
+        // small values are exact
+        (0..31).every { Histogram.index(it) == it && Histogram.highestValue(it) == it }
+
+        // every value is in a bucket whose range contains it, and buckets are in order
+        [32L, 33L, 63L, 64L, 65L, 1000L, 123456789L, Long.MAX_VALUE >> 1, Long.MAX_VALUE].every { v ->
+            int i = Histogram.index(v)
+            Histogram.highestValue(i) >= v && (i == 0 || Histogram.highestValue(i - 1) < v)
+        }
+
+        // relative precision of about 3%
+        (Histogram.highestValue(Histogram.index(1000000)) - 1000000) / 1000000 < 0.035
+        Histogram.highestValue(Histogram.index(Long.MAX_VALUE)) == Long.MAX_VALUE
+    }
+
+    def "largest values"() {
+        setup:
+        def h = new Histogram()
+
+        when: "the largest value is in the last bucket"
+        h.record(1)
+        h.record(Long.MAX_VALUE >> 1)
+        h.record(Long.MAX_VALUE)
+
+        then:
+        h.count == 3
+        h.max == Long.MAX_VALUE
+        h.getValueAtPercentile(100) == Long.MAX_VALUE
+        h.getValueAtPercentile(50) >= Long.MAX_VALUE >> 1
+        h.getValueAtPercentile(1) == 1
+    }
+
+    def "concurrent record"() {
+        setup:
+        def h = new Histogram()
+
+        when:
+        def threads = (1..4).collect { t -> Thread.start { (1..1000).each { h.record(it) } } }
+        threads*.join()
+
+        then:
+        h.count == 4000
+        h.total == 4 * 500500
+        h.min == 1
+        h.max == 1000
+    }
+}
@@ -0,0 +1,72 @@
+package org.ccctc.colleaguedmiclient.metrics
+
+import spock.lang.Specification
+
+class InMemoryDmiMetricsSpec extends Specification {
+
+    def "counters"() {
+        setup:
+        def m = new InMemoryDmiMetrics()
+
+        when:
+        m.increment(DmiMetrics.RETRIES, "IO")
+        m.increment(DmiMetrics.RETRIES, "IO")
+        m.increment(DmiMetrics.RETRIES, null)
+
+        then:
+        m.getCount(DmiMetrics.RETRIES, "IO") == 2
+        m.getCount(DmiMetrics.RETRIES, null) == 1
+        m.getCount(DmiMetrics.RETRIES, "ERROR") == 0
+        m.getCount(DmiMetrics.LOGINS, "success") == 0
+        m.getCounts(DmiMetrics.RETRIES) == [IO: 2L, "": 1L]
+        m.getCounts(DmiMetrics.LOGINS) == [:]
+    }
+
+    def "histograms"() {
+        setup:
+        def m = new InMemoryDmiMetrics()
+
+        when:
+        m.record(DmiMetrics.NETWORK, "DAFQ", 100)
+        m.record(DmiMetrics.NETWORK, "DAFQ", 300)
+        m.record(DmiMetrics.NETWORK, "CTRQ", 50)
+
+        then:
+        m.getHistogram(DmiMetrics.NETWORK, "DAFQ").count == 2
+        m.getHistogram(DmiMetrics.NETWORK, "DAFQ").max == 300
+        m.getHistogram(DmiMetrics.NETWORK, "LGRQ") == null
+        m.getHistogram(DmiMetrics.PARSE, "DAFQ") == null
+        m.getHistograms(DmiMetrics.NETWORK).keySet() == ["DAFQ", "CTRQ"] as Set
+        m.getHistograms(DmiMetrics.PARSE).isEmpty()
+
+        when:
+        m.getHistograms(DmiMetrics.NETWORK).clear()
+
+        then:
+        thrown UnsupportedOperationException
+    }
+
+    def "gauges"() {
+        setup:
+        def m = new InMemoryDmiMetrics()
+        def value = 5L
+
+        when:
+        m.gauge(DmiMetrics.POOL_USED, { value })
+        value = 7L
+
+        then:
+        m.getGauge(DmiMetrics.POOL_USED) == 7
+        m.getGauge(DmiMetrics.POOL_AVAILABLE) == null
+    }
+
+    def "noop"() {
+        when:
+        DmiMetrics.NOOP.increment(DmiMetrics.RETRIES, "IO")
+        DmiMetrics.NOOP.record(DmiMetrics.NETWORK, "DAFQ", 100)
+        DmiMetrics.NOOP.gauge(DmiMetrics.POOL_USED, { 1L })
+
+        then:
+        noExceptionThrown()
+    }
+}
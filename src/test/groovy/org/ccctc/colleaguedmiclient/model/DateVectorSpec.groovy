@@ -0,0 +1,30 @@
+package org.ccctc.colleaguedmiclient.model
+
+import spock.lang.Specification
+
+import java.time.LocalDate
+
+class DateVectorSpec extends Specification {
+
+    def "of / get / toList"() {
+        setup:
+        def d1 = LocalDate.of(2018, 1, 5)
+        def d2 = LocalDate.of(1800, 6, 1)
+
+        when:
+        def v = DateVector.of(d1, null, d2)
+
+        then:
+        v.size() == 3
+        v.get(0) == d1
+        v.get(1) == null
+        v.get(2) == d2
+        v.getDayNumber(1) == DateVector.MISSING
+        v.toArray() == [d1, null, d2] as LocalDate[]
+        v.toList() == [d1, null, d2]
+        v == DateVector.of(d1, null, d2)
+        v.hashCode() == DateVector.of(d1, null, d2).hashCode()
+        v != DateVector.of(d1)
+        v.toString() == "[2018-01-05, null, 1800-06-01]"
+    }
+}
@@ -0,0 +1,129 @@
+package org.ccctc.colleaguedmiclient.model
+
+import spock.lang.Specification
+
+import java.time.LocalDate
+import java.util.function.Function
+
+import static org.ccctc.colleaguedmiclient.util.StringUtils.VM
+
+class MultiValueSpec extends Specification {
+
+    def "values are converted once, on access"() {
+        setup:
+        def converter = Mock(Function)
+        def mv = new MultiValue<Integer>("1" + VM + "2" + VM + "3", VM, Integer.class, converter)
+
+        when:
+        def first = mv.first()
+
+        then:
+        1 * converter.apply("1") >> 1
+        0 * converter._
+        first == 1
+
+        when:
+        def second = mv.get(1)
+        def again = mv.get(1)
+        def firstAgain = mv.first()
+
+        then:
+        1 * converter.apply("2") >> 2
+        1 * converter.apply("1") >> 1
+        0 * converter._
+        second == 2
+        again == 2
+        firstAgain == 1
+
+        when:
+        def array = mv.toArray()
+        def list = mv.toList()
+
+        then:
+        1 * converter.apply("3") >> 3
+        0 * converter._
+        array == [1, 2, 3] as Integer[]
+        list == [1, 2, 3]
+        mv.size() == 3
+        mv.getString(2) == "3"
+        mv.source == "1" + VM + "2" + VM + "3"
+        mv.type == Integer
+        mv.toString() == "[1, 2, 3]"
+    }
+
+    def "splits like StringUtils.split"() {
+        expect:
+        new MultiValue<String>(source, VM, String.class, { it } as Function).toList() == result
+
+        where:
+        source              || result
+        ""                  || [""]
+        "a"                 || ["a"]
+        "a" + VM            || ["a"]
+        "a" + VM + VM       || ["a", ""]
+        "" + VM + "b"       || ["", "b"]
+    }
+
+    def "index out of range"() {
+        setup:
+        def mv = new MultiValue<String>("a", VM, String.class, { it } as Function)
+
+        when: mv.get(1)
+        then: thrown IndexOutOfBoundsException
+        when: mv.getString(-1)
+        then: thrown IndexOutOfBoundsException
+    }
+
+    def "toIntArray / toLongArray"() {
+        setup:
+        def converter = Mock(Function)
+        def ints = new MultiValue<Integer>("1" + VM + VM + "-3" + VM + "X" + VM + "3000000000", VM, Integer.class, converter)
+        def longs = new MultiValue<Long>("1" + VM + "3000000000", VM, Long.class, converter)
+
+        when:
+        def i = ints.toIntArray()
+        def l = longs.toLongArray()
+        def il = ints.toLongArray()
+
+        then:
+        // only values the fast path can't parse go through the converter, once
+        1 * converter.apply("X") >> null
+        1 * converter.apply("3000000000") >> null
+        0 * converter._
+        i == [1, 0, -3, 0, 0] as int[]
+        l == [1L, 3000000000L] as long[]
+        il == [1L, 0L, -3L, 0L, 0L] as long[]
+
+        when:
+        longs.toIntArray()
+
+        then:
+        thrown IllegalStateException
+    }
+
+    def "toDateVector"() {
+        setup:
+        def converter = Mock(Function)
+        def dates = new MultiValue<LocalDate>("0" + VM + VM + "X" + VM + "18263", VM, LocalDate.class, converter)
+
+        when:
+        def v = dates.toDateVector()
+
+        then:
+        1 * converter.apply("X") >> null
+        0 * converter._
+        v.size() == 4
+        v.get(0) == LocalDate.of(1967, 12, 31)
+        v.get(1) == null
+        v.get(2) == null
+        v.get(3) == LocalDate.of(2017, 12, 31)
+        v.getDayNumber(3) == 18263
+        v.getDayNumber(1) == DateVector.MISSING
+
+        when:
+        new MultiValue<String>("a", VM, String.class, converter).toDateVector()
+
+        then:
+        thrown IllegalStateException
+    }
+}
@@ -0,0 +1,223 @@
+package org.ccctc.colleaguedmiclient.service
+
+import org.ccctc.colleaguedmiclient.exception.DmiOverloadException
+import org.ccctc.colleaguedmiclient.exception.DmiServiceException
+import org.ccctc.colleaguedmiclient.socket.Priority
+import spock.lang.Specification
+
+class AdaptiveConcurrencyLimiterSpec extends Specification {
+
+    def "constructor"() {
+        when:
+        def l = new AdaptiveConcurrencyLimiter(10)
+
+        then:
+        l.limit == 5
+        l.minLimit == 1
+        l.maxLimit == 10
+        l.inFlight == 0
+        l.tolerance == 1.5
+        l.smoothing == 0.2
+        l.backoffRatio == 0.9
+        l.timeoutMillis == 5 * 60 * 1000
+        new AdaptiveConcurrencyLimiter(1).limit == 1
+
+        when:
+        new AdaptiveConcurrencyLimiter(initial, min, max)
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        initial | min | max
+        1       | 0   | 1
+        2       | 2   | 1
+        1       | 2   | 4
+        5       | 2   | 4
+    }
+
+    def "grows while latency is steady and the limit is in use"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(4, 1, 10)
+
+        when:
+        20.times { saturate(l, 1000) }
+
+        then:
+        l.limit == 10
+        l.inFlight == 0
+    }
+
+    def "does not grow when the limit is not in use"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(4, 1, 10)
+
+        when:
+        20.times {
+            l.acquire()
+            l.release(1000, true)
+        }
+
+        then:
+        l.limit == 4
+    }
+
+    def "shrinks as latency rises"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(10, 1, 10)
+        saturate(l, 1000)
+
+        when:
+        20.times { saturate(l, 10000) }
+
+        then:
+        l.limit < 10
+        l.limit >= 4
+
+        when: "latency drops back"
+        20.times { saturate(l, 100) }
+
+        then:
+        l.limit == 10
+    }
+
+    def "shrinks on failure, down to the minimum"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(10, 2, 10)
+
+        when:
+        l.acquire()
+        l.release(1000, false)
+
+        then:
+        l.limit == 9
+
+        when:
+        100.times {
+            l.acquire()
+            l.release(1000, false)
+        }
+
+        then:
+        l.limit == 2
+    }
+
+    def "cancelled transactions do not adjust the limit"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(4, 1, 10)
+
+        when:
+        l.acquire()
+        l.release(-1, false)
+
+        then:
+        l.limit == 4
+        l.inFlight == 0
+    }
+
+    def "waits until under the limit"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(1, 1, 1)
+        l.timeoutMillis = 10
+        l.acquire()
+
+        when: "timeout"
+        l.acquire()
+
+        then:
+        def e = thrown DmiOverloadException
+        e.message.contains("limit of 1")
+
+        when: "released by another transaction"
+        l.timeoutMillis = 10000
+        def t = Thread.start { l.acquire() }
+        sleep(50)
+        l.release(1000, true)
+        t.join()
+
+        then:
+        l.inFlight == 1
+
+        when: "time limit shorter than the timeout"
+        def start = System.nanoTime()
+        l.acquire(10)
+
+        then:
+        thrown DmiOverloadException
+        System.nanoTime() - start < 5_000_000_000
+    }
+
+    def "interrupted while waiting"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(1, 1, 1)
+        l.acquire()
+
+        when:
+        Thread.currentThread().interrupt()
+        l.acquire()
+
+        then:
+        def e = thrown DmiServiceException
+        !(e instanceof DmiOverloadException)
+        Thread.interrupted()
+        l.inFlight == 1
+    }
+
+    def "higher priority callers are let in first"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(1, 1, 1)
+        l.acquire()
+        def order = Collections.synchronizedList([])
+
+        // bulk waits first, but interactive is let in ahead of it
+        when:
+        def bulk = Thread.start { l.acquire(10000, Priority.BULK); order << Priority.BULK }
+        while (l.getWaiting(Priority.BULK) == 0) Thread.yield()
+        def interactive = Thread.start { l.acquire(10000, Priority.INTERACTIVE); order << Priority.INTERACTIVE }
+        while (l.getWaiting(Priority.INTERACTIVE) == 0) Thread.yield()
+        l.release(1000, true)
+        interactive.join()
+
+        then:
+        order == [Priority.INTERACTIVE]
+        l.getWaiting(Priority.BULK) == 1
+        l.inFlight == 1
+
+        // a caller that gives up waiting does not strand the callers behind it
+        when:
+        l.timeoutMillis = 10
+        l.acquire(10000, Priority.DEFAULT)
+
+        then:
+        thrown DmiOverloadException
+        l.getWaiting(Priority.DEFAULT) == 0
+
+        when:
+        l.release(1000, true)
+        bulk.join()
+
+        then:
+        order == [Priority.INTERACTIVE, Priority.BULK]
+        l.getWaiting(Priority.BULK) == 0
+        l.inFlight == 1
+    }
+
+    def "nulls"() {
+        setup:
+        def l = new AdaptiveConcurrencyLimiter(1)
+
+        when: l.acquire(10, null)
+        then: thrown NullPointerException
+        when: l.getWaiting(null)
+        then: thrown NullPointerException
+    }
+
+    /**
+     * Fill the limit and release all transactions with the same latency
+     */
+    private static void saturate(AdaptiveConcurrencyLimiter l, long rtt) {
+        int n = l.limit
+        n.times { l.acquire() }
+        n.times { l.release(rtt, true) }
+    }
+}
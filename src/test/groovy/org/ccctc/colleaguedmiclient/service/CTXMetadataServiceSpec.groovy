@@ -3,6 +3,8 @@ package org.ccctc.colleaguedmiclient.service
 import org.ccctc.colleaguedmiclient.exception.DmiMetadataException
 import spock.lang.Specification
 
+import java.util.concurrent.Executor
+
 import static org.ccctc.colleaguedmiclient.util.StringUtils.VM
 
 class CTXMetadataServiceSpec extends Specification {
@@ -119,4 +121,88 @@ class CTXMetadataServiceSpec extends Specification {
         m.variables[3].varName == "V3"
         m.variables[4].varName == "V4"
     }
-}
\ No newline at end of file
+
+    def "cache settings"() {
+        setup:
+        def m = new CTXMetadataService(Mock(DmiCTXService))
+
+        def executor = Mock(Executor)
+
+        when:
+        m.setCacheMaxEntries(10)
+        m.setCacheStaleWhileRevalidateSeconds(60)
+        m.setCacheRefreshExecutor(executor)
+
+        then:
+        m.getCacheMaxEntries() == 10
+        m.getCacheStaleWhileRevalidateSeconds() == 60
+        m.getCacheRefreshExecutor() == executor
+
+        when: m.setCacheRefreshExecutor(null)
+        then: thrown NullPointerException
+    }
+
+    def "getBindingPlan"() {
+        setup:
+        def c = Mock(DmiCTXService)
+        def d = new CTXMetadataService(c)
+        def response = [
+                "TV.VAR.NAME"      : "IN.VAR" + VM + "OUT.VAR" + VM + "MV.VAR" + VM + "BOOL.VAR",
+                "TV.VAR.ALIAS.NAME": "InVar" + VM + "" + VM + "MvVar" + VM + "BoolVar",
+                "TV.VAR.DIRECTION" : "IN" + VM + "OUT" + VM + "INOUT" + VM + "OUT",
+                "TV.VAR.DATA.TYPE" : "D" + VM + "D" + VM + "L" + VM + "D",
+                "TV.VAR.CONV"      : "" + VM + "MD2" + VM + "" + VM + "",
+                "TV.VAR.IS.BOOL"   : "N" + VM + "N" + VM + "N" + VM + "Y",
+                "TV.ASSOC.NAME"    : "ASSOC",
+                "TV.ASSOC.MEMBERS" : "MV.VAR,IN.VAR"]
+
+        when:
+        def p = d.getBindingPlan("ST", "CTX")
+
+        then:
+        1 * c.executeRaw(*_) >> response
+        p.varName("IN.VAR") == "IN.VAR"
+        p.varName("InVar") == "IN.VAR"
+        p.varName("OTHER") == null
+        p.outputCount() == 3
+        p.outputVarName(0) == "OUT.VAR"
+        p.outputAlias(0) == "OUT.VAR"
+        p.convertOutput(0, "123") == 1.23
+        p.convertOutput(0, null) == null
+        p.outputAlias(1) == "MvVar"
+        p.convertOutput(1, "A" + VM + "B") == ["A", "B"] as String[]
+        p.convertOutput(2, "y") == true
+        p.convertOutput(2, "N") == false
+        p.convertOutput(2, " ") == null
+        p.associationCount() == 1
+        p.associationName(0) == "ASSOC"
+        p.associationMemberAliases(0) == ["MvVar", null] as String[]
+        p.associationMemberIndexes(0) == [1, -1] as int[]
+
+        // cached with metadata
+        when:
+        def p2 = d.getBindingPlan("ST", "CTX")
+
+        then:
+        0 * c._
+        p2.is(p)
+
+        // compiled again when metadata is reloaded
+        when:
+        d.get("ST", "CTX", true)
+        def p3 = d.getBindingPlan("ST", "CTX")
+
+        then:
+        1 * c.executeRaw(*_) >> response
+        !p3.is(p)
+        p3.getMetadata().is(d.get("ST", "CTX"))
+
+        // cleared with cache
+        when:
+        d.clearCache()
+        d.getBindingPlan("ST", "CTX")
+
+        then:
+        1 * c.executeRaw(*_) >> response
+    }
+}
@@ -0,0 +1,133 @@
+package org.ccctc.colleaguedmiclient.service
+
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.function.LongSupplier
+
+import static org.ccctc.colleaguedmiclient.service.CircuitBreaker.State.CLOSED
+import static org.ccctc.colleaguedmiclient.service.CircuitBreaker.State.HALF_OPEN
+import static org.ccctc.colleaguedmiclient.service.CircuitBreaker.State.OPEN
+
+class CircuitBreakerSpec extends Specification {
+
+    long now = 0
+    CircuitBreaker cb
+
+    def setup() {
+        cb = new CircuitBreaker(4)
+        cb.minimumCalls = 4
+        cb.openDurationMillis = 1000
+        cb.slowCallDurationMillis = 100
+        cb.clock = { now } as LongSupplier
+    }
+
+    def "constructor"() {
+        when:
+        def d = new CircuitBreaker()
+
+        then:
+        d.windowSize == 20
+        d.failureRateThreshold == 0.5
+        d.slowCallRateThreshold == 1.0
+        d.slowCallDurationMillis == 60000
+        d.minimumCalls == 10
+        d.openDurationMillis == 30000
+        d.state == CLOSED
+        d.allowRequest()
+
+        when:
+        new CircuitBreaker(0)
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "failure rate"() {
+        when: "below the minimum number of calls"
+        3.times { cb.record(false, 0) }
+
+        then:
+        cb.state == CLOSED
+
+        when: "minimum reached"
+        cb.record(true, 0)
+
+        then:
+        cb.state == OPEN
+        !cb.allowRequest()
+
+        when: "further outcomes are ignored while open"
+        cb.reset()
+        4.times { cb.record(true, 0) }
+        cb.record(false, 0)
+
+        then: "window slides - 1 failure of 4"
+        cb.state == CLOSED
+
+        when:
+        cb.record(false, 0)
+
+        then: "2 failures of 4"
+        cb.state == OPEN
+    }
+
+    def "slow call rate"() {
+        when:
+        cb.record(true, TimeUnit.MILLISECONDS.toNanos(99))
+        3.times { cb.record(true, TimeUnit.MILLISECONDS.toNanos(100)) }
+
+        then: "3 slow calls of 4"
+        cb.state == CLOSED
+
+        when: "window slides - 4 slow calls of 4"
+        cb.record(true, TimeUnit.MILLISECONDS.toNanos(500))
+
+        then:
+        cb.state == OPEN
+    }
+
+    def "probe"() {
+        setup:
+        4.times { cb.record(false, 0) }
+
+        expect: "not due yet"
+        cb.state == OPEN
+        !cb.tryStartProbe()
+
+        when:
+        now = TimeUnit.MILLISECONDS.toNanos(1000)
+
+        then: "only one caller gets the probe"
+        cb.tryStartProbe()
+        cb.state == HALF_OPEN
+        !cb.tryStartProbe()
+        !cb.allowRequest()
+
+        when: "outcomes are ignored while half open"
+        cb.record(false, 0)
+
+        and: "failed probe opens again"
+        cb.onProbeResult(false)
+
+        then:
+        cb.state == OPEN
+        !cb.tryStartProbe()
+
+        when:
+        now += TimeUnit.MILLISECONDS.toNanos(1000)
+        cb.tryStartProbe()
+        cb.onProbeResult(true)
+
+        then: "successful probe closes with a clear window"
+        cb.state == CLOSED
+        cb.allowRequest()
+
+        when: "probe results are ignored unless half open"
+        cb.onProbeResult(false)
+        3.times { cb.record(false, 0) }
+
+        then:
+        cb.state == CLOSED
+    }
+}
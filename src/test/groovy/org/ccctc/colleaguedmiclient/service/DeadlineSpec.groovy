@@ -0,0 +1,75 @@
+package org.ccctc.colleaguedmiclient.service
+
+import spock.lang.Specification
+
+import java.time.Duration
+
+class DeadlineSpec extends Specification {
+
+    def "after"() {
+        when:
+        def d = Deadline.after(Duration.ofSeconds(10))
+
+        then:
+        !d.isExpired()
+        d.remainingMillis() > 9000
+        d.remainingMillis() <= 10000
+        d.remainingNanos() > 0
+        d.toString().startsWith("Deadline{remainingMillis=")
+
+        when:
+        def e = Deadline.after(Duration.ofMillis(-1))
+
+        then:
+        e.isExpired()
+        e.remainingMillis() == 0
+        e.remainingNanos() == 0
+    }
+
+    def "within"() {
+        setup:
+        def seen = [:]
+
+        expect:
+        Deadline.current() == null
+
+        when:
+        def result = Deadline.within(Duration.ofSeconds(1)) {
+            seen.outer = Deadline.current()
+
+            // a later deadline does not extend an earlier one
+            Deadline.within(Duration.ofSeconds(10)) { seen.inner = Deadline.current() }
+
+            Deadline.within(Duration.ofMillis(100)) { seen.earlier = Deadline.current() }
+
+            assert Deadline.current().is(seen.outer)
+            return "result"
+        }
+
+        then:
+        result == "result"
+        seen.outer != null
+        seen.inner.is(seen.outer)
+        !seen.earlier.is(seen.outer)
+        seen.earlier.remainingMillis() <= 100
+        Deadline.current() == null
+    }
+
+    def "within - exception"() {
+        when:
+        Deadline.within(Duration.ofSeconds(1)) { throw new IllegalStateException() }
+
+        then:
+        thrown IllegalStateException
+        Deadline.current() == null
+    }
+
+    def "nulls"() {
+        when: Deadline.after(null)
+        then: thrown NullPointerException
+        when: Deadline.within(null, { "x" })
+        then: thrown NullPointerException
+        when: Deadline.within(Duration.ZERO, null)
+        then: thrown NullPointerException
+    }
+}
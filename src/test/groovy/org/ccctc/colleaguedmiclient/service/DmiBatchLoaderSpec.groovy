@@ -0,0 +1,212 @@
+package org.ccctc.colleaguedmiclient.service
+
+import org.ccctc.colleaguedmiclient.model.ColleagueData
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord
+import org.ccctc.colleaguedmiclient.transaction.data.ViewType
+import spock.lang.Specification
+
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+class DmiBatchLoaderSpec extends Specification {
+
+    DmiDataService dmiDataService
+    DmiEntityService dmiEntityService
+    DmiBatchLoader loader
+
+    def setup() {
+        dmiDataService = Mock(DmiDataService)
+        dmiEntityService = Mock(DmiEntityService)
+        dmiEntityService.getDmiDataService() >> dmiDataService
+        loader = new DmiBatchLoader(dmiEntityService)
+    }
+
+    def cleanup() {
+        loader.close()
+    }
+
+    static ColleagueData data(String key) {
+        new ColleagueData(key, [:])
+    }
+
+    def "singleKey - batch sent when full"() {
+        setup:
+        loader.setWindowMillis(60000)
+        loader.setMaxBatchSize(3)
+
+        when:
+        def a = loader.singleKey("ST", "VIEW", ["COL"], "A")
+        def b = loader.singleKey("ST", "VIEW", ["COL"], "B")
+        def a2 = loader.singleKey("ST", "VIEW", ["COL"], "A")
+        def c = loader.singleKey("ST", "VIEW", ["COL"], "C")
+        def results = [a, b, c]*.join()
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "VIEW", ViewType.PHYS, ["COL"], ["A", "B", "C"], null) >> [data("C"), data("A")]
+        0 * dmiDataService._
+        a2.is(a)
+        results[0].key == "A"
+        results[1] == null
+        results[2].key == "C"
+        loader.getWindowMillis() == 60000
+        loader.getMaxBatchSize() == 3
+    }
+
+    def "singleKey - batch sent after window"() {
+        setup:
+        loader.setWindowMillis(5)
+
+        when: "different columns are different batches"
+        def a = loader.singleKey("ST", "VIEW", ["COL"], "A")
+        def b = loader.singleKey("ST", "VIEW", ["COL"], "B")
+        def c = loader.singleKey("ST", "VIEW", ViewType.LOGI, ["COL", "COL2"], "C", "OVERRIDE")
+        [a, b, c]*.join()
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "VIEW", ViewType.PHYS, ["COL"], ["A", "B"], null) >> [data("A"), data("B")]
+        1 * dmiDataService.batchKeys("ST", "VIEW", ViewType.LOGI, ["COL", "COL2"], ["C"], "OVERRIDE") >> [data("C")]
+        a.join().key == "A"
+        b.join().key == "B"
+        c.join().key == "C"
+    }
+
+    def "singleKey - failure"() {
+        setup:
+        loader.setWindowMillis(60000)
+        def ex = new IllegalStateException("failed")
+
+        when:
+        def a = loader.singleKey("ST", "VIEW", ["COL"], "A")
+        def b = loader.singleKey("ST", "VIEW", ["COL"], "B")
+        loader.dispatch()
+        a.join()
+
+        then:
+        1 * dmiDataService.batchKeys(*_) >> { throw ex }
+        def e = thrown CompletionException
+        e.cause.is(ex)
+        b.handle { v, t -> t }.join().is(ex)
+    }
+
+    def "readForEntity"() {
+        setup:
+        loader.setWindowMillis(60000)
+        def r1 = new TestRecord(recordId: "1")
+        def r2 = new TestRecord(recordId: "2")
+
+        when:
+        def f1 = loader.readForEntity("1", TestRecord)
+        def f2 = loader.readForEntity("2", TestRecord)
+        def f3 = loader.readForEntity("3", TestRecord)
+        loader.close()
+        def results = [f1, f2, f3]*.join()
+
+        then:
+        1 * dmiEntityService.readForEntity(["1", "2", "3"], TestRecord) >> [r1, r2]
+        results[0].is(r1)
+        results[1].is(r2)
+        results[2] == null
+
+        when: "closed"
+        loader.readForEntity("1", TestRecord)
+
+        then:
+        def e = thrown IllegalStateException
+        e.message == "Batch loader is closed"
+    }
+
+    def "executor"() {
+        setup:
+        def tasks = []
+        def executor = { Runnable r -> tasks << r } as Executor
+        def l = new DmiBatchLoader(dmiDataService, executor)
+        l.setWindowMillis(60000)
+
+        // batches are read on the given executor
+        when:
+        def a = l.singleKey("ST", "VIEW", ["COL"], "A")
+        l.dispatch()
+
+        then:
+        tasks.size() == 1
+        !a.isDone()
+
+        when:
+        tasks[0].run()
+
+        then:
+        1 * dmiDataService.batchKeys(*_) >> [data("A")]
+        a.join().key == "A"
+
+        // a rejected batch fails its futures
+        when:
+        def rejecting = new DmiBatchLoader(dmiEntityService, { throw new RejectedExecutionException("full") } as Executor)
+        def b = rejecting.readForEntity("1", TestRecord)
+        rejecting.close()
+        b.join()
+
+        then:
+        0 * dmiEntityService.readForEntity(*_)
+        def e = thrown CompletionException
+        e.cause instanceof RejectedExecutionException
+
+        cleanup:
+        l.close()
+    }
+
+    def "setters"() {
+        when: loader.setWindowMillis(0)
+        then: thrown IllegalArgumentException
+        when: loader.setMaxBatchSize(0)
+        then: thrown IllegalArgumentException
+        when: loader.setMaxBatchSize(-1)
+        then: thrown IllegalArgumentException
+    }
+
+    def "readForEntity - no entity service"() {
+        setup:
+        def l = new DmiBatchLoader(dmiDataService)
+
+        when:
+        l.readForEntity("1", TestRecord)
+
+        then:
+        thrown IllegalStateException
+
+        cleanup:
+        l.close()
+    }
+
+    def "nulls"() {
+        when: new DmiBatchLoader((DmiDataService) null)
+        then: thrown NullPointerException
+        when: new DmiBatchLoader((DmiEntityService) null)
+        then: thrown NullPointerException
+        when: new DmiBatchLoader((DmiDataService) null, Mock(Executor))
+        then: thrown NullPointerException
+        when: new DmiBatchLoader(dmiDataService, null)
+        then: thrown NullPointerException
+        when: new DmiBatchLoader((DmiEntityService) null, Mock(Executor))
+        then: thrown NullPointerException
+        when: new DmiBatchLoader(dmiEntityService, null)
+        then: thrown NullPointerException
+        when: loader.singleKey(null, null, null, null)
+        then: thrown NullPointerException
+        when: loader.singleKey("ST", null, null, null)
+        then: thrown NullPointerException
+        when: loader.singleKey("ST", "VIEW", null, null)
+        then: thrown NullPointerException
+        when: loader.singleKey("ST", "VIEW", ["COL"], null)
+        then: thrown NullPointerException
+        when: loader.singleKey("ST", "VIEW", null, ["COL"], "KEY", null)
+        then: thrown NullPointerException
+        when: loader.readForEntity(null, TestRecord)
+        then: thrown NullPointerException
+        when: loader.readForEntity("1", null)
+        then: thrown NullPointerException
+    }
+
+    static class TestRecord extends ColleagueRecord {
+    }
+}
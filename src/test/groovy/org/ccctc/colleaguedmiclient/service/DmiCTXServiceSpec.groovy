@@ -1,6 +1,7 @@
 package org.ccctc.colleaguedmiclient.service
 
 import org.ccctc.colleaguedmiclient.exception.DmiTransactionException
+import org.ccctc.colleaguedmiclient.metrics.DmiMetrics
 import org.ccctc.colleaguedmiclient.model.CTXAssociation
 import org.ccctc.colleaguedmiclient.model.CTXMetadata
 import org.ccctc.colleaguedmiclient.model.CTXVariable
@@ -38,6 +39,8 @@ class DmiCTXServiceSpec extends Specification{
         then: thrown NullPointerException
         when: d.executeRaw("appl", null, null)
         then: thrown NullPointerException
+        when: d.setPriority(null)
+        then: thrown NullPointerException
     }
 
 
@@ -120,7 +123,8 @@ class DmiCTXServiceSpec extends Specification{
         1 * d.getAccount() >> "account"
         1 * d.getSharedSecret() >> "secret"
         1 * d.send(*_) >> t
-        2 * m.get("CORE", "TRANSACTION.NAME") >> metadata
+        1 * m.getBindingPlan("CORE", "TRANSACTION.NAME") >> new CTXBindingPlan(metadata)
+        1 * d.getMetrics() >> DmiMetrics.NOOP
         0 * _
 
         e1.variables["Second"] == "SECOND"
@@ -159,5 +163,50 @@ class DmiCTXServiceSpec extends Specification{
         raw.size() == metadata.variables.size() - 1
     }
 
+    def "execute - inquiry only"() {
+        setup:
+        def d = Mock(DmiService)
+        def metadata = new CTXMetadata("alias", null, "Y", 1,
+                [new CTXVariable("VAR", "Var", "N", "INOUT", "D", null, null, "N", null, null)], [], [])
+
+        // metadata is cached, rather than mocked, so the second request does not wait on the mock of the first
+        def m = new CTXMetadataService(Mock(DmiCTXService))
+        m.putCachedEntry("CORE", "TRANSACTION.NAME", metadata)
+        def c = new DmiCTXService(d, m)
+        c.setCoalesceRequests(true)
+
+        def t = new DmiTransaction("account", "CTRS", "application", "token", "controlId")
+        t.addSubTransaction(new DmiSubTransaction("SCTRS", 0, [] as String[]))
+        t.addSubTransaction(new DmiSubTransaction("SCTVAL", 0, [null, 1, "VAR", "VALUE", null, null] as String[]))
+
+        def params = [new KeyValuePair<String, String>("VAR", "IN")]
+        def other = null
+        def otherResult = null
 
+        // identical inquiries in flight share a result, and are sent as idempotent requests
+        when:
+        def result = c.execute("CORE", "TRANSACTION.NAME", params)
+        other.join()
+
+        then:
+        1 * d.getSessionCredentials() >> new SessionCredentials("token", "controlId", LocalDateTime.now().plusMinutes(60))
+        1 * d.getAccount() >> "account"
+        1 * d.getSharedSecret() >> "secret"
+        1 * d.send({ it.idempotent }) >> {
+            other = Thread.start { otherResult = c.execute("CORE", "TRANSACTION.NAME", params) }
+
+            // answer once the other request is waiting on this one
+            def request = null
+            while (request == null || request.numberOfDependents == 0) {
+                request = c.inFlightRequests.inFlight.values().find()
+                Thread.yield()
+            }
+            t
+        }
+        1 * d.getMetrics() >> DmiMetrics.NOOP
+        0 * _
+        c.isCoalesceRequests()
+        result.variables["Var"] == "VALUE"
+        otherResult.is(result)
+    }
 }
@@ -1,10 +1,13 @@
 package org.ccctc.colleaguedmiclient.service
 
 import org.ccctc.colleaguedmiclient.exception.DmiServiceException
+import org.ccctc.colleaguedmiclient.metrics.DmiMetrics
 import org.ccctc.colleaguedmiclient.model.CddEntry
 import org.ccctc.colleaguedmiclient.model.EntityMetadata
+import org.ccctc.colleaguedmiclient.model.MultiValue
 import org.ccctc.colleaguedmiclient.model.SessionCredentials
 import org.ccctc.colleaguedmiclient.model.DmiSubTransaction
+import org.ccctc.colleaguedmiclient.socket.Priority
 import org.ccctc.colleaguedmiclient.transaction.DmiTransaction
 import org.ccctc.colleaguedmiclient.transaction.data.ViewType
 import org.ccctc.colleaguedmiclient.util.StringUtils
@@ -30,6 +33,7 @@ class DmiDataServiceSpec extends Specification {
         dmiService.getAccount() >> "account"
         dmiService.getSharedSecret() >> "secret"
         dmiService.getSessionCredentials() >> creds
+        dmiService.getMetrics() >> DmiMetrics.NOOP
 
     }
 
@@ -113,6 +117,62 @@ class DmiDataServiceSpec extends Specification {
         result.values["LIST.FIELD"] == listValue
         result.values["Q.FIELD"] == qValue
         result.values["X.FIELD"] == xValue
+
+        when:
+        def lazy = dmiDataService.singleKey("APPL", "VIEW", ViewType.PHYS, fieldList, "KEY", null, true)
+
+        then:
+        1 * dmiService.send(_) >> response
+        1 * entityMetadataService.get("APPL", "VIEW") >> metadata
+        lazy.values["INT.FIELD"] == intValue
+        lazy.values["ASSOC.FIELD2"] instanceof MultiValue
+        lazy.values["ASSOC.FIELD2"].toArray() == assocValue2
+        lazy.values["LIST.FIELD"].first() == "list1"
+    }
+
+    def "coalesced requests"() {
+        setup:
+        def cdds = [new CddEntry("DATA.FIELD", null, "VIEW", 10, 1, "D", "10", null, null, "D", null, null)]
+        def metadata = new EntityMetadata("VIEW", null, cdds.collectEntries { i -> [i.name, i]}, cdds as CddEntry[])
+        def response = new DmiTransaction("account", "DAFS", "appl", "token", "controlid")
+        response.setInResponseTo("SDAFQ")
+        response.addSubTransaction(new DmiSubTransaction("SDAFS", 0,
+                ["F", "STANDARD", "SINGLEKEY", null, "SINGLE", "VIEW", "1", null, "KEY", null, null, "value", "VIEW.END"] as String[]))
+        dmiDataService.setCoalesceRequests(true)
+        def others = []
+        def results = Collections.synchronizedList([])
+
+        // identical requests made while the first is in flight share its result
+        when:
+        def first = dmiDataService.singleKey("APPL", "VIEW", ["DATA.FIELD"], "KEY")
+        others*.join()
+
+        then:
+        1 * dmiService.send(_) >> {
+            others = (1..2).collect { Thread.start { results << dmiDataService.singleKey("APPL", "VIEW", ["DATA.FIELD"], "KEY") } }
+            awaitCallers(dmiDataService.singleKeyRequests, 2)
+            response
+        }
+        1 * entityMetadataService.get("APPL", "VIEW") >> metadata
+        dmiDataService.isCoalesceRequests()
+        first.values["DATA.FIELD"] == "value"
+        results.size() == 2
+        results.every { it.is(first) }
+
+        // batch keys
+        when:
+        def batch = dmiDataService.batchKeys("APPL", "VIEW", ["DATA.FIELD"], ["KEY"])
+        others*.join()
+
+        then:
+        1 * dmiService.send(_) >> {
+            others = [Thread.start { results << dmiDataService.batchKeys("APPL", "VIEW", ["DATA.FIELD"], ["KEY"]) }]
+            awaitCallers(dmiDataService.batchKeysRequests, 1)
+            response
+        }
+        1 * entityMetadataService.get("APPL", "VIEW") >> metadata
+        batch.size() == 1
+        results[2].is(batch)
     }
 
     def "singleKey - not found"() {
@@ -143,6 +203,29 @@ class DmiDataServiceSpec extends Specification {
         result == null
     }
 
+    def "priority"() {
+        setup:
+        def response = new DmiTransaction("account", "DAFS", "appl", "token", "controlid")
+        response.setInResponseTo("SDAFQ")
+        response.addSubTransaction(new DmiSubTransaction("SDAFS", 0, ["F", "STANDARD", "SINGLEKEY", "L", "SINGLE",
+                "VIEW", "0", null, "KEY", "00011", "Empty tuple", "VIEW.END"] as String[]))
+
+        when:
+        def p = dmiDataService.getPriority()
+        dmiDataService.setPriority(Priority.BULK)
+        dmiDataService.singleKey("APPL", "VIEW", ["FIELD1"], "KEY")
+
+        then:
+        p == Priority.DEFAULT
+        1 * dmiService.send({ it.priority == Priority.BULK }) >> response
+
+        when:
+        dmiDataService.setPriority(null)
+
+        then:
+        thrown NullPointerException
+    }
+
     def "singleKey missing metadata, bad field name"() {
         setup:
         def response = new DmiTransaction("account", "DAFS", "appl", "token", "controlid")
@@ -708,4 +791,11 @@ class DmiDataServiceSpec extends Specification {
         m.get("D").action2 == null
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Wait until a number of callers are waiting on the request in flight
+     */
+    private static void awaitCallers(InFlightRequests requests, int callers) {
+        while (!requests.inFlight.values().any { it.numberOfDependents >= callers }) Thread.yield()
+    }
+}
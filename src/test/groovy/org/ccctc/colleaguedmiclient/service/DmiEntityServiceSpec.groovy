@@ -3,6 +3,7 @@ package org.ccctc.colleaguedmiclient.service
 import groovy.transform.CompileStatic
 import org.ccctc.colleaguedmiclient.annotation.Association
 import org.ccctc.colleaguedmiclient.annotation.AssociationEntity
+import org.ccctc.colleaguedmiclient.annotation.Cacheable
 import org.ccctc.colleaguedmiclient.annotation.Entity
 import org.ccctc.colleaguedmiclient.annotation.Field
 import org.ccctc.colleaguedmiclient.annotation.Ignore
@@ -10,8 +11,24 @@ import org.ccctc.colleaguedmiclient.annotation.Join
 import org.ccctc.colleaguedmiclient.exception.DmiServiceException
 import org.ccctc.colleaguedmiclient.model.ColleagueData
 import org.ccctc.colleaguedmiclient.model.ColleagueRecord
+import org.ccctc.colleaguedmiclient.model.DateVector
+import org.ccctc.colleaguedmiclient.model.Lazy
+import org.ccctc.colleaguedmiclient.model.LazyList
+import org.ccctc.colleaguedmiclient.model.MultiValue
 import spock.lang.Specification
 
+import java.time.Duration
+import java.time.LocalDate
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+import java.util.function.Supplier
+
+import static org.ccctc.colleaguedmiclient.util.StringUtils.VM
+
 class DmiEntityServiceSpec extends Specification {
 
     def dmiDataService = Mock(DmiDataService)
@@ -73,6 +90,69 @@ class DmiEntityServiceSpec extends Specification {
         result.assoc[1].assocValue == "B"
     }
 
+    def "readForEntity - lazy multi-valued fields"() {
+        setup:
+        def data = new ColleagueData("KEY", testData.values + [
+                "TEST.VALUE2": multiValue("test2" + VM + "other"),
+                "JOIN.FIELD2": multiValue("1" + VM + "2" + VM + "3"),
+                "ASSOC.VALUE": multiValue("A" + VM + "B")
+        ])
+        def cached = new ColleagueData("C1", ["VALUE": multiValue("a" + VM + "b"), "VALUES": multiValue("x" + VM + "y")])
+
+        when:
+        def result = dmiEntityService.readForEntity("KEY", TestRecord.class)
+
+        then:
+        1 * dmiDataService.singleKey("ST", "TEST", _, _, "KEY", null, true) >> data
+        1 * dmiDataService.singleKey("ST", "JOIN", *_) >> testJoin1
+        1 * dmiDataService.singleKey("ST", "JOIN.MV", *_) >> mvJoin
+        1 * dmiDataService.batchKeys("ST", "JOIN", _, _, { it as Set == ["1", "2", "3"] as Set }, null, true) >> [testJoin1, testJoin2, testJoin3]
+        result.testValue2 == "test2"
+        result.join2.size() == 3
+        result.assoc*.assocValue == ["A", "B"]
+
+        when:
+        def cachedResult = dmiEntityService.readForEntity("C1", CachedRecord.class, FetchPlan.builder().noJoins().build())
+
+        then:
+        1 * dmiDataService.singleKey("ST", "CACHED", _, _, "C1", null, true) >> cached
+        cachedResult.value == "a"
+        cachedResult.values == ["x", "y"] as String[]
+    }
+
+    def "readForEntity - primitive arrays and date vectors"() {
+        setup:
+        def date = LocalDate.of(2018, 1, 5)
+        def lazy = new ColleagueData("P1", [
+                "INTS": new MultiValue<Integer>("1" + VM + "2", VM, Integer.class, { String v -> Integer.valueOf(v) } as Function<String, Integer>),
+                "LONGS": new MultiValue<Long>("3", VM, Long.class, { String v -> Long.valueOf(v) } as Function<String, Long>),
+                "DATES": new MultiValue<LocalDate>("18268" + VM, VM, LocalDate.class, { String v -> null } as Function<String, LocalDate>)
+        ])
+        def eager = new ColleagueData("P2", ["INTS": [1, null] as Integer[], "LONGS": 3L, "DATES": [date, null] as LocalDate[]])
+        def invalid = new ColleagueData("P3", ["INTS": multiValue("a")])
+
+        when:
+        def r1 = dmiEntityService.readForEntity("P1", PrimitiveRecord.class)
+        def r2 = dmiEntityService.readForEntity("P2", PrimitiveRecord.class)
+
+        then:
+        1 * dmiDataService.singleKey("ST", "PRIMITIVE", _, _, "P1", null, true) >> lazy
+        1 * dmiDataService.singleKey("ST", "PRIMITIVE", _, _, "P2", null, true) >> eager
+        r1.ints == [1, 2] as int[]
+        r1.longs == [3L] as long[]
+        r1.dates == DateVector.of(date)
+        r2.ints == [1, 0] as int[]
+        r2.longs == [3L] as long[]
+        r2.dates == DateVector.of(date, null)
+
+        when:
+        dmiEntityService.readForEntity("P3", PrimitiveRecord.class)
+
+        then:
+        1 * dmiDataService.singleKey("ST", "PRIMITIVE", _, _, "P3", null, true) >> invalid
+        thrown DmiServiceException
+    }
+
     def "readForEntity - missing entity annotation"() {
         when:
         dmiEntityService.readForEntity("k", ColleagueRecord.class)
@@ -80,6 +160,437 @@ class DmiEntityServiceSpec extends Specification {
         thrown DmiServiceException
     }
 
+    def "readForEntity - fetch plan"() {
+        setup:
+        def plan = FetchPlan.builder()
+                .fields("testValue")
+                .join("aJoin", FetchPlan.builder().fields("value").build())
+                .build()
+
+        when:
+        def result = dmiEntityService.readForEntity("KEY", TestRecord.class, plan)
+
+        then:
+        1 * dmiDataService.singleKey("ST", "TEST", _, { it as Set == ["TEST.VALUE", "A.JOIN"] as Set }, "KEY", null, true) >> testData
+        1 * dmiDataService.singleKey("ST", "JOIN", _, { it as Set == ["VALUE"] as Set }, "1", null, true) >> testJoin1
+        0 * _
+        result.testValue == "test"
+        result.testValue2 == null
+        result.assoc == null
+        result.join2 == null
+        result.join3 == null
+        result.aJoin.value == "value"
+        result.aJoin.boolValue == null
+    }
+
+    def "readForEntity - fetch plan with no joins"() {
+        when:
+        def result = dmiEntityService.readForEntity("KEY", TestRecord.class, FetchPlan.builder().maxDepth(0).build())
+
+        then:
+        1 * dmiDataService.singleKey("ST", "TEST", _, { it as Set == ["TEST.VALUE", "TEST.VALUE2", "ASSOC.VALUE"] as Set }, "KEY", null, true) >> testData
+        0 * _
+        result.testValue == "test"
+        result.assoc.size() == 2
+        result.aJoin == null
+    }
+
+    def "readForEntity - fetch plan with query"() {
+        when:
+        def result = dmiEntityService.readForEntity("TEST", "WITH TEST.VALUE NE ''", null, TestRecord.class,
+                FetchPlan.builder().noJoins().build())
+
+        then:
+        1 * dmiDataService.selectKeys("TEST", "WITH TEST.VALUE NE ''", null) >> (["KEY"] as String[])
+        1 * dmiDataService.singleKey("ST", "TEST", *_) >> testData
+        0 * _
+        result.size() == 1
+        result[0].aJoin == null
+    }
+
+    def "readForEntity - invalid fetch plan"() {
+        when:
+        dmiEntityService.readForEntity("KEY", TestRecord.class, FetchPlan.builder().fields("nope").build())
+        then:
+        thrown DmiServiceException
+
+        when:
+        dmiEntityService.readForEntity("KEY", TestRecord.class, FetchPlan.builder().join("nope").build())
+        then:
+        thrown DmiServiceException
+    }
+
+    def "setStreamBatchSize / getStreamBatchSize"() {
+        when: dmiEntityService.setStreamBatchSize(10)
+        then: dmiEntityService.getStreamBatchSize() == 10
+        when: dmiEntityService.setStreamBatchSize(0)
+        then: thrown IllegalArgumentException
+    }
+
+    def "isStreamReadAhead / enableStreamReadAhead / disableStreamReadAhead"() {
+        when: dmiEntityService.enableStreamReadAhead()
+        then: dmiEntityService.isStreamReadAhead()
+        when: dmiEntityService.disableStreamReadAhead()
+        then: !dmiEntityService.isStreamReadAhead()
+    }
+
+    def "getStreamReadAheadExecutor / setStreamReadAheadExecutor"() {
+        setup:
+        def executor = { Runnable r -> r.run() } as Executor
+
+        expect:
+        dmiEntityService.getStreamReadAheadExecutor() != null
+
+        when: dmiEntityService.setStreamReadAheadExecutor(executor)
+        then: dmiEntityService.getStreamReadAheadExecutor() == executor
+        when: dmiEntityService.setStreamReadAheadExecutor(null)
+        then: thrown NullPointerException
+    }
+
+    def "streamForEntity"() {
+        setup:
+        dmiEntityService.setStreamBatchSize(2)
+        if (readAhead) dmiEntityService.enableStreamReadAhead()
+
+        def p = (1..3).collect { new ColleagueData("K$it", ["TEST.VALUE": "v$it".toString()]) }
+        def plan = FetchPlan.builder().noJoins().build()
+
+        when:
+        def result = dmiEntityService.streamForEntity("TEST", null, null, TestRecord.class, plan)
+                .collect { it.testValue }
+
+        then:
+        1 * dmiDataService.selectKeys("TEST", null, null) >> (["K1", "K2", "K3"] as String[])
+        1 * dmiDataService.batchKeys("ST", "TEST", _, _, ["K1", "K2"], null, true) >> [p[0], p[1]]
+        1 * dmiDataService.singleKey("ST", "TEST", _, _, "K3", null, true) >> p[2]
+        0 * _
+        result == ["v1", "v2", "v3"]
+
+        where:
+        readAhead << [false, true]
+    }
+
+    def "streamForEntity - batches are read as consumed"() {
+        setup:
+        dmiEntityService.setStreamBatchSize(1)
+
+        when:
+        def stream = dmiEntityService.streamForEntity("TEST", null, null, TestRecord.class)
+        def iterator = stream.iterator()
+        def first = iterator.next()
+
+        then:
+        1 * dmiDataService.selectKeys("TEST", null, null) >> (["K1", "K2"] as String[])
+        1 * dmiDataService.singleKey("ST", "TEST", _, _, "K1", null, true) >> new ColleagueData("K1", [:])
+        0 * _
+        first.recordId == "K1"
+
+        when:
+        stream.close()
+
+        then:
+        0 * _
+    }
+
+    def "streamForEntity - read ahead under the caller's deadline"() {
+        setup:
+        dmiEntityService.setStreamBatchSize(1)
+        dmiEntityService.enableStreamReadAhead()
+        if (rejected) dmiEntityService.setStreamReadAheadExecutor({ Runnable r ->
+            throw new RejectedExecutionException("full") } as Executor)
+        def deadlines = new ConcurrentHashMap<String, Deadline>()
+        def threads = new ConcurrentHashMap<String, Thread>()
+        dmiDataService.singleKey(_, _, _, _, _, _, true) >> { args ->
+            deadlines[args[4]] = Deadline.current()
+            threads[args[4]] = Thread.currentThread()
+            new ColleagueData(args[4], [:])
+        }
+        Deadline deadline
+
+        when:
+        def result = Deadline.within(Duration.ofSeconds(30), {
+            deadline = Deadline.current()
+            dmiEntityService.streamForEntity(["K1", "K2"], TestRecord.class, FetchPlan.all()).collect { it.recordId }
+        } as Supplier)
+
+        then:
+        result == ["K1", "K2"]
+        deadlines == [K1: deadline, K2: deadline]
+        threads.K1 == Thread.currentThread()
+        (threads.K2 == Thread.currentThread()) == rejected
+        Deadline.current() == null
+
+        where:
+        rejected << [false, true]
+    }
+
+    def "streamForEntity - close cancels read ahead"() {
+        setup:
+        dmiEntityService.setStreamBatchSize(1)
+        dmiEntityService.enableStreamReadAhead()
+        def started = new CountDownLatch(1)
+        def interrupted = new CountDownLatch(1)
+        dmiDataService.singleKey(_, _, _, _, "K1", _, true) >> new ColleagueData("K1", [:])
+        dmiDataService.singleKey(_, _, _, _, "K2", _, true) >> {
+            started.countDown()
+            try {
+                Thread.sleep(10000)
+            } catch (InterruptedException e) {
+                interrupted.countDown()
+                throw e
+            }
+        }
+        def stream = dmiEntityService.streamForEntity(["K1", "K2"] as Set, TestRecord.class, FetchPlan.all())
+
+        // the batch being read ahead is interrupted
+        when:
+        stream.iterator().next()
+        started.await(5, TimeUnit.SECONDS)
+        stream.close()
+
+        then:
+        interrupted.await(5, TimeUnit.SECONDS)
+    }
+
+    def "streamForEntity - errors"() {
+        setup:
+        dmiEntityService.setStreamBatchSize(1)
+        dmiEntityService.enableStreamReadAhead()
+        dmiDataService.singleKey(_, _, _, _, "K1", _, true) >> null
+        dmiDataService.singleKey(_, _, _, _, "K2", _, true) >> { throw error }
+
+        when:
+        dmiEntityService.streamForEntity(["K1", "K2"], TestRecord.class, FetchPlan.all()).count()
+
+        then:
+        def e = thrown(RuntimeException)
+        e == error || e.cause == error
+
+        when:
+        def iterator = dmiEntityService.streamForEntity([], TestRecord.class, FetchPlan.all()).iterator()
+        iterator.next()
+
+        then:
+        thrown NoSuchElementException
+
+        where:
+        error << [new DmiServiceException("error"), new Error("error")]
+    }
+
+    def "readForEntity - cacheable"() {
+        setup:
+        def c1 = new ColleagueData("C1", ["VALUE": "v1", "VALUES": ["a", "b"] as String[], "A.JOIN": "1", "ASSOC.VALUE": ["A"] as String[]])
+        def c2 = new ColleagueData("C2", ["VALUE": "v2", "A.JOIN": "2"])
+        def c3 = new ColleagueData("C3", ["VALUE": "v3"])
+
+        when:
+        def first = dmiEntityService.readForEntity(["C1", "C2"], CachedRecord.class)
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "CACHED", *_) >> [c1, c2]
+        1 * dmiDataService.batchKeys("ST", "JOIN", *_) >> [testJoin1, testJoin2]
+        0 * _
+        first*.recordId == ["C1", "C2"]
+
+        when: "all records are served from the cache, in key order"
+        def second = dmiEntityService.readForEntity(["C2", "C1"], CachedRecord.class)
+        second[1].value = "changed"
+        second[1].values[0] = "changed"
+        second[1].aJoin.value = "changed"
+        def third = dmiEntityService.readForEntity("C1", CachedRecord.class)
+
+        then:
+        0 * _
+        second*.recordId == ["C2", "C1"]
+        !second[1].is(first[0])
+        third.value == "v1"
+        third.values == ["a", "b"] as String[]
+        third.aJoin.value == "value"
+        third.assoc[0].assocValue == "A"
+
+        when: "only misses are read"
+        def fourth = dmiEntityService.readForEntity(["C1", "C3"], CachedRecord.class)
+
+        then:
+        1 * dmiDataService.singleKey("ST", "CACHED", _, _, "C3", null, true) >> c3
+        0 * _
+        fourth*.value == ["v1", "v3"]
+
+        when: "records read with a partial plan are not cached"
+        dmiEntityService.clearCache()
+        dmiEntityService.readForEntity("C1", CachedRecord.class, FetchPlan.builder().noJoins().build())
+        dmiEntityService.readForEntity("C1", CachedRecord.class, FetchPlan.builder().noJoins().build())
+
+        then:
+        2 * dmiDataService.singleKey("ST", "CACHED", _, _, "C1", null, true) >> c1
+        0 * _
+    }
+
+    def "readForEntity - cacheable with record ID that differs from key"() {
+        when:
+        def result = dmiEntityService.readForEntity("c1", CachedRecord.class)
+
+        then:
+        1 * dmiDataService.singleKey("ST", "CACHED", _, _, "c1", null, true) >> new ColleagueData("C1", [:])
+        result.recordId == "C1"
+    }
+
+    def "readForEntity - cacheable with lazy joins"() {
+        setup:
+        def p1 = new ColleagueData("P1", ["A.JOIN": "1", "JOIN.FIELD2": ["1", "2"] as String[]])
+        def p2 = new ColleagueData("P2", ["A.JOIN": "2", "JOIN.FIELD2": ["3"] as String[]])
+
+        when:
+        def first = dmiEntityService.readForEntity(["P1", "P2"], CachedLazyRecord.class)
+        def second = dmiEntityService.readForEntity(["P1", "P2"], CachedLazyRecord.class)
+        def cached = dmiEntityService.recordCaches[CachedLazyRecord].get("P1")
+
+        then: "cached records keep the keys of their joins, not the records of the read"
+        1 * dmiDataService.batchKeys("ST", "CACHED.LAZY", *_) >> [p1, p2]
+        0 * _
+        !cached.lazyJoin.isLoaded()
+        cached.lazyJoin.joinSpec.parent == null
+        cached.lazyList.joinSpec.parent == null
+        !second[0].lazyJoin.loader.is(first[0].lazyJoin.loader)
+        !second[0].lazyJoin.loader.is(cached.lazyJoin.loader)
+
+        when: "a copy loads the join for the records copied with it"
+        def join = second[0].lazyJoin.get()
+        def list = second[1].lazyList.collect { it.recordId }
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "JOIN", _, _, { it as Set == ["1", "2"] as Set }, _, true) >> [testJoin1, testJoin2]
+        1 * dmiDataService.batchKeys("ST", "JOIN", _, _, { it as Set == ["1", "2", "3"] as Set }, _, true) >> [testJoin1, testJoin3]
+        0 * _
+        join.recordId == "1"
+        second[1].lazyJoin.get().recordId == "2"
+        list == ["3"]
+        !first[0].lazyJoin.isLoaded()
+        !cached.lazyJoin.isLoaded()
+        !cached.lazyList.isLoaded()
+    }
+
+    def "copy"() {
+        setup:
+        def shared = new JoinRecord(value: "shared")
+        def source = new CopyBean(
+                lazyLoaded: Lazy.of(shared),
+                lazyUnloaded: new Lazy<JoinRecord>({ shared }),
+                lazyList: new LazyList<JoinRecord>({ [shared] }),
+                lazyListLoaded: new LazyList<JoinRecord>({ [shared] }),
+                ints: [1, 2] as int[],
+                array: [shared] as JoinRecord[],
+                shared1: shared,
+                shared2: shared,
+                date: LocalDate.of(2000, 1, 1))
+        source.self = source
+        source.lazyListLoaded.size()
+
+        when:
+        CopyBean copy = (CopyBean) dmiEntityService.copy(source, new IdentityHashMap())
+
+        then:
+        !copy.is(source)
+        copy.self.is(copy)
+        copy.lazyLoaded.isLoaded()
+        !copy.lazyLoaded.get().is(shared)
+        copy.lazyLoaded.get().is(copy.shared1)
+        copy.shared1.is(copy.shared2)
+        copy.shared1.value == "shared"
+        copy.array[0].is(copy.shared1)
+        copy.ints == [1, 2] as int[]
+        !copy.ints.is(source.ints)
+        copy.date.is(source.date)
+        !copy.lazyUnloaded.isLoaded()
+        copy.lazyUnloaded.get().value == "shared"
+        !copy.lazyUnloaded.get().is(shared)
+        copy.lazyList[0].value == "shared"
+        !copy.lazyList[0].is(shared)
+        copy.lazyListLoaded[0].is(copy.shared1)
+    }
+
+    def "readForEntity - lazy joins"() {
+        setup:
+        def p1 = new ColleagueData("P1", ["A.JOIN": "1", "JOIN.FIELD2": ["1", "2"] as String[]])
+        def p2 = new ColleagueData("P2", ["A.JOIN": "2", "JOIN.FIELD2": ["3"] as String[]])
+        def p3 = new ColleagueData("P3", [:])
+
+        when:
+        def result = dmiEntityService.readForEntity(["P1", "P2", "P3"], LazyRecord.class)
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "LAZY", *_) >> [p1, p2, p3]
+        0 * _
+        result.size() == 3
+        !result[0].lazyJoin.isLoaded()
+        !result[0].lazyList.isLoaded()
+        result[2].lazyJoin == null
+        result[2].lazyList == null
+
+        when: "first access loads the join for all siblings at once"
+        def join = result[0].lazyJoin.get()
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "JOIN", _, _, { it as Set == ["1", "2"] as Set }, _, true) >> [testJoin1, testJoin2]
+        0 * _
+        join.recordId == "1"
+        result[0].lazyJoin.isLoaded()
+
+        when:
+        join = result[1].lazyJoin.get()
+
+        then:
+        0 * _
+        join.recordId == "2"
+
+        when:
+        def list1 = result[0].lazyList.collect { it.recordId }
+        def list2 = result[1].lazyList.collect { it.recordId }
+
+        then:
+        1 * dmiDataService.batchKeys("ST", "JOIN", _, _, { it as Set == ["1", "2", "3"] as Set }, _, true) >> [testJoin1, testJoin3]
+        0 * _
+        list1 == ["1"]
+        list2 == ["3"]
+        result[0].lazyList.isLoaded()
+    }
+
+    def "readForEntity - lazy join with missing children"() {
+        setup:
+        dmiEntityService.enableConcurrentQueries()
+
+        when:
+        def result = dmiEntityService.readForEntity("P1", LazyRecord.class)
+        def join = result.lazyJoin.get()
+        def listSize = result.lazyList.size()
+
+        then:
+        1 * dmiDataService.singleKey("ST", "LAZY", *_) >> new ColleagueData("P1", ["A.JOIN": "1", "JOIN.FIELD2": ["1"] as String[]])
+        2 * dmiDataService.singleKey("ST", "JOIN", *_) >> null
+        0 * _
+        join == null
+        listSize == 0
+    }
+
+    def "readForEntity - lazy join with invalid type"() {
+        when:
+        dmiEntityService.readForEntity("k", BadLazyRecord.class)
+        then:
+        thrown DmiServiceException
+    }
+
+    def "Lazy.of"() {
+        when:
+        def lazy = Lazy.of("value")
+        then:
+        lazy.isLoaded()
+        lazy.get() == "value"
+    }
+
+    static MultiValue<String> multiValue(String source) {
+        new MultiValue<String>(source, VM, String.class, { String v -> v } as Function<String, String>)
+    }
+
     def testData = new ColleagueData("KEY", [
             "TEST.VALUE": "test",
             "TEST.VALUE2": "test2",
@@ -125,6 +636,82 @@ class DmiEntityServiceSpec extends Specification {
 
     }
 
+    @CompileStatic
+    @Cacheable(ttlSeconds = 60L, maxEntries = 10)
+    @Entity(appl = "ST", name = "CACHED")
+    static class CachedRecord extends ColleagueRecord {
+
+        String value
+        String[] values
+
+        @Join(value = "A.JOIN")
+        JoinRecord aJoin
+
+        @Association
+        List<TestAssoc> assoc
+
+    }
+
+    @CompileStatic
+    static class CopyBean {
+
+        Lazy<JoinRecord> lazyLoaded
+        Lazy<JoinRecord> lazyUnloaded
+        List<JoinRecord> lazyList
+        List<JoinRecord> lazyListLoaded
+        int[] ints
+        JoinRecord[] array
+        JoinRecord shared1
+        JoinRecord shared2
+        LocalDate date
+        CopyBean self
+
+    }
+
+    @CompileStatic
+    @Entity(appl = "ST", name = "LAZY")
+    static class LazyRecord extends ColleagueRecord {
+
+        @Join(value = "A.JOIN")
+        Lazy<JoinRecord> lazyJoin
+
+        @Join(value = "JOIN.FIELD2", lazy = true)
+        List<JoinRecord> lazyList
+
+    }
+
+    @CompileStatic
+    @Cacheable(ttlSeconds = 60L, maxEntries = 10)
+    @Entity(appl = "ST", name = "CACHED.LAZY")
+    static class CachedLazyRecord extends ColleagueRecord {
+
+        @Join(value = "A.JOIN")
+        Lazy<JoinRecord> lazyJoin
+
+        @Join(value = "JOIN.FIELD2", lazy = true)
+        List<JoinRecord> lazyList
+
+    }
+
+    @CompileStatic
+    @Entity(appl = "ST", name = "BAD.LAZY")
+    static class BadLazyRecord extends ColleagueRecord {
+
+        @Join(lazy = true)
+        JoinRecord aJoin
+
+    }
+
+    @CompileStatic
+    @Entity(appl = "ST", name = "PRIMITIVE")
+    static class PrimitiveRecord extends ColleagueRecord {
+
+        int[] ints
+        long[] longs
+        DateVector dates
+
+    }
+
     @CompileStatic
     @Entity(appl = "ST", name = "JOIN")
     static class JoinRecord extends ColleagueRecord {
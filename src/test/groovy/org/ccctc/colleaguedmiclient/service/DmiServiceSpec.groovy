@@ -1,15 +1,30 @@
 package org.ccctc.colleaguedmiclient.service
 
 import groovyx.gpars.GParsPool
+import org.ccctc.colleaguedmiclient.exception.DmiCircuitBreakerOpenException
+import org.ccctc.colleaguedmiclient.exception.DmiDeadlineExceededException
+import org.ccctc.colleaguedmiclient.exception.DmiOverloadException
 import org.ccctc.colleaguedmiclient.exception.DmiServiceException
+import org.ccctc.colleaguedmiclient.metrics.DmiMetrics
+import org.ccctc.colleaguedmiclient.metrics.InMemoryDmiMetrics
+import org.ccctc.colleaguedmiclient.socket.PoolOverloadException
+import org.ccctc.colleaguedmiclient.socket.PoolTimeoutException
 import org.ccctc.colleaguedmiclient.socket.PooledSocket
 import org.ccctc.colleaguedmiclient.socket.PoolingSocketFactory
+import org.ccctc.colleaguedmiclient.socket.Priority
 import org.ccctc.colleaguedmiclient.transaction.DmiTransaction
 import org.ccctc.colleaguedmiclient.transaction.data.SingleKeyRequest
 import org.ccctc.colleaguedmiclient.transaction.data.ViewType
 import spock.lang.Specification
 
+import java.time.Duration
 import java.time.LocalDateTime
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 class DmiServiceSpec extends Specification{
 
@@ -86,6 +101,7 @@ class DmiServiceSpec extends Specification{
         when:
         dmiService.setMaxDmiTransactionRetry(1)
         dmiService.setAuthorizationExpirationSeconds(100)
+        dmiService.setInternMaxValueLength(8)
 
         then:
         dmiService.getAccount() == "account"
@@ -93,6 +109,10 @@ class DmiServiceSpec extends Specification{
         dmiService.getSocketFactory() == socketFactory
         dmiService.getMaxDmiTransactionRetry() == 1
         dmiService.getAuthorizationExpirationSeconds() == 100
+        dmiService.getInternMaxEntries() == 0
+        dmiService.getInternMaxValueLength() == 8
+        dmiService.getHedgeExecutor() != null
+        dmiService.getCircuitBreaker() == null
         // for extra coverage .. close not really necessary as socket pool is a mock and not actual sockets
         dmiService.close()
     }
@@ -116,7 +136,7 @@ class DmiServiceSpec extends Specification{
         def creds = dmiService.getSessionCredentials()
 
         then:
-        1 * socketFactory.getSocket(true) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >> is
         1 * os.write(*_)
@@ -170,7 +190,7 @@ class DmiServiceSpec extends Specification{
         def creds2 = dmiService.login(false)
 
         then:
-        2 * socketFactory.getSocket(true) >> socket
+        2 * socketFactory.getSocket(true, _, _) >> socket
         2 * socket.getOutputStream() >> os
         2 * socket.getInputStream() >>> [is1, is2]
         2 * os.write(*_)
@@ -179,6 +199,98 @@ class DmiServiceSpec extends Specification{
         creds1 != creds2
     }
 
+    def "login - background refresh"() {
+        setup:
+        def executor = Mock(ScheduledExecutorService)
+        def future1 = Mock(ScheduledFuture)
+        def future2 = Mock(ScheduledFuture)
+        dmiService.scheduler = executor
+        def socket = Mock(PooledSocket)
+        socket.getOutputStream() >> Mock(OutputStream)
+
+        // refresh is scheduled ahead of expiration
+        when:
+        def creds1 = dmiService.login(false)
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(goodResponse.getBytes("windows-1252"))
+        1 * executor.schedule(_ as Runnable, { it > 4 * 60 * 60 - 5 * 60 - 5 && it <= 4 * 60 * 60 - 5 * 60 }, TimeUnit.SECONDS) >> future1
+        creds1.token == token
+
+        // refresh replaces the credentials and schedules the next refresh
+        when:
+        dmiService.refreshCredentials()
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(goodResponse2.getBytes("windows-1252"))
+        1 * future1.cancel(false)
+        1 * executor.schedule(_ as Runnable, _, TimeUnit.SECONDS) >> future2
+        dmiService.getSessionCredentials().token == token2
+
+        // a failed refresh keeps the current credentials and is retried
+        when:
+        dmiService.refreshCredentials()
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(badResponse.getBytes("windows-1252"))
+        1 * future2.cancel(false)
+        1 * executor.schedule(_ as Runnable, 30, TimeUnit.SECONDS)
+        dmiService.isActive()
+        dmiService.getSessionCredentials().token == token2
+
+        // a failed login by a request clears the credentials
+        when:
+        dmiService.login(true)
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(badResponse.getBytes("windows-1252"))
+        thrown DmiServiceException
+        !dmiService.isActive()
+
+        // no retry once credentials are gone
+        when:
+        dmiService.refreshCredentials()
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> { throw new IOException() }
+        0 * executor._
+    }
+
+    def "login - background refresh disabled"() {
+        setup:
+        def executor = Mock(ScheduledExecutorService)
+        dmiService.scheduler = executor
+        dmiService.setTokenRefreshMarginSeconds(0)
+        def socket = Mock(PooledSocket)
+        socket.getOutputStream() >> Mock(OutputStream)
+
+        when:
+        dmiService.login(false)
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(goodResponse.getBytes("windows-1252"))
+        0 * executor._
+        dmiService.getTokenRefreshMarginSeconds() == 0
+
+        // closed service does not schedule a refresh
+        when:
+        def closed = new DmiService("account", "username", "password", "secret", socketFactory)
+        closed.close()
+        closed.login(false)
+
+        then:
+        1 * socketFactory.close()
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(goodResponse.getBytes("windows-1252"))
+        closed.isActive()
+        closed.scheduler.isShutdown()
+    }
+
     def "login concurrency"() {
         setup:
         def socket = Mock(PooledSocket)
@@ -203,7 +315,7 @@ class DmiServiceSpec extends Specification{
         }
 
         then:
-        1 * socketFactory.getSocket(true) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >> is1
         1 * os.write(*_)
@@ -222,7 +334,7 @@ class DmiServiceSpec extends Specification{
         }
 
         then:
-        2 * socketFactory.getSocket(true) >> socket
+        2 * socketFactory.getSocket(true, _, _) >> socket
         2 * socket.getOutputStream() >> os
         2 * socket.getInputStream() >>> [is2, is3]
         2 * os.write(*_)
@@ -244,7 +356,7 @@ class DmiServiceSpec extends Specification{
         dmiService.login(false)
 
         then:
-        1 * socketFactory.getSocket(true) >> { throw ex }
+        1 * socketFactory.getSocket(true, _, _) >> { throw ex }
         def e = thrown DmiServiceException
         e.getMessage() == "Login request failed"
         e.getCause().getCause() == ex
@@ -254,7 +366,7 @@ class DmiServiceSpec extends Specification{
         dmiService.login(false)
 
         then:
-        1 * socketFactory.getSocket(true) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >> is
         e = thrown DmiServiceException
@@ -265,7 +377,7 @@ class DmiServiceSpec extends Specification{
         dmiService.login(false)
 
         then:
-        1 * socketFactory.getSocket(true) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >> is2
         e = thrown DmiServiceException
@@ -283,7 +395,7 @@ class DmiServiceSpec extends Specification{
         def result = dmiService.send(transaction)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
+        1 * socketFactory.getSocket(false, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >> is
         1 * os.write(*_)
@@ -292,6 +404,188 @@ class DmiServiceSpec extends Specification{
         result != null
     }
 
+    def "send -- priority"() {
+        setup:
+        def transaction = new SingleKeyRequest("account", token, controlId, "secret", "PERSON", ViewType.PHYS, ["FIRST.NAME", "LAST.NAME"], "1234321")
+        def socket = Mock(PooledSocket)
+
+        when:
+        def result = dmiService.send(transaction, Priority.INTERACTIVE)
+
+        then:
+        1 * socketFactory.getSocket(false, Priority.INTERACTIVE, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        1 * socketFactory.release(socket)
+        transaction.priority == Priority.INTERACTIVE
+        result != null
+
+        when: dmiService.send(null, Priority.BULK)
+        then: thrown NullPointerException
+        when: dmiService.send(transaction, null)
+        then: thrown NullPointerException
+    }
+
+    def "send -- deadline"() {
+        setup:
+        def transaction = new DmiTransaction("account", "DAFS", "appl", token, controlId)
+        def socket = Mock(PooledSocket)
+        dmiService.setMaxDmiTransactionRetry(1)
+
+        // the time left caps the wait for a socket and its timeouts
+        when:
+        def result = dmiService.send(transaction, Duration.ofSeconds(10))
+
+        then:
+        1 * socketFactory.getSocket(false, _, { it > 0 && it <= 10000 }) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream({ it.asLong > 0 && it.asLong <= 10000 }) >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        1 * socketFactory.release(socket)
+        result != null
+
+        // already passed - nothing is sent
+        when:
+        dmiService.send(transaction, Duration.ZERO)
+
+        then:
+        0 * socketFactory._
+        thrown DmiDeadlineExceededException
+
+        // passed during an attempt - not retried
+        when:
+        dmiService.send(transaction, Duration.ofMillis(50))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> {
+            sleep(60)
+            throw new SocketException("Time limit exceeded waiting for available socket")
+        }
+        0 * socketFactory._
+        def e = thrown DmiDeadlineExceededException
+        e.cause.cause instanceof SocketException
+
+        // retry would wait past the deadline
+        when:
+        dmiService.setRetryPolicy({ int attempt, DmiFailure failure -> 10000L } as RetryPolicy)
+        dmiService.send(transaction, Duration.ofSeconds(5))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException() }
+        0 * socketFactory._
+        def e2 = thrown DmiDeadlineExceededException
+        e2.message.contains("before retrying")
+
+        when: dmiService.send(transaction, (Duration) null)
+        then: thrown NullPointerException
+    }
+
+    def "send -- pool overloaded"() {
+        setup:
+        def cb = new CircuitBreaker(1)
+        cb.minimumCalls = 1
+        dmiService.setCircuitBreaker(cb)
+        dmiService.setMaxDmiTransactionRetry(2)
+
+        // rejected without retrying, and without counting against the circuit breaker
+        when:
+        dmiService.send(new DmiTransaction("account", "DAFS", "appl", token, controlId))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new PoolOverloadException("overloaded") }
+        0 * socketFactory._
+        def e = thrown DmiOverloadException
+        e.cause.cause instanceof PoolOverloadException
+        cb.state == CircuitBreaker.State.CLOSED
+    }
+
+    def "send -- metrics"() {
+        setup:
+        def metrics = new InMemoryDmiMetrics()
+        def socket = Mock(PooledSocket)
+        def transaction = new SingleKeyRequest("account", token, controlId, "secret", "PERSON", ViewType.PHYS, ["FIRST.NAME", "LAST.NAME"], "1234321")
+        dmiService.setRetryPolicy(new ExponentialBackoffRetryPolicy(baseDelayMillis: 0))
+        dmiService.setMetrics(metrics)
+
+        // gauges of the pool and limiter
+        when:
+        dmiService.setConcurrencyLimiter(new AdaptiveConcurrencyLimiter(8))
+        def gauges = [DmiMetrics.POOL_USED, DmiMetrics.POOL_AVAILABLE, DmiMetrics.POOL_WAITING,
+                      DmiMetrics.CONCURRENCY_LIMIT, DmiMetrics.IN_FLIGHT].collect { metrics.getGauge(it) }
+
+        then:
+        1 * socketFactory.getUsed() >> 3
+        1 * socketFactory.getAvailable() >> 2
+        1 * socketFactory.getWaiting() >> 1
+        dmiService.getMetrics() == metrics
+        gauges == [3L, 2L, 1L, 4L, 0L]
+
+        // timings of each stage of a transaction, and a retry after an I/O error
+        when:
+        dmiService.setConcurrencyLimiter(null)
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException("broken") }
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        metrics.getGauge(DmiMetrics.CONCURRENCY_LIMIT) == 0
+        metrics.getGauge(DmiMetrics.IN_FLIGHT) == 0
+        metrics.getCount(DmiMetrics.RETRIES, "IO") == 1
+        metrics.getHistogram(DmiMetrics.POOL_ACQUIRE, "DEFAULT").count == 1
+        metrics.getHistograms(DmiMetrics.SERIALIZE).keySet() == ["DAFQ"] as Set
+        metrics.getHistogram(DmiMetrics.NETWORK, "DAFQ").count == 1
+        metrics.getHistogram(DmiMetrics.PARSE, "DAFQ").count == 1
+        metrics.getHistogram(DmiMetrics.RESPONSE_BYTES, "DAFQ").max == dataResponseGood.getBytes("windows-1252").length
+
+        // logins
+        when:
+        dmiService.login(true)
+        dmiService.login(true)
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> { throw new IOException("broken") }
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> new ByteArrayInputStream(goodResponse.getBytes("windows-1252"))
+        thrown DmiServiceException
+        metrics.getCounts(DmiMetrics.LOGINS) == [success: 1L, failure: 1L]
+
+        // rejected by an overloaded pool
+        when:
+        dmiService.send(transaction, Priority.BULK)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new PoolOverloadException("overloaded") }
+        thrown DmiOverloadException
+        metrics.getCount(DmiMetrics.REJECTED, "BULK") == 1
+
+        when: dmiService.setMetrics(null)
+        then: thrown NullPointerException
+        when: dmiService.setHedgeExecutor(null)
+        then: thrown NullPointerException
+    }
+
+    def "send -- interned values"() {
+        setup:
+        def transaction = new SingleKeyRequest("account", token, controlId, "secret", "PERSON", ViewType.PHYS, ["FIRST.NAME", "LAST.NAME"], "1234321")
+        def socket = Mock(PooledSocket)
+        def is = new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        dmiService.setInternMaxEntries(100)
+
+        when:
+        def result = dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> is
+        1 * socketFactory.release(socket)
+        // the date and time of the response appear twice and are the same instance
+        result.rawResponse.findAll { it == "18394" }.size() == 2
+        result.rawResponse.findAll { it == "18394" }.with { it[0].is(it[1]) }
+    }
+
     def "send -- exception"() {
         setup:
         def socket = Mock(PooledSocket)
@@ -303,8 +597,10 @@ class DmiServiceSpec extends Specification{
         dmiService.send(Mock(DmiTransaction))
 
         then:
-        1 * socketFactory.getSocket(false) >> { throw new Exception() }
-        1 * socketFactory.getSocket(true) >> { throw new Exception() }
+        1 * socketFactory.getSocket(false, _, _) >> { throw new Exception() }
+        1 * socketFactory.getSocket(true, _, _) >> { throw new Exception() }
+        _ * _.getPriority() >> Priority.DEFAULT
+        _ * _.getTransactionType()
         0 * _
         thrown DmiServiceException
 
@@ -313,9 +609,11 @@ class DmiServiceSpec extends Specification{
         dmiService.send(Mock(DmiTransaction))
 
         then:
-        2 * socketFactory.getSocket(_) >> socket
+        2 * socketFactory.getSocket(_, _, _) >> socket
         2 * socket.getOutputStream() >> { throw new Exception() }
         2 * socketFactory.recycle(socket)
+        _ * _.getPriority() >> Priority.DEFAULT
+        _ * _.getTransactionType()
         0 * _
         thrown DmiServiceException
 
@@ -324,15 +622,419 @@ class DmiServiceSpec extends Specification{
         dmiService.send(Mock(DmiTransaction))
 
         then:
-        2 * socketFactory.getSocket(_) >> socket
+        2 * socketFactory.getSocket(_, _, _) >> socket
         2 * socket.getOutputStream() >> os
         2 * socket.getInputStream() >>  { throw new Exception() }
         2 * socketFactory.recycle(socket)
+        _ * _.getPriority() >> Priority.DEFAULT
+        _ * _.getTransactionType()
         0 * _
         thrown DmiServiceException
 
     }
 
+    def "send -- retry policy"() {
+        setup:
+        def policy = Mock(RetryPolicy)
+        dmiService.setRetryPolicy(policy)
+        dmiService.setMaxDmiTransactionRetry(5)
+        def socket = Mock(PooledSocket)
+        def is = new ByteArrayInputStream(dataResponseNotFatal.getBytes("windows-1252"))
+        def transaction = new DmiTransaction("account", "DAFS", "appl", token, controlId)
+
+        // I/O errors force a new socket on retry
+        when:
+        dmiService.send(transaction)
+
+        then:
+        1 * policy.onRequest()
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException("broken") }
+        1 * policy.retryDelayMillis(1, { it.type == DmiFailure.Type.IO && it.exception != null }) >> 0L
+        1 * socketFactory.getSocket(true, _, _) >> { throw new IllegalStateException("other") }
+        1 * policy.retryDelayMillis(2, { it.type == DmiFailure.Type.OTHER }) >> 1L
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> is
+        1 * socketFactory.release(socket)
+        1 * policy.retryDelayMillis(3, { it.type == DmiFailure.Type.ERROR && it.errorTypes == ["CODE"] }) >> RetryPolicy.NO_RETRY
+        def e = thrown DmiServiceException
+        e.message.contains("Some sort of not fatal error")
+        dmiService.getRetryPolicy() == policy
+    }
+
+    def "send -- interrupted while waiting to retry"() {
+        setup:
+        dmiService.setRetryPolicy({ int attempt, DmiFailure failure -> 1000L } as RetryPolicy)
+        Thread.currentThread().interrupt()
+
+        when:
+        dmiService.send(Mock(DmiTransaction))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException("broken") }
+        def e = thrown DmiServiceException
+        e.message.contains("Interrupted")
+        Thread.interrupted()
+    }
+
+    def "send -- circuit breaker"() {
+        setup:
+        def cb = new CircuitBreaker(2)
+        cb.minimumCalls = 2
+        cb.openDurationMillis = 0
+        dmiService.setCircuitBreaker(cb)
+        dmiService.setMaxDmiTransactionRetry(1)
+        dmiService.setRetryPolicy({ int attempt, DmiFailure failure -> 0L } as RetryPolicy)
+        def socket = Mock(PooledSocket)
+
+        // transport failures open the breaker, error responses do not count
+        when:
+        dmiService.send(Mock(DmiTransaction))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException("unreachable") }
+        1 * socketFactory.getSocket(true, _, _) >> { throw new IOException("unreachable") }
+        thrown DmiServiceException
+        cb.state == CircuitBreaker.State.OPEN
+
+        // failed probe - rejected without sending the request
+        when:
+        dmiService.send(Mock(DmiTransaction))
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> { throw new IOException("unreachable") }
+        0 * socketFactory.getSocket(false, _, _)
+        thrown DmiCircuitBreakerOpenException
+        cb.state == CircuitBreaker.State.OPEN
+
+        // successful probe (session state request) closes the breaker and the request is sent
+        when:
+        def response = dmiService.send(new DmiTransaction("account", "DAFS", "appl", token, controlId))
+
+        then:
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        2 * socket.getOutputStream() >> Mock(OutputStream)
+        2 * socket.getInputStream() >>> [new ByteArrayInputStream(sessionStateGood.getBytes("windows-1252")),
+                                         new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))]
+        2 * socketFactory.release(socket)
+        response.transactionType == "DAFS"
+        cb.state == CircuitBreaker.State.CLOSED
+        dmiService.getCircuitBreaker() == cb
+    }
+
+    def "send -- circuit breaker ignores failures that are not of the DMI"() {
+        setup:
+        def cb = new CircuitBreaker(1)
+        cb.minimumCalls = 1
+        dmiService.setCircuitBreaker(cb)
+        dmiService.setMaxDmiTransactionRetry(0)
+        def socket = Mock(PooledSocket)
+        def transaction = new DmiTransaction("account", "DAFS", "appl", token, controlId)
+
+        // a busy pool, or an interrupted wait for a socket
+        when:
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw exception }
+        thrown DmiServiceException
+        cb.state == CircuitBreaker.State.CLOSED
+
+        // a read timeout cut short by the caller's deadline
+        when:
+        dmiService.send(transaction, Duration.ofMillis(20))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream(_) >> {
+            sleep(30)
+            throw new SocketTimeoutException("Read timed out")
+        }
+        1 * socketFactory.recycle(socket)
+        thrown DmiDeadlineExceededException
+        cb.state == CircuitBreaker.State.CLOSED
+
+        // a read timeout on a socket is a failure of the DMI
+        when:
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> { throw new SocketTimeoutException("Read timed out") }
+        1 * socketFactory.recycle(socket)
+        thrown DmiServiceException
+        cb.state == CircuitBreaker.State.OPEN
+
+        where:
+        exception << [new PoolTimeoutException("Timeout exceeded waiting for available socket"),
+                      new SocketException("interrupted").with { it.initCause(new InterruptedException()); it }]
+    }
+
+    def "send -- circuit breaker open"() {
+        setup:
+        def cb = Mock(CircuitBreaker)
+        dmiService.setCircuitBreaker(cb)
+
+        when:
+        dmiService.send(Mock(DmiTransaction))
+
+        then:
+        1 * cb.allowRequest() >> false
+        1 * cb.tryStartProbe() >> false
+        0 * socketFactory._
+        thrown DmiCircuitBreakerOpenException
+
+        when:
+        dmiService.login(true)
+
+        then:
+        1 * cb.allowRequest() >> false
+        1 * cb.tryStartProbe() >> false
+        0 * socketFactory._
+        thrown DmiCircuitBreakerOpenException
+
+        // disabled
+        when:
+        dmiService.setCircuitBreaker(null)
+        dmiService.setMaxDmiTransactionRetry(1)
+        dmiService.send(Mock(DmiTransaction))
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new Exception() }
+        1 * socketFactory.getSocket(true, _, _) >> { throw new Exception() }
+        thrown DmiServiceException
+    }
+
+    def "send -- concurrency limiter"() {
+        setup:
+        def limiter = Mock(AdaptiveConcurrencyLimiter)
+        dmiService.setConcurrencyLimiter(limiter)
+        dmiService.setMaxDmiTransactionRetry(1)
+        def socket = Mock(PooledSocket)
+
+        when:
+        def result = dmiService.send(new DmiTransaction("account", "DAFS", "appl", token, controlId))
+
+        then:
+        1 * limiter.acquire(_, Priority.DEFAULT)
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getOutputStream() >> Mock(OutputStream)
+        1 * socket.getInputStream() >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        1 * socketFactory.release(socket)
+        1 * limiter.release({ it >= 0 }, true)
+        result != null
+        dmiService.getConcurrencyLimiter() == limiter
+
+        // each failed attempt is released as a failure
+        when:
+        dmiService.send(Mock(DmiTransaction))
+
+        then:
+        2 * limiter.acquire(_, _)
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException() }
+        1 * socketFactory.getSocket(true, _, _) >> { throw new IOException() }
+        2 * limiter.release({ it >= 0 }, false)
+        thrown DmiServiceException
+
+        // timed out waiting to be under the limit, as with an overloaded pool - nothing is sent and it is not retried
+        when:
+        def metrics = new InMemoryDmiMetrics()
+        dmiService.setMetrics(metrics)
+        def transaction = Mock(DmiTransaction)
+        transaction.getPriority() >> Priority.BULK
+        dmiService.send(transaction)
+
+        then:
+        1 * limiter.acquire(_, Priority.BULK) >> { throw new DmiOverloadException("timeout", null) }
+        0 * limiter.release(*_)
+        0 * socketFactory._
+        def e = thrown DmiOverloadException
+        e.message == "timeout"
+        metrics.getCount(DmiMetrics.REJECTED, "BULK") == 1
+        metrics.getCounts(DmiMetrics.RETRIES).isEmpty()
+    }
+
+    def "send -- hedged"() {
+        setup:
+        dmiService.setHedgingEnabled(true)
+        def transaction = new SingleKeyRequest("account", token, controlId, "secret", "PERSON", ViewType.PHYS, ["FIRST.NAME", "LAST.NAME"], "1234321")
+        20.times { dmiService.latencyTracker.record("DAFQ.SINGLEKEY", TimeUnit.MILLISECONDS.toNanos(10)) }
+
+        // the original request does not answer - the socket of the loser is closed by recycling it
+        def slow = Mock(PooledSocket)
+        def fast = Mock(PooledSocket)
+        def pipe = new PipedOutputStream()
+        def blocking = new PipedInputStream(pipe)
+
+        when:
+        def response = dmiService.send(transaction)
+
+        then:
+        2 * socketFactory.getSocket(false, _, _) >>> [slow, fast]
+        1 * slow.getOutputStream() >> Mock(OutputStream)
+        1 * slow.getInputStream() >> blocking
+        1 * fast.getOutputStream() >> Mock(OutputStream)
+        1 * fast.getInputStream() >> { sleep(20); new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252")) }
+        1 * socketFactory.release(fast)
+        1 * slow.close() >> { pipe.close() }
+        1 * socketFactory.recycle(slow)
+        response.subTransactions[0].transactionType == "SDAFS"
+        dmiService.isHedgingEnabled()
+        dmiService.getHedgePercentile() == 0.95
+
+
+        // the loser's elapsed time is recorded as well - it took longer than the hedge delay
+        when:
+        16.times { dmiService.latencyTracker.record("DAFQ.SINGLEKEY", 1) }
+
+        then:
+        dmiService.latencyTracker.percentileNanos("DAFQ.SINGLEKEY", 1.0) > TimeUnit.MILLISECONDS.toNanos(10)
+    }
+
+    def "send -- hedge cancelled before it has a socket"() {
+        setup:
+        def hedging = new CountDownLatch(1)
+        def answered = new CountDownLatch(1)
+        def released = new CountDownLatch(1)
+        def recycled = []
+        def calls = 0
+
+        // the original answers once the duplicate is waiting for its socket, which it gets after the original has
+        // answered. the factory is not a mock as mock responses can not block while another thread uses a mock.
+        def original = Mock(PooledSocket)
+        def duplicate = Mock(PooledSocket)
+        def response = new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        original.getOutputStream() >> Mock(OutputStream)
+        original.getInputStream() >> new InputStream() {
+            int read() { hedging.await(5, TimeUnit.SECONDS); response.read() }
+        }
+
+        def factory = new PoolingSocketFactory("localhost", 7000, 2, false, null) {
+            PooledSocket getSocket(boolean forceNewSocket, Priority priority, long timeLimitMs) {
+                if (calls++ == 0) return original
+                hedging.countDown()
+                answered.await(5, TimeUnit.SECONDS)
+                return duplicate
+            }
+            void release(PooledSocket socket) { if (socket == duplicate) released.countDown() }
+            void recycle(PooledSocket socket) { recycled << socket }
+        }
+
+        def service = new DmiService("account", "username", "password", "secret", factory)
+        service.setHedgingEnabled(true)
+        def transaction = new SingleKeyRequest("account", token, controlId, "secret", "PERSON", ViewType.PHYS, ["FIRST.NAME", "LAST.NAME"], "1234321")
+        20.times { service.latencyTracker.record("DAFQ.SINGLEKEY", TimeUnit.MILLISECONDS.toNanos(10)) }
+
+        // the unused socket of the cancelled duplicate goes back to the pool rather than being closed
+        when:
+        def result = service.send(transaction)
+        answered.countDown()
+
+        then:
+        result.subTransactions[0].transactionType == "SDAFS"
+        released.await(5, TimeUnit.SECONDS)
+        recycled.isEmpty()
+        0 * duplicate._
+
+        cleanup:
+        service.close()
+    }
+
+    def "send -- hedging not needed"() {
+        setup:
+        dmiService.setHedgingEnabled(true)
+        dmiService.setHedgeBudget(null)
+        def transaction = new SingleKeyRequest("account", token, controlId, "secret", "PERSON", ViewType.PHYS, ["FIRST.NAME", "LAST.NAME"], "1234321")
+        def socket = Mock(PooledSocket)
+        socket.getOutputStream() >> Mock(OutputStream)
+        def skipped = new CountDownLatch(1)
+        def rejected = new CountDownLatch(1)
+
+        // not enough latencies recorded to hedge - latency is recorded
+        when:
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        1 * socketFactory.release(socket)
+        0 * socketFactory._
+
+        // answered before the hedge percentile
+        when:
+        dmiService.setHedgePercentile(0.5)
+        19.times { dmiService.latencyTracker.record("DAFQ.SINGLEKEY", TimeUnit.SECONDS.toNanos(10)) }
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        1 * socketFactory.release(socket)
+        0 * socketFactory._
+        dmiService.getHedgeBudget() == null
+
+        // failure of the original request is not hedged
+        when:
+        dmiService.setMaxDmiTransactionRetry(0)
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> { throw new IOException("broken") }
+        0 * socketFactory._
+        thrown DmiServiceException
+
+        // hedge budget exhausted - the original answers once the hedge has been passed up
+        when:
+        dmiService.setMaxDmiTransactionRetry(0)
+        dmiService.setHedgeBudget(new RetryBudget(0, 0))
+        20.times { dmiService.latencyTracker.record("DAFQ.SINGLEKEY", 1) }
+        dmiService.setHedgeExecutor({ Runnable r -> r.run(); skipped.countDown() } as Executor)
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getInputStream() >> answerAfter(skipped)
+        1 * socketFactory.release(socket)
+        0 * socketFactory._
+
+        // all hedge threads busy - the original is waited on without a hedge
+        when:
+        dmiService.setHedgeBudget(null)
+        dmiService.setHedgeExecutor({ Runnable r -> rejected.countDown(); throw new RejectedExecutionException("busy") } as Executor)
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getInputStream() >> answerAfter(rejected)
+        1 * socketFactory.release(socket)
+        0 * socketFactory._
+
+        // closed service
+        when:
+        dmiService.close()
+        dmiService.send(transaction)
+
+        then:
+        1 * socketFactory.close()
+        1 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socket.getInputStream() >> new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        1 * socketFactory.release(socket)
+    }
+
+    /**
+     * Response that is only read once a latch has been counted down, without blocking in a mock (which would block
+     * other threads using mocks)
+     */
+    private static InputStream answerAfter(CountDownLatch latch) {
+        def response = new ByteArrayInputStream(dataResponseGood.getBytes("windows-1252"))
+        return new InputStream() {
+            int read() { latch.await(5, TimeUnit.SECONDS); response.read() }
+        }
+    }
+
     def "send -- SERRS - log back in"() {
         setup:
         dmiService.setMaxDmiTransactionRetry(1)
@@ -352,8 +1054,8 @@ class DmiServiceSpec extends Specification{
         dmiService.send(transaction1)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
-        2 * socketFactory.getSocket(true) >> socket
+        2 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         3 * socket.getOutputStream() >> os
         3 * socket.getInputStream() >>> [securityResponse, goodLoginResponse, goodDataResponse]
         3 * os.write(*_)
@@ -370,8 +1072,8 @@ class DmiServiceSpec extends Specification{
         dmiService.send(transaction2)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
-        2 * socketFactory.getSocket(true) >> socket
+        2 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         3 * socket.getOutputStream() >> os
         3 * socket.getInputStream() >>> [securityResponse, goodLoginResponse, goodDataResponse]
         3 * os.write(*_)
@@ -395,7 +1097,7 @@ class DmiServiceSpec extends Specification{
         dmiService.send(transaction)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
+        1 * socketFactory.getSocket(false, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >> is
         1 * os.write(*_)
@@ -420,8 +1122,8 @@ class DmiServiceSpec extends Specification{
         dmiService.send(transaction)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
-        1 * socketFactory.getSocket(true) >> socket
+        // the DMI responded, so the socket is reused
+        2 * socketFactory.getSocket(false, _, _) >> socket
         2 * socket.getOutputStream() >> os
         2 * socket.getInputStream() >>> [is1, is2]
         2 * os.write(*_)
@@ -441,8 +1143,8 @@ class DmiServiceSpec extends Specification{
         dmiService.keepAlive()
 
         then:
-        1 * socketFactory.getSocket(true) >> socket
-        1 * socketFactory.getSocket(false) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
+        1 * socketFactory.getSocket(false, _, _) >> socket
         2 * socket.getOutputStream() >> os
         2 * socket.getInputStream() >>> [is1, is2]
         2 * os.write(*_)
@@ -468,7 +1170,7 @@ class DmiServiceSpec extends Specification{
         dmiService.send(transaction1)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
+        1 * socketFactory.getSocket(false, _, _) >> socket
         1 * socket.getOutputStream() >> os
         1 * socket.getInputStream() >>> [expiredResponse, goodLoginResponse, goodDataResponse]
         def e = thrown DmiServiceException
@@ -482,8 +1184,8 @@ class DmiServiceSpec extends Specification{
         dmiService.send(transaction1)
 
         then:
-        1 * socketFactory.getSocket(false) >> socket
-        2 * socketFactory.getSocket(true) >> socket
+        2 * socketFactory.getSocket(false, _, _) >> socket
+        1 * socketFactory.getSocket(true, _, _) >> socket
         3 * socket.getOutputStream() >> os
         3 * socket.getInputStream() >>> [expiredResponse, goodLoginResponse, goodDataResponse]
         transaction1.token[0] == token
@@ -0,0 +1,64 @@
+package org.ccctc.colleaguedmiclient.service
+
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord
+import spock.lang.Specification
+
+class EntityCacheSpec extends Specification {
+
+    def record(String id) {
+        def r = new ColleagueRecord()
+        r.recordId = id
+        return r
+    }
+
+    def "get / put / clear"() {
+        setup:
+        def cache = new EntityCache(60, 10)
+        def r = record("1")
+
+        when:
+        cache.put("1", r)
+
+        then:
+        cache.get("1").is(r)
+        cache.get("2") == null
+        cache.size() == 1
+
+        when:
+        cache.clear()
+
+        then:
+        cache.get("1") == null
+        cache.size() == 0
+    }
+
+    def "expiration"() {
+        setup:
+        def cache = new EntityCache(0, 10)
+
+        when:
+        cache.put("1", record("1"))
+
+        then:
+        cache.size() == 1
+        cache.get("1") == null
+        cache.size() == 0
+    }
+
+    def "least recently used entry is removed when full"() {
+        setup:
+        def cache = new EntityCache(60, 2)
+
+        when:
+        cache.put("1", record("1"))
+        cache.put("2", record("2"))
+        cache.get("1")
+        cache.put("3", record("3"))
+
+        then:
+        cache.size() == 2
+        cache.get("1") != null
+        cache.get("2") == null
+        cache.get("3") != null
+    }
+}
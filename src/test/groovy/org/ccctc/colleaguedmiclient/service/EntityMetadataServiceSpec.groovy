@@ -3,6 +3,8 @@ package org.ccctc.colleaguedmiclient.service
 import org.ccctc.colleaguedmiclient.exception.DmiMetadataException
 import spock.lang.Specification
 
+import java.util.concurrent.Executor
+
 import static org.ccctc.colleaguedmiclient.util.StringUtils.VM
 
 class EntityMetadataServiceSpec extends Specification {
@@ -140,4 +142,24 @@ class EntityMetadataServiceSpec extends Specification {
         2 * d.executeRaw(*_) >> response
 
     }
+
+    def "cache settings"() {
+        setup:
+        def m = new EntityMetadataService(Mock(DmiCTXService))
+
+        def executor = Mock(Executor)
+
+        when:
+        m.setCacheMaxEntries(10)
+        m.setCacheStaleWhileRevalidateSeconds(60)
+        m.setCacheRefreshExecutor(executor)
+
+        then:
+        m.getCacheMaxEntries() == 10
+        m.getCacheStaleWhileRevalidateSeconds() == 60
+        m.getCacheRefreshExecutor() == executor
+
+        when: m.setCacheRefreshExecutor(null)
+        then: thrown NullPointerException
+    }
 }
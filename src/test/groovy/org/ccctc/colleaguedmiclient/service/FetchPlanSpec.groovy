@@ -0,0 +1,75 @@
+package org.ccctc.colleaguedmiclient.service
+
+import spock.lang.Specification
+
+class FetchPlanSpec extends Specification {
+
+    def "all"() {
+        when:
+        def plan = FetchPlan.all()
+
+        then:
+        plan.fields == null
+        plan.joins == null
+        plan.maxDepth == Integer.MAX_VALUE
+        plan.includesField("any")
+        plan.followsJoin("any")
+        plan.getJoinPlan("any").is(plan)
+    }
+
+    def "builder"() {
+        setup:
+        def child = FetchPlan.builder().fields("c").build()
+
+        when:
+        def plan = FetchPlan.builder()
+                .fields("a")
+                .fields("b")
+                .join("j1")
+                .join("j2", child)
+                .build()
+
+        then:
+        plan.fields == ["a", "b"] as Set
+        plan.joins.keySet() == ["j1", "j2"] as Set
+        plan.includesField("a")
+        !plan.includesField("c")
+        plan.followsJoin("j1")
+        !plan.followsJoin("j3")
+        plan.getJoinPlan("j1").is(FetchPlan.all())
+        plan.getJoinPlan("j2").is(child)
+    }
+
+    def "noJoins"() {
+        when:
+        def plan = FetchPlan.builder().noJoins().build()
+
+        then:
+        !plan.followsJoin("j1")
+        plan.includesField("a")
+    }
+
+    def "maxDepth"() {
+        setup:
+        def child = FetchPlan.builder().fields("c").build()
+
+        when:
+        def plan = FetchPlan.builder().join("j", child).maxDepth(2).build()
+        def childPlan = plan.getJoinPlan("j")
+        def grandchildPlan = childPlan.getJoinPlan("x")
+
+        then:
+        plan.followsJoin("j")
+        childPlan.maxDepth == 1
+        childPlan.fields == ["c"] as Set
+        childPlan.followsJoin("x")
+        grandchildPlan.maxDepth == 0
+        !grandchildPlan.followsJoin("y")
+
+        when:
+        FetchPlan.builder().maxDepth(-1)
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
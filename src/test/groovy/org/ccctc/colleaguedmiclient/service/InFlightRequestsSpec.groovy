@@ -0,0 +1,167 @@
+package org.ccctc.colleaguedmiclient.service
+
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+
+class InFlightRequestsSpec extends Specification {
+
+    def "identical requests in flight share a result"() {
+        setup:
+        def requests = new InFlightRequests<Object>()
+        def calls = new AtomicInteger()
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def result = new Object()
+        def request = {
+            calls.incrementAndGet()
+            started.countDown()
+            release.await()
+            result
+        } as Supplier
+
+        when:
+        def first = Thread.start { requests.execute("key", request) }
+        started.await()
+        def results = Collections.synchronizedList([])
+        def followers = (1..3).collect {
+            Thread.start {
+                // the request is no longer in flight once its result is available
+                results << requests.execute("key", request)
+                results << requests.size()
+            }
+        }
+        awaitCallers(requests, "key", 3)
+
+        then: "other keys are not affected"
+        requests.size() == 1
+        requests.execute("other", { "other" } as Supplier) == "other"
+
+        when:
+        release.countDown()
+        first.join()
+        followers*.join()
+
+        then:
+        calls.get() == 1
+        requests.size() == 0
+        results.count { it.is(result) } == 3
+        results.count { it == 0 } == 3
+
+        when: "completed requests are not shared"
+        requests.execute("key", { "again" } as Supplier) == "again"
+
+        then:
+        calls.get() == 1
+    }
+
+    def "exceptions are shared"() {
+        setup:
+        def requests = new InFlightRequests<Object>()
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        Throwable followerException = null
+
+        when:
+        def first = Thread.start {
+            try {
+                requests.execute("key", { started.countDown(); release.await(); throw ex } as Supplier)
+            } catch (Throwable ignored) {
+            }
+        }
+        started.await()
+        def follower = Thread.start {
+            try {
+                requests.execute("key", { "not called" } as Supplier)
+            } catch (Throwable t) {
+                followerException = t
+            }
+        }
+        awaitCallers(requests, "key", 1)
+        release.countDown()
+        first.join()
+        follower.join()
+
+        then:
+        followerException.is(ex)
+
+        when:
+        requests.execute("key", { throw new AssertionError("error") } as Supplier)
+
+        then:
+        thrown AssertionError
+        requests.size() == 0
+
+        where:
+        ex << [new IllegalStateException("failed"), new AssertionError("failed")]
+    }
+
+    def "executeAsync"() {
+        setup:
+        def requests = new InFlightRequests<Object>()
+        def executor = Executors.newSingleThreadExecutor()
+        def release = new CountDownLatch(1)
+        def calls = new AtomicInteger()
+
+        // callers of execute wait for the request started in the background
+        when:
+        def started = requests.executeAsync("key", { calls.incrementAndGet(); release.await(); "async" } as Supplier, executor)
+        def again = requests.executeAsync("key", { calls.incrementAndGet(); "again" } as Supplier, executor)
+        def result = null
+        def follower = Thread.start { result = requests.execute("key", { "not called" } as Supplier) }
+        awaitCallers(requests, "key", 1)
+        release.countDown()
+        follower.join()
+
+        then:
+        started
+        !again
+        result == "async"
+        calls.get() == 1
+        requests.size() == 0
+
+        // exceptions only go to waiting callers
+        when:
+        def failing = new CountDownLatch(1)
+        requests.executeAsync("key", { failing.await(); throw new IllegalStateException("failed") } as Supplier, executor)
+        Throwable followerException = null
+        follower = Thread.start {
+            try {
+                requests.execute("key", { "not called" } as Supplier)
+            } catch (Throwable t) {
+                followerException = t
+            }
+        }
+        awaitCallers(requests, "key", 1)
+        failing.countDown()
+        follower.join()
+
+        then:
+        followerException instanceof IllegalStateException
+        requests.size() == 0
+
+        // rejected by the executor
+        when:
+        requests.executeAsync("key", { "rejected" } as Supplier, { throw new RejectedExecutionException("full") } as Executor)
+
+        then:
+        thrown RejectedExecutionException
+        requests.size() == 0
+
+        cleanup:
+        executor.shutdown()
+    }
+
+
+    /**
+     * Wait until a number of callers are waiting on the request in flight for a key
+     */
+    private static void awaitCallers(InFlightRequests requests, String key, int callers) {
+        while (requests.inFlight[key] == null || requests.inFlight[key].numberOfDependents < callers) Thread.yield()
+    }
+}
@@ -0,0 +1,72 @@
+package org.ccctc.colleaguedmiclient.service
+
+import spock.lang.Specification
+
+class LatencyTrackerSpec extends Specification {
+
+    def "constructor"() {
+        expect:
+        new LatencyTracker().windowSize == 256
+        new LatencyTracker().minSamples == 20
+
+        when:
+        new LatencyTracker(0, 1)
+
+        then:
+        thrown IllegalArgumentException
+
+        when:
+        new LatencyTracker(10, 11)
+
+        then:
+        thrown IllegalArgumentException
+
+        when:
+        new LatencyTracker(10, 0)
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "percentiles"() {
+        setup:
+        def tracker = new LatencyTracker(100, 10)
+
+        when: "not enough samples"
+        (1..9).each { tracker.record("A", it) }
+
+        then:
+        tracker.percentileNanos("A", 0.5) == -1
+        tracker.percentileNanos("B", 0.5) == -1
+
+        when:
+        (10..100).each { tracker.record("A", it) }
+
+        then:
+        tracker.percentileNanos("A", 0.5) == 50
+        tracker.percentileNanos("A", 0.95) == 95
+        tracker.percentileNanos("A", 1) == 100
+        tracker.percentileNanos("A", 0) == 1
+    }
+
+    def "window"() {
+        setup:
+        def tracker = new LatencyTracker(16, 1)
+        (1..16).each { tracker.record("A", 1) }
+
+        expect:
+        tracker.percentileNanos("A", 1) == 1
+
+        when: "older latencies are replaced - sorted copy refreshed after 1/16th of the window"
+        (1..16).each { tracker.record("A", 1000) }
+
+        then:
+        tracker.percentileNanos("A", 0) == 1000
+
+        when:
+        tracker.clear()
+
+        then:
+        tracker.percentileNanos("A", 0) == -1
+    }
+}
@@ -1,9 +1,19 @@
 package org.ccctc.colleaguedmiclient.service
 
+import org.ccctc.colleaguedmiclient.exception.DmiMetadataException
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicInteger
+
 class MetadataCacheSpec extends Specification {
 
+    private static final Executor THREAD_PER_TASK = { Runnable r -> new Thread(r).start() } as Executor
+
     def cache = new MetadataCache<String>(100)
 
     def "overloaded methods"() {
@@ -81,4 +91,205 @@ class MetadataCacheSpec extends Specification {
         cache.entrySet().size() == 0
     }
 
+    def "get with loader - cached"() {
+        setup:
+        def calls = 0
+
+        when:
+        def v1 = cache.get("appl", "name", { calls++; "value" })
+        def v2 = cache.get("appl", "name", { calls++; "other" })
+
+        then:
+        v1 == "value"
+        v2 == "value"
+        calls == 1
+        cache.get("appl", "name") == "value"
+    }
+
+    def "get with loader - single flight"() {
+        setup:
+        def calls = new AtomicInteger()
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def loader = {
+            calls.incrementAndGet()
+            started.countDown()
+            release.await()
+            "value"
+        }
+
+        when:
+        def first = CompletableFuture.supplyAsync({ cache.get("appl", "name", loader) }, THREAD_PER_TASK)
+        started.await()
+        def others = (1..4).collect { CompletableFuture.supplyAsync({ cache.get("appl", "name", loader) }, THREAD_PER_TASK) }
+        awaitCallers("appl*name", 4)
+        release.countDown()
+
+        then:
+        first.get() == "value"
+        others*.get() == ["value"] * 4
+        calls.get() == 1
+    }
+
+    def "get with loader - exception is shared with waiting threads"() {
+        setup:
+        def started = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def loader = {
+            started.countDown()
+            release.await()
+            throw new DmiMetadataException("error")
+        }
+
+        when:
+        def first = CompletableFuture.supplyAsync({ cache.get("appl", "name", loader) }, THREAD_PER_TASK)
+        started.await()
+        def second = CompletableFuture.supplyAsync({ cache.get("appl", "name", { "value" }) }, THREAD_PER_TASK)
+        awaitCallers("appl*name", 1)
+        release.countDown()
+        second.join()
+
+        then:
+        def e = thrown(CompletionException)
+        e.cause instanceof DmiMetadataException
+
+        when:
+        cache.get("appl", "name", { throw new Error("error") })
+
+        then:
+        thrown Error
+    }
+
+    def "refresh"() {
+        when:
+        cache.get("appl", "name", { "value" })
+        def v = cache.refresh("appl", "name", { "new value" })
+
+        then:
+        v == "new value"
+        cache.get("appl", "name") == "new value"
+    }
+
+    def "maxEntries"() {
+        setup:
+        cache.setMaxEntries(2)
+
+        when:
+        cache.put("appl", "1", "1")
+        cache.put("appl", "2", "2")
+        cache.get("appl", "1")
+        cache.put("appl", "3", "3")
+
+        then:
+        cache.getMaxEntries() == 2
+        cache.size() == 2
+        cache.get("appl", "1") == "1"
+        cache.get("appl", "2") == null
+        cache.get("appl", "3") == "3"
+    }
+
+    def "maxEntries - set after entries are added"() {
+        when:
+        cache.put("appl", "1", "1")
+        cache.put("appl", "2", "2")
+        cache.put("appl", "3", "3")
+        cache.setMaxEntries(2)
+
+        then:
+        cache.size() == 2
+
+        // removed and expired entries are no longer tracked
+        when:
+        cache.clear()
+        cache.put("appl", "1", "1")
+        cache.put("appl", "2", "2")
+        cache.remove("appl*1")
+        cache.setCacheExpirationSeconds(0)
+        cache.put("appl", "4", "4")
+        cache.keySet()
+        cache.setCacheExpirationSeconds(100)
+        cache.put("appl", "5", "5")
+        cache.put("appl", "6", "6")
+
+        then:
+        cache.keySet() == ["appl*5", "appl*6"] as Set
+
+        // unlimited
+        when:
+        cache.setMaxEntries(0)
+        cache.put("appl", "7", "7")
+        cache.remove("appl*5")
+
+        then:
+        cache.keySet() == ["appl*6", "appl*7"] as Set
+    }
+
+    def "refreshExecutor"() {
+        setup:
+        def executor = Mock(Executor)
+        cache.setCacheExpirationSeconds(0)
+        cache.setStaleWhileRevalidateSeconds(100)
+        cache.setRefreshExecutor(executor)
+        cache.put("appl", "name", "old")
+
+        // refreshed on the executor
+        when:
+        def v = cache.get("appl", "name", { "new" })
+
+        then:
+        1 * executor.execute(_) >> { Runnable r -> r.run() }
+        cache.getRefreshExecutor() == executor
+        v == "old"
+
+        // a rejected refresh leaves the entry to be reloaded by a later request
+        when:
+        v = cache.get("appl", "name", { "newer" })
+        def v2 = cache.get("appl", "name", { "newest" })
+
+        then:
+        1 * executor.execute(_) >> { throw new RejectedExecutionException("shut down") }
+        1 * executor.execute(_)
+        v == "new"
+        v2 == "new"
+
+        when: cache.setRefreshExecutor(null)
+        then: thrown NullPointerException
+    }
+
+    def "staleWhileRevalidateSeconds"() {
+        setup:
+        cache.setCacheExpirationSeconds(0)
+        cache.setStaleWhileRevalidateSeconds(100)
+        // refresh on the calling thread, so that each refresh completes before the next get
+        cache.setRefreshExecutor({ Runnable r -> r.run() } as Executor)
+        def refreshed = new CountDownLatch(1)
+
+        when:
+        cache.put("appl", "name", "old")
+        def stale = cache.get("appl", "name", { refreshed.countDown(); "new" })
+
+        then:
+        cache.getStaleWhileRevalidateSeconds() == 100
+        stale == "old"
+        // map api does not return expired entries, but does not remove entries that may be returned while reloaded
+        cache.get("appl*name") == null
+        cache.size() == 1
+        refreshed.count == 0
+
+        when: "background refresh failure keeps the stale value"
+        def failed = new CountDownLatch(1)
+        def v = cache.get("appl", "name", { failed.countDown(); throw new DmiMetadataException("error") })
+
+        then:
+        failed.count == 0
+        v == "new"
+    }
+
+    /**
+     * Wait until a number of callers are waiting on the load in flight for a key
+     */
+    private void awaitCallers(String key, int callers) {
+        while (cache.@loads.inFlight[key] == null || cache.@loads.inFlight[key].numberOfDependents < callers) Thread.yield()
+    }
+
 }
@@ -0,0 +1,212 @@
+package org.ccctc.colleaguedmiclient.service
+
+import org.ccctc.colleaguedmiclient.model.CTXAssociation
+import org.ccctc.colleaguedmiclient.model.CTXElement
+import org.ccctc.colleaguedmiclient.model.CTXMetadata
+import org.ccctc.colleaguedmiclient.model.CTXVariable
+import org.ccctc.colleaguedmiclient.model.CddEntry
+import org.ccctc.colleaguedmiclient.model.EntityMetadata
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+class MetadataSnapshotStoreSpec extends Specification {
+
+    Path dir = Files.createTempDirectory("snapshot")
+    Path file = dir.resolve("metadata.snapshot")
+
+    def dmiCTXService = Mock(DmiCTXService)
+    def entityService = new EntityMetadataService(dmiCTXService)
+    def ctxService = new CTXMetadataService(dmiCTXService)
+
+    def cleanup() {
+        dir.toFile().deleteDir()
+    }
+
+    def firstName = CddEntry.builder()
+            .name("FIRST.NAME")
+            .physName("FIRST.NAME")
+            .source("D")
+            .maximumStorageSize(30)
+            .fieldPlacement(1)
+            .databaseUsageType("D")
+            .defaultDisplaySize("30")
+            .informFormatString("30L")
+            .informConversionString(null)
+            .dataType("S")
+            .elementAssocName(null)
+            .elementAssocType(null)
+            .build()
+
+    def entity = new EntityMetadata("PHYS", "Y", ["FIRST.NAME": firstName], [firstName, null] as CddEntry[])
+
+    def ctx = CTXMetadata.builder()
+            .prcsAliasName("Alias")
+            .isAnonymousCtx("N")
+            .prcsInquiryOnly("Y")
+            .prcsVersion(2)
+            .variables([CTXVariable.builder().varName("VAR1").varAliasName("Var1").varIsBool("Y").build()])
+            .elements([CTXElement.builder().elementName("EL1").elementSize("10").build()])
+            .associations([
+                    CTXAssociation.builder().assocName("ASSOC").assocMembers(["VAR1", "VAR2"] as String[]).build(),
+                    CTXAssociation.builder().assocName("EMPTY").build()])
+            .build()
+
+    def "save / load"() {
+        setup:
+        def store = new MetadataSnapshotStore(file)
+        entityService.putCachedEntry("CORE", "PERSON", entity)
+        entityService.putCachedEntry("CORE", "EMPTY", new EntityMetadata(null, null, null, null))
+        ctxService.putCachedEntry("UT", "CTX", ctx)
+        ctxService.putCachedEntry("UT", "EMPTY", CTXMetadata.builder().build())
+
+        def newEntityService = new EntityMetadataService(dmiCTXService)
+        def newCtxService = new CTXMetadataService(dmiCTXService)
+
+        when:
+        store.save(entityService, ctxService)
+        def loaded = store.load(newEntityService, newCtxService, false)
+        def e = newEntityService.get("CORE", "PERSON")
+        def empty = newEntityService.get("CORE", "EMPTY")
+        def c = newCtxService.get("UT", "CTX")
+        def emptyCtx = newCtxService.get("UT", "EMPTY")
+
+        then:
+        0 * _
+        loaded == 4
+        e.entityType == "PHYS"
+        e.guidEnabled == "Y"
+        e.entries.size() == 1
+        e.entries["FIRST.NAME"].name == "FIRST.NAME"
+        e.entries["FIRST.NAME"].maximumStorageSize == 30
+        e.entries["FIRST.NAME"].fieldPlacement == 1
+        e.entries["FIRST.NAME"].informFormatString == "30L"
+        e.entries["FIRST.NAME"].informConversionString == null
+        e.orderedEntries.length == 2
+        e.orderedEntries[0].is(e.entries["FIRST.NAME"])
+        e.orderedEntries[1] == null
+        empty.entries == null
+        empty.orderedEntries == null
+        c.prcsAliasName == "Alias"
+        c.prcsInquiryOnly == "Y"
+        c.prcsVersion == 2
+        c.variables[0].varName == "VAR1"
+        c.variables[0].varIsBool == "Y"
+        c.variables[0].varConv == null
+        c.elements[0].elementName == "EL1"
+        c.elements[0].elementSize == "10"
+        c.associations[0].assocMembers == ["VAR1", "VAR2"] as String[]
+        c.associations[1].assocMembers == null
+        emptyCtx.variables == null
+        emptyCtx.elements == null
+        emptyCtx.associations == null
+    }
+
+    def "load - revalidate"() {
+        setup:
+        def store = new MetadataSnapshotStore(file)
+        entityService.putCachedEntry("CORE", "PERSON", entity)
+        ctxService.putCachedEntry("UT", "CTX", ctx)
+        store.save(entityService, ctxService)
+
+        def newEntityService = new EntityMetadataService(dmiCTXService)
+        def newCtxService = new CTXMetadataService(dmiCTXService)
+
+        when:
+        def loaded = store.load(newEntityService, newCtxService)
+        store.getRevalidation().get()
+
+        then:
+        loaded == 2
+        1 * dmiCTXService.executeRaw("UT", "GET.ENTITY.METADATA", _) >> ["TV.ENTITY.TYPE": "REFRESHED"]
+        1 * dmiCTXService.executeRaw("UT", "GET.CTX.DETAILS", _) >> null
+        newEntityService.get("CORE", "PERSON").entityType == "REFRESHED"
+        // refresh failed, snapshot entry is kept
+        newCtxService.get("UT", "CTX").prcsAliasName == "Alias"
+    }
+
+    def "save / load - no services"() {
+        setup:
+        def store = new MetadataSnapshotStore(file)
+        entityService.putCachedEntry("CORE", "PERSON", entity)
+
+        when:
+        store.save(null, null)
+
+        then:
+        store.load(entityService, ctxService) == 0
+
+        when:
+        store.save(entityService, ctxService)
+
+        then:
+        store.load(null, null) == 0
+    }
+
+    def "load - missing or invalid file"() {
+        setup:
+        def store = new MetadataSnapshotStore(file)
+
+        expect:
+        store.load(entityService, ctxService) == 0
+
+        when: "not gzipped"
+        file.toFile().text = "garbage"
+
+        then:
+        store.load(entityService, ctxService) == 0
+
+        when: "wrong magic number"
+        new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file))).withCloseable { it.writeInt(1234) }
+
+        then:
+        store.load(entityService, ctxService) == 0
+
+        when: "invalid string length"
+        new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file))).withCloseable {
+            it.writeInt(0x444D4953)
+            it.writeInt(1)
+            it.writeInt(1)
+            it.writeInt(Integer.MAX_VALUE)
+        }
+
+        then:
+        store.load(entityService, ctxService) == 0
+
+        when: "invalid counts are rejected before allocating"
+        def results = [Integer.MAX_VALUE, -2].collect { count ->
+            new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file))).withCloseable {
+                it.writeInt(0x444D4953)
+                it.writeInt(1)
+                it.writeInt(1)
+                it.writeInt(-1)
+                it.writeInt(-1)
+                it.writeInt(-1)
+                it.writeInt(count)
+            }
+            store.load(entityService, ctxService)
+        }
+
+        then:
+        results == [0, 0]
+
+        when: "truncated"
+        store.save(entityService, ctxService)
+        entityService.putCachedEntry("CORE", "PERSON", entity)
+        store.save(entityService, ctxService)
+        def bytes = new GZIPInputStream(Files.newInputStream(file)).bytes
+        new GZIPOutputStream(Files.newOutputStream(file)).withCloseable { it.write(bytes, 0, bytes.length - 10) }
+
+        then:
+        store.load(entityService, ctxService) == 0
+        store.getRevalidation().isDone()
+    }
+
+    def "constructor - null"() {
+        when: new MetadataSnapshotStore(null)
+        then: thrown NullPointerException
+    }
+}
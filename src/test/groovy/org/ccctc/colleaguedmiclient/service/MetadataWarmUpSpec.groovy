@@ -0,0 +1,193 @@
+package org.ccctc.colleaguedmiclient.service
+
+import org.ccctc.colleaguedmiclient.exception.DmiServiceException
+import org.ccctc.colleaguedmiclient.service.warmup.WarmUpJoinRecord
+import org.ccctc.colleaguedmiclient.service.warmup.WarmUpRecord
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+class MetadataWarmUpSpec extends Specification {
+
+    def dmiDataService = Mock(DmiDataService)
+    def dmiCTXService = Mock(DmiCTXService)
+    def entityMetadataService = Mock(EntityMetadataService)
+    def ctxMetadataService = Mock(CTXMetadataService)
+
+    def "warmUp - entities, joins and CTXs"() {
+        setup:
+        dmiDataService.getEntityMetadataService() >> entityMetadataService
+        dmiCTXService.getCtxMetadataService() >> ctxMetadataService
+        def dmiEntityService = new DmiEntityService(dmiDataService)
+        def warmUp = new MetadataWarmUp(dmiEntityService, dmiCTXService)
+                .entities(WarmUpRecord.class, WarmUpJoinRecord.class)
+                .view("ST", "ST.OTHER")
+                .ctx("ST", "GET.INFO")
+                .ctx("CORE", "GET.MORE.INFO")
+                .parallelism(2)
+
+        when:
+        def result = warmUp.warmUp()
+
+        then:
+        1 * entityMetadataService.get("ST", "appl.WARM.UP")
+        1 * entityMetadataService.get("CORE", "WARM.UP.CDD")
+        1 * entityMetadataService.get("ST", "appl.OTHER")
+        1 * ctxMetadataService.get("ST", "GET.INFO")
+        1 * ctxMetadataService.get("CORE", "GET.MORE.INFO")
+        0 * entityMetadataService._
+        0 * ctxMetadataService._
+        result.entityCount == 3
+        result.ctxCount == 2
+        result.classCount == 2
+        result.failures.isEmpty()
+        dmiEntityService.entityCache.size() == 2
+    }
+
+    def "warmUp - failures"() {
+        setup:
+        def warmUp = new MetadataWarmUp(entityMetadataService, ctxMetadataService)
+                .entities([WarmUpJoinRecord.class, String.class] as List<Class<?>>)
+                .ctx("ST", "GET.INFO")
+
+        when:
+        def result = warmUp.warmUp()
+
+        then:
+        1 * entityMetadataService.get("CORE", "WARM.UP.CDD") >> { throw new DmiServiceException("entity error") }
+        1 * ctxMetadataService.get("ST", "GET.INFO") >> { throw new DmiServiceException("ctx error") }
+        result.entityCount == 1
+        result.ctxCount == 1
+        result.classCount == 2
+        result.failures.size() == 3
+        result.failures["CORE*WARM.UP.CDD"].message == "entity error"
+        result.failures["ST*GET.INFO"].message == "ctx error"
+        result.failures["java.lang.String"] instanceof IllegalArgumentException
+    }
+
+    def "warmUp - invalid entity class"() {
+        setup:
+        dmiDataService.getEntityMetadataService() >> entityMetadataService
+        def dmiEntityService = Spy(DmiEntityService, constructorArgs: [dmiDataService])
+        dmiEntityService.prepareEntity(WarmUpRecord.class) >> { throw new DmiServiceException("bad class") }
+
+        when:
+        def result = new MetadataWarmUp(dmiEntityService, dmiCTXService).entities(WarmUpRecord.class).warmUp()
+
+        then:
+        1 * entityMetadataService.get("ST", "appl.WARM.UP")
+        result.classCount == 1
+        result.failures["org.ccctc.colleaguedmiclient.service.warmup.WarmUpRecord"].message == "bad class"
+    }
+
+    def "scanPackage - directory"() {
+        setup:
+        def warmUp = new MetadataWarmUp(entityMetadataService, ctxMetadataService)
+                .scanPackage("org.ccctc.colleaguedmiclient.service.warmup")
+
+        when:
+        def result = warmUp.warmUp()
+
+        then:
+        1 * entityMetadataService.get("ST", "appl.WARM.UP")
+        1 * entityMetadataService.get("CORE", "WARM.UP.CDD")
+        result.classCount == 2
+    }
+
+    def "scanPackage - jar"() {
+        setup:
+        Path jarFile = Files.createTempFile("warmup", ".jar")
+        Path classes = Paths.get(WarmUpRecord.class.protectionDomain.codeSource.location.toURI())
+        new JarOutputStream(Files.newOutputStream(jarFile)).withCloseable { jar ->
+            ["org/", "org/ccctc/", "org/ccctc/colleaguedmiclient/", "org/ccctc/colleaguedmiclient/service/",
+             "org/ccctc/colleaguedmiclient/service/warmup/"].each {
+                jar.putNextEntry(new JarEntry(it))
+                jar.closeEntry()
+            }
+            Files.list(classes.resolve("org/ccctc/colleaguedmiclient/service/warmup")).each { f ->
+                jar.putNextEntry(new JarEntry("org/ccctc/colleaguedmiclient/service/warmup/" + f.fileName))
+                jar.write(Files.readAllBytes(f))
+                jar.closeEntry()
+            }
+        }
+
+        // parent is null, so classes are only found in the jar
+        def classLoader = new URLClassLoader([jarFile.toUri().toURL()] as URL[], (ClassLoader) null)
+
+        when:
+        def warmUp = new MetadataWarmUp(entityMetadataService, ctxMetadataService)
+                .scanPackage("org.ccctc.colleaguedmiclient.service.warmup", classLoader)
+        def result = warmUp.warmUp()
+
+        then:
+        result.classCount == 0
+        result.entityCount == 0
+
+        when:
+        classLoader = new URLClassLoader([jarFile.toUri().toURL()] as URL[], getClass().classLoader)
+        result = new MetadataWarmUp(entityMetadataService, ctxMetadataService)
+                .scanPackage("org.ccctc.colleaguedmiclient.service.warmup", classLoader)
+                .warmUp()
+
+        then:
+        1 * entityMetadataService.get("ST", "appl.WARM.UP")
+        1 * entityMetadataService.get("CORE", "WARM.UP.CDD")
+        result.classCount == 2
+
+        cleanup:
+        classLoader?.close()
+        Files.deleteIfExists(jarFile)
+    }
+
+    def "scanPackage - error"() {
+        setup:
+        def classLoader = Mock(ClassLoader)
+        classLoader.getResources(_) >> { throw new IOException("boom") }
+
+        when:
+        new MetadataWarmUp(entityMetadataService, ctxMetadataService).scanPackage("some.pkg", classLoader)
+
+        then:
+        thrown UncheckedIOException
+    }
+
+    def "scanPackage - no context class loader"() {
+        setup:
+        def contextClassLoader = Thread.currentThread().contextClassLoader
+        Thread.currentThread().contextClassLoader = null
+
+        when:
+        def result = new MetadataWarmUp(entityMetadataService, ctxMetadataService)
+                .scanPackage("org.ccctc.colleaguedmiclient.service.warmup")
+                .warmUp()
+
+        then:
+        result.classCount == 2
+
+        cleanup:
+        Thread.currentThread().contextClassLoader = contextClassLoader
+    }
+
+    def "constructor - null arguments"() {
+        when: new MetadataWarmUp((DmiEntityService) null, dmiCTXService)
+        then: thrown NullPointerException
+        when: new MetadataWarmUp(Mock(DmiEntityService), null)
+        then: thrown NullPointerException
+        when: new MetadataWarmUp((EntityMetadataService) null, ctxMetadataService)
+        then: thrown NullPointerException
+        when: new MetadataWarmUp(entityMetadataService, null)
+        then: thrown NullPointerException
+    }
+
+    def "parallelism"() {
+        when:
+        new MetadataWarmUp(entityMetadataService, ctxMetadataService).parallelism(0)
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
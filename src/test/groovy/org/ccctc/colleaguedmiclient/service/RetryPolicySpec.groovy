@@ -0,0 +1,124 @@
+package org.ccctc.colleaguedmiclient.service
+
+import spock.lang.Specification
+
+import static org.ccctc.colleaguedmiclient.service.DmiFailure.Type.ERROR
+import static org.ccctc.colleaguedmiclient.service.DmiFailure.Type.IO
+import static org.ccctc.colleaguedmiclient.service.DmiFailure.Type.OTHER
+import static org.ccctc.colleaguedmiclient.service.DmiFailure.Type.SECURITY
+
+class RetryPolicySpec extends Specification {
+
+    def "ExponentialBackoffRetryPolicy - delay"() {
+        setup:
+        def policy = new ExponentialBackoffRetryPolicy()
+        policy.jitter = 0
+        policy.retryBudget = null
+
+        expect:
+        policy.retryDelayMillis(1, new DmiFailure(IO, [], "io", new IOException())) == 250
+        policy.retryDelayMillis(2, new DmiFailure(OTHER, [], "other", new Exception())) == 500
+        policy.retryDelayMillis(3, new DmiFailure(ERROR, ["CODE"], "error", null)) == 1000
+        policy.retryDelayMillis(10, new DmiFailure(ERROR, ["CODE"], "error", null)) == 10000
+        policy.retryDelayMillis(5, new DmiFailure(SECURITY, ["TOKEN"], "token", null)) == 0
+    }
+
+    def "ExponentialBackoffRetryPolicy - jitter"() {
+        setup:
+        def policy = new ExponentialBackoffRetryPolicy()
+        policy.baseDelayMillis = 1000
+        policy.jitter = 0.5
+
+        when:
+        def delays = (1..50).collect { policy.delay(1) }
+
+        then:
+        delays.every { it >= 500 && it <= 1000 }
+        delays.toSet().size() > 1
+    }
+
+    def "ExponentialBackoffRetryPolicy - classification"() {
+        setup:
+        def policy = new ExponentialBackoffRetryPolicy()
+        policy.retryableTypes = EnumSet.of(ERROR)
+        policy.nonRetryableErrorTypes = ["SET", "FATAL"] as Set
+
+        expect:
+        policy.retryDelayMillis(1, new DmiFailure(ERROR, ["SET"], "set", null)) == RetryPolicy.NO_RETRY
+        policy.retryDelayMillis(1, new DmiFailure(ERROR, ["CODE", "FATAL"], "fatal", null)) == RetryPolicy.NO_RETRY
+        policy.retryDelayMillis(1, new DmiFailure(IO, [], "io", new IOException())) == RetryPolicy.NO_RETRY
+        policy.retryDelayMillis(1, new DmiFailure(ERROR, ["CODE"], "code", null)) >= 0
+    }
+
+    def "ExponentialBackoffRetryPolicy - budget"() {
+        setup:
+        def policy = new ExponentialBackoffRetryPolicy()
+        policy.retryBudget = new RetryBudget(0.5, 1)
+        def failure = new DmiFailure(IO, [], "io", new IOException())
+
+        when:
+        def first = policy.retryDelayMillis(1, failure)
+        def second = policy.retryDelayMillis(1, failure)
+        policy.onRequest()
+        policy.onRequest()
+        def third = policy.retryDelayMillis(1, failure)
+
+        then:
+        first >= 0
+        second == RetryPolicy.NO_RETRY
+        third >= 0
+    }
+
+    def "RetryBudget"() {
+        setup:
+        def budget = new RetryBudget(0.1, 2)
+
+        when:
+        def r1 = budget.tryRetry()
+        def r2 = budget.tryRetry()
+        def r3 = budget.tryRetry()
+        (1..9).each { budget.onRequest() }
+        def r4 = budget.tryRetry()
+        budget.onRequest()
+        def r5 = budget.tryRetry()
+        (1..100).each { budget.onRequest() }
+
+        then:
+        r1 && r2 && !r3 && !r4 && r5
+        // capped at maxTokens
+        budget.available() == 2
+        budget.ratio == 0.1d
+        budget.maxTokens == 2
+    }
+
+    def "RetryBudget - invalid arguments"() {
+        when: new RetryBudget(-1, 1)
+        then: thrown IllegalArgumentException
+        when: new RetryBudget(0.1, -1)
+        then: thrown IllegalArgumentException
+    }
+
+    def "DmiFailure"() {
+        when:
+        def ex = new IOException("boom")
+        def failure = new DmiFailure(IO, [], "boom", ex)
+
+        then:
+        failure.type == IO
+        failure.errorTypes.isEmpty()
+        failure.message == "boom"
+        failure.exception.is(ex)
+        failure.toString().contains("IO")
+    }
+
+    def "RetryPolicy - default onRequest"() {
+        setup:
+        RetryPolicy policy = { int attempt, DmiFailure failure -> RetryPolicy.NO_RETRY } as RetryPolicy
+
+        when:
+        policy.onRequest()
+
+        then:
+        policy.retryDelayMillis(1, new DmiFailure(OTHER, [], null, null)) == RetryPolicy.NO_RETRY
+    }
+}
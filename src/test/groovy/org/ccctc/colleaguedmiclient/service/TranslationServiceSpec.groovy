@@ -0,0 +1,152 @@
+package org.ccctc.colleaguedmiclient.service
+
+import org.ccctc.colleaguedmiclient.model.ElfTranslateTable
+import org.ccctc.colleaguedmiclient.model.Valcode
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+
+class TranslationServiceSpec extends Specification {
+
+    def dmiDataService = Mock(DmiDataService)
+    def translationService = new TranslationService(dmiDataService)
+
+    def statuses = new Valcode("STATUSES", [
+            new Valcode.Entry("A", "Active", "1", null),
+            new Valcode.Entry("I", "Inactive", null, null),
+            new Valcode.Entry("A", "Duplicate", null, null),
+            new Valcode.Entry(null, "No code", null, null),
+            new Valcode.Entry("X", null, null, null)
+    ])
+
+    def grades = new ElfTranslateTable("GRADES", "Grades", [], "ORIG", "NEW", [
+            new ElfTranslateTable.Entry("A", "4", null, null),
+            new ElfTranslateTable.Entry("", "0", null, null),
+            new ElfTranslateTable.Entry("A", "5", null, null)
+    ])
+
+    def "preloadValcodes - lookups do not read from the DMI"() {
+        when:
+        translationService.preloadValcodes("ST", "STATUSES", "MISSING")
+
+        then:
+        1 * dmiDataService.valcodes("ST", ["STATUSES", "MISSING"]) >> [statuses]
+
+        when:
+        def lookup = translationService.valcode("ST", "STATUSES")
+
+        then:
+        0 * dmiDataService._
+        translationService.externalRepresentation("ST", "STATUSES", "A") == "Active"
+        translationService.externalRepresentation("ST", "STATUSES", "Z") == null
+        translationService.internalCode("ST", "STATUSES", "Inactive") == "I"
+        translationService.internalCode("ST", "STATUSES", "Duplicate") == "A"
+        translationService.valcode("ST", "MISSING").valcode.entries.isEmpty()
+        lookup.valcode.is(statuses)
+        lookup.entry("A").action1 == "1"
+        lookup.internalToExternal() == ["A": "Active", "I": "Inactive", "X": null]
+        lookup.externalToInternal() == ["Active": "A", "Inactive": "I", "Duplicate": "A"]
+    }
+
+    def "valcode - read once when not preloaded"() {
+        when:
+        def r1 = translationService.externalRepresentation("ST", "STATUSES", "I")
+        def r2 = translationService.externalRepresentation("ST", "STATUSES", "A")
+        def r3 = translationService.externalRepresentation("ST", "MISSING", "A")
+        def r4 = translationService.externalRepresentation("ST", "MISSING", "A")
+
+        then:
+        1 * dmiDataService.valcode("ST", "STATUSES") >> statuses
+        1 * dmiDataService.valcode("ST", "MISSING") >> null
+        r1 == "Inactive"
+        r2 == "Active"
+        r3 == null
+        r4 == null
+    }
+
+    def "preloadElfTranslationTables / elfTranslate"() {
+        when:
+        translationService.preloadElfTranslationTables("GRADES", "MISSING")
+        def lookup = translationService.elfTranslationTable("GRADES")
+
+        then:
+        1 * dmiDataService.elfTranslationTables(["GRADES", "MISSING"]) >> [grades]
+        0 * dmiDataService._
+        translationService.elfTranslate("GRADES", "A") == "4"
+        translationService.elfTranslate("GRADES", null) == "0"
+        translationService.elfTranslate("GRADES", "B") == null
+        translationService.elfTranslate("MISSING", "A") == null
+        lookup.table.is(grades)
+        lookup.entry(null).newCode == "0"
+        lookup.entry("A").newCode == "4"
+        lookup.originalToNew() == ["A": "4", "": "0"]
+    }
+
+    def "elfTranslationTable - read once when not preloaded"() {
+        when:
+        def r1 = translationService.elfTranslate("GRADES", "A")
+        def r2 = translationService.elfTranslate("GRADES", "A")
+        def r3 = translationService.elfTranslate("MISSING", "A")
+
+        then:
+        1 * dmiDataService.elfTranslationTable("GRADES") >> grades
+        1 * dmiDataService.elfTranslationTable("MISSING") >> null
+        r1 == "4"
+        r2 == "4"
+        r3 == null
+    }
+
+    def "preload - nothing returned"() {
+        when:
+        translationService.preloadValcodes("ST", ["V1"])
+        translationService.preloadElfTranslationTables(["E1"])
+
+        then:
+        1 * dmiDataService.valcodes("ST", ["V1"]) >> null
+        1 * dmiDataService.elfTranslationTables(["E1"]) >> null
+        translationService.valcode("ST", "V1").valcode.entries.isEmpty()
+        translationService.elfTranslationTable("E1").table.translations.isEmpty()
+    }
+
+    def "expired entries are refreshed"() {
+        setup:
+        translationService.setCacheExpirationSeconds(0)
+        translationService.setCacheStaleWhileRevalidateSeconds(0)
+
+        when:
+        translationService.externalRepresentation("ST", "STATUSES", "A")
+        translationService.externalRepresentation("ST", "STATUSES", "A")
+
+        then:
+        2 * dmiDataService.valcode("ST", "STATUSES") >> statuses
+    }
+
+    def "clearCache / settings"() {
+        setup:
+        translationService.preloadValcodes("ST", "STATUSES")
+
+        when:
+        translationService.clearCache()
+        translationService.valcode("ST", "STATUSES")
+
+        then:
+        1 * dmiDataService.valcode("ST", "STATUSES") >> statuses
+        translationService.cacheExpirationSeconds == 3600
+        translationService.cacheStaleWhileRevalidateSeconds == 3600
+
+        when:
+        def executor = Mock(Executor)
+        translationService.setCacheRefreshExecutor(executor)
+
+        then:
+        translationService.cacheRefreshExecutor == executor
+
+        when: translationService.setCacheRefreshExecutor(null)
+        then: thrown NullPointerException
+    }
+
+    def "constructor - null argument"() {
+        when: new TranslationService(null)
+        then: thrown NullPointerException
+    }
+}
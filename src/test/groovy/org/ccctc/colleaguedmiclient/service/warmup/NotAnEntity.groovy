@@ -0,0 +1,8 @@
+package org.ccctc.colleaguedmiclient.service.warmup
+
+import groovy.transform.CompileStatic
+
+@CompileStatic
+class NotAnEntity {
+    String value
+}
@@ -0,0 +1,12 @@
+package org.ccctc.colleaguedmiclient.service.warmup
+
+import groovy.transform.CompileStatic
+import org.ccctc.colleaguedmiclient.annotation.Entity
+import org.ccctc.colleaguedmiclient.annotation.Field
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord
+
+@CompileStatic
+@Entity(appl = "CORE", name = "WARM.UP.JOIN", cddName = "WARM.UP.CDD")
+class WarmUpJoinRecord extends ColleagueRecord {
+    @Field("VALUE") String value
+}
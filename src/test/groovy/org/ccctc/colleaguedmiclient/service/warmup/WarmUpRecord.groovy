@@ -0,0 +1,15 @@
+package org.ccctc.colleaguedmiclient.service.warmup
+
+import groovy.transform.CompileStatic
+import org.ccctc.colleaguedmiclient.annotation.Entity
+import org.ccctc.colleaguedmiclient.annotation.Field
+import org.ccctc.colleaguedmiclient.annotation.Join
+import org.ccctc.colleaguedmiclient.model.ColleagueRecord
+
+@CompileStatic
+@Entity(appl = "ST", name = "ST.WARM.UP")
+class WarmUpRecord extends ColleagueRecord {
+    @Field("VALUE") String value
+    @Join WarmUpJoinRecord joinRecord
+    @Join List<WarmUpJoinRecord> joinRecords
+}
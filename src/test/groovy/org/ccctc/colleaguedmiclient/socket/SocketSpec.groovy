@@ -3,6 +3,9 @@ package org.ccctc.colleaguedmiclient.socket
 import groovyx.gpars.GParsPool
 import spock.lang.Specification
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
 class SocketSpec extends Specification {
 
     static String goodResponse
@@ -59,7 +62,7 @@ class SocketSpec extends Specification {
         f.getSocket(false)
 
         then:
-        def i = thrown SocketException
+        def i = thrown PoolTimeoutException
         i.getMessage().contains("Timeout")
 
         cleanup:
@@ -142,6 +145,7 @@ class SocketSpec extends Specification {
         then:
         ex != null
         ex.getMessage().contains("interrupted")
+        ex.cause instanceof InterruptedException
 
         cleanup:
         f.close()
@@ -374,10 +378,12 @@ class SocketSpec extends Specification {
         // m2 - available and released back into pool
         1 * m2.isExpired() >> false
         1 * m2.isClosed() >> false
+        1 * m2.setSoTimeout(f.socketReadTimeoutMs)
 
         // m3 - recycled
         1 * m3.isExpired() >> false
         1 * m3.isClosed() >> false
+        1 * m3.setSoTimeout(f.socketReadTimeoutMs)
         1 * m3.close() >> { throw new IOException("whoopsies") }
 
         _ * _.equals(*_)
@@ -388,4 +394,245 @@ class SocketSpec extends Specification {
 
 
     }
-}
\ No newline at end of file
+
+    def "time limit"() {
+        setup:
+        def f = new PoolingSocketFactory(testHost, testPort, 1, false, null)
+
+        // the time limit caps the read timeout of the socket, until it is taken from the pool without one
+        when:
+        def s = f.getSocket(false, Priority.DEFAULT, 1000)
+        def limited = s.@socket.soTimeout
+        f.release(s)
+        def s2 = f.getSocket(false)
+
+        then:
+        s2 == s
+        limited > 0
+        limited <= 1000
+        s.@socket.soTimeout == f.socketReadTimeoutMs
+
+        // no time left
+        when:
+        f.release(s2)
+        f.getSocket(false, Priority.DEFAULT, 0)
+
+        then:
+        def e = thrown SocketException
+        e.message.contains("Time limit")
+
+        // the time limit caps the wait for an available socket
+        when:
+        f.getSocket(false)
+        def start = System.nanoTime()
+        f.getSocket(false, Priority.DEFAULT, 20)
+
+        then:
+        def e2 = thrown PoolTimeoutException
+        e2.message.contains("Timeout")
+        System.nanoTime() - start < 5_000_000_000
+
+        cleanup:
+        f.close()
+    }
+
+    def "time limit on reads"() {
+        setup:
+        def f = new PoolingSocketFactory(testHost, testPort, 1, false, null)
+        def s = f.getSocket(false)
+        def server = serverSocket.accept()
+        server.outputStream.write([1, 2] as byte[])
+        server.outputStream.flush()
+        long remaining = 50
+
+        // each read is bounded by the time remaining rather than the read timeout
+        when:
+        def is = s.getInputStream({ remaining } as java.util.function.LongSupplier)
+        def first = is.read()
+        def second = is.read(new byte[1], 0, 1)
+
+        then:
+        first == 1
+        second == 1
+        s.@socket.soTimeout == 50
+
+        when:
+        remaining = 20
+        is.read()
+
+        then:
+        thrown SocketTimeoutException
+        s.@socket.soTimeout == 20
+
+        // no time remaining - fails without waiting on the socket
+        when:
+        remaining = 0
+        is.read()
+
+        then:
+        def e = thrown SocketTimeoutException
+        e.message.contains("Time limit")
+
+        // the read timeout is reset when the socket is next taken from the pool
+        when:
+        f.release(s)
+        f.getSocket(false)
+
+        then:
+        s.@socket.soTimeout == f.socketReadTimeoutMs
+
+        cleanup:
+        server.close()
+        f.close()
+    }
+
+    def "max waiters"() {
+        setup:
+        def f = new PoolingSocketFactory(testHost, testPort, 1, false, null)
+        f.setMaxWaiters(1)
+        def waiter = new CompletableFuture()
+
+        when:
+        def s = f.getSocket(false)
+        Thread.start { waiter.complete(f.getSocket(false)) }
+        while (f.getWaiting(Priority.DEFAULT) == 0) sleep(5)
+        f.getSocket(false, Priority.INTERACTIVE)
+
+        then:
+        def e = thrown PoolOverloadException
+        e.message.contains("1 requests already waiting")
+        f.getRejected(Priority.INTERACTIVE) == 1
+        f.getRejected() == 1
+        f.maxWaiters == 1
+
+        // the waiting request is not affected
+        when:
+        f.release(s)
+
+        then:
+        waiter.get(5, TimeUnit.SECONDS) == s
+
+        cleanup:
+        f.close()
+    }
+
+    def "max queue wait"() {
+        setup:
+        def f = new PoolingSocketFactory(testHost, testPort, 1, false, null)
+        f.setMaxQueueWaitMs(20)
+
+        // a request waits no longer than the maximum queue wait
+        when:
+        def s = f.getSocket(false)
+        f.getSocket(false)
+
+        then:
+        def e = thrown PoolOverloadException
+        e.message.contains("waited 20 ms")
+
+        // further requests that would wait are rejected immediately
+        when:
+        def start = System.nanoTime()
+        f.getSocket(false, Priority.BULK)
+
+        then:
+        def e2 = thrown PoolOverloadException
+        e2.message.contains("waiting over 20 ms")
+        System.nanoTime() - start < 20_000_000
+        f.getRejected(Priority.DEFAULT) == 1
+        f.getRejected(Priority.BULK) == 1
+        f.maxQueueWaitMs == 20
+
+        // until a request gets a socket in time
+        when:
+        f.release(s)
+        def s2 = f.getSocket(false)
+        Thread.start { sleep(5); f.release(s2) }
+        def s3 = f.getSocket(false)
+
+        then:
+        s3 == s
+
+        // the pool timeout applies if it is shorter
+        when:
+        f.setPoolTimeoutMs(5)
+        f.getSocket(false)
+
+        then:
+        def e3 = thrown SocketException
+        !(e3 instanceof PoolOverloadException)
+
+        cleanup:
+        f.close()
+    }
+
+    def "priority lanes"() {
+        setup:
+        def f = new PoolingSocketFactory(testHost, testPort, 2, false, null)
+        f.setReservedSockets(1)
+
+        // bulk requests cannot use the reserved socket
+        when:
+        def s1 = f.getSocket(false, Priority.DEFAULT)
+        f.setPoolTimeoutMs(5)
+        f.getSocket(false, Priority.BULK)
+
+        then:
+        def e = thrown SocketException
+        e.message.contains("Timeout")
+        f.getWaiting(Priority.BULK) == 0
+        f.getAcquired(Priority.BULK) == 0
+
+        // with bulk and interactive requests waiting, a released socket goes to the interactive request
+        when:
+        f.setPoolTimeoutMs(10000)
+        def s2 = f.getSocket(false)
+        def bulk = new CompletableFuture()
+        def interactive = new CompletableFuture()
+        Thread.start { bulk.complete(f.getSocket(false, Priority.BULK)) }
+        while (f.getWaiting(Priority.BULK) == 0) sleep(5)
+        Thread.start { interactive.complete(f.getSocket(false, Priority.INTERACTIVE)) }
+        while (f.getWaiting(Priority.INTERACTIVE) == 0) sleep(5)
+        sleep(20)
+        f.release(s1)
+        def s3 = interactive.get(5, TimeUnit.SECONDS)
+
+        then:
+        s3 == s1
+        !bulk.isDone()
+        f.getWaiting(Priority.BULK) == 1
+        f.getWaiting(Priority.INTERACTIVE) == 0
+
+        // bulk only gets a socket once one is left over after the reserve
+        when:
+        f.release(s2)
+        sleep(20)
+
+        then:
+        !bulk.isDone()
+
+        when:
+        f.release(s3)
+        def s4 = bulk.get(5, TimeUnit.SECONDS)
+
+        then:
+        s4 != null
+        f.used == 1
+        f.getAcquired(Priority.INTERACTIVE) == 1
+        f.getAcquired(Priority.DEFAULT) == 2
+        f.getAcquired(Priority.BULK) == 1
+        f.getWaitTimeMs(Priority.BULK) >= 40
+        f.getWaitTimeMs(Priority.INTERACTIVE) >= 20
+        f.reservedSockets == 1
+        new PoolingSocketFactory(testHost, testPort, 10, false, null).reservedSockets == 2
+
+        when:
+        f.getSocket(false, null)
+
+        then:
+        thrown NullPointerException
+
+        cleanup:
+        f.close()
+    }
+}
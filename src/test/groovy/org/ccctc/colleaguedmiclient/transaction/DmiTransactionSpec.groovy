@@ -2,6 +2,7 @@ package org.ccctc.colleaguedmiclient.transaction
 
 import org.ccctc.colleaguedmiclient.exception.DmiTransactionException
 import org.ccctc.colleaguedmiclient.model.DmiSubTransaction
+import org.ccctc.colleaguedmiclient.util.StringDictionary
 import org.ccctc.colleaguedmiclient.util.StringUtils
 import spock.lang.Specification
 
@@ -20,6 +21,8 @@ class DmiTransactionSpec extends Specification {
         then: thrown NullPointerException
         when: new DmiTransaction("account", "type", null, null, null)
         then: thrown NullPointerException
+        when: new DmiTransaction().setPriority(null)
+        then: thrown NullPointerException
     }
 
     def "setter / toString"() {
@@ -154,6 +157,22 @@ class DmiTransactionSpec extends Specification {
         e.getMessage().contains("end not found")
     }
 
+    def "fromResponse - dictionary"() {
+        setup:
+        def body = ["CODE", "LONG VALUE OVER 16 BYTES", "CODE", "LONG VALUE OVER 16 BYTES"].join(StringUtils.FM.toString())
+        def response = "#" + (body.size() + 5) + "#" + body + "#END#"
+        def dictionary = new StringDictionary(10, 16)
+
+        when:
+        def t = DmiTransaction.fromResponse(new DataInputStream(new ByteArrayInputStream(response.getBytes("windows-1252"))), dictionary)
+
+        then:
+        t.rawResponse.subList(0, 4) == ["CODE", "LONG VALUE OVER 16 BYTES", "CODE", "LONG VALUE OVER 16 BYTES"]
+        t.rawResponse[0].is(t.rawResponse[2])
+        !t.rawResponse[1].is(t.rawResponse[3])
+        dictionary.hits == 1
+    }
+
     def "readFromStream - response exactly the size of one chunk"() {
         setup:
         def body = ("a" * 998) + (StringUtils.FM.toString() * 15)
@@ -27,5 +27,6 @@ class SingleKeyRequestSpec extends Specification {
         then:
         a.subTransactions[0].commands[2] == "SINGLEKEY"
         b.subTransactions[0].commands[2] == "SINGLEKEY"
+        a.idempotent
     }
 }
@@ -0,0 +1,128 @@
+package org.ccctc.colleaguedmiclient.util
+
+import org.ccctc.colleaguedmiclient.exception.FieldOverflowException
+import org.ccctc.colleaguedmiclient.model.CddEntry
+import org.ccctc.colleaguedmiclient.model.MultiValue
+import spock.lang.Specification
+
+import java.time.LocalDate
+import java.time.LocalTime
+
+import static org.ccctc.colleaguedmiclient.util.StringUtils.VM
+
+class CddConverterSpec extends Specification {
+
+    def "getConverter - cached on entry"() {
+        setup:
+        def entry = CddEntry.builder().informConversionString("MD0").build()
+
+        when:
+        def c1 = entry.getConverter()
+        def c2 = entry.getConverter()
+
+        then:
+        c1.is(c2)
+        c1.cddEntryType.type == Integer
+        c1.cddEntryType.cddEntry.is(entry)
+    }
+
+    def "convertToValue - single-valued"() {
+        setup:
+        def converter = CddConverter.forEntry(CddEntry.builder()
+                .informConversionString(conversion)
+                .maximumStorageSize(size)
+                .build())
+
+        expect:
+        converter.convertToValue(value) == result
+        converter.convertToValue(null) == null
+
+        where:
+        conversion | size | value    || result
+        null       | null | "abc"    || "abc"
+        null       | null | ""       || null
+        "MD0"      | 5    | "123"    || 123
+        "MD0"      | 10   | "123"    || 123L
+        "MD2"      | null | "12345"  || new BigDecimal("123.45")
+        "MD25"     | null | "-12345" || new BigDecimal("-0.12345")
+        "D4/"      | null | "0"      || LocalDate.of(1967, 12, 31)
+        "MTH"      | null | "3600"   || LocalTime.of(1, 0)
+        "MD0"      | 5    | "-0042"  || -42
+        "MD0"      | 5    | "3000000000" || null
+        "MD0"      | 5    | "0000000000000000042" || 42
+        "MD0"      | 10   | "1234567890123456789" || 1234567890123456789L
+        "MD2"      | null | "12345678901234567890" || new BigDecimal("123456789012345678.90")
+        "MD0"      | 5    | "abc"    || null
+        "MD2"      | null | "1.2"    || null
+    }
+
+    def "convertToValue - multi-valued"() {
+        setup:
+        def strings = CddConverter.forEntry(CddEntry.builder().databaseUsageType("L").build())
+        def ints = CddConverter.forEntry(CddEntry.builder().databaseUsageType("A").informConversionString("MD0").build())
+
+        when:
+        def s = strings.convertToValue("A" + VM + VM + "C")
+        def i = ints.convertToValue("1" + VM + "X" + VM + "3")
+
+        then:
+        s instanceof String[]
+        s == ["A", null, "C"] as String[]
+        i instanceof Integer[]
+        i == [1, null, 3] as Integer[]
+        ints.convertFromValue(5, true) == "5"
+        ints.convertFromValue(null, true) == ""
+    }
+
+    def "convertToLazyValue"() {
+        setup:
+        def ints = CddConverter.forEntry(CddEntry.builder().databaseUsageType("A").informConversionString("MD0").build())
+        def single = CddConverter.forEntry(CddEntry.builder().informConversionString("MD0").build())
+
+        when:
+        def i = ints.convertToLazyValue("1" + VM + "X" + VM + "3")
+
+        then:
+        i instanceof MultiValue
+        i.type == Integer
+        i.first() == 1
+        i.toArray() == [1, null, 3] as Integer[]
+        ints.convertToLazyValue(null) == null
+        single.convertToLazyValue("42") == 42
+    }
+
+    def "convertFromValue - same as CddUtils"() {
+        setup:
+        def entry = CddEntry.builder().informConversionString(conversion).maximumStorageSize(4).build()
+
+        expect:
+        CddConverter.forEntry(entry).convertFromValue(value, true) == CddUtils.convertFromValue(value, entry, true)
+
+        where:
+        conversion | value
+        null       | "abc"
+        null       | true
+        "MD2"      | 1.5
+        "MD0"      | 12L
+        "D4/"      | LocalDate.of(2000, 1, 1)
+        "MTH"      | LocalTime.of(1, 0)
+    }
+
+    def "convertFromValue - overflow"() {
+        setup:
+        def converter = CddConverter.forEntry(CddEntry.builder().name("FIELD").maximumStorageSize(2).build())
+
+        when:
+        converter.convertFromValue("abc", true)
+
+        then:
+        def e = thrown FieldOverflowException
+        e.message == "Maximum size exceeded for text field FIELD"
+
+        when:
+        def result = converter.convertFromValue("abc", false)
+
+        then:
+        result == "abc"
+    }
+}
@@ -0,0 +1,53 @@
+package org.ccctc.colleaguedmiclient.util
+
+import spock.lang.Specification
+
+class StringDictionarySpec extends Specification {
+
+    def "decode - shares instances of short values"() {
+        setup:
+        def dictionary = new StringDictionary(2, 4)
+
+        when:
+        def a1 = dictionary.decode("UG".getBytes("windows-1252"))
+        def a2 = dictionary.decode("UG".getBytes("windows-1252"))
+        def b1 = dictionary.decode("2018FA".getBytes("windows-1252"))
+        def b2 = dictionary.decode("2018FA".getBytes("windows-1252"))
+        def c1 = dictionary.decode("GR".getBytes("windows-1252"))
+        def d1 = dictionary.decode(("A" + StringUtils.VM + "B").getBytes("windows-1252"))
+
+        then:
+        a1 == "UG"
+        a1.is(a2)
+        b1 == "2018FA"
+        !b1.is(b2)
+        c1 == "GR"
+        d1 == "A" + StringUtils.VM + "B"
+        dictionary.decode(new byte[0]) == null
+        dictionary.size() == 2
+        dictionary.hits == 1
+        dictionary.misses == 3
+    }
+
+    def "decode - full dictionary"() {
+        setup:
+        def dictionary = new StringDictionary(1, 4)
+        dictionary.decode("A".bytes)
+
+        when:
+        def b1 = dictionary.decode("B".bytes)
+        def b2 = dictionary.decode("B".bytes)
+
+        then:
+        b1 == "B"
+        !b1.is(b2)
+        dictionary.size() == 1
+    }
+
+    def "constructor - invalid arguments"() {
+        when: new StringDictionary(0, 1)
+        then: thrown IllegalArgumentException
+        when: new StringDictionary(1, 0)
+        then: thrown IllegalArgumentException
+    }
+}
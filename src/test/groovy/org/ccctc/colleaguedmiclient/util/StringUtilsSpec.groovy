@@ -24,6 +24,36 @@ class StringUtilsSpec extends Specification{
         error == null
     }
 
+    def "dateFromString - long values and cache"() {
+        setup:
+        def today = dateToString(java.time.LocalDate.now())
+
+        expect:
+        dateFromString("0000000000000000012") == BASE_DATE.plusDays(12)
+        dateFromString("+12") == BASE_DATE.plusDays(12)
+        dateFromString(today).is(dateFromString(today))
+        dateFromDayNumber(-100000) == BASE_DATE.minusDays(100000)
+        dateFromDayNumber(100000) == BASE_DATE.plusDays(100000)
+    }
+
+    def "parseDigits"() {
+        expect:
+        parseDigits(value, 0, value.length()) == result
+
+        where:
+        value                 || result
+        "0"                   || 0
+        "123"                 || 123
+        "-123"                || -123
+        "+123"                || 123
+        "999999999999999999"  || 999999999999999999L
+        "1000000000000000000" || NOT_PARSED
+        ""                    || NOT_PARSED
+        "-"                   || NOT_PARSED
+        "12a"                 || NOT_PARSED
+        "1.5"                 || NOT_PARSED
+    }
+
     def "dateToString"() {
         when:
         def nil = dateToString(null)
@@ -43,9 +73,11 @@ class StringUtilsSpec extends Specification{
         def plusTime = timeFromString("10")
         def lotsOfTime = timeFromString("86401") // over one day wraps around
         def error = timeFromString("not-a-number")
+        def longTime = timeFromString("0000000000000000010")
 
         then:
         nil == null
+        longTime == plusTime
         minusTime == plusTime
         plusTime.toSecondOfDay() == 10
         lotsOfTime.toSecondOfDay() == 1
@@ -79,6 +111,18 @@ class StringUtilsSpec extends Specification{
         split3 == ["a", "b"]
         split4 == ["a", "bc"]
         split5 == ["a", "bc", "def"]
+        split("", "+" as char) == [""]
+        split("+", "+" as char) == [""]
+        split("a++", "+" as char) == ["a", ""]
+        split("+a", "+" as char) == ["", "a"]
+    }
+
+    def "splitOffsets"() {
+        expect:
+        splitOffsets("a+bc+def", "+" as char) == [0, 2, 5, 9] as int[]
+        splitOffsets("a+bc+", "+" as char) == [0, 2, 5] as int[]
+        splitOffsets("", "+" as char) == [0, 1] as int[]
+        splitOffsets("+", "+" as char) == [0, 1] as int[]
     }
 
     def "computeHash"() {